@@ -0,0 +1,74 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * {@link ConnectionManagementBenchmark}などのベンチマークをスレッド数を変えながら実行します．
+ * <p>
+ * スループットに加えて，{@link GCProfiler}によりアロケーションレート (<code>gc.alloc.rate.norm</code>)
+ * を出力します． スレッド数ごとの結果は<code>target/jmh-threads-&lt;スレッド数&gt;.json</code>に出力されるので，
+ * 変更前後の比較に使用することができます．
+ * </p>
+ * <p>
+ * 使い方は次の通りです．
+ * </p>
+ * 
+ * <pre>
+ * mvn package
+ * java -jar target/benchmarks.jar [スレッド数,...] [ベンチマーク名の正規表現]
+ * </pre>
+ * <p>
+ * スレッド数の既定値は<code>1,4,16</code>，ベンチマーク名の既定値は<code>ConnectionManagementBenchmark</code>です．
+ * {@link WorkManagerBenchmark}を実行するにはベンチマーク名に<code>WorkManagerBenchmark</code>を指定してください． JMHの全てのオプションを使用する場合は
+ * <code>java -cp target/benchmarks.jar org.openjdk.jmh.Main -prof gc</code>を実行してください．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class BenchmarkRunner {
+
+    // constants
+    /** スレッド数の既定値 */
+    protected static final String DEFAULT_THREADS = "1,4,16";
+
+    /**
+     * ベンチマークを実行します．
+     * 
+     * @param args
+     *            コマンドライン引数
+     * @throws Exception
+     *             ベンチマークの実行中に例外が発生した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        final String threads = args.length > 0 ? args[0] : DEFAULT_THREADS;
+        final String include = args.length > 1 ? args[1] : ConnectionManagementBenchmark.class
+                .getSimpleName();
+        for (final String thread : threads.split(",")) {
+            final int numThreads = Integer.parseInt(thread.trim());
+            final ChainedOptionsBuilder options = new OptionsBuilder().include(include).threads(
+                    numThreads).addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-threads-" + numThreads + ".json");
+            new Runner(options.build()).run();
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.TransactionManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seasar.extension.jta.TransactionManagerImpl;
+import org.seasar.jca.benchmark.FakeManagedConnection.FakeConnection;
+import org.seasar.jca.lifecycle.BootstrapContextImpl;
+import org.seasar.jca.outbound.ConnectionManagerImpl;
+import org.seasar.jca.outbound.policy.BasicPoolingPolicy;
+import org.seasar.jca.outbound.policy.ConcurrentPoolingPolicy;
+import org.seasar.jca.outbound.policy.LocalTransactionBoundedPoolingPolicy;
+import org.seasar.jca.outbound.policy.ThreadBoundedPoolingPolicy;
+import org.seasar.jca.outbound.policy.XATransactionBoundedPoolingPolicy;
+import org.seasar.jca.work.WorkManagerImpl;
+
+/**
+ * {@link ConnectionManagerImpl#allocateConnection(javax.resource.spi.ManagedConnectionFactory, javax.resource.spi.ConnectionRequestInfo)}
+ * からコネクション管理ポリシーのチェインを経て
+ * {@link org.seasar.jca.outbound.support.ManagedConnectionPool}に至る経路のベンチマークです．
+ * <p>
+ * <code>chain</code>パラメータでポリシーのチェインを選択します．
+ * </p>
+ * <dl>
+ * <dt><code>basic</code></dt>
+ * <dd>{@link BasicPoolingPolicy}のみ．</dd>
+ * <dt><code>concurrent</code></dt>
+ * <dd>{@link ConcurrentPoolingPolicy}のみ．</dd>
+ * <dt><code>localTx</code></dt>
+ * <dd>{@link BasicPoolingPolicy}と{@link LocalTransactionBoundedPoolingPolicy}．
+ * 一回の操作ごとにトランザクションを開始・コミットします．</dd>
+ * <dt><code>xaTx</code></dt>
+ * <dd>{@link BasicPoolingPolicy}と{@link XATransactionBoundedPoolingPolicy}．
+ * 一回の操作ごとにトランザクションを開始・コミットします．</dd>
+ * <dt><code>threadBounded</code></dt>
+ * <dd>{@link BasicPoolingPolicy}と{@link ThreadBoundedPoolingPolicy}．
+ * 一回の操作ごとに{@link ThreadBoundedPoolingPolicy#before()}と
+ * {@link ThreadBoundedPoolingPolicy#after(int)}を呼び出します．</dd>
+ * </dl>
+ * <p>
+ * <code>maxPoolSize</code>パラメータはプールの最大サイズです．
+ * 計測中に物理コネクションの作成と破棄が繰り返されないよう，<code>minPoolSize</code>にも同じ値を設定します．
+ * スレッド数は{@link BenchmarkRunner}またはJMHの<code>-t</code>オプションで指定します．
+ * </p>
+ * 
+ * @author koichik
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionManagementBenchmark {
+
+    // instance fields
+    /** コネクション管理ポリシーのチェイン */
+    @Param( { "basic", "concurrent", "localTx", "xaTx", "threadBounded" })
+    public String chain;
+
+    /** プールの最大サイズ */
+    @Param( { "8", "64" })
+    public int maxPoolSize;
+
+    protected BootstrapContextImpl bc;
+
+    protected FakeManagedConnectionFactory mcf;
+
+    protected ConnectionManagerImpl cm;
+
+    protected TransactionManager tm;
+
+    protected ThreadBoundedPoolingPolicy threadBoundedPolicy;
+
+    /**
+     * <code>chain</code>パラメータに従ってコネクションマネージャを構築します．
+     * 
+     * @throws Exception
+     *             コネクションマネージャの構築中に例外が発生した場合
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        bc = new BootstrapContextImpl(1);
+        mcf = new FakeManagedConnectionFactory();
+        cm = new ConnectionManagerImpl(mcf);
+
+        final BasicPoolingPolicy pooling = "concurrent".equals(chain) ? new ConcurrentPoolingPolicy(
+                bc)
+                : new BasicPoolingPolicy(bc);
+        pooling.setMaxPoolSize(maxPoolSize);
+        pooling.setMinPoolSize(maxPoolSize);
+        cm.addConnectionManagementPolicy(pooling);
+
+        if ("localTx".equals(chain)) {
+            tm = new TransactionManagerImpl();
+            cm.addConnectionManagementPolicy(new LocalTransactionBoundedPoolingPolicy(tm));
+        } else if ("xaTx".equals(chain)) {
+            tm = new TransactionManagerImpl();
+            cm.addConnectionManagementPolicy(new XATransactionBoundedPoolingPolicy(tm));
+        } else if ("threadBounded".equals(chain)) {
+            threadBoundedPolicy = new ThreadBoundedPoolingPolicy();
+            cm.addConnectionManagementPolicy(threadBoundedPolicy);
+        } else if (!"basic".equals(chain) && !"concurrent".equals(chain)) {
+            throw new IllegalArgumentException(chain);
+        }
+    }
+
+    /**
+     * コネクションマネージャを破棄します．
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cm.dispose();
+        WorkManagerImpl.class.cast(bc.getWorkManager()).stop();
+    }
+
+    /**
+     * 作業単位 (トランザクションまたは{@link ThreadBoundedPoolingPolicy}の境界) の中で
+     * コネクションを一つ取得してクローズします．
+     * 
+     * @return 取得した論理コネクションハンドル
+     * @throws Exception
+     *             コネクションの取得中に例外が発生した場合
+     */
+    @Benchmark
+    public Object allocateAndClose() throws Exception {
+        return runInUnitOfWork(1);
+    }
+
+    /**
+     * 一つの作業単位の中でコネクションの取得とクローズを二回繰り返します．
+     * <p>
+     * トランザクションやスレッドに関連づけられたコネクションが再利用される経路を計測します．
+     * </p>
+     * 
+     * @return 最後に取得した論理コネクションハンドル
+     * @throws Exception
+     *             コネクションの取得中に例外が発生した場合
+     */
+    @Benchmark
+    public Object allocateTwiceInUnitOfWork() throws Exception {
+        return runInUnitOfWork(2);
+    }
+
+    /**
+     * 作業単位の中でコネクションの取得とクローズを指定の回数繰り返します．
+     * 
+     * @param count
+     *            コネクションを取得する回数
+     * @return 最後に取得した論理コネクションハンドル
+     * @throws Exception
+     *             コネクションの取得中に例外が発生した場合
+     */
+    protected Object runInUnitOfWork(final int count) throws Exception {
+        if (tm != null) {
+            tm.begin();
+            try {
+                return allocateAndClose(count);
+            } finally {
+                tm.commit();
+            }
+        }
+        if (threadBoundedPolicy != null) {
+            final int before = threadBoundedPolicy.before();
+            try {
+                return allocateAndClose(count);
+            } finally {
+                threadBoundedPolicy.after(before);
+            }
+        }
+        return allocateAndClose(count);
+    }
+
+    /**
+     * コネクションの取得とクローズを指定の回数繰り返します．
+     * 
+     * @param count
+     *            コネクションを取得する回数
+     * @return 最後に取得した論理コネクションハンドル
+     * @throws Exception
+     *             コネクションの取得中に例外が発生した場合
+     */
+    protected Object allocateAndClose(final int count) throws Exception {
+        Object lch = null;
+        for (int i = 0; i < count; ++i) {
+            lch = cm.allocateConnection(mcf, null);
+            FakeConnection.class.cast(lch).close();
+        }
+        return lch;
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.benchmark;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ManagedConnectionMetaData;
+import javax.security.auth.Subject;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * ベンチマーク用のインメモリな{@link ManagedConnection}です．
+ * <p>
+ * 論理コネクションハンドル ({@link FakeConnection}) がクローズされると，
+ * 登録されているリスナに{@link ConnectionEvent#CONNECTION_CLOSED}を通知します．
+ * ローカルトランザクションおよびXAリソースは何もしません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class FakeManagedConnection implements ManagedConnection {
+
+    // instance fields
+    protected final ManagedConnectionFactory mcf;
+
+    protected final CopyOnWriteArrayList<ConnectionEventListener> listeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+
+    protected final LocalTransaction localTx = new FakeLocalTransaction();
+
+    protected final XAResource xaResource = new FakeXAResource();
+
+    protected PrintWriter logWriter;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param mcf
+     *            このコネクションを作成したマネージドコネクションファクトリ
+     */
+    public FakeManagedConnection(final ManagedConnectionFactory mcf) {
+        this.mcf = mcf;
+    }
+
+    /**
+     * このコネクションを作成したマネージドコネクションファクトリを返します．
+     * 
+     * @return このコネクションを作成したマネージドコネクションファクトリ
+     */
+    public ManagedConnectionFactory getManagedConnectionFactory() {
+        return mcf;
+    }
+
+    public Object getConnection(final Subject subject, final ConnectionRequestInfo info)
+            throws ResourceException {
+        return new FakeConnection(this);
+    }
+
+    public void associateConnection(final Object connection) throws ResourceException {
+        FakeConnection.class.cast(connection).mc = this;
+    }
+
+    public void cleanup() throws ResourceException {
+    }
+
+    public void destroy() throws ResourceException {
+        listeners.clear();
+    }
+
+    public void addConnectionEventListener(final ConnectionEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeConnectionEventListener(final ConnectionEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    public LocalTransaction getLocalTransaction() throws ResourceException {
+        return localTx;
+    }
+
+    public XAResource getXAResource() throws ResourceException {
+        return xaResource;
+    }
+
+    public ManagedConnectionMetaData getMetaData() throws ResourceException {
+        throw new UnsupportedOperationException();
+    }
+
+    public PrintWriter getLogWriter() throws ResourceException {
+        return logWriter;
+    }
+
+    public void setLogWriter(final PrintWriter logWriter) throws ResourceException {
+        this.logWriter = logWriter;
+    }
+
+    /**
+     * 論理コネクションハンドルがクローズされたことをリスナに通知します．
+     * 
+     * @param handle
+     *            クローズされた論理コネクションハンドル
+     */
+    protected void fireConnectionClosed(final Object handle) {
+        final ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_CLOSED);
+        event.setConnectionHandle(handle);
+        for (final ConnectionEventListener listener : listeners) {
+            listener.connectionClosed(event);
+        }
+    }
+
+    /**
+     * ベンチマーク用の論理コネクションハンドルです．
+     * 
+     * @author koichik
+     */
+    public static class FakeConnection {
+
+        // instance fields
+        protected FakeManagedConnection mc;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param mc
+         *            物理コネクション
+         */
+        public FakeConnection(final FakeManagedConnection mc) {
+            this.mc = mc;
+        }
+
+        /**
+         * 論理コネクションハンドルをクローズします．
+         */
+        public void close() {
+            final FakeManagedConnection owner = mc;
+            if (owner != null) {
+                mc = null;
+                owner.fireConnectionClosed(this);
+            }
+        }
+
+    }
+
+    /**
+     * 何もしないローカルトランザクションです．
+     * 
+     * @author koichik
+     */
+    public static class FakeLocalTransaction implements LocalTransaction {
+
+        public void begin() throws ResourceException {
+        }
+
+        public void commit() throws ResourceException {
+        }
+
+        public void rollback() throws ResourceException {
+        }
+
+    }
+
+    /**
+     * 何もしないXAリソースです．
+     * 
+     * @author koichik
+     */
+    public static class FakeXAResource implements XAResource {
+
+        // static fields
+        protected static final Xid[] NO_XIDS = new Xid[0];
+
+        // instance fields
+        protected int timeout;
+
+        public void start(final Xid xid, final int flags) throws XAException {
+        }
+
+        public void end(final Xid xid, final int flags) throws XAException {
+        }
+
+        public int prepare(final Xid xid) throws XAException {
+            return XA_OK;
+        }
+
+        public void commit(final Xid xid, final boolean onePhase) throws XAException {
+        }
+
+        public void rollback(final Xid xid) throws XAException {
+        }
+
+        public void forget(final Xid xid) throws XAException {
+        }
+
+        public Xid[] recover(final int flag) throws XAException {
+            return NO_XIDS;
+        }
+
+        public boolean isSameRM(final XAResource xares) throws XAException {
+            return xares == this;
+        }
+
+        public int getTransactionTimeout() throws XAException {
+            return timeout;
+        }
+
+        public boolean setTransactionTimeout(final int seconds) throws XAException {
+            timeout = seconds;
+            return true;
+        }
+
+    }
+
+}
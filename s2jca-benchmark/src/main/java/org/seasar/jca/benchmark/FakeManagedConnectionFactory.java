@@ -0,0 +1,87 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.benchmark;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.security.auth.Subject;
+
+/**
+ * ベンチマーク用のインメモリな{@link ManagedConnectionFactory}です．
+ * <p>
+ * 物理コネクションの作成やマッチングで I/O を行わないため，計測結果にはコネクション管理ポリシーと
+ * {@link org.seasar.jca.outbound.support.ManagedConnectionPool}のコストだけが現れます．
+ * マッチングは一般的なリソースアダプタと同様に候補を先頭から走査し，最初に見つかった自身のコネクションを返します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class FakeManagedConnectionFactory implements ManagedConnectionFactory {
+
+    // constants
+    private static final long serialVersionUID = 1L;
+
+    // instance fields
+    protected transient PrintWriter logWriter;
+
+    /**
+     * インスタンスを構築します．
+     */
+    public FakeManagedConnectionFactory() {
+    }
+
+    public Object createConnectionFactory() throws ResourceException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object createConnectionFactory(final ConnectionManager cm) throws ResourceException {
+        throw new UnsupportedOperationException();
+    }
+
+    public ManagedConnection createManagedConnection(final Subject subject,
+            final ConnectionRequestInfo info) throws ResourceException {
+        return new FakeManagedConnection(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ManagedConnection matchManagedConnections(final Set set, final Subject subject,
+            final ConnectionRequestInfo info) throws ResourceException {
+        for (final Iterator<?> it = set.iterator(); it.hasNext();) {
+            final Object mc = it.next();
+            if (mc instanceof FakeManagedConnection
+                    && FakeManagedConnection.class.cast(mc).getManagedConnectionFactory() == this) {
+                return FakeManagedConnection.class.cast(mc);
+            }
+        }
+        return null;
+    }
+
+    public PrintWriter getLogWriter() throws ResourceException {
+        return logWriter;
+    }
+
+    public void setLogWriter(final PrintWriter logWriter) throws ResourceException {
+        this.logWriter = logWriter;
+    }
+
+}
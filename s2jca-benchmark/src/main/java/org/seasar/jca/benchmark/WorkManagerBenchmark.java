@@ -0,0 +1,161 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.work.Work;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seasar.jca.work.ThreadPerTaskExecutorService;
+import org.seasar.jca.work.WorkManagerImpl;
+
+/**
+ * {@link WorkManagerImpl}に{@link Work}を投入する経路のベンチマークです．
+ * <p>
+ * <code>executor</code>パラメータでスレッドプールを選択します．
+ * </p>
+ * <dl>
+ * <dt><code>fixed</code></dt>
+ * <dd>{@link WorkManagerImpl#WorkManagerImpl(int)}による固定サイズのスレッドプール．</dd>
+ * <dt><code>threadPerTask</code></dt>
+ * <dd>{@link ThreadPerTaskExecutorService}．</dd>
+ * </dl>
+ * <p>
+ * {@link #scheduleWork()}では投入が実行を大きく追い越してキューが際限なく伸びないよう，
+ * 未完了の{@link Work}が{@link #MAX_PENDING}を超えている間は投入を待機します．
+ * 実行方法は次の通りです．
+ * </p>
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar 1,4,16 WorkManagerBenchmark
+ * </pre>
+ * 
+ * @author koichik
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkManagerBenchmark {
+
+    // constants
+    /** 未完了の{@link Work}の最大数 */
+    protected static final int MAX_PENDING = 1024;
+
+    // instance fields
+    /** スレッドプール */
+    @Param( { "fixed", "threadPerTask" })
+    public String executor;
+
+    /** 固定サイズのスレッドプールのスレッド数 */
+    @Param( { "10" })
+    public int numThreads;
+
+    protected WorkManagerImpl workManager;
+
+    /** 未完了の{@link Work}の数 */
+    protected final AtomicInteger pending = new AtomicInteger();
+
+    /** 何もしない{@link Work} */
+    protected final Work work = new Work() {
+
+        public void run() {
+            pending.decrementAndGet();
+        }
+
+        public void release() {
+        }
+    };
+
+    /**
+     * <code>executor</code>パラメータに従ってワークマネージャを構築します．
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("fixed".equals(executor)) {
+            workManager = new WorkManagerImpl(numThreads);
+        } else if ("threadPerTask".equals(executor)) {
+            workManager = new WorkManagerImpl(new ThreadPerTaskExecutorService());
+        } else {
+            throw new IllegalArgumentException(executor);
+        }
+    }
+
+    /**
+     * ワークマネージャを終了します．
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workManager.stop();
+    }
+
+    /**
+     * {@link WorkManagerImpl#scheduleWork(Work)}で{@link Work}を投入します．
+     * 
+     * @throws Exception
+     *             {@link Work}の投入中に例外が発生した場合
+     */
+    @Benchmark
+    public void scheduleWork() throws Exception {
+        while (pending.get() >= MAX_PENDING) {
+            Thread.yield();
+        }
+        pending.incrementAndGet();
+        workManager.scheduleWork(work);
+    }
+
+    /**
+     * {@link WorkManagerImpl#startWork(Work)}で{@link Work}を投入し，実行の開始を待機します．
+     * 
+     * @return {@link Work}を受け付けてから実行が開始するまでの経過時間
+     * @throws Exception
+     *             {@link Work}の投入中に例外が発生した場合
+     */
+    @Benchmark
+    public long startWork() throws Exception {
+        pending.incrementAndGet();
+        return workManager.startWork(work);
+    }
+
+    /**
+     * {@link WorkManagerImpl#doWork(Work)}で{@link Work}を投入し，実行の完了を待機します．
+     * 
+     * @throws Exception
+     *             {@link Work}の投入中に例外が発生した場合
+     */
+    @Benchmark
+    public void doWork() throws Exception {
+        pending.incrementAndGet();
+        workManager.doWork(work);
+    }
+
+}
@@ -26,6 +26,7 @@ import java.net.URLClassLoader;
 import javax.resource.ResourceException;
 import javax.resource.spi.BootstrapContext;
 import javax.resource.spi.ResourceAdapter;
+import javax.resource.spi.work.WorkManager;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
@@ -45,9 +46,18 @@ import org.seasar.jca.deploy.config.OutboundAdapterConfig;
 import org.seasar.jca.deploy.config.ResourceAdapterConfig;
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.lifecycle.BootstrapContextImpl;
+import org.seasar.jca.work.PartitionedExecutorService;
+import org.seasar.jca.work.WorkManagerImpl;
+import org.seasar.jca.work.WorkStatistics;
+import org.seasar.jca.work.XATerminatorImpl;
 
 /**
  * リソースアダプタをデプロイする抽象クラスです．
+ * <p>
+ * {@link #setPartitionedExecutor(PartitionedExecutorService)}で複数のリソースアダプタが共有するスレッドプールが
+ * 設定された場合は，このリソースアダプタ用のパーティションを作成し，
+ * そのパーティションを使用するブートストラップコンテキストでリソースアダプタを開始します．
+ * </p>
  * 
  * @author koichik
  */
@@ -74,6 +84,30 @@ public abstract class AbstractResourceAdapterDeployer extends AbstractDeployer<R
     /** リソースアダプタのコンフィグレーション */
     protected ResourceAdapterConfig raConfig;
 
+    /** 複数のリソースアダプタが共有するパーティションに分割されたスレッドプール */
+    protected PartitionedExecutorService partitionedExecutor;
+
+    /** スレッドプールのパーティションの名前 */
+    protected String workPartitionName;
+
+    /** スレッドプールのパーティションの重み */
+    protected int workWeight = 1;
+
+    /** スレッドプールのパーティションで同時に実行される{@link javax.resource.spi.work.Work}の最大数 */
+    protected int maxWorkThreads;
+
+    /** スレッドプールのパーティションを使用するワークマネージャ */
+    protected WorkManagerImpl partitionWorkManager;
+
+    /** ワークマネージャの統計情報をJMXで公開する場合は<code>true</code> */
+    protected boolean workStatistics;
+
+    /** 統計情報を公開しているワークマネージャ */
+    protected WorkManagerImpl instrumentedWorkManager;
+
+    /** EISからインポートしたトランザクションを完了させる{@link XATerminatorImpl} */
+    protected XATerminatorImpl xaTerminator;
+
     /**
      * インスタンスを構築します．
      * <p>
@@ -112,7 +146,24 @@ public abstract class AbstractResourceAdapterDeployer extends AbstractDeployer<R
         loadDeploymentDescripter();
         raConfig.putProperties(configProperties);
         ra = createResourceAdapter();
-        ra.start(bc);
+        boolean started = false;
+        try {
+            if (partitionedExecutor != null) {
+                bc = createPartitionedBootstrapContext();
+            }
+            if (workStatistics) {
+                registerWorkStatistics();
+            }
+            if (xaTerminator != null && bc instanceof BootstrapContextImpl) {
+                BootstrapContextImpl.class.cast(bc).setXATerminator(xaTerminator);
+            }
+            ra.start(bc);
+            started = true;
+        } finally {
+            if (!started) {
+                releaseWorkManager();
+            }
+        }
 
         if (logger.isDebugEnabled()) {
             loggingDeployedMessage();
@@ -122,11 +173,84 @@ public abstract class AbstractResourceAdapterDeployer extends AbstractDeployer<R
     @DestroyMethod
     public void stop() {
         ra.stop();
+        releaseWorkManager();
         if (logger.isDebugEnabled()) {
             logger.log("DJCA1017", null);
         }
     }
 
+    /**
+     * このリソースアダプタのために用意したワークマネージャの資源を解放します．
+     * <p>
+     * 統計情報の収集を止め，共有するスレッドプールに作成したパーティションを停止します．
+     * 停止したパーティションは実行中の{@link javax.resource.spi.work.Work}が完了すると取り除かれます．
+     * リソースアダプタの開始に失敗した場合にも呼び出され，同じ名前で再デプロイできるようにします．
+     * </p>
+     */
+    protected void releaseWorkManager() {
+        if (instrumentedWorkManager != null) {
+            instrumentedWorkManager.setWorkMetrics(null);
+            instrumentedWorkManager = null;
+        }
+        if (partitionWorkManager != null) {
+            partitionWorkManager.stop();
+            partitionWorkManager = null;
+        }
+    }
+
+    /**
+     * 共有するスレッドプールにこのリソースアダプタ用のパーティションを作成し，
+     * そのパーティションを使用するブートストラップコンテキストを作成します．
+     * <p>
+     * パーティションの名前は{@link #getWorkManagerName()}で決定します．
+     * 同時に実行される{@link javax.resource.spi.work.Work}の最大数が設定されていない場合は，
+     * 共有するスレッドプールの全てのスレッドを使用することができます．
+     * </p>
+     * 
+     * @return ブートストラップコンテキスト
+     */
+    protected BootstrapContext createPartitionedBootstrapContext() {
+        final String name = getWorkManagerName();
+        final int maxThreads = maxWorkThreads > 0 ? maxWorkThreads : partitionedExecutor
+                .getNumThreads();
+        partitionWorkManager = new WorkManagerImpl(partitionedExecutor.createPartition(name,
+                workWeight, maxThreads));
+        return new BootstrapContextImpl(partitionWorkManager);
+    }
+
+    /**
+     * ブートストラップコンテキストのワークマネージャが{@link WorkManagerImpl}で統計情報を収集していなければ，
+     * 統計情報を収集してJMXで公開する{@link WorkStatistics}を設定します．
+     */
+    protected void registerWorkStatistics() {
+        final WorkManager workManager = bc.getWorkManager();
+        if (!(workManager instanceof WorkManagerImpl)) {
+            return;
+        }
+        final WorkManagerImpl workManagerImpl = WorkManagerImpl.class.cast(workManager);
+        if (workManagerImpl.getWorkMetrics() != null) {
+            return;
+        }
+        workManagerImpl.setWorkMetrics(new WorkStatistics(getWorkManagerName()));
+        instrumentedWorkManager = workManagerImpl;
+    }
+
+    /**
+     * スレッドプールのパーティションやワークマネージャの統計情報に使用する名前を返します．
+     * <p>
+     * パーティションの名前が設定されていない場合はリソースアダプタのパス，
+     * パスも設定されていない場合はリソースアダプタのクラス名を返します．
+     * </p>
+     * 
+     * @return スレッドプールのパーティションやワークマネージャの統計情報に使用する名前
+     */
+    protected String getWorkManagerName() {
+        if (workPartitionName != null) {
+            return workPartitionName;
+        }
+        return path != null ? path : raConfig.getRaClass();
+    }
+
     /**
      * リソースアダプタを作成してプロパティを設定します．
      * 
@@ -299,6 +423,140 @@ public abstract class AbstractResourceAdapterDeployer extends AbstractDeployer<R
         this.path = path;
     }
 
+    /**
+     * 複数のリソースアダプタが共有するパーティションに分割されたスレッドプールを返します．
+     * 
+     * @return 複数のリソースアダプタが共有するパーティションに分割されたスレッドプール
+     */
+    public PartitionedExecutorService getPartitionedExecutor() {
+        return partitionedExecutor;
+    }
+
+    /**
+     * 複数のリソースアダプタが共有するパーティションに分割されたスレッドプールを設定します．
+     * <p>
+     * 設定された場合，{@link #setBootstrapContext(BootstrapContext)}で設定されたブートストラップコンテキストは使われません．
+     * </p>
+     * 
+     * @param partitionedExecutor
+     *            複数のリソースアダプタが共有するパーティションに分割されたスレッドプール
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setPartitionedExecutor(final PartitionedExecutorService partitionedExecutor) {
+        this.partitionedExecutor = partitionedExecutor;
+    }
+
+    /**
+     * スレッドプールのパーティションの名前を返します．
+     * 
+     * @return スレッドプールのパーティションの名前
+     */
+    public String getWorkPartitionName() {
+        return workPartitionName;
+    }
+
+    /**
+     * スレッドプールのパーティションの名前を設定します．
+     * 
+     * @param workPartitionName
+     *            スレッドプールのパーティションの名前
+     */
+    public void setWorkPartitionName(final String workPartitionName) {
+        this.workPartitionName = workPartitionName;
+    }
+
+    /**
+     * スレッドプールのパーティションの重みを返します．
+     * 
+     * @return スレッドプールのパーティションの重み
+     */
+    public int getWorkWeight() {
+        return workWeight;
+    }
+
+    /**
+     * スレッドプールのパーティションの重みを設定します．
+     * <p>
+     * 空いたスレッドは重みに比例してパーティションに割り当てられます． デフォルトは<code>1</code>です．
+     * </p>
+     * 
+     * @param workWeight
+     *            スレッドプールのパーティションの重み
+     */
+    public void setWorkWeight(final int workWeight) {
+        this.workWeight = workWeight;
+    }
+
+    /**
+     * スレッドプールのパーティションで同時に実行される{@link javax.resource.spi.work.Work}の最大数を返します．
+     * 
+     * @return スレッドプールのパーティションで同時に実行される{@link javax.resource.spi.work.Work}の最大数
+     */
+    public int getMaxWorkThreads() {
+        return maxWorkThreads;
+    }
+
+    /**
+     * スレッドプールのパーティションで同時に実行される{@link javax.resource.spi.work.Work}の最大数を設定します．
+     * <p>
+     * <code>0</code>以下の場合は共有するスレッドプールの全てのスレッドを使用することができます．
+     * </p>
+     * 
+     * @param maxWorkThreads
+     *            スレッドプールのパーティションで同時に実行される{@link javax.resource.spi.work.Work}の最大数
+     */
+    public void setMaxWorkThreads(final int maxWorkThreads) {
+        this.maxWorkThreads = maxWorkThreads;
+    }
+
+    /**
+     * ワークマネージャの統計情報をJMXで公開する場合は<code>true</code>を返します．
+     * 
+     * @return ワークマネージャの統計情報をJMXで公開する場合は<code>true</code>
+     */
+    public boolean isWorkStatistics() {
+        return workStatistics;
+    }
+
+    /**
+     * ワークマネージャの統計情報をJMXで公開する場合は<code>true</code>を設定します．
+     * <p>
+     * ブートストラップコンテキストのワークマネージャが{@link WorkManagerImpl}の場合に，
+     * <code>org.seasar.jca:type=WorkManager,name=&lt;名前&gt;</code>というオブジェクト名で
+     * プラットフォームMBeanサーバに登録されます．
+     * </p>
+     * 
+     * @param workStatistics
+     *            ワークマネージャの統計情報をJMXで公開する場合は<code>true</code>
+     */
+    public void setWorkStatistics(final boolean workStatistics) {
+        this.workStatistics = workStatistics;
+    }
+
+    /**
+     * EISからインポートしたトランザクションを完了させる{@link XATerminatorImpl}を返します．
+     * 
+     * @return EISからインポートしたトランザクションを完了させる{@link XATerminatorImpl}
+     */
+    public XATerminatorImpl getXATerminator() {
+        return xaTerminator;
+    }
+
+    /**
+     * EISからインポートしたトランザクションを完了させる{@link XATerminatorImpl}を設定します．
+     * <p>
+     * 設定された場合，ブートストラップコンテキストが{@link BootstrapContextImpl}なら
+     * リソースアダプタの開始前にブートストラップコンテキストに設定されます．
+     * </p>
+     * 
+     * @param xaTerminator
+     *            EISからインポートしたトランザクションを完了させる{@link XATerminatorImpl}
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setXATerminator(final XATerminatorImpl xaTerminator) {
+        this.xaTerminator = xaTerminator;
+    }
+
     public ResourceAdapter getResourceAdapter() {
         return ra;
     }
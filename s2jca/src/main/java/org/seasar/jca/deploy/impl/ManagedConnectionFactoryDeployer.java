@@ -22,6 +22,8 @@ import javax.resource.spi.ResourceAdapterAssociation;
 import javax.transaction.TransactionManager;
 
 import org.seasar.framework.beans.factory.BeanDescFactory;
+import org.seasar.framework.container.annotation.tiger.Binding;
+import org.seasar.framework.container.annotation.tiger.BindingType;
 import org.seasar.framework.container.annotation.tiger.DestroyMethod;
 import org.seasar.framework.log.Logger;
 import org.seasar.framework.util.tiger.ReflectionUtil;
@@ -30,8 +32,15 @@ import org.seasar.jca.deploy.config.ConnectionDefConfig;
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.outbound.ConnectionManagerImpl;
 import org.seasar.jca.outbound.policy.BasicPoolingPolicy;
+import org.seasar.jca.outbound.policy.ConcurrentPoolingPolicy;
+import org.seasar.jca.outbound.policy.CreationGatePolicy;
+import org.seasar.jca.outbound.policy.ExpiryEngine;
 import org.seasar.jca.outbound.policy.LocalTransactionBoundedPoolingPolicy;
+import org.seasar.jca.outbound.policy.PartitionedPoolingPolicy;
+import org.seasar.jca.outbound.policy.PoolMetrics;
+import org.seasar.jca.outbound.policy.PoolStatistics;
 import org.seasar.jca.outbound.policy.XATransactionBoundedPoolingPolicy;
+import org.seasar.jca.outbound.support.MatchingKey;
 
 /**
  * {@link ManagedConnectionFactory}をデプロイするクラスです．
@@ -66,6 +75,9 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
     /** リソースローカルなトランザクションを許可する場合は<code>true</code> */
     protected boolean allowLocalTx = false;
 
+    /** コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code> */
+    protected boolean lazyEnlistment = false;
+
     /** コネクションプールの最小値 */
     protected int minPoolSize = 5;
 
@@ -75,6 +87,87 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
     /** アイドル状態になったコネクションをクローズするまでのタイムアウト時間 (秒単位) */
     protected int timeout = 600;
 
+    /** コネクションの取得を待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /** コネクションの取得を待機できるスレッドの最大数，負数なら無制限 */
+    protected int maxWaitingThreads = -1;
+
+    /** コネクションプールをストライプに分割して同期する場合は<code>true</code> */
+    protected boolean concurrentPooling = false;
+
+    /** フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code> */
+    protected boolean keyedMatching = false;
+
+    /** アイドル状態のコネクションをスイープする間隔 (ミリ秒単位)，<code>0</code>以下なら{@link #timeout}から算出 */
+    protected long sweepInterval = 0;
+
+    /** アイドル状態のコネクションを期限切れにするエンジン */
+    protected ExpiryEngine expiryEngine;
+
+    /** コネクションプールの最小値まで非同期にコネクションを補充する場合は<code>true</code> */
+    protected boolean prefill = false;
+
+    /** 複数のコネクションを並行して作成する場合は<code>true</code> */
+    protected boolean parallelCreation = false;
+
+    /** フリープールから取り出したコネクションを検証する場合は<code>true</code> */
+    protected boolean validateOnBorrow = false;
+
+    /** スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code> */
+    protected boolean validateWhileIdle = false;
+
+    /** 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位)，<code>0</code>以下なら常に検証する */
+    protected long validationInterval = 0;
+
+    /** アイドル状態のコネクションを一度に検証する数 */
+    protected int validationBatchSize = 10;
+
+    /** リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位)，<code>0</code>以下ならリークを検出しない */
+    protected long leakDetectionThreshold = 0;
+
+    /** チェックアウトしたスレッドのスタックトレースを記録する頻度 (この回数に一回)，<code>0</code>以下なら記録しない */
+    protected int leakStackSamplingRate = 0;
+
+    /** リークの疑いのあるコネクションを回収する場合は<code>true</code> */
+    protected boolean reclaimLeakedConnections = false;
+
+    /** コネクションの最大の寿命 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long maxLifetime = 0;
+
+    /** コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位)，<code>0</code>以下なら{@link #maxLifetime}から算出 */
+    protected long lifetimeJitter = 0;
+
+    /** 同時に作成できる物理コネクションの最大数，<code>0</code>以下なら無制限 */
+    protected int maxConcurrentCreations = 0;
+
+    /** 一秒間に作成できる物理コネクションの最大数，<code>0</code>以下なら無制限 */
+    protected int maxCreationRate = 0;
+
+    /** サーキットブレーカを開く物理コネクション作成の連続失敗回数，<code>0</code>以下ならサーキットブレーカを使用しない */
+    protected int creationFailureThreshold = 0;
+
+    /** サーキットブレーカが開いてから作成を試行するまでの時間 (ミリ秒単位) */
+    protected long creationOpenTimeout = 30 * 1000L;
+
+    /** コネクションプールの統計情報をJMXで公開する場合は<code>true</code> */
+    protected boolean poolStatistics = false;
+
+    /** コネクションプールの名前 */
+    protected String poolName;
+
+    /** コネクションプールの統計情報を収集するSPI */
+    protected PoolMetrics poolMetrics;
+
+    /** コネクションプールをサブジェクトとコネクション要求情報ごとに分割する場合は<code>true</code> */
+    protected boolean partitionedPooling = false;
+
+    /** 分割されたコネクションプールごとの最小値 */
+    protected int partitionMinPoolSize = 0;
+
+    /** 分割されたコネクションプールごとの最大値，<code>0</code>以下なら{@link #maxPoolSize} */
+    protected int partitionMaxPoolSize = 0;
+
     /** {@link ManagedConnectionFactory} */
     protected ManagedConnectionFactory mcf;
 
@@ -157,8 +250,13 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
     protected ConnectionManager createConnectionManager() throws ResourceException {
         final ConnectionManagerImpl cm = new ConnectionManagerImpl(mcf);
 
+        if (maxConcurrentCreations > 0 || maxCreationRate > 0 || creationFailureThreshold > 0) {
+            cm.addConnectionManagementPolicy(createCreationGatePolicy());
+        }
+
         if (maxPoolSize > 0) {
-            cm.addConnectionManagementPolicy(createBasicPoolingPolicy());
+            cm.addConnectionManagementPolicy(partitionedPooling ? createPartitionedPoolingPolicy()
+                    : createBasicPoolingPolicy());
         }
 
         if (managedTx) {
@@ -172,6 +270,7 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
                 LocalTransactionBoundedPoolingPolicy policy = new LocalTransactionBoundedPoolingPolicy(
                         tm);
                 policy.setAllowLocalTx(allowLocalTx);
+                policy.setLazyEnlistment(lazyEnlistment);
                 cm.addConnectionManagementPolicy(policy);
             }
         }
@@ -179,21 +278,140 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
         return cm;
     }
 
+    /**
+     * {@link CreationGatePolicy}を作成して返します．
+     * 
+     * @return {@link CreationGatePolicy}
+     */
+    protected CreationGatePolicy createCreationGatePolicy() {
+        final CreationGatePolicy policy = new CreationGatePolicy();
+        policy.setMaxConcurrentCreations(maxConcurrentCreations);
+        policy.setMaxCreationRate(maxCreationRate);
+        policy.setBlockingTimeout(blockingTimeout);
+        policy.setFailureThreshold(creationFailureThreshold);
+        policy.setOpenTimeout(creationOpenTimeout);
+        return policy;
+    }
+
     /**
      * {@link BasicPoolingPolicy}を作成して返します．
+     * <p>
+     * {@link #concurrentPooling}が<code>true</code>の場合は{@link ConcurrentPoolingPolicy}を作成して返します．
+     * </p>
      * 
      * @return {@link BasicPoolingPolicy}
      * @throws ResourceException
      *             {@link BasicPoolingPolicy}の作成中に例外が発生した場合
      */
     protected BasicPoolingPolicy createBasicPoolingPolicy() throws ResourceException {
-        final BasicPoolingPolicy policy = new BasicPoolingPolicy(raDeployer.getBootstrapContext());
+        final BasicPoolingPolicy policy = createUnmeteredPoolingPolicy();
+        policy.setPoolMetrics(createPoolMetrics());
+        return policy;
+    }
+
+    /**
+     * 統計情報を収集しない{@link BasicPoolingPolicy}を作成して返します．
+     * <p>
+     * {@link #concurrentPooling}が<code>true</code>の場合は{@link ConcurrentPoolingPolicy}を作成して返します．
+     * </p>
+     * 
+     * @return {@link BasicPoolingPolicy}
+     * @throws ResourceException
+     *             {@link BasicPoolingPolicy}の作成中に例外が発生した場合
+     */
+    protected BasicPoolingPolicy createUnmeteredPoolingPolicy() throws ResourceException {
+        final BasicPoolingPolicy policy = concurrentPooling ? new ConcurrentPoolingPolicy(
+                raDeployer.getBootstrapContext()) : new BasicPoolingPolicy(raDeployer
+                .getBootstrapContext());
         policy.setMaxPoolSize(maxPoolSize);
         policy.setMinPoolSize(minPoolSize);
         policy.setTimeout(timeout);
+        policy.setBlockingTimeout(blockingTimeout);
+        policy.setMaxWaitingThreads(maxWaitingThreads);
+        policy.setKeyedMatching(keyedMatching);
+        policy.setSweepInterval(sweepInterval);
+        policy.setExpiryEngine(expiryEngine);
+        policy.setPrefill(prefill);
+        policy.setParallelCreation(parallelCreation);
+        policy.setValidateOnBorrow(validateOnBorrow);
+        policy.setValidateWhileIdle(validateWhileIdle);
+        policy.setValidationInterval(validationInterval);
+        policy.setValidationBatchSize(validationBatchSize);
+        policy.setLeakDetectionThreshold(leakDetectionThreshold);
+        policy.setLeakStackSamplingRate(leakStackSamplingRate);
+        policy.setReclaimLeakedConnections(reclaimLeakedConnections);
+        policy.setMaxLifetime(maxLifetime);
+        policy.setLifetimeJitter(lifetimeJitter);
+        return policy;
+    }
+
+    /**
+     * {@link PartitionedPoolingPolicy}を作成して返します．
+     * <p>
+     * 分割されたコネクションプールは{@link #createUnmeteredPoolingPolicy()}で作成され，
+     * 最小値と最大値は{@link #partitionMinPoolSize}と{@link #partitionMaxPoolSize}で上書きされます．
+     * 分割されたコネクションプールでは統計情報を収集しないため，
+     * {@link #poolStatistics}や{@link #poolMetrics}が設定されている場合は警告をログに出力します．
+     * </p>
+     * 
+     * @return {@link PartitionedPoolingPolicy}
+     */
+    protected PartitionedPoolingPolicy createPartitionedPoolingPolicy() {
+        if (poolStatistics || poolMetrics != null) {
+            logger.log("WJCA1056", new Object[] { getStatisticsName() });
+        }
+        final PartitionedPoolingPolicy policy = new PartitionedPoolingPolicy(raDeployer
+                .getBootstrapContext());
+        policy.setMaxPoolSize(maxPoolSize);
+        policy.setPartitionMinPoolSize(partitionMinPoolSize);
+        policy.setPartitionMaxPoolSize(partitionMaxPoolSize);
+        policy.setBlockingTimeout(blockingTimeout);
+        policy.setPartitionFactory(new PartitionedPoolingPolicy.PartitionFactory() {
+
+            public BasicPoolingPolicy createPartition(final MatchingKey key)
+                    throws ResourceException {
+                final BasicPoolingPolicy partition = createUnmeteredPoolingPolicy();
+                partition.setMinPoolSize(partitionMinPoolSize);
+                partition.setMaxPoolSize(partitionMaxPoolSize > 0 ? Math.min(
+                        partitionMaxPoolSize, maxPoolSize) : maxPoolSize);
+                return partition;
+            }
+
+        });
         return policy;
     }
 
+    /**
+     * コネクションプールの統計情報を収集するSPIを返します．
+     * <p>
+     * {@link #poolMetrics}が設定されていればそれを返します．
+     * 設定されておらず，{@link #poolStatistics}が<code>true</code>の場合は{@link PoolStatistics}を作成して返します．
+     * </p>
+     * 
+     * @return コネクションプールの統計情報を収集するSPI，統計情報を収集しない場合は<code>null</code>
+     */
+    protected PoolMetrics createPoolMetrics() {
+        if (poolMetrics != null) {
+            return poolMetrics;
+        }
+        if (!poolStatistics) {
+            return null;
+        }
+        return new PoolStatistics(getStatisticsName());
+    }
+
+    /**
+     * コネクションプールの統計情報の名前を返します．
+     * <p>
+     * {@link #poolName}が設定されていなければマネージドコネクションファクトリのクラス名と番号から決定します．
+     * </p>
+     * 
+     * @return コネクションプールの統計情報の名前
+     */
+    protected String getStatisticsName() {
+        return poolName != null ? poolName : mcfClassName + "#" + mcfIndex;
+    }
+
     /**
      * リソースアダプタの<code>ra.xml</code>に
      * <code>connector/resource-adapter/outbound-resourceadapter</code>が
@@ -356,6 +574,29 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
         this.allowLocalTx = allowLocalTx;
     }
 
+    /**
+     * コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>を返します．
+     * 
+     * @return コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>
+     */
+    public boolean isLazyEnlistment() {
+        return lazyEnlistment;
+    }
+
+    /**
+     * コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>を設定します．
+     * <p>
+     * リソースローカルなトランザクションをサポートするリソースアダプタで，
+     * マネージドコネクションが{@link javax.resource.spi.LazyEnlistableManagedConnection}を実装している場合だけ有効です．
+     * </p>
+     * 
+     * @param lazyEnlistment
+     *            コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>
+     */
+    public void setLazyEnlistment(final boolean lazyEnlistment) {
+        this.lazyEnlistment = lazyEnlistment;
+    }
+
     /**
      * コネクションプールの最小値を返します．
      * 
@@ -413,4 +654,523 @@ public class ManagedConnectionFactoryDeployer extends AbstractDeployer<ManagedCo
         this.timeout = timeout;
     }
 
+    /**
+     * コネクションの取得を待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return コネクションの取得を待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * コネクションの取得を待機する最大時間 (ミリ秒単位) を設定します．
+     * 
+     * @param blockingTimeout
+     *            コネクションの取得を待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * コネクションの取得を待機できるスレッドの最大数を返します．
+     * 
+     * @return コネクションの取得を待機できるスレッドの最大数
+     */
+    public int getMaxWaitingThreads() {
+        return maxWaitingThreads;
+    }
+
+    /**
+     * コネクションの取得を待機できるスレッドの最大数を設定します．
+     * 
+     * @param maxWaitingThreads
+     *            コネクションの取得を待機できるスレッドの最大数
+     */
+    public void setMaxWaitingThreads(final int maxWaitingThreads) {
+        this.maxWaitingThreads = maxWaitingThreads;
+    }
+
+    /**
+     * コネクションプールをストライプに分割して同期する場合は<code>true</code>を返します．
+     * 
+     * @return コネクションプールをストライプに分割して同期する場合は<code>true</code>
+     */
+    public boolean isConcurrentPooling() {
+        return concurrentPooling;
+    }
+
+    /**
+     * コネクションプールをストライプに分割して同期する場合は<code>true</code>を設定します．
+     * 
+     * @param concurrentPooling
+     *            コネクションプールをストライプに分割して同期する場合は<code>true</code>
+     */
+    public void setConcurrentPooling(final boolean concurrentPooling) {
+        this.concurrentPooling = concurrentPooling;
+    }
+
+    /**
+     * フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>を返します．
+     * 
+     * @return フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>
+     */
+    public boolean isKeyedMatching() {
+        return keyedMatching;
+    }
+
+    /**
+     * フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>を設定します．
+     * 
+     * @param keyedMatching
+     *            フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>
+     */
+    public void setKeyedMatching(final boolean keyedMatching) {
+        this.keyedMatching = keyedMatching;
+    }
+
+    /**
+     * アイドル状態のコネクションをスイープする間隔 (ミリ秒単位) を返します．
+     * 
+     * @return アイドル状態のコネクションをスイープする間隔 (ミリ秒単位)
+     */
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    /**
+     * アイドル状態のコネクションをスイープする間隔 (ミリ秒単位) を設定します．
+     * 
+     * @param sweepInterval
+     *            アイドル状態のコネクションをスイープする間隔 (ミリ秒単位)
+     */
+    public void setSweepInterval(final long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * アイドル状態のコネクションを期限切れにするエンジンを返します．
+     * 
+     * @return アイドル状態のコネクションを期限切れにするエンジン
+     */
+    public ExpiryEngine getExpiryEngine() {
+        return expiryEngine;
+    }
+
+    /**
+     * アイドル状態のコネクションを期限切れにするエンジンを設定します．
+     * 
+     * @param expiryEngine
+     *            アイドル状態のコネクションを期限切れにするエンジン
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setExpiryEngine(final ExpiryEngine expiryEngine) {
+        this.expiryEngine = expiryEngine;
+    }
+
+    /**
+     * コネクションプールの最小値まで非同期にコネクションを補充する場合は<code>true</code>を返します．
+     * 
+     * @return コネクションプールの最小値まで非同期にコネクションを補充する場合は<code>true</code>
+     */
+    public boolean isPrefill() {
+        return prefill;
+    }
+
+    /**
+     * コネクションプールの最小値まで非同期にコネクションを補充する場合は<code>true</code>を設定します．
+     * 
+     * @param prefill
+     *            コネクションプールの最小値まで非同期にコネクションを補充する場合は<code>true</code>
+     */
+    public void setPrefill(final boolean prefill) {
+        this.prefill = prefill;
+    }
+
+    /**
+     * 複数のコネクションを並行して作成する場合は<code>true</code>を返します．
+     * 
+     * @return 複数のコネクションを並行して作成する場合は<code>true</code>
+     */
+    public boolean isParallelCreation() {
+        return parallelCreation;
+    }
+
+    /**
+     * 複数のコネクションを並行して作成する場合は<code>true</code>を設定します．
+     * 
+     * @param parallelCreation
+     *            複数のコネクションを並行して作成する場合は<code>true</code>
+     */
+    public void setParallelCreation(final boolean parallelCreation) {
+        this.parallelCreation = parallelCreation;
+    }
+
+    /**
+     * フリープールから取り出したコネクションを検証する場合は<code>true</code>を返します．
+     * 
+     * @return フリープールから取り出したコネクションを検証する場合は<code>true</code>
+     */
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    /**
+     * フリープールから取り出したコネクションを検証する場合は<code>true</code>を設定します．
+     * 
+     * @param validateOnBorrow
+     *            フリープールから取り出したコネクションを検証する場合は<code>true</code>
+     */
+    public void setValidateOnBorrow(final boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>を返します．
+     * 
+     * @return スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>
+     */
+    public boolean isValidateWhileIdle() {
+        return validateWhileIdle;
+    }
+
+    /**
+     * スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>を設定します．
+     * 
+     * @param validateWhileIdle
+     *            スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>
+     */
+    public void setValidateWhileIdle(final boolean validateWhileIdle) {
+        this.validateWhileIdle = validateWhileIdle;
+    }
+
+    /**
+     * 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位) を返します．
+     * 
+     * @return 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位)
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位) を設定します．
+     * 
+     * @param validationInterval
+     *            同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位)
+     */
+    public void setValidationInterval(final long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * アイドル状態のコネクションを一度に検証する数を返します．
+     * 
+     * @return アイドル状態のコネクションを一度に検証する数
+     */
+    public int getValidationBatchSize() {
+        return validationBatchSize;
+    }
+
+    /**
+     * アイドル状態のコネクションを一度に検証する数を設定します．
+     * 
+     * @param validationBatchSize
+     *            アイドル状態のコネクションを一度に検証する数
+     */
+    public void setValidationBatchSize(final int validationBatchSize) {
+        this.validationBatchSize = validationBatchSize;
+    }
+
+    /**
+     * リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位) を返します．
+     * 
+     * @return リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位)
+     */
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    /**
+     * リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位) を設定します．
+     * 
+     * @param leakDetectionThreshold
+     *            リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位)
+     */
+    public void setLeakDetectionThreshold(final long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * チェックアウトしたスレッドのスタックトレースを記録する頻度を返します．
+     * 
+     * @return チェックアウトしたスレッドのスタックトレースを記録する頻度
+     */
+    public int getLeakStackSamplingRate() {
+        return leakStackSamplingRate;
+    }
+
+    /**
+     * チェックアウトしたスレッドのスタックトレースを記録する頻度を設定します．
+     * 
+     * @param leakStackSamplingRate
+     *            チェックアウトしたスレッドのスタックトレースを記録する頻度
+     */
+    public void setLeakStackSamplingRate(final int leakStackSamplingRate) {
+        this.leakStackSamplingRate = leakStackSamplingRate;
+    }
+
+    /**
+     * リークの疑いのあるコネクションを回収する場合は<code>true</code>を返します．
+     * 
+     * @return リークの疑いのあるコネクションを回収する場合は<code>true</code>
+     */
+    public boolean isReclaimLeakedConnections() {
+        return reclaimLeakedConnections;
+    }
+
+    /**
+     * リークの疑いのあるコネクションを回収する場合は<code>true</code>を設定します．
+     * 
+     * @param reclaimLeakedConnections
+     *            リークの疑いのあるコネクションを回収する場合は<code>true</code>
+     */
+    public void setReclaimLeakedConnections(final boolean reclaimLeakedConnections) {
+        this.reclaimLeakedConnections = reclaimLeakedConnections;
+    }
+
+    /**
+     * コネクションの最大の寿命 (ミリ秒単位) を返します．
+     * 
+     * @return コネクションの最大の寿命 (ミリ秒単位)
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * コネクションの最大の寿命 (ミリ秒単位) を設定します．
+     * 
+     * @param maxLifetime
+     *            コネクションの最大の寿命 (ミリ秒単位)
+     */
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位) を返します．
+     * 
+     * @return コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位)
+     */
+    public long getLifetimeJitter() {
+        return lifetimeJitter;
+    }
+
+    /**
+     * コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位) を設定します．
+     * 
+     * @param lifetimeJitter
+     *            コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位)
+     */
+    public void setLifetimeJitter(final long lifetimeJitter) {
+        this.lifetimeJitter = lifetimeJitter;
+    }
+
+    /**
+     * 同時に作成できる物理コネクションの最大数を返します．
+     * 
+     * @return 同時に作成できる物理コネクションの最大数
+     */
+    public int getMaxConcurrentCreations() {
+        return maxConcurrentCreations;
+    }
+
+    /**
+     * 同時に作成できる物理コネクションの最大数を設定します．
+     * 
+     * @param maxConcurrentCreations
+     *            同時に作成できる物理コネクションの最大数
+     */
+    public void setMaxConcurrentCreations(final int maxConcurrentCreations) {
+        this.maxConcurrentCreations = maxConcurrentCreations;
+    }
+
+    /**
+     * 一秒間に作成できる物理コネクションの最大数を返します．
+     * 
+     * @return 一秒間に作成できる物理コネクションの最大数
+     */
+    public int getMaxCreationRate() {
+        return maxCreationRate;
+    }
+
+    /**
+     * 一秒間に作成できる物理コネクションの最大数を設定します．
+     * 
+     * @param maxCreationRate
+     *            一秒間に作成できる物理コネクションの最大数
+     */
+    public void setMaxCreationRate(final int maxCreationRate) {
+        this.maxCreationRate = maxCreationRate;
+    }
+
+    /**
+     * サーキットブレーカを開く物理コネクション作成の連続失敗回数を返します．
+     * 
+     * @return サーキットブレーカを開く物理コネクション作成の連続失敗回数
+     */
+    public int getCreationFailureThreshold() {
+        return creationFailureThreshold;
+    }
+
+    /**
+     * サーキットブレーカを開く物理コネクション作成の連続失敗回数を設定します．
+     * 
+     * @param creationFailureThreshold
+     *            サーキットブレーカを開く物理コネクション作成の連続失敗回数
+     */
+    public void setCreationFailureThreshold(final int creationFailureThreshold) {
+        this.creationFailureThreshold = creationFailureThreshold;
+    }
+
+    /**
+     * サーキットブレーカが開いてから作成を試行するまでの時間 (ミリ秒単位) を返します．
+     * 
+     * @return サーキットブレーカが開いてから作成を試行するまでの時間 (ミリ秒単位)
+     */
+    public long getCreationOpenTimeout() {
+        return creationOpenTimeout;
+    }
+
+    /**
+     * サーキットブレーカが開いてから作成を試行するまでの時間 (ミリ秒単位) を設定します．
+     * 
+     * @param creationOpenTimeout
+     *            サーキットブレーカが開いてから作成を試行するまでの時間 (ミリ秒単位)
+     */
+    public void setCreationOpenTimeout(final long creationOpenTimeout) {
+        this.creationOpenTimeout = creationOpenTimeout;
+    }
+
+    /**
+     * コネクションプールの統計情報をJMXで公開する場合は<code>true</code>を返します．
+     * 
+     * @return コネクションプールの統計情報をJMXで公開する場合は<code>true</code>
+     */
+    public boolean isPoolStatistics() {
+        return poolStatistics;
+    }
+
+    /**
+     * コネクションプールの統計情報をJMXで公開する場合は<code>true</code>を設定します．
+     * 
+     * @param poolStatistics
+     *            コネクションプールの統計情報をJMXで公開する場合は<code>true</code>
+     */
+    public void setPoolStatistics(final boolean poolStatistics) {
+        this.poolStatistics = poolStatistics;
+    }
+
+    /**
+     * コネクションプールの名前を返します．
+     * 
+     * @return コネクションプールの名前
+     */
+    public String getPoolName() {
+        return poolName;
+    }
+
+    /**
+     * コネクションプールの名前を設定します．
+     * <p>
+     * 統計情報を公開するMBeanのオブジェクト名に使われます．
+     * 設定されていない場合は<code>&lt;ManagedConnectionFactoryのクラス名&gt;#&lt;インデックス&gt;</code>が使われます．
+     * </p>
+     * 
+     * @param poolName
+     *            コネクションプールの名前
+     */
+    public void setPoolName(final String poolName) {
+        this.poolName = poolName;
+    }
+
+    /**
+     * コネクションプールの統計情報を収集するSPIを返します．
+     * 
+     * @return コネクションプールの統計情報を収集するSPI
+     */
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    /**
+     * コネクションプールの統計情報を収集するSPIを設定します．
+     * 
+     * @param poolMetrics
+     *            コネクションプールの統計情報を収集するSPI
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setPoolMetrics(final PoolMetrics poolMetrics) {
+        this.poolMetrics = poolMetrics;
+    }
+
+    /**
+     * コネクションプールをサブジェクトとコネクション要求情報ごとに分割する場合は<code>true</code>を返します．
+     * 
+     * @return コネクションプールをサブジェクトとコネクション要求情報ごとに分割する場合は<code>true</code>
+     */
+    public boolean isPartitionedPooling() {
+        return partitionedPooling;
+    }
+
+    /**
+     * コネクションプールをサブジェクトとコネクション要求情報ごとに分割する場合は<code>true</code>を設定します．
+     * 
+     * @param partitionedPooling
+     *            コネクションプールをサブジェクトとコネクション要求情報ごとに分割する場合は<code>true</code>
+     */
+    public void setPartitionedPooling(final boolean partitionedPooling) {
+        this.partitionedPooling = partitionedPooling;
+    }
+
+    /**
+     * 分割されたコネクションプールごとの最小値を返します．
+     * 
+     * @return 分割されたコネクションプールごとの最小値
+     */
+    public int getPartitionMinPoolSize() {
+        return partitionMinPoolSize;
+    }
+
+    /**
+     * 分割されたコネクションプールごとの最小値を設定します．
+     * 
+     * @param partitionMinPoolSize
+     *            分割されたコネクションプールごとの最小値
+     */
+    public void setPartitionMinPoolSize(final int partitionMinPoolSize) {
+        this.partitionMinPoolSize = partitionMinPoolSize;
+    }
+
+    /**
+     * 分割されたコネクションプールごとの最大値を返します．
+     * 
+     * @return 分割されたコネクションプールごとの最大値
+     */
+    public int getPartitionMaxPoolSize() {
+        return partitionMaxPoolSize;
+    }
+
+    /**
+     * 分割されたコネクションプールごとの最大値を設定します．
+     * 
+     * @param partitionMaxPoolSize
+     *            分割されたコネクションプールごとの最大値
+     */
+    public void setPartitionMaxPoolSize(final int partitionMaxPoolSize) {
+        this.partitionMaxPoolSize = partitionMaxPoolSize;
+    }
+
 }
@@ -67,6 +67,12 @@ public abstract class AbstractMessageEndpoint implements MessageEndpoint {
     /** メッセージエンドポイント固有のハンドラメソッドが正常に終了した場合は<code>true</code> */
     protected boolean succeeded;
 
+    /** メッセージエンドポイントファクトリのプールに戻されている場合は<code>true</code> */
+    protected boolean pooled;
+
+    /** メッセージエンドポイントファクトリのプールに戻された時刻 (ナノ秒単位) */
+    protected long pooledTime;
+
     /**
      * インスタンスを構築します．
      * 
@@ -127,6 +133,10 @@ public abstract class AbstractMessageEndpoint implements MessageEndpoint {
         assertNotProcessing();
         cleanup();
         logger.log("DJCA1033", new Object[] { this });
+        if (messageEndpointFactory instanceof AbstractMessageEndpointFactory) {
+            AbstractMessageEndpointFactory.class.cast(messageEndpointFactory).releaseEndpoint(
+                    this);
+        }
     }
 
     /**
@@ -276,6 +286,20 @@ public abstract class AbstractMessageEndpoint implements MessageEndpoint {
         transaction = null;
     }
 
+    /**
+     * XAリソースを設定します．
+     * <p>
+     * メッセージエンドポイントファクトリのプールから再利用される際に，
+     * {@link MessageEndpointFactory#createEndpoint(XAResource)}に渡されたXAリソースが設定されます．
+     * </p>
+     * 
+     * @param xaResource
+     *            XAリソース
+     */
+    protected void setXAResource(final XAResource xaResource) {
+        this.xaResource = xaResource;
+    }
+
     /**
      * リスナ・メソッドを返します．
      * 
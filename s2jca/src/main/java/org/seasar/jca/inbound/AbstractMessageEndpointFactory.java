@@ -17,6 +17,8 @@ package org.seasar.jca.inbound;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
 
 import javax.resource.spi.UnavailableException;
 import javax.resource.spi.endpoint.MessageEndpoint;
@@ -29,6 +31,7 @@ import org.seasar.framework.container.S2Container;
 import org.seasar.framework.container.annotation.tiger.Binding;
 import org.seasar.framework.container.annotation.tiger.BindingType;
 import org.seasar.framework.container.annotation.tiger.Component;
+import org.seasar.framework.container.annotation.tiger.DestroyMethod;
 import org.seasar.framework.container.annotation.tiger.InitMethod;
 import org.seasar.framework.exception.SIllegalArgumentException;
 import org.seasar.framework.log.Logger;
@@ -36,6 +39,13 @@ import org.seasar.framework.util.tiger.ReflectionUtil;
 
 /**
  * {@link MessageEndpointFactory}の抽象クラスです．
+ * <p>
+ * {@link MessageEndpoint#release()}で解放されたメッセージエンドポイントは最大{@link #maxPoolSize}個までプールされ，
+ * 次の{@link #createEndpoint(XAResource)}で再利用されます．
+ * 再利用されるメッセージエンドポイントはリスナのインスタンスも再利用するため，
+ * メッセージごとにメッセージエンドポイントとリスナが構築されることはありません．
+ * プールされてから{@link #timeout}秒が経過したメッセージエンドポイントは破棄されます．
+ * </p>
  * 
  * @author koichik
  */
@@ -70,6 +80,15 @@ public abstract class AbstractMessageEndpointFactory implements MessageEndpointF
     /** メッセージエンドポイントのコンポーネント定義 */
     protected ComponentDef componentDef;
 
+    /** プールするメッセージエンドポイントの最大数，<code>0</code>以下ならプールしない */
+    protected int maxPoolSize = 10;
+
+    /** プールされたメッセージエンドポイントのタイムアウト時間 (秒単位)，<code>0</code>以下なら無期限 */
+    protected int timeout = 600;
+
+    /** 再利用可能なメッセージエンドポイントのプール (先頭が最後に解放されたもの) */
+    protected final LinkedList<AbstractMessageEndpoint> freePool = new LinkedList<AbstractMessageEndpoint>();
+
     /**
      * インスタンスを構築します．
      */
@@ -178,6 +197,60 @@ public abstract class AbstractMessageEndpointFactory implements MessageEndpointF
         this.deliveryTransacted = deliveryTransacted;
     }
 
+    /**
+     * プールするメッセージエンドポイントの最大数を返します．
+     * 
+     * @return プールするメッセージエンドポイントの最大数
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * プールするメッセージエンドポイントの最大数を設定します．
+     * <p>
+     * <code>0</code>以下を設定すると，メッセージエンドポイントはプールされずに毎回構築されます．
+     * </p>
+     * 
+     * @param maxPoolSize
+     *            プールするメッセージエンドポイントの最大数
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * プールされたメッセージエンドポイントのタイムアウト時間 (秒単位) を返します．
+     * 
+     * @return プールされたメッセージエンドポイントのタイムアウト時間 (秒単位)
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * プールされたメッセージエンドポイントのタイムアウト時間 (秒単位) を設定します．
+     * 
+     * @param timeout
+     *            プールされたメッセージエンドポイントのタイムアウト時間 (秒単位)
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setTimeout(final int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * プールされているメッセージエンドポイントの数を返します．
+     * 
+     * @return プールされているメッセージエンドポイントの数
+     */
+    public int getPooledEndpointCount() {
+        synchronized (freePool) {
+            return freePool.size();
+        }
+    }
+
     /**
      * インスタンスを初期化します．
      */
@@ -197,7 +270,26 @@ public abstract class AbstractMessageEndpointFactory implements MessageEndpointF
                 .getComponentDef(listenerName != null ? listenerName : listenerType);
     }
 
+    /**
+     * インスタンスを破棄します．
+     */
+    @DestroyMethod
+    public void dispose() {
+        synchronized (freePool) {
+            while (!freePool.isEmpty()) {
+                freePool.removeFirst().pooled = false;
+            }
+        }
+    }
+
     public MessageEndpoint createEndpoint(final XAResource xaResource) throws UnavailableException {
+        final AbstractMessageEndpoint pooledEndpoint = getPooledEndpoint(xaResource);
+        if (pooledEndpoint != null) {
+            if (logger.isDebugEnabled()) {
+                logger.log("DJCA1048", new Object[] { pooledEndpoint });
+            }
+            return pooledEndpoint;
+        }
         final MessageEndpoint messageEndpoint = ReflectionUtil.newInstance(endpointConstructor,
                 new Object[] { this, transactionManager, xaResource, container.getClassLoader(),
                         componentDef.getComponent() });
@@ -211,4 +303,72 @@ public abstract class AbstractMessageEndpointFactory implements MessageEndpointF
         return deliveryTransacted;
     }
 
+    /**
+     * プールからメッセージエンドポイントを取り出します．
+     * 
+     * @param xaResource
+     *            メッセージエンドポイントに設定するXAリソース
+     * @return プールから取り出したメッセージエンドポイント，プールが空の場合は<code>null</code>
+     */
+    protected AbstractMessageEndpoint getPooledEndpoint(final XAResource xaResource) {
+        synchronized (freePool) {
+            expireEndpoints(System.nanoTime());
+            if (freePool.isEmpty()) {
+                return null;
+            }
+            final AbstractMessageEndpoint endpoint = freePool.removeFirst();
+            endpoint.pooled = false;
+            endpoint.setXAResource(xaResource);
+            return endpoint;
+        }
+    }
+
+    /**
+     * 解放されたメッセージエンドポイントをプールに戻します．
+     * <p>
+     * プールが一杯の場合や，既にプールに戻されている場合は何もしません．
+     * </p>
+     * 
+     * @param endpoint
+     *            解放されたメッセージエンドポイント
+     */
+    protected void releaseEndpoint(final AbstractMessageEndpoint endpoint) {
+        if (maxPoolSize <= 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (freePool) {
+            if (endpoint.pooled) {
+                return;
+            }
+            expireEndpoints(now);
+            if (freePool.size() >= maxPoolSize) {
+                return;
+            }
+            endpoint.setXAResource(null);
+            endpoint.pooled = true;
+            endpoint.pooledTime = now;
+            freePool.addFirst(endpoint);
+        }
+    }
+
+    /**
+     * タイムアウト時間を過ぎてプールされているメッセージエンドポイントを破棄します．
+     * <p>
+     * このメソッドは{@link #freePool}の同期ブロック内で呼び出されなければなりません．
+     * </p>
+     * 
+     * @param now
+     *            現在時刻 (ナノ秒単位)
+     */
+    protected void expireEndpoints(final long now) {
+        if (timeout <= 0) {
+            return;
+        }
+        final long timeoutNanos = TimeUnit.SECONDS.toNanos(timeout);
+        while (!freePool.isEmpty() && now - freePool.getLast().pooledTime >= timeoutNanos) {
+            freePool.removeLast().pooled = false;
+        }
+    }
+
 }
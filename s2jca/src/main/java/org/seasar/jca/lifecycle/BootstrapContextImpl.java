@@ -27,9 +27,15 @@ import javax.resource.spi.work.WorkManager;
 import org.seasar.framework.container.annotation.tiger.Binding;
 import org.seasar.framework.container.annotation.tiger.BindingType;
 import org.seasar.jca.work.WorkManagerImpl;
+import org.seasar.jca.work.XATerminatorImpl;
 
 /**
  * {@link BootstrapContext}の実装クラスです．
+ * <p>
+ * {@link XATerminatorImpl}が設定されている場合は，{@link #getXATerminator()}でそれを返し，
+ * ワークマネージャが{@link WorkManagerImpl}ならEISからインポートしたトランザクションの中で
+ * {@link javax.resource.spi.work.Work}を実行するように設定します．
+ * </p>
  * 
  * @author koichik
  */
@@ -39,6 +45,9 @@ public class BootstrapContextImpl implements BootstrapContext {
     /** ワークマネージャ */
     protected WorkManager workManager;
 
+    /** EISからインポートしたトランザクションを完了させる{@link XATerminator} */
+    protected XATerminatorImpl xaTerminator;
+
     /**
      * インスタンスを構築します．
      * <p>
@@ -83,7 +92,36 @@ public class BootstrapContextImpl implements BootstrapContext {
     }
 
     public XATerminator getXATerminator() {
-        throw new UnsupportedOperationException();
+        if (xaTerminator == null) {
+            throw new UnsupportedOperationException();
+        }
+        return xaTerminator;
+    }
+
+    /**
+     * EISからインポートしたトランザクションを完了させる{@link XATerminator}を設定します．
+     * 
+     * @param xaTerminator
+     *            EISからインポートしたトランザクションを完了させる{@link XATerminator}
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setXATerminator(final XATerminatorImpl xaTerminator) {
+        this.xaTerminator = xaTerminator;
+        propagateXATerminator();
+    }
+
+    /**
+     * ワークマネージャが{@link WorkManagerImpl}で{@link XATerminatorImpl}が設定されていなければ，
+     * このインスタンスの{@link XATerminatorImpl}を設定します．
+     */
+    protected void propagateXATerminator() {
+        if (xaTerminator == null || !(workManager instanceof WorkManagerImpl)) {
+            return;
+        }
+        final WorkManagerImpl workManagerImpl = WorkManagerImpl.class.cast(workManager);
+        if (workManagerImpl.getXATerminator() == null) {
+            workManagerImpl.setXATerminator(xaTerminator);
+        }
     }
 
     /**
@@ -95,6 +133,7 @@ public class BootstrapContextImpl implements BootstrapContext {
     @Binding(bindingType = BindingType.MAY)
     public void setWorkManager(final WorkManager workManager) {
         this.workManager = workManager;
+        propagateXATerminator();
     }
 
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 所要時間の分布を記録するヒストグラムです．
+ * <p>
+ * 所要時間はマイクロ秒単位で2のべき乗ごとのバケットに分類されます．
+ * <code>i</code>番目のバケットには<code>2<sup>i-1</sup></code>以上<code>2<sup>i</sup></code>未満
+ * (<code>0</code>番目は<code>1</code>未満) のマイクロ秒が記録されます．
+ * 各バケットは{@link StripedCounter}なので，多数のスレッドから同時に記録されても競合しません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class LatencyHistogram {
+
+    // constants
+    /** バケットの数 */
+    public static final int BUCKETS = 40;
+
+    // instance fields
+    /** バケット */
+    protected final StripedCounter[] buckets = new StripedCounter[BUCKETS];
+
+    /** 所要時間の合計 (ナノ秒単位) */
+    protected final StripedCounter total = new StripedCounter();
+
+    /** 所要時間の最大値 (ナノ秒単位) */
+    protected final AtomicLong max = new AtomicLong();
+
+    /**
+     * インスタンスを構築します．
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets[i] = new StripedCounter();
+        }
+    }
+
+    /**
+     * 所要時間を記録します．
+     * 
+     * @param nanos
+     *            所要時間 (ナノ秒単位)
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        buckets[getBucketIndex(value)].increment();
+        total.add(value);
+        for (long current = max.get(); value > current; current = max.get()) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 記録された件数を返します．
+     * 
+     * @return 記録された件数
+     */
+    public long getCount() {
+        long count = 0;
+        for (final StripedCounter bucket : buckets) {
+            count += bucket.get();
+        }
+        return count;
+    }
+
+    /**
+     * 所要時間の平均値 (ミリ秒単位) を返します．
+     * 
+     * @return 所要時間の平均値 (ミリ秒単位)，記録されていなければ<code>0</code>
+     */
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0.0 : toMillis(total.get()) / count;
+    }
+
+    /**
+     * 所要時間の最大値 (ミリ秒単位) を返します．
+     * 
+     * @return 所要時間の最大値 (ミリ秒単位)
+     */
+    public double getMax() {
+        return toMillis(max.get());
+    }
+
+    /**
+     * 所要時間のパーセンタイル (ミリ秒単位) を返します．
+     * <p>
+     * 返される値は該当するバケットの上限なので，実際の値より最大で2倍大きくなります．
+     * </p>
+     * 
+     * @param percentile
+     *            パーセンタイル (<code>0</code>より大きく<code>100</code>以下)
+     * @return 所要時間のパーセンタイル (ミリ秒単位)，記録されていなければ<code>0</code>
+     */
+    public double getPercentile(final double percentile) {
+        final long[] counts = getCounts();
+        long count = 0;
+        for (final long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * バケットごとの件数を返します．
+     * 
+     * @return バケットごとの件数
+     */
+    public long[] getCounts() {
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = buckets[i].get();
+        }
+        return counts;
+    }
+
+    /**
+     * 記録された値を全て破棄します．
+     */
+    public void reset() {
+        for (final StripedCounter bucket : buckets) {
+            bucket.reset();
+        }
+        total.reset();
+        max.set(0L);
+    }
+
+    /**
+     * 所要時間を記録するバケットのインデックスを返します．
+     * 
+     * @param nanos
+     *            所要時間 (ナノ秒単位)
+     * @return バケットのインデックス
+     */
+    protected static int getBucketIndex(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * バケットの上限 (ミリ秒単位) を返します．
+     * 
+     * @param index
+     *            バケットのインデックス
+     * @return バケットの上限 (ミリ秒単位)
+     */
+    protected static double getUpperBound(final int index) {
+        return (1L << index) / 1000.0;
+    }
+
+    /**
+     * ナノ秒をミリ秒に変換します．
+     * 
+     * @param nanos
+     *            ナノ秒
+     * @return ミリ秒
+     */
+    protected static double toMillis(final long nanos) {
+        return nanos / 1000000.0;
+    }
+
+}
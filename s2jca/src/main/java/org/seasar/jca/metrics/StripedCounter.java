@@ -0,0 +1,129 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 複数のセルに分割された<code>long</code>のカウンタです．
+ * <p>
+ * 加算はスレッドごとに割り当てられたセルに対して行われるため，
+ * 多数のスレッドから同時に加算されても一つのメモリ位置を奪い合うことがありません．
+ * 各セルは異なるキャッシュラインに配置されます．
+ * 値の読み出しは全てのセルを合計するため，加算より高コストです．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class StripedCounter {
+
+    // constants
+    /** セルの間隔 (<code>long</code>の数)，キャッシュラインを共有しないための詰め物を含む */
+    protected static final int PADDING = 8;
+
+    // instance fields
+    /** セルの数から1を引いた値 (セルの数は2のべき乗) */
+    protected final int mask;
+
+    /** セル */
+    protected final AtomicLongArray cells;
+
+    /**
+     * インスタンスを構築します．
+     * <p>
+     * セルの数は利用可能なプロセッサの数から決定されます．
+     * </p>
+     */
+    public StripedCounter() {
+        this(getDefaultStripes());
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param stripes
+     *            セルの数 (2のべき乗に切り上げられます)
+     */
+    public StripedCounter(final int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        cells = new AtomicLongArray(size * PADDING);
+    }
+
+    /**
+     * カウンタに1を加算します．
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * カウンタに値を加算します．
+     * 
+     * @param delta
+     *            加算する値
+     */
+    public void add(final long delta) {
+        cells.addAndGet(getCellIndex(), delta);
+    }
+
+    /**
+     * カウンタの値を返します．
+     * 
+     * @return カウンタの値
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i <= mask; ++i) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * カウンタの値を<code>0</code>に戻します．
+     * <p>
+     * 同時に加算されている値が失われる場合があります．
+     * </p>
+     */
+    public void reset() {
+        for (int i = 0; i <= mask; ++i) {
+            cells.set(i * PADDING, 0L);
+        }
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたセルのインデックスを返します．
+     * 
+     * @return 現在のスレッドに割り当てられたセルのインデックス
+     */
+    protected int getCellIndex() {
+        return ((int) Thread.currentThread().getId() & mask) * PADDING;
+    }
+
+    /**
+     * 利用可能なプロセッサの数から決定したセルの数を返します．
+     * 
+     * @return セルの数
+     */
+    protected static int getDefaultStripes() {
+        return Math.min(64, Runtime.getRuntime().availableProcessors());
+    }
+
+}
@@ -16,26 +16,35 @@
 package org.seasar.jca.outbound;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionEvent;
 import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LazyEnlistableConnectionManager;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 
 import org.seasar.framework.log.Logger;
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.outbound.policy.ConnectionManagementPolicy;
+import org.seasar.jca.outbound.policy.LazyEnlistablePolicy;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
 
 /**
  * {@link ConnectionManager}の実装クラスです．
+ * <p>
+ * {@link LazyEnlistableConnectionManager#lazyEnlist(ManagedConnection)}の呼び出しは，
+ * 追加されたコネクション管理ポリシーのうち{@link LazyEnlistablePolicy}を実装したものに通知されます．
+ * </p>
  * 
  * @author koichik
  */
-public class ConnectionManagerImpl implements ConnectionManager, Serializable {
+public class ConnectionManagerImpl implements ConnectionManager, LazyEnlistableConnectionManager,
+        Serializable {
 
     // constants
     private static final long serialVersionUID = 1L;
@@ -53,6 +62,9 @@ public class ConnectionManagerImpl implements ConnectionManager, Serializable {
     /** コネクション管理ポリシー */
     protected ConnectionManagementPolicy policy = new NoPoolingPolicy();
 
+    /** マネージドコネクションの遅延登録をサポートするコネクション管理ポリシー */
+    protected final List<LazyEnlistablePolicy> lazyEnlistablePolicies = new ArrayList<LazyEnlistablePolicy>();
+
     /**
      * インスタンスを構築します．
      */
@@ -82,6 +94,9 @@ public class ConnectionManagerImpl implements ConnectionManager, Serializable {
             throws ResourceException {
         cmPolicy.initialize(mcf, this.policy);
         this.policy = cmPolicy;
+        if (cmPolicy instanceof LazyEnlistablePolicy) {
+            lazyEnlistablePolicies.add(LazyEnlistablePolicy.class.cast(cmPolicy));
+        }
     }
 
     public Object allocateConnection(final ManagedConnectionFactory mcf,
@@ -93,6 +108,14 @@ public class ConnectionManagerImpl implements ConnectionManager, Serializable {
         return lch != null ? lch : context.allocateLogicalConnectionHandle();
     }
 
+    public void lazyEnlist(final ManagedConnection mc) throws ResourceException {
+        for (final LazyEnlistablePolicy lazyEnlistablePolicy : lazyEnlistablePolicies) {
+            if (lazyEnlistablePolicy.lazyEnlist(mc)) {
+                return;
+            }
+        }
+    }
+
     /**
      * インスタンスを破棄します．
      */
@@ -15,9 +15,8 @@
  */
 package org.seasar.jca.outbound.policy;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnection;
@@ -30,10 +29,21 @@ import javax.transaction.TransactionManager;
 import org.seasar.framework.log.Logger;
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
-import org.seasar.jca.outbound.support.ManagedConnectionPool;
+import org.seasar.jca.outbound.support.ManagedConnectionSlots;
 
 /**
  * コネクションをトランザクションに関連づけて管理するポリシーの実装クラスです．
+ * <p>
+ * トランザクションごとのマネージドコネクションのプールは並行マップで管理されるため，
+ * 異なるトランザクションのコネクションの割り当てや解放が互いに同期することはありません．
+ * プールはトランザクションの完了時に{@link Synchronization#afterCompletion(int)}でマップから取り除かれます．
+ * </p>
+ * <p>
+ * トランザクションごとのプールには小さな配列でマネージドコネクションを保持する{@link ManagedConnectionSlots}を使用します．
+ * トランザクションの完了時にクローズされたプールはスレッドごとに一つ保持され，次のトランザクションで再利用されます．
+ * タイムアウトによるロールバックなど，プールを作成したスレッド以外のスレッドでトランザクションが完了した場合は，
+ * 作成したスレッドがまだプールを参照している可能性があるため再利用しません．
+ * </p>
  * 
  * @author koichik
  */
@@ -48,8 +58,10 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
 
     // instance fields
     /** トランザクションとマネージドコネクションプールのマッピング */
-    protected final Map<Transaction, ManagedConnectionPool<Object>> pools = Collections
-            .synchronizedMap(new WeakHashMap<Transaction, ManagedConnectionPool<Object>>());
+    protected final ConcurrentMap<Transaction, ManagedConnectionSlots> pools = new ConcurrentHashMap<Transaction, ManagedConnectionSlots>();
+
+    /** 再利用するためにスレッドごとに保持されるクローズ済みのプール */
+    protected final ThreadLocal<ManagedConnectionSlots> recycledPools = new ThreadLocal<ManagedConnectionSlots>();
 
     /** トランザクションマネージャ */
     protected final TransactionManager tm;
@@ -82,7 +94,7 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
     @Override
     public void connectionErrorOccurred(final ManagedConnection mc) throws ResourceException {
         try {
-            final ManagedConnectionPool<Object> pool = getPool(tm.getTransaction(), false);
+            final ManagedConnectionSlots pool = getPool(tm.getTransaction(), false);
             if (pool != null) {
                 pool.remove(mc);
             }
@@ -112,7 +124,7 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
                 return;
             }
 
-            final ManagedConnectionPool<Object> pool = getPool(tx, true);
+            final ManagedConnectionSlots pool = getPool(tx, true);
             final ManagedConnection mc = pool.getMatched(context.getSubject(), context
                     .getRequestInfo(), mcf);
             if (mc != null) {
@@ -144,6 +156,10 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
 
     /**
      * 後続のコネクション管理ポリシーから取得したマネージドコネクションをプールします．
+     * <p>
+     * トランザクションに最初のコネクションを関連づけられなかった場合は，
+     * {@link Synchronization}が登録されていないため空のプールをマップから取り除きます．
+     * </p>
      * 
      * @param context
      *            コネクション管理ポリシー
@@ -155,11 +171,18 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
      *             コネクションの取得中に例外が発生した場合
      */
     protected void allocateNew(final ConnectionManagementContext context, final Transaction tx,
-            final ManagedConnectionPool<Object> pool) throws ResourceException {
-        ManagedConnection mc;
-        nextPolicy.allocate(context);
-        associateTx(tx, pool, context);
-        mc = context.getManagedConnection();
+            final ManagedConnectionSlots pool) throws ResourceException {
+        boolean associated = false;
+        try {
+            nextPolicy.allocate(context);
+            associateTx(tx, pool, context);
+            associated = true;
+        } finally {
+            if (!associated && pool.size() == 0) {
+                pools.remove(tx, pool);
+            }
+        }
+        final ManagedConnection mc = context.getManagedConnection();
         pool.addToActivePool(mc);
         if (logger.isDebugEnabled()) {
             logger.log("DJCA1010", new Object[] { mc, tx });
@@ -178,7 +201,7 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
      * @throws ResourceException
      *             関連づけ中に例外が発生した場合
      */
-    protected abstract void associateTx(Transaction tx, ManagedConnectionPool<Object> pool,
+    protected abstract void associateTx(Transaction tx, ManagedConnectionSlots pool,
             ConnectionManagementContext context) throws ResourceException;
 
     /**
@@ -194,7 +217,7 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
      */
     protected void checkIn(final ManagedConnection mc) throws ResourceException {
         try {
-            final ManagedConnectionPool<Object> pool = getPool(tm.getTransaction(), false);
+            final ManagedConnectionSlots pool = getPool(tm.getTransaction(), false);
             if (pool != null) {
                 pool.moveActiveToFreePool(mc);
             } else {
@@ -214,19 +237,53 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
      *            現在のトランザクションにプールがまだ関連づけられていない場合に新たにプールを作成する場合は<code>true</code>
      * @return マネージドコネクションのプール
      */
-    protected ManagedConnectionPool<Object> getPool(final Transaction tx, final boolean create) {
+    protected ManagedConnectionSlots getPool(final Transaction tx, final boolean create) {
         if (tx == null) {
             return null;
         }
 
-        ManagedConnectionPool<Object> pool = pools.get(tx);
-        if (pool == null && create) {
-            pool = new ManagedConnectionPool<Object>(nextPolicy);
-            pools.put(tx, pool);
+        final ManagedConnectionSlots pool = pools.get(tx);
+        if (pool != null || !create) {
+            return pool;
+        }
+        final ManagedConnectionSlots newPool = createPool();
+        final ManagedConnectionSlots existing = pools.putIfAbsent(tx, newPool);
+        if (existing != null) {
+            recycledPools.set(newPool);
+            return existing;
+        }
+        return newPool;
+    }
+
+    /**
+     * マネージドコネクションのプールを返します．
+     * <p>
+     * 現在のスレッドに再利用できるプールがあればそれを返します． なければ新しいプールを作成して返します．
+     * 返されるプールは現在のスレッドが所有します．
+     * </p>
+     * 
+     * @return マネージドコネクションのプール
+     */
+    protected ManagedConnectionSlots createPool() {
+        ManagedConnectionSlots pool = recycledPools.get();
+        if (pool == null) {
+            pool = newPool();
+        } else {
+            recycledPools.remove();
         }
+        pool.setOwner(Thread.currentThread());
         return pool;
     }
 
+    /**
+     * 新しいマネージドコネクションのプールを作成して返します．
+     * 
+     * @return マネージドコネクションのプール
+     */
+    protected ManagedConnectionSlots newPool() {
+        return new ManagedConnectionSlots(nextPolicy);
+    }
+
     /**
      * 現在のトランザクションにマネージドコネクションのプールを関連づけます．
      * 
@@ -254,15 +311,21 @@ public abstract class AbstractTransactionBoundedPoolingPolicy extends AbstractPo
     }
 
     /**
-     * 現在のトランザクションに関連づけられているマネージドコネクションのプールをクローズします．
+     * 現在のトランザクションに関連づけられているマネージドコネクションのプールをマップから取り除いてクローズします．
+     * <p>
+     * 現在のスレッドがプールを所有している場合，クローズしたプールは現在のスレッドで再利用するために保持されます．
+     * </p>
      * 
      * @param tx
      *            トランザクション
      */
     protected void releaseContext(final Transaction tx) {
-        final ManagedConnectionPool<Object> pool = pools.get(tx);
+        final ManagedConnectionSlots pool = pools.remove(tx);
         if (pool != null) {
             pool.close();
+            if (pool.getOwner() == Thread.currentThread()) {
+                recycledPools.set(pool);
+            }
         }
     }
 
@@ -15,30 +15,87 @@
  */
 package org.seasar.jca.outbound.policy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
-import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.BootstrapContext;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 import javax.resource.spi.UnavailableException;
+import javax.resource.spi.ValidatingManagedConnectionFactory;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
 
 import org.seasar.framework.log.Logger;
+import org.seasar.jca.exception.SResourceAllocationException;
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
 import org.seasar.jca.outbound.support.ManagedConnectionPool;
+import org.seasar.jca.outbound.support.MatchingKey;
 
 /**
  * 単純にコネクションをプールするポリシーの実装クラスです．
+ * <p>
+ * アイドル状態のコネクションは{@link ExpiryEngine}によって定期的にスイープされ，
+ * 最後に使用されてから{@link #timeout}秒が経過したものから解放されます．
+ * </p>
+ * <p>
+ * {@link #prefill}が<code>true</code>の場合，プールされているコネクションが{@link #minPoolSize}に満たなければ
+ * リソースアダプタの{@link javax.resource.spi.work.WorkManager}を使用して非同期にコネクションを補充します．
+ * 補充は初期化時，スイープ時，およびエラーが発生したコネクションを破棄した時に行われます．
+ * </p>
+ * <p>
+ * マネージドコネクションファクトリが{@link ValidatingManagedConnectionFactory}を実装している場合，
+ * {@link #validateOnBorrow}が<code>true</code>ならフリープールから取り出したコネクションを，
+ * {@link #validateWhileIdle}が<code>true</code>ならスイープ時にアイドル状態のコネクションを検証し，
+ * 無効なコネクションをプールから破棄します．
+ * アイドル状態のコネクションは{@link #validationBatchSize}個ずつまとめて検証されます．
+ * {@link #validationInterval}が設定されている場合，その間隔の間に検証または作成されたコネクションは検証されません．
+ * </p>
+ * <p>
+ * {@link #leakDetectionThreshold}が設定されている場合，チェックアウトされたコネクションごとにチェックアウトした時刻とスレッドを記録し，
+ * スイープ時にそれ以上の時間チェックアウトされたままのコネクションをリークの疑いとして警告します．
+ * {@link #leakStackSamplingRate}回に一回はチェックアウトしたスレッドのスタックトレースも記録され，警告に含まれます．
+ * {@link #reclaimLeakedConnections}が<code>true</code>の場合，リークの疑いのあるコネクションはプールから取り除かれ，
+ * 後続のコネクション管理ポリシーに返されます．
+ * </p>
+ * <p>
+ * {@link #maxLifetime}が設定されている場合，作成されてからその時間が経過したコネクションはプールに返却された時点で破棄され，
+ * {@link #replaceRetired}が<code>true</code>なら代わりのコネクションが{@link javax.resource.spi.work.WorkManager}を使用して非同期に作成されます．
+ * 代わりのコネクションはサブジェクトとコネクション要求情報なしで作成されます．
+ * 寿命はコネクションごとに最大{@link #lifetimeJitter}ミリ秒だけランダムに短縮されるため，
+ * 同時に作成されたコネクションが一斉に再作成されることはありません．
+ * </p>
  * 
  * @author koichik
  */
-public class BasicPoolingPolicy extends AbstractPolicy {
+public class BasicPoolingPolicy extends AbstractPolicy implements ExpiryEngine.Target {
 
     // constants
     private static final long serialVersionUID = 1L;
 
+    /** フリープールに関連づけられたチェックイン時刻の順序 */
+    protected static final Comparator<Long> CHECK_IN_ORDER = new Comparator<Long>() {
+
+        public int compare(final Long time1, final Long time2) {
+            return time1.compareTo(time2);
+        }
+    };
+
     // static fields
     private static final Logger logger = Logger.getLogger(BasicPoolingPolicy.class);
 
@@ -55,6 +112,102 @@ public class BasicPoolingPolicy extends AbstractPolicy {
     /** アイドル状態のコネクションを開放するまでの時間 (秒単位) */
     protected int timeout = 600;
 
+    /** コネクションの取得を待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /** コネクションの取得を待機できるスレッドの最大数，負数なら無制限 */
+    protected int maxWaitingThreads = -1;
+
+    /** コネクションの取得を待機しているスレッドの数 */
+    protected int waitingThreads;
+
+    /** フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code> */
+    protected boolean keyedMatching = false;
+
+    /** アイドル状態のコネクションをスイープする間隔 (ミリ秒単位)，<code>0</code>以下なら{@link #timeout}から算出 */
+    protected long sweepInterval = 0;
+
+    /** アイドル状態のコネクションを期限切れにするエンジン */
+    protected ExpiryEngine expiryEngine;
+
+    /** チェックインされたコネクションに関連づける時刻 (スイープごとに更新される) */
+    protected volatile Long lastSweepTime;
+
+    /** プールするコネクションの最小値まで非同期にコネクションを補充する場合は<code>true</code> */
+    protected boolean prefill = false;
+
+    /** 補充のために作成中のコネクションの数 */
+    protected int replenishingConnections;
+
+    /** コネクションの補充がスケジュールされている場合は<code>true</code> */
+    protected final AtomicBoolean replenishing = new AtomicBoolean();
+
+    /** ポリシーが破棄された場合は<code>true</code> */
+    protected volatile boolean disposed;
+
+    /** チェックアウトのために作成中のコネクションの数 (使用中のコネクションとして予約されている数) */
+    protected int creatingConnections;
+
+    /** 複数のコネクションを並行して作成する場合は<code>true</code> */
+    protected boolean parallelCreation = false;
+
+    /** コネクションの作成を直列化するための同期オブジェクト */
+    protected final Object creationLock = new Object();
+
+    /** コネクションプールの統計情報を収集するSPI */
+    protected PoolMetrics poolMetrics;
+
+    /** フリープールから取り出したコネクションを検証する場合は<code>true</code> */
+    protected boolean validateOnBorrow = false;
+
+    /** スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code> */
+    protected boolean validateWhileIdle = false;
+
+    /** 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位)，<code>0</code>以下なら常に検証する */
+    protected long validationInterval = 0;
+
+    /** アイドル状態のコネクションを一度に検証する数 */
+    protected int validationBatchSize = 10;
+
+    /** 検証のためにフリープールから取り出されているコネクションの数 */
+    protected int validatingConnections;
+
+    /** マネージドコネクションと，それを最後に検証 (または作成) した時刻のマッピング */
+    protected final ConcurrentMap<ManagedConnection, Long> validatedTimes = new ConcurrentHashMap<ManagedConnection, Long>();
+
+    /** リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位)，<code>0</code>以下ならリークを検出しない */
+    protected long leakDetectionThreshold = 0;
+
+    /** チェックアウトしたスレッドのスタックトレースを記録する頻度 (この回数に一回)，<code>0</code>以下なら記録しない */
+    protected int leakStackSamplingRate = 0;
+
+    /** リークの疑いのあるコネクションを回収する場合は<code>true</code> */
+    protected boolean reclaimLeakedConnections = false;
+
+    /** コネクションの最大の寿命 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long maxLifetime = 0;
+
+    /** コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位)，<code>0</code>以下なら{@link #maxLifetime}から算出 */
+    protected long lifetimeJitter = 0;
+
+    /** 寿命が過ぎて破棄したコネクションの代わりのコネクションを非同期に作成する場合は<code>true</code> */
+    protected boolean replaceRetired = true;
+
+    /** コネクションの寿命を短縮する時間を決める乱数生成器 */
+    protected final Random random = new Random();
+
+    /** マネージドコネクションと，それを破棄する時刻のマッピング */
+    protected final ConcurrentMap<ManagedConnection, Long> retireTimes = new ConcurrentHashMap<ManagedConnection, Long>();
+
+    /** スタックトレースを記録するかを決めるためのチェックアウトの回数 (厳密さは必要ないので同期しない) */
+    protected int checkoutCount;
+
+    /** チェックアウトされているマネージドコネクションと，そのチェックアウトの記録のマッピング */
+    protected final ConcurrentMap<ManagedConnection, Checkout> checkouts = new ConcurrentHashMap<ManagedConnection, Checkout>();
+
+    /** リークの疑いとして回収したマネージドコネクションと回収前のチェックアウトの記録のマッピング (アプリケーションから到達できなくなったものは自動的に取り除かれる) */
+    protected final Map<ManagedConnection, Checkout> reclaimedConnections = Collections.synchronizedMap(new WeakHashMap<ManagedConnection, Checkout>());
+
     /** ブートストラップコンテキスト */
     protected final BootstrapContext bc;
 
@@ -62,7 +215,7 @@ public class BasicPoolingPolicy extends AbstractPolicy {
     protected final Object lock = new Object();
 
     /** コネクションプール */
-    protected ManagedConnectionPool<ExpireTask> pool;
+    protected ManagedConnectionPool<Long> pool;
 
     /**
      * インスタンスを構築します．
@@ -82,7 +235,27 @@ public class BasicPoolingPolicy extends AbstractPolicy {
     public void initialize(final ManagedConnectionFactory mcf,
             final ConnectionManagementPolicy nextPolicy) throws ResourceException {
         super.initialize(mcf, nextPolicy);
-        pool = new ManagedConnectionPool<ExpireTask>(nextPolicy, true);
+        pool = new ManagedConnectionPool<Long>(nextPolicy, true, keyedMatching);
+        if (poolMetrics != null) {
+            poolMetrics.initialize(this);
+        }
+        if ((validateOnBorrow || validateWhileIdle)
+                && !(mcf instanceof ValidatingManagedConnectionFactory)) {
+            logger.log("WJCA1043", new Object[] { mcf.getClass().getName() });
+        }
+        startExpiry();
+        replenish();
+    }
+
+    /**
+     * アイドル状態のコネクションの期限切れを開始します．
+     */
+    protected void startExpiry() {
+        lastSweepTime = System.currentTimeMillis();
+        if (expiryEngine == null) {
+            expiryEngine = new TimerExpiryEngine(timer);
+        }
+        expiryEngine.register(this);
     }
 
     /**
@@ -104,26 +277,50 @@ public class BasicPoolingPolicy extends AbstractPolicy {
     public void allocate(final ConnectionManagementContext context) throws ResourceException {
         assertValidMCF(context);
         checkOut(context);
+        if (leakDetectionThreshold > 0) {
+            recordCheckout(context.getManagedConnection());
+        }
     }
 
     @Override
     public void release(final ManagedConnection mc) throws ResourceException {
+        if (isReclaimed(mc)) {
+            return;
+        }
         mc.cleanup();
+        if (maxLifetime > 0 && retire(mc, System.currentTimeMillis())) {
+            return;
+        }
         if (!checkIn(mc)) {
+            forgetValidation(mc);
             nextPolicy.release(mc);
         }
     }
 
     @Override
     public void connectionErrorOccurred(final ManagedConnection mc) throws ResourceException {
+        if (isReclaimed(mc)) {
+            return;
+        }
         purge(mc);
+        forgetValidation(mc);
         nextPolicy.connectionErrorOccurred(mc);
+        replenish();
     }
 
     @Override
     public void dispose() {
+        disposed = true;
+        expiryEngine.unregister(this);
         pool.close();
+        validatedTimes.clear();
+        retireTimes.clear();
+        checkouts.clear();
+        reclaimedConnections.clear();
         nextPolicy.dispose();
+        if (poolMetrics != null) {
+            poolMetrics.dispose();
+        }
     }
 
     /**
@@ -146,6 +343,11 @@ public class BasicPoolingPolicy extends AbstractPolicy {
 
     /**
      * プールからマネージドコネクションをチェックアウトします．
+     * <p>
+     * 未使用のコネクションにマッチするものがなければ，使用中のコネクション一つ分を予約した上で，
+     * プールの同期の外側で後続のコネクション管理ポリシーからコネクションを取得します．
+     * フリープールから取り出したコネクションが無効だった場合はそれを破棄してやり直します．
+     * </p>
      * 
      * @param context
      *            コネクション管理コンテキスト
@@ -153,35 +355,171 @@ public class BasicPoolingPolicy extends AbstractPolicy {
      *             コネクションのチェックアウト中に例外が発生した場合
      */
     protected void checkOut(final ConnectionManagementContext context) throws ResourceException {
-        synchronized (lock) {
-            waitForFreePool();
-            final ManagedConnection mc = allocateFromFreePool(context);
-            if (mc != null) {
-                context.setManagedConnection(mc);
-                return;
+        final long start = poolMetrics != null ? System.nanoTime() : 0L;
+        ManagedConnection mc;
+        ManagedConnection evicted = null;
+        int inUse;
+        do {
+            synchronized (lock) {
+                waitForFreePool();
+                mc = allocateFromFreePool(context);
+                if (mc == null) {
+                    if (isFreePoolFull()) {
+                        evicted = removeFirstFromFree();
+                    }
+                    ++creatingConnections;
+                }
+                inUse = pool.getActivePoolSize() + creatingConnections;
             }
+        } while (mc != null && !validateBorrowed(mc));
+        if (poolMetrics != null) {
+            poolMetrics.checkedOut(System.nanoTime() - start, mc != null, inUse);
+        }
+        if (mc != null) {
+            context.setManagedConnection(mc);
+            return;
+        }
 
-            if (isFreePoolFull()) {
-                releaseFirstFromFree();
+        boolean created = false;
+        try {
+            if (evicted != null) {
+                if (poolMetrics != null) {
+                    poolMetrics.connectionEvicted();
+                }
+                nextPolicy.release(evicted);
+            }
+            createConnection(context);
+            created = true;
+        } finally {
+            synchronized (lock) {
+                --creatingConnections;
+                if (created) {
+                    pool.addToActivePool(context.getManagedConnection(), context.getSubject(),
+                            context.getRequestInfo());
+                } else {
+                    lock.notifyAll();
+                }
             }
+        }
+    }
+
+    /**
+     * 後続のコネクション管理ポリシーからコネクションを取得します．
+     * <p>
+     * {@link #parallelCreation}が<code>false</code>の場合，コネクションの作成は一つずつ行われます．
+     * いずれの場合もプールの同期の外側で呼び出されるため，作成中もコネクションのチェックアウトやチェックインは妨げられません．
+     * </p>
+     * 
+     * @param context
+     *            コネクション管理コンテキスト
+     * @throws ResourceException
+     *             コネクションの取得中に例外が発生した場合
+     */
+    protected void createConnection(final ConnectionManagementContext context)
+            throws ResourceException {
+        if (parallelCreation) {
+            allocateFromNextPolicy(context);
+            return;
+        }
+        synchronized (creationLock) {
+            allocateFromNextPolicy(context);
+        }
+    }
+
+    /**
+     * 後続のコネクション管理ポリシーからコネクションを取得し，その所要時間を{@link #poolMetrics}に記録します．
+     * 
+     * @param context
+     *            コネクション管理コンテキスト
+     * @throws ResourceException
+     *             コネクションの取得中に例外が発生した場合
+     */
+    protected void allocateFromNextPolicy(final ConnectionManagementContext context)
+            throws ResourceException {
+        if (poolMetrics == null) {
+            nextPolicy.allocate(context);
+            markCreated(context.getManagedConnection(), System.currentTimeMillis());
+            return;
+        }
+        final long start = System.nanoTime();
+        boolean created = false;
+        try {
             nextPolicy.allocate(context);
-            pool.addToActivePool(context.getManagedConnection());
+            markCreated(context.getManagedConnection(), System.currentTimeMillis());
+            created = true;
+        } finally {
+            if (created) {
+                poolMetrics.connectionCreated(System.nanoTime() - start);
+            } else {
+                poolMetrics.connectionCreationFailed();
+            }
         }
     }
 
     /**
      * プールに空きができるまで待機します．
+     * <p>
+     * 待機しているスレッドの数が{@link #maxWaitingThreads}に達している場合，
+     * または{@link #blockingTimeout}を経過してもプールに空きができない場合は{@link SResourceAllocationException}をスローします．
+     * </p>
      * 
      * @throws ResourceException
      *             待機中に例外が発生した場合
      */
     protected void waitForFreePool() throws ResourceException {
-        while (pool.getFreePoolSize() == 0 && pool.getActivePoolSize() >= maxPoolSize) {
-            try {
-                lock.wait();
-            } catch (final InterruptedException e) {
-                throw new SResourceException("EJCA0000", e);
+        if (!isExhausted()) {
+            return;
+        }
+        assertWaitable(waitingThreads);
+        ++waitingThreads;
+        try {
+            final long deadline = System.currentTimeMillis() + blockingTimeout;
+            while (isExhausted()) {
+                if (blockingTimeout <= 0) {
+                    lock.wait();
+                    continue;
+                }
+                final long rest = deadline - System.currentTimeMillis();
+                if (rest <= 0) {
+                    if (poolMetrics != null) {
+                        poolMetrics.checkoutTimedOut();
+                    }
+                    throw new SResourceAllocationException("EJCA1035",
+                            new Object[] { blockingTimeout });
+                }
+                lock.wait(rest);
+            }
+        } catch (final InterruptedException e) {
+            throw new SResourceException("EJCA0000", e);
+        } finally {
+            --waitingThreads;
+        }
+    }
+
+    /**
+     * 未使用のコネクションがなく，使用中のコネクション (作成中および検証中のものを含む) が最大値に達している場合は<code>true</code>を返します．
+     * 
+     * @return 未使用のコネクションがなく，使用中のコネクションが最大値に達している場合は<code>true</code>
+     */
+    protected boolean isExhausted() {
+        return pool.getFreePoolSize() == 0
+                && pool.getActivePoolSize() + creatingConnections + validatingConnections >= maxPoolSize;
+    }
+
+    /**
+     * さらにスレッドがコネクションの取得を待機できることを確認します．
+     * 
+     * @param waiting
+     *            コネクションの取得を待機しているスレッドの数
+     * @throws ResourceException
+     *             待機しているスレッドの数が最大数に達している場合
+     */
+    protected void assertWaitable(final int waiting) throws ResourceException {
+        if (maxWaitingThreads >= 0 && waiting >= maxWaitingThreads) {
+            if (poolMetrics != null) {
+                poolMetrics.checkoutRejected();
             }
+            throw new SResourceAllocationException("EJCA1036", new Object[] { maxWaitingThreads });
         }
     }
 
@@ -199,8 +537,7 @@ public class BasicPoolingPolicy extends AbstractPolicy {
         final ManagedConnection mc = pool.getMatched(context.getSubject(),
                 context.getRequestInfo(), mcf);
         if (mc != null) {
-            final ExpireTask task = pool.moveFreeToActivePool(mc);
-            task.cancel();
+            pool.moveFreeToActivePool(mc);
             if (logger.isDebugEnabled()) {
                 logger.log("DJCA1006", new Object[] { mc });
             }
@@ -211,25 +548,48 @@ public class BasicPoolingPolicy extends AbstractPolicy {
     /**
      * 未使用コネクションのプールから先頭のコネクションを解放します．
      * 
+     * @return コネクションを解放した場合は<code>true</code>，未使用のコネクションがなかった場合は<code>false</code>
      * @throws ResourceException
      *             コネクションの解放中に例外が発生した場合
      */
-    protected void releaseFirstFromFree() throws ResourceException {
-        final ManagedConnection mc = pool.getFirstFromFree();
-        nextPolicy.release(mc);
-        final ExpireTask task = pool.removeFromFreePool(mc);
-        if (task != null) {
-            task.cancel();
+    protected boolean releaseFirstFromFree() throws ResourceException {
+        final ManagedConnection mc;
+        synchronized (lock) {
+            if (pool.getFreePoolSize() == 0) {
+                return false;
+            }
+            mc = removeFirstFromFree();
         }
+        if (poolMetrics != null) {
+            poolMetrics.connectionEvicted();
+        }
+        nextPolicy.release(mc);
+        return true;
+    }
+
+    /**
+     * 未使用コネクションのプールから先頭のコネクションを取り除いて返します．
+     * <p>
+     * 呼び出し元は返されたコネクションを後続のコネクション管理ポリシーに返さなくてはなりません．
+     * </p>
+     * 
+     * @return 未使用コネクションのプールの先頭にあったコネクション
+     */
+    protected ManagedConnection removeFirstFromFree() {
+        final ManagedConnection mc = pool.getFirstFromFree();
+        pool.removeFromFreePool(mc);
+        forgetValidation(mc);
         if (logger.isDebugEnabled()) {
             logger.log("DJCA1008", new Object[] { mc });
         }
+        return mc;
     }
 
     /**
      * マネージドコネクションを未使用コネクションのプールにチェックインします．
      * <p>
      * プールしているコネクションが最大値に達している場合はマネージドコネクションを後続のコネクション管理ポリシーに渡します．
+     * マネージドコネクションには最後にスイープした時刻が関連づけられます．
      * </p>
      * 
      * @param mc
@@ -238,10 +598,10 @@ public class BasicPoolingPolicy extends AbstractPolicy {
      */
     protected boolean checkIn(final ManagedConnection mc) {
         synchronized (lock) {
-            if (isFreePoolFull() || !pool.removeFromActivePool(mc)) {
+            if (isFreePoolFull() || !pool.containsActive(mc)) {
                 return false;
             }
-            pool.addToFreePool(mc, new ExpireTask(mc));
+            pool.moveActiveToFreePool(mc, lastSweepTime);
             lock.notifyAll();
         }
 
@@ -259,110 +619,1262 @@ public class BasicPoolingPolicy extends AbstractPolicy {
      */
     protected void purge(final ManagedConnection mc) {
         boolean removed = false;
-        TimerTask task = null;
         synchronized (lock) {
-            task = pool.removeFromFreePool(mc);
-            removed = task != null || pool.removeFromActivePool(mc);
+            removed = pool.removeFromFreePool(mc) != null || pool.removeFromActivePool(mc);
             if (removed) {
                 lock.notifyAll();
             }
         }
-        if (task != null) {
-            task.cancel();
+        if (!removed) {
+            return;
         }
-        if (removed && logger.isDebugEnabled()) {
+        if (poolMetrics != null) {
+            poolMetrics.connectionPurged();
+        }
+        if (logger.isDebugEnabled()) {
             logger.log("DJCA1008", new Object[] { mc });
         }
     }
 
     /**
-     * プールするコネクションの最小値を返します．
+     * フリープールから取り出したコネクションを検証します．
+     * <p>
+     * {@link #validateOnBorrow}が<code>false</code>の場合や，{@link #validationInterval}の間に検証されている場合は検証しません．
+     * コネクションが無効な場合はプールから破棄して<code>false</code>を返します．
+     * </p>
      * 
-     * @return プールするコネクションの最小値
+     * @param mc
+     *            フリープールから取り出したコネクション
+     * @return コネクションを使用できる場合は<code>true</code>
      */
-    public int getMinPoolSize() {
-        return minPoolSize;
+    protected boolean validateBorrowed(final ManagedConnection mc) {
+        if (!validateOnBorrow) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        if (!needsValidation(mc, now)) {
+            return true;
+        }
+        final Set<ManagedConnection> candidates = new HashSet<ManagedConnection>();
+        candidates.add(mc);
+        if (!getInvalidConnections(candidates).contains(mc)) {
+            markValidated(mc, now);
+            return true;
+        }
+        removeInvalidFromActive(mc);
+        discardInvalid(Collections.singletonList(mc));
+        return false;
     }
 
     /**
-     * プールするコネクションの最小値を設定します．
+     * 無効なコネクションを使用中のコネクションのプールから取り除きます．
      * 
-     * @param minPoolSize
-     *            プールするコネクションの最小値
+     * @param mc
+     *            無効なコネクション
      */
-    public void setMinPoolSize(final int minPoolSize) {
-        this.minPoolSize = minPoolSize;
+    protected void removeInvalidFromActive(final ManagedConnection mc) {
+        synchronized (lock) {
+            pool.removeFromActivePool(mc);
+            lock.notifyAll();
+        }
     }
 
     /**
-     * プールするコネクションの最大値を返します．
+     * アイドル状態のコネクションを{@link #validationBatchSize}個ずつ検証し，無効なコネクションをプールから破棄します．
+     * <p>
+     * 検証中のコネクションはフリープールから取り出されるため，他のスレッドに割り当てられることはありません．
+     * 有効なコネクションはフリープールに戻されます．
+     * </p>
      * 
-     * @return プールするコネクションの最大値
+     * @param now
+     *            現在時刻 (ミリ秒単位)
      */
-    public int getMaxPoolSize() {
-        return maxPoolSize;
+    protected void validateIdle(final long now) {
+        if (!validateWhileIdle || !(mcf instanceof ValidatingManagedConnectionFactory)) {
+            return;
+        }
+        int remaining = getFreePoolSize();
+        while (remaining > 0 && !disposed) {
+            final List<IdleConnection> batch = takeIdle(now, Math.min(Math.max(1,
+                    validationBatchSize), remaining));
+            if (batch.isEmpty()) {
+                return;
+            }
+            remaining -= batch.size();
+
+            final Set<ManagedConnection> candidates = new HashSet<ManagedConnection>();
+            for (final IdleConnection idle : batch) {
+                candidates.add(idle.mc);
+            }
+            final Set<?> invalid = getInvalidConnections(candidates);
+            final List<ManagedConnection> discarded = new ArrayList<ManagedConnection>();
+            for (final IdleConnection idle : batch) {
+                if (invalid.contains(idle.mc)) {
+                    dropIdle(idle);
+                    discarded.add(idle.mc);
+                } else {
+                    markValidated(idle.mc, now);
+                    if (!restoreIdle(idle)) {
+                        forgetValidation(idle.mc);
+                        silentRelease(idle.mc);
+                    }
+                }
+            }
+            discardInvalid(discarded);
+        }
     }
 
     /**
-     * プールするコネクションの最大値を設定します．
+     * 検証が必要なアイドル状態のコネクションを古い順にフリープールから取り出します．
      * 
-     * @param maxPoolSize
-     *            プールするコネクションの最大値
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     * @param limit
+     *            取り出すコネクションの最大数
+     * @return 取り出したコネクションのリスト
      */
-    public void setMaxPoolSize(final int maxPoolSize) {
-        this.maxPoolSize = maxPoolSize;
+    protected List<IdleConnection> takeIdle(final long now, final int limit) {
+        final List<IdleConnection> idles = new ArrayList<IdleConnection>();
+        synchronized (lock) {
+            collectIdle(pool, now, limit, idles);
+            validatingConnections += idles.size();
+        }
+        return idles;
     }
 
     /**
-     * アイドル状態のコネクションを開放するまでの時間 (秒単位) を返します．
+     * 検証が必要なアイドル状態のコネクションを古い順に集め，フリープールから取り除きます．
      * 
-     * @return アイドル状態のコネクションを開放するまでの時間 (秒単位)
+     * @param pool
+     *            コネクションプール
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     * @param limit
+     *            リストに含めるコネクションの最大数
+     * @param idles
+     *            取り出したコネクションを追加するリスト
      */
-    public int getTimeout() {
-        return timeout;
+    protected void collectIdle(final ManagedConnectionPool<Long> pool, final long now,
+            final int limit, final List<IdleConnection> idles) {
+        final int start = idles.size();
+        for (final Iterator<Map.Entry<ManagedConnection, Long>> it = pool.getFreePoolEntries()
+                .iterator(); idles.size() < limit && it.hasNext();) {
+            final Map.Entry<ManagedConnection, Long> entry = it.next();
+            final ManagedConnection mc = entry.getKey();
+            if (needsValidation(mc, now)) {
+                idles.add(new IdleConnection(pool, mc, entry.getValue(), pool.getMatchingKey(mc)));
+            }
+        }
+        for (int i = start; i < idles.size(); ++i) {
+            pool.removeFromFreePool(idles.get(i).mc);
+        }
     }
 
     /**
-     * アイドル状態のコネクションを開放するまでの時間 (秒単位) を設定します．
+     * 検証に成功したコネクションをフリープールに戻します．
+     * <p>
+     * {@link #collectExpired(ManagedConnectionPool, long, int, List)}はフリープールが古い順に並んでいることを前提とするため，
+     * コネクションは元のチェックイン時刻の順序を保つ位置に戻されます．
+     * </p>
      * 
-     * @param timeout
-     *            アイドル状態のコネクションを開放するまでの時間 (秒単位)
+     * @param idle
+     *            検証のために取り出したコネクション
+     * @return コネクションをフリープールに戻した場合は<code>true</code>
      */
-    public void setTimeout(final int timeout) {
-        this.timeout = timeout;
+    protected boolean restoreIdle(final IdleConnection idle) {
+        synchronized (lock) {
+            --validatingConnections;
+            lock.notifyAll();
+            if (disposed) {
+                return false;
+            }
+            pool.addToFreePool(idle.mc, idle.checkInTime, idle.key, CHECK_IN_ORDER);
+            return true;
+        }
     }
 
     /**
-     * アイドリング状態のままタイムアウト時間が経過したコネクションをクローズする{@link TimerTask}の実装クラスです．
+     * 検証に失敗したコネクションの予約を解除します．
+     * 
+     * @param idle
+     *            検証のために取り出したコネクション
      */
-    public class ExpireTask extends TimerTask {
-
-        /** アイドリング状態のマネージドコネクション */
-        protected ManagedConnection managedConnection;
+    protected void dropIdle(final IdleConnection idle) {
+        synchronized (lock) {
+            --validatingConnections;
+            lock.notifyAll();
+        }
+    }
 
-        /**
-         * インスタンスを構築します．
-         * 
-         * @param mc
-         *            マネージドコネクション
-         */
-        public ExpireTask(final ManagedConnection mc) {
-            this.managedConnection = mc;
-            timer.schedule(this, timeout * 1000);
+    /**
+     * マネージドコネクションファクトリを使用して無効なコネクションを返します．
+     * <p>
+     * マネージドコネクションファクトリが{@link ValidatingManagedConnectionFactory}を実装していない場合や，
+     * 検証中に例外が発生した場合は空の{@link Set}を返します．
+     * </p>
+     * 
+     * @param candidates
+     *            検証するコネクションの{@link Set}
+     * @return 無効なコネクションの{@link Set}
+     */
+    protected Set<?> getInvalidConnections(final Set<ManagedConnection> candidates) {
+        if (!(mcf instanceof ValidatingManagedConnectionFactory)) {
+            return Collections.emptySet();
         }
+        try {
+            final Set<?> invalid = ValidatingManagedConnectionFactory.class.cast(mcf)
+                    .getInvalidConnections(candidates);
+            return invalid != null ? invalid : Collections.emptySet();
+        } catch (final ResourceException e) {
+            logger.log("WJCA1042", null, e);
+            return Collections.emptySet();
+        }
+    }
 
-        @Override
-        public void run() {
-            synchronized (lock) {
-                if (pool.getFreePoolSize() <= minPoolSize
-                        || pool.removeFromFreePool(managedConnection) == null) {
-                    return;
-                }
-            }
+    /**
+     * 無効なコネクションを後続のコネクション管理ポリシーに返します．
+     * 
+     * @param invalid
+     *            プールから取り除かれた無効なコネクション
+     */
+    protected void discardInvalid(final Collection<ManagedConnection> invalid) {
+        if (invalid.isEmpty()) {
+            return;
+        }
+        if (poolMetrics != null) {
+            poolMetrics.connectionsInvalidated(invalid.size());
+        }
+        for (final ManagedConnection mc : invalid) {
+            forgetValidation(mc);
             if (logger.isDebugEnabled()) {
-                logger.log("DJCA1008", new Object[] { managedConnection });
+                logger.log("DJCA1041", new Object[] { mc });
             }
-            silentRelease(managedConnection);
+            silentRelease(mc);
+        }
+        replenish();
+    }
+
+    /**
+     * コネクションを検証する必要がある場合は<code>true</code>を返します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     * @return コネクションを検証する必要がある場合は<code>true</code>
+     */
+    protected boolean needsValidation(final ManagedConnection mc, final long now) {
+        if (validationInterval <= 0) {
+            return true;
+        }
+        final Long validated = validatedTimes.get(mc);
+        return validated == null || now - validated.longValue() >= validationInterval;
+    }
+
+    /**
+     * コネクションを検証 (または作成) した時刻を記録します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     */
+    protected void markValidated(final ManagedConnection mc, final long now) {
+        if (validationInterval > 0 && (validateOnBorrow || validateWhileIdle)) {
+            validatedTimes.put(mc, now);
+        }
+    }
+
+    /**
+     * コネクションを検証した時刻と破棄する時刻の記録を破棄します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     */
+    protected void forgetValidation(final ManagedConnection mc) {
+        if (validationInterval > 0) {
+            validatedTimes.remove(mc);
+        }
+        if (maxLifetime > 0) {
+            retireTimes.remove(mc);
+        }
+    }
+
+    /**
+     * 作成したコネクションを検証済みとし，{@link #maxLifetime}が設定されていれば破棄する時刻を記録します．
+     * <p>
+     * 破棄する時刻は作成時刻に{@link #maxLifetime}を加えた時刻から，
+     * {@link #getLifetimeJitter()}を上限とするランダムな時間だけ早められます．
+     * </p>
+     * 
+     * @param mc
+     *            作成したマネージドコネクション
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     */
+    protected void markCreated(final ManagedConnection mc, final long now) {
+        markValidated(mc, now);
+        if (maxLifetime > 0) {
+            final long jitter = (long) (random.nextDouble() * getLifetimeJitter());
+            retireTimes.put(mc, now + maxLifetime - jitter);
+        }
+    }
+
+    /**
+     * 返却されたコネクションの寿命が過ぎていれば，使用中のコネクションのプールから取り除いて破棄します．
+     * <p>
+     * コネクションを破棄した場合は代わりのコネクションの作成をスケジュールします．
+     * </p>
+     * 
+     * @param mc
+     *            返却されたマネージドコネクション
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     * @return コネクションを破棄した場合は<code>true</code>
+     * @throws ResourceException
+     *             コネクションの破棄中に例外が発生した場合
+     */
+    protected boolean retire(final ManagedConnection mc, final long now) throws ResourceException {
+        final Long retireTime = retireTimes.get(mc);
+        if (retireTime == null || now < retireTime.longValue() || !removeRetired(mc)) {
+            return false;
+        }
+        forgetValidation(mc);
+        if (poolMetrics != null) {
+            poolMetrics.connectionsExpired(1);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.log("DJCA1051", new Object[] { mc });
+        }
+        try {
+            nextPolicy.release(mc);
+        } finally {
+            scheduleReplacement();
+        }
+        return true;
+    }
+
+    /**
+     * 寿命が過ぎたコネクションを使用中のコネクションのプールから取り除きます．
+     * 
+     * @param mc
+     *            寿命が過ぎたマネージドコネクション
+     * @return コネクションを取り除いた場合は<code>true</code>
+     */
+    protected boolean removeRetired(final ManagedConnection mc) {
+        synchronized (lock) {
+            if (!pool.removeFromActivePool(mc)) {
+                return false;
+            }
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * 破棄したコネクションの代わりのコネクションの作成をスケジュールします．
+     */
+    protected void scheduleReplacement() {
+        if (!replaceRetired || disposed) {
+            return;
+        }
+        try {
+            bc.getWorkManager().scheduleWork(new ReplaceWork());
+        } catch (final WorkException e) {
+            logger.log("WJCA1038", null, e);
+        }
+    }
+
+    /**
+     * プールされているコネクションが{@link #maxPoolSize}に満たなければ，代わりのコネクション一つ分を予約します．
+     * 
+     * @return 代わりのコネクションを予約した場合は<code>true</code>
+     */
+    protected boolean reserveReplacement() {
+        synchronized (lock) {
+            if (disposed
+                    || pool.size() + creatingConnections + replenishingConnections >= maxPoolSize) {
+                return false;
+            }
+            ++replenishingConnections;
+            return true;
+        }
+    }
+
+    /**
+     * チェックアウトされたコネクションについて，チェックアウトした時刻とスレッドを記録します．
+     * <p>
+     * {@link #leakStackSamplingRate}回に一回はチェックアウトしたスレッドのスタックトレースも記録します．
+     * </p>
+     * 
+     * @param mc
+     *            チェックアウトされたマネージドコネクション
+     */
+    protected void recordCheckout(final ManagedConnection mc) {
+        final Thread thread = Thread.currentThread();
+        Throwable stack = null;
+        if (leakStackSamplingRate > 0 && ++checkoutCount % leakStackSamplingRate == 0) {
+            stack = new Throwable(thread.getName());
+        }
+        checkouts.put(mc, new Checkout(System.currentTimeMillis(), thread.getName(), stack));
+    }
+
+    /**
+     * チェックアウトの記録を取り除き，マネージドコネクションがリークの疑いとして回収済みなら<code>true</code>を返します．
+     * <p>
+     * チェックアウトの記録を取り除けた場合，回収と競合しても返却が優先されます．
+     * 回収はチェックアウトの記録を取り除く前に{@link #reclaimedConnections}に記録するため，
+     * チェックアウトの記録が既に取り除かれていれば回収済みであることを確認できます．
+     * </p>
+     * 
+     * @param mc
+     *            返却されたマネージドコネクション
+     * @return マネージドコネクションが回収済みの場合は<code>true</code>
+     */
+    protected boolean isReclaimed(final ManagedConnection mc) {
+        if (checkouts.remove(mc) != null || !reclaimLeakedConnections) {
+            return false;
+        }
+        return reclaimedConnections.remove(mc) != null;
+    }
+
+    /**
+     * リークの疑いのあるコネクションを回収済みとして記録し，チェックアウトの記録を取り除きます．
+     * <p>
+     * チェックアウトの記録を取り除く前にアプリケーションが返却した場合は，回収済みの記録を取り消して<code>false</code>を返します．
+     * </p>
+     * 
+     * @param mc
+     *            リークの疑いのあるマネージドコネクション
+     * @param checkout
+     *            チェックアウトの記録
+     * @return コネクションを回収した場合は<code>true</code>
+     */
+    protected boolean markReclaimed(final ManagedConnection mc, final Checkout checkout) {
+        reclaimedConnections.put(mc, checkout);
+        if (checkouts.remove(mc, checkout)) {
+            return true;
+        }
+        synchronized (reclaimedConnections) {
+            if (reclaimedConnections.get(mc) == checkout) {
+                reclaimedConnections.remove(mc);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@link #leakDetectionThreshold}以上の時間チェックアウトされたままのコネクションを警告し，
+     * {@link #reclaimLeakedConnections}が<code>true</code>ならプールから回収します．
+     * <p>
+     * 一つのチェックアウトについて警告するのは一度だけです．
+     * 回収したコネクションはチェックアウトの記録から取り除かれ，{@link #reclaimedConnections}に弱参照で記録されます．
+     * </p>
+     * 
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     */
+    protected void detectLeaks(final long now) {
+        if (leakDetectionThreshold <= 0 || checkouts.isEmpty()) {
+            return;
+        }
+        boolean reclaimed = false;
+        for (final Map.Entry<ManagedConnection, Checkout> entry : checkouts.entrySet()) {
+            final ManagedConnection mc = entry.getKey();
+            final Checkout checkout = entry.getValue();
+            if (now - checkout.time < leakDetectionThreshold) {
+                continue;
+            }
+            if (!checkout.reported) {
+                checkout.reported = true;
+                logger.log("WJCA1049", new Object[] { mc, checkout.threadName,
+                        now - checkout.time }, checkout.stack);
+            }
+            if (reclaimLeakedConnections && markReclaimed(mc, checkout)) {
+                purge(mc);
+                forgetValidation(mc);
+                logger.log("WJCA1050", new Object[] { mc });
+                silentRelease(mc);
+                reclaimed = true;
+            }
+        }
+        if (reclaimed) {
+            replenish();
+        }
+    }
+
+    /**
+     * リークの疑いのあるコネクションの数を返します．
+     * 
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     * @return {@link #leakDetectionThreshold}以上の時間チェックアウトされたままのコネクションの数
+     */
+    public int getLeakSuspectCount(final long now) {
+        if (leakDetectionThreshold <= 0) {
+            return 0;
+        }
+        int count = 0;
+        for (final Checkout checkout : checkouts.values()) {
+            if (now - checkout.time >= leakDetectionThreshold) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 使用中のコネクションの数を返します．
+     * 
+     * @return 使用中のコネクションの数
+     */
+    public int getActivePoolSize() {
+        synchronized (lock) {
+            return pool.getActivePoolSize();
+        }
+    }
+
+    /**
+     * 未使用のコネクションの数を返します．
+     * 
+     * @return 未使用のコネクションの数
+     */
+    public int getFreePoolSize() {
+        synchronized (lock) {
+            return pool.getFreePoolSize();
+        }
+    }
+
+    /**
+     * プールするコネクションの最小値を返します．
+     * 
+     * @return プールするコネクションの最小値
+     */
+    public int getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    /**
+     * プールするコネクションの最小値を設定します．
+     * 
+     * @param minPoolSize
+     *            プールするコネクションの最小値
+     */
+    public void setMinPoolSize(final int minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    /**
+     * プールするコネクションの最大値を返します．
+     * 
+     * @return プールするコネクションの最大値
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * プールするコネクションの最大値を設定します．
+     * 
+     * @param maxPoolSize
+     *            プールするコネクションの最大値
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * アイドル状態のコネクションを開放するまでの時間 (秒単位) を返します．
+     * 
+     * @return アイドル状態のコネクションを開放するまでの時間 (秒単位)
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * アイドル状態のコネクションを開放するまでの時間 (秒単位) を設定します．
+     * 
+     * @param timeout
+     *            アイドル状態のコネクションを開放するまでの時間 (秒単位)
+     */
+    public void setTimeout(final int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * コネクションの取得を待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return コネクションの取得を待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * コネクションの取得を待機する最大時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合はプールに空きができるまで無期限に待機します．
+     * </p>
+     * 
+     * @param blockingTimeout
+     *            コネクションの取得を待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * コネクションの取得を待機できるスレッドの最大数を返します．
+     * 
+     * @return コネクションの取得を待機できるスレッドの最大数
+     */
+    public int getMaxWaitingThreads() {
+        return maxWaitingThreads;
+    }
+
+    /**
+     * コネクションの取得を待機できるスレッドの最大数を設定します．
+     * <p>
+     * 負数の場合は無制限です．<code>0</code>の場合，プールに空きがなければ待機せずに直ちに例外をスローします．
+     * </p>
+     * 
+     * @param maxWaitingThreads
+     *            コネクションの取得を待機できるスレッドの最大数
+     */
+    public void setMaxWaitingThreads(final int maxWaitingThreads) {
+        this.maxWaitingThreads = maxWaitingThreads;
+    }
+
+    /**
+     * フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>を返します．
+     * 
+     * @return フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>
+     */
+    public boolean isKeyedMatching() {
+        return keyedMatching;
+    }
+
+    /**
+     * フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>を設定します．
+     * <p>
+     * <code>true</code>の場合，{@link ManagedConnectionFactory#matchManagedConnections(java.util.Set, javax.security.auth.Subject, javax.resource.spi.ConnectionRequestInfo)}には
+     * 要求と同じサブジェクトとコネクション要求情報で作成されたマネージドコネクションだけが候補として渡されます．
+     * 異なるサブジェクトやコネクション要求情報で作成されたマネージドコネクションを再利用できるリソースアダプタでは<code>false</code>
+     * (デフォルト) のままにしてください．
+     * このプロパティは{@link #initialize(ManagedConnectionFactory, ConnectionManagementPolicy)}より前に設定する必要があります．
+     * </p>
+     * 
+     * @param keyedMatching
+     *            フリープールをサブジェクトとコネクション要求情報で索引付けしてマッチングする場合は<code>true</code>
+     */
+    public void setKeyedMatching(final boolean keyedMatching) {
+        this.keyedMatching = keyedMatching;
+    }
+
+    /**
+     * プールされているコネクションが{@link #minPoolSize}に満たなければ，コネクションの補充をスケジュールします．
+     * <p>
+     * {@link #prefill}が<code>false</code>の場合や，既に補充がスケジュールされている場合は何もしません．
+     * </p>
+     */
+    protected void replenish() {
+        if (!prefill || disposed || !replenishing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            bc.getWorkManager().scheduleWork(new ReplenishWork());
+        } catch (final WorkException e) {
+            replenishing.set(false);
+            logger.log("WJCA1038", null, e);
+        }
+    }
+
+    /**
+     * プールされているコネクションが{@link #minPoolSize}に満たなければ，補充するコネクション一つ分を予約します．
+     * 
+     * @return 補充するコネクションを予約した場合は<code>true</code>
+     */
+    protected boolean reserveReplenishment() {
+        synchronized (lock) {
+            if (disposed
+                    || pool.size() + replenishingConnections >= Math.min(minPoolSize, maxPoolSize)) {
+                return false;
+            }
+            ++replenishingConnections;
+            return true;
+        }
+    }
+
+    /**
+     * 予約したコネクションの補充を取り消します．
+     */
+    protected void cancelReplenishment() {
+        synchronized (lock) {
+            --replenishingConnections;
+        }
+    }
+
+    /**
+     * 補充のために作成したコネクションをフリープールに追加します．
+     * <p>
+     * コネクションはキーが不明なものとして追加され，最初にマッチングした要求のキーで索引付けされます．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションをフリープールに追加した場合は<code>true</code>
+     */
+    protected boolean addReplenishment(final ManagedConnection mc) {
+        synchronized (lock) {
+            --replenishingConnections;
+            if (disposed || isFreePoolFull()) {
+                return false;
+            }
+            pool.addToFreePool(mc, lastSweepTime);
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * 後続のコネクション管理ポリシーからコネクションを一つ取得してプールに補充します．
+     * 
+     * @return コネクションを補充した場合は<code>true</code>
+     */
+    protected boolean replenishOne() {
+        final ManagedConnection mc;
+        try {
+            final ConnectionManagementContext context = new ConnectionManagementContext(null,
+                    null, mcf);
+            createConnection(context);
+            mc = context.getManagedConnection();
+        } catch (final ResourceException e) {
+            cancelReplenishment();
+            logger.log("WJCA1038", null, e);
+            return false;
+        }
+        if (!addReplenishment(mc)) {
+            silentRelease(mc);
+            return false;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.log("DJCA1037", new Object[] { mc });
+        }
+        return true;
+    }
+
+    /**
+     * アイドル状態のコネクションをスイープする間隔 (ミリ秒単位) を返します．
+     * <p>
+     * {@link #sweepInterval}が設定されていない場合は{@link #timeout}の1/10 (100ミリ秒以上1分以下) を返します．
+     * </p>
+     * 
+     * @return アイドル状態のコネクションをスイープする間隔 (ミリ秒単位)
+     */
+    public long getSweepInterval() {
+        if (sweepInterval > 0) {
+            return sweepInterval;
+        }
+        return Math.max(100L, Math.min(timeout * 100L, 60 * 1000L));
+    }
+
+    /**
+     * アイドル状態のコネクションをスイープする間隔 (ミリ秒単位) を設定します．
+     * 
+     * @param sweepInterval
+     *            アイドル状態のコネクションをスイープする間隔 (ミリ秒単位)
+     */
+    public void setSweepInterval(final long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * アイドル状態のコネクションを期限切れにするエンジンを返します．
+     * 
+     * @return アイドル状態のコネクションを期限切れにするエンジン
+     */
+    public ExpiryEngine getExpiryEngine() {
+        return expiryEngine;
+    }
+
+    /**
+     * アイドル状態のコネクションを期限切れにするエンジンを設定します．
+     * <p>
+     * 設定されていない場合は{@link BootstrapContext#createTimer()}で作成したタイマを使用する{@link TimerExpiryEngine}が使われます．
+     * </p>
+     * 
+     * @param expiryEngine
+     *            アイドル状態のコネクションを期限切れにするエンジン
+     */
+    public void setExpiryEngine(final ExpiryEngine expiryEngine) {
+        this.expiryEngine = expiryEngine;
+    }
+
+    /**
+     * プールするコネクションの最小値まで非同期にコネクションを補充する場合は<code>true</code>を返します．
+     * 
+     * @return プールするコネクションの最小値まで非同期にコネクションを補充する場合は<code>true</code>
+     */
+    public boolean isPrefill() {
+        return prefill;
+    }
+
+    /**
+     * プールするコネクションの最小値まで非同期にコネクションを補充する場合は<code>true</code>を設定します．
+     * 
+     * @param prefill
+     *            プールするコネクションの最小値まで非同期にコネクションを補充する場合は<code>true</code>
+     */
+    public void setPrefill(final boolean prefill) {
+        this.prefill = prefill;
+    }
+
+    /**
+     * 複数のコネクションを並行して作成する場合は<code>true</code>を返します．
+     * 
+     * @return 複数のコネクションを並行して作成する場合は<code>true</code>
+     */
+    public boolean isParallelCreation() {
+        return parallelCreation;
+    }
+
+    /**
+     * 複数のコネクションを並行して作成する場合は<code>true</code>を設定します．
+     * <p>
+     * <code>true</code>の場合，コネクションの要求が集中した際に，プールの最大値の範囲内で複数のコネクションが同時に作成されます．
+     * </p>
+     * 
+     * @param parallelCreation
+     *            複数のコネクションを並行して作成する場合は<code>true</code>
+     */
+    public void setParallelCreation(final boolean parallelCreation) {
+        this.parallelCreation = parallelCreation;
+    }
+
+    /**
+     * フリープールから取り出したコネクションを検証する場合は<code>true</code>を返します．
+     * 
+     * @return フリープールから取り出したコネクションを検証する場合は<code>true</code>
+     */
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    /**
+     * フリープールから取り出したコネクションを検証する場合は<code>true</code>を設定します．
+     * 
+     * @param validateOnBorrow
+     *            フリープールから取り出したコネクションを検証する場合は<code>true</code>
+     */
+    public void setValidateOnBorrow(final boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>を返します．
+     * 
+     * @return スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>
+     */
+    public boolean isValidateWhileIdle() {
+        return validateWhileIdle;
+    }
+
+    /**
+     * スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>を設定します．
+     * 
+     * @param validateWhileIdle
+     *            スイープ時にアイドル状態のコネクションを検証する場合は<code>true</code>
+     */
+    public void setValidateWhileIdle(final boolean validateWhileIdle) {
+        this.validateWhileIdle = validateWhileIdle;
+    }
+
+    /**
+     * 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位) を返します．
+     * 
+     * @return 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位)
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * 同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合，コネクションは検証の機会ごとに検証されます．
+     * </p>
+     * 
+     * @param validationInterval
+     *            同じコネクションを再び検証するまでの最小の間隔 (ミリ秒単位)
+     */
+    public void setValidationInterval(final long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * アイドル状態のコネクションを一度に検証する数を返します．
+     * 
+     * @return アイドル状態のコネクションを一度に検証する数
+     */
+    public int getValidationBatchSize() {
+        return validationBatchSize;
+    }
+
+    /**
+     * アイドル状態のコネクションを一度に検証する数を設定します．
+     * 
+     * @param validationBatchSize
+     *            アイドル状態のコネクションを一度に検証する数
+     */
+    public void setValidationBatchSize(final int validationBatchSize) {
+        this.validationBatchSize = validationBatchSize;
+    }
+
+    /**
+     * コネクションプールの統計情報を収集するSPIを返します．
+     * 
+     * @return コネクションプールの統計情報を収集するSPI
+     */
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    /**
+     * コネクションプールの統計情報を収集するSPIを設定します．
+     * <p>
+     * このプロパティは{@link #initialize(ManagedConnectionFactory, ConnectionManagementPolicy)}より前に設定する必要があります．
+     * </p>
+     * 
+     * @param poolMetrics
+     *            コネクションプールの統計情報を収集するSPI
+     */
+    public void setPoolMetrics(final PoolMetrics poolMetrics) {
+        this.poolMetrics = poolMetrics;
+    }
+
+    /**
+     * リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位) を返します．
+     * 
+     * @return リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位)
+     */
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    /**
+     * リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合はリークを検出しません．
+     * リークはスイープ時に検出されるため，実際に警告されるのはこの時間にスイープ間隔を加えた時間が経過するまでの間です．
+     * </p>
+     * 
+     * @param leakDetectionThreshold
+     *            リークの疑いとして警告するまでのチェックアウトされている時間 (ミリ秒単位)
+     */
+    public void setLeakDetectionThreshold(final long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * チェックアウトしたスレッドのスタックトレースを記録する頻度を返します．
+     * 
+     * @return チェックアウトしたスレッドのスタックトレースを記録する頻度
+     */
+    public int getLeakStackSamplingRate() {
+        return leakStackSamplingRate;
+    }
+
+    /**
+     * チェックアウトしたスレッドのスタックトレースを記録する頻度を設定します．
+     * <p>
+     * <code>n</code>を設定すると<code>n</code>回のチェックアウトに一回スタックトレースを記録します．
+     * <code>1</code>なら全てのチェックアウトで記録し，<code>0</code>以下なら記録しません．
+     * スタックトレースの取得は比較的高価なので，本番環境では大きめの値を設定してください．
+     * </p>
+     * 
+     * @param leakStackSamplingRate
+     *            チェックアウトしたスレッドのスタックトレースを記録する頻度
+     */
+    public void setLeakStackSamplingRate(final int leakStackSamplingRate) {
+        this.leakStackSamplingRate = leakStackSamplingRate;
+    }
+
+    /**
+     * リークの疑いのあるコネクションを回収する場合は<code>true</code>を返します．
+     * 
+     * @return リークの疑いのあるコネクションを回収する場合は<code>true</code>
+     */
+    public boolean isReclaimLeakedConnections() {
+        return reclaimLeakedConnections;
+    }
+
+    /**
+     * リークの疑いのあるコネクションを回収する場合は<code>true</code>を設定します．
+     * <p>
+     * 回収されたコネクションはプールから取り除かれて後続のコネクション管理ポリシーに返されるため，
+     * アプリケーションが保持しているコネクションハンドルは使用できなくなります．
+     * 長時間コネクションを使用し続けるアプリケーションでは{@link #leakDetectionThreshold}を十分に大きくしてください．
+     * </p>
+     * 
+     * @param reclaimLeakedConnections
+     *            リークの疑いのあるコネクションを回収する場合は<code>true</code>
+     */
+    public void setReclaimLeakedConnections(final boolean reclaimLeakedConnections) {
+        this.reclaimLeakedConnections = reclaimLeakedConnections;
+    }
+
+    /**
+     * コネクションの最大の寿命 (ミリ秒単位) を返します．
+     * 
+     * @return コネクションの最大の寿命 (ミリ秒単位)
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * コネクションの最大の寿命 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合，コネクションはアイドル状態のタイムアウトやエラーが発生するまで使われ続けます．
+     * このプロパティはコネクションが作成されるより前に設定する必要があります．
+     * </p>
+     * 
+     * @param maxLifetime
+     *            コネクションの最大の寿命 (ミリ秒単位)
+     */
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位) を返します．
+     * <p>
+     * {@link #lifetimeJitter}が設定されていない場合は{@link #maxLifetime}の1/10を返します．
+     * </p>
+     * 
+     * @return コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位)
+     */
+    public long getLifetimeJitter() {
+        if (lifetimeJitter > 0) {
+            return Math.min(lifetimeJitter, maxLifetime);
+        }
+        return maxLifetime / 10;
+    }
+
+    /**
+     * コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位) を設定します．
+     * 
+     * @param lifetimeJitter
+     *            コネクションの寿命をランダムに短縮する最大の時間 (ミリ秒単位)
+     */
+    public void setLifetimeJitter(final long lifetimeJitter) {
+        this.lifetimeJitter = lifetimeJitter;
+    }
+
+    /**
+     * 寿命が過ぎて破棄したコネクションの代わりのコネクションを非同期に作成する場合は<code>true</code>を返します．
+     * 
+     * @return 寿命が過ぎて破棄したコネクションの代わりのコネクションを非同期に作成する場合は<code>true</code>
+     */
+    public boolean isReplaceRetired() {
+        return replaceRetired;
+    }
+
+    /**
+     * 寿命が過ぎて破棄したコネクションの代わりのコネクションを非同期に作成する場合は<code>true</code>を設定します．
+     * 
+     * @param replaceRetired
+     *            寿命が過ぎて破棄したコネクションの代わりのコネクションを非同期に作成する場合は<code>true</code>
+     */
+    public void setReplaceRetired(final boolean replaceRetired) {
+        this.replaceRetired = replaceRetired;
+    }
+
+    /**
+     * アイドル状態のままタイムアウト時間が経過したコネクションを解放します．
+     * <p>
+     * フリープールは古い順に並んでいるため，タイムアウト時間が経過していないコネクションが見つかった時点で探索を終了します．
+     * チェックイン時に関連づけられる時刻はスイープ間隔の分だけ古い可能性があるため，
+     * タイムアウト時間にスイープ間隔を加えた時間が経過したコネクションを解放します．
+     * 未使用のコネクションが{@link #minPoolSize}以下の場合は解放しません．
+     * </p>
+     * 
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     */
+    public void sweep(final long now) {
+        final long deadline = now - timeout * 1000L - getSweepInterval();
+        final List<ManagedConnection> expired = new ArrayList<ManagedConnection>();
+        synchronized (lock) {
+            lastSweepTime = now;
+            collectExpired(pool, deadline, pool.getFreePoolSize() - minPoolSize, expired);
+            for (final ManagedConnection mc : expired) {
+                pool.removeFromFreePool(mc);
+            }
+        }
+        releaseExpired(expired);
+        validateIdle(now);
+        detectLeaks(now);
+        replenish();
+    }
+
+    /**
+     * フリープールからタイムアウト時間が経過したコネクションを古い順に集めます．
+     * 
+     * @param pool
+     *            コネクションプール
+     * @param deadline
+     *            この時刻以前にチェックインされたコネクションが期限切れとなる時刻
+     * @param limit
+     *            集めるコネクションの最大数
+     * @param expired
+     *            期限切れのコネクションを追加するリスト
+     */
+    protected static void collectExpired(final ManagedConnectionPool<Long> pool,
+            final long deadline, final int limit, final List<ManagedConnection> expired) {
+        int count = 0;
+        for (final Iterator<Map.Entry<ManagedConnection, Long>> it = pool.getFreePoolEntries()
+                .iterator(); count < limit && it.hasNext(); ++count) {
+            final Map.Entry<ManagedConnection, Long> entry = it.next();
+            if (entry.getValue().longValue() > deadline) {
+                break;
+            }
+            expired.add(entry.getKey());
+        }
+    }
+
+    /**
+     * 期限切れになったコネクションを後続のコネクション管理ポリシーに返します．
+     * 
+     * @param expired
+     *            期限切れになったコネクションのリスト
+     */
+    protected void releaseExpired(final List<ManagedConnection> expired) {
+        if (poolMetrics != null && !expired.isEmpty()) {
+            poolMetrics.connectionsExpired(expired.size());
+        }
+        for (final ManagedConnection mc : expired) {
+            forgetValidation(mc);
+            if (logger.isDebugEnabled()) {
+                logger.log("DJCA1008", new Object[] { mc });
+            }
+            silentRelease(mc);
+        }
+    }
+
+    /**
+     * 検証のためにフリープールから取り出したアイドル状態のコネクションです．
+     * 
+     * @author koichik
+     */
+    protected static class IdleConnection {
+
+        /** コネクションを取り出したプール */
+        protected final ManagedConnectionPool<Long> pool;
+
+        /** マネージドコネクション */
+        protected final ManagedConnection mc;
+
+        /** チェックインされた時刻 */
+        protected final Long checkInTime;
+
+        /** マッチングのキー */
+        protected final MatchingKey key;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param pool
+         *            コネクションを取り出したプール
+         * @param mc
+         *            マネージドコネクション
+         * @param checkInTime
+         *            チェックインされた時刻
+         * @param key
+         *            マッチングのキー
+         */
+        protected IdleConnection(final ManagedConnectionPool<Long> pool,
+                final ManagedConnection mc, final Long checkInTime, final MatchingKey key) {
+            this.pool = pool;
+            this.mc = mc;
+            this.checkInTime = checkInTime;
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * チェックアウトされたコネクションの記録です．
+     * 
+     * @author koichik
+     */
+    protected static class Checkout {
+
+        /** チェックアウトされた時刻 (ミリ秒単位) */
+        protected final long time;
+
+        /** チェックアウトしたスレッドの名前 */
+        protected final String threadName;
+
+        /** チェックアウトしたスレッドのスタックトレース，記録されていない場合は<code>null</code> */
+        protected final Throwable stack;
+
+        /** リークの疑いとして警告済みの場合は<code>true</code> */
+        protected boolean reported;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param time
+         *            チェックアウトされた時刻 (ミリ秒単位)
+         * @param threadName
+         *            チェックアウトしたスレッドの名前
+         * @param stack
+         *            チェックアウトしたスレッドのスタックトレース
+         */
+        protected Checkout(final long time, final String threadName, final Throwable stack) {
+            this.time = time;
+            this.threadName = threadName;
+            this.stack = stack;
+        }
+
+    }
+
+    /**
+     * プールされているコネクションが{@link #minPoolSize}に達するまでコネクションを補充する{@link Work}の実装クラスです．
+     */
+    public class ReplenishWork implements Work {
+
+        public void run() {
+            try {
+                while (reserveReplenishment()) {
+                    if (!replenishOne()) {
+                        return;
+                    }
+                }
+            } finally {
+                replenishing.set(false);
+            }
+        }
+
+        public void release() {
+        }
+
+    }
+
+    /**
+     * 寿命が過ぎて破棄したコネクションの代わりのコネクションを一つ作成する{@link Work}の実装クラスです．
+     */
+    public class ReplaceWork implements Work {
+
+        public void run() {
+            if (reserveReplacement()) {
+                replenishOne();
+            }
+        }
+
+        public void release() {
         }
 
     }
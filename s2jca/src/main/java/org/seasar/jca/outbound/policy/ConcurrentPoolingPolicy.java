@@ -0,0 +1,613 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.log.Logger;
+import org.seasar.jca.exception.SResourceAllocationException;
+import org.seasar.jca.exception.SResourceException;
+import org.seasar.jca.outbound.support.ConnectionManagementContext;
+import org.seasar.jca.outbound.support.ManagedConnectionPool;
+import org.seasar.jca.outbound.support.MatchingKey;
+
+/**
+ * コネクションを複数のストライプに分割してプールするポリシーの実装クラスです．
+ * <p>
+ * {@link BasicPoolingPolicy}はプール全体を一つのモニタで同期しますが，
+ * このポリシーはフリープールをストライプに分割し，ストライプごとに同期します．
+ * スレッドは自身に割り当てられたストライプを優先して使用し，そこにマッチするコネクションがない場合は他のストライプを探索します．
+ * </p>
+ * <p>
+ * 使用中のコネクション数は公平な{@link Semaphore}で制限されます．
+ * コネクションが返却されると，待機しているスレッドのうち最も長く待機しているスレッド一つだけが再開されます．
+ * </p>
+ * <p>
+ * チェックアウトのためのコネクションの作成は，{@link #parallelCreation}の設定にかかわらず常に並行して行われます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class ConcurrentPoolingPolicy extends BasicPoolingPolicy {
+
+    // constants
+    private static final long serialVersionUID = 1L;
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(ConcurrentPoolingPolicy.class);
+
+    // instance fields
+    /** ストライプの数 */
+    protected int stripeSize = Runtime.getRuntime().availableProcessors();
+
+    /** ストライプに分割されたコネクションプール */
+    protected ManagedConnectionPool<Long>[] stripes;
+
+    /** マネージドコネクションと，それを保持しているストライプのマッピング */
+    protected final ConcurrentMap<ManagedConnection, ManagedConnectionPool<Long>> owners = new ConcurrentHashMap<ManagedConnection, ManagedConnectionPool<Long>>();
+
+    /** 使用中のコネクション数を制限するセマフォ */
+    protected Semaphore permits;
+
+    /** 使用中のコネクションの数 */
+    protected final AtomicInteger activeCount = new AtomicInteger();
+
+    /** 未使用のコネクションの数 */
+    protected final AtomicInteger freeCount = new AtomicInteger();
+
+    /** コネクションの取得を待機しているスレッドの数 */
+    protected final AtomicInteger waitingCount = new AtomicInteger();
+
+    /** 補充のために作成中のコネクションの数 */
+    protected final AtomicInteger replenishingCount = new AtomicInteger();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param bc
+     *            ブートストラップコンテキスト
+     * @throws ResourceException
+     *             インスタンスの構築中に例外が発生した場合
+     */
+    public ConcurrentPoolingPolicy(final BootstrapContext bc) throws ResourceException {
+        super(bc);
+    }
+
+    @Override
+    public void initialize(final ManagedConnectionFactory mcf,
+            final ConnectionManagementPolicy nextPolicy) throws ResourceException {
+        final int size = Math.max(1, Math.min(stripeSize, maxPoolSize));
+        stripes = newStripes(size);
+        for (int i = 0; i < size; ++i) {
+            stripes[i] = new ManagedConnectionPool<Long>(nextPolicy, true, keyedMatching);
+        }
+        permits = new Semaphore(maxPoolSize, true);
+        super.initialize(mcf, nextPolicy);
+    }
+
+    /**
+     * ストライプの配列を作成して返します．
+     * 
+     * @param size
+     *            ストライプの数
+     * @return ストライプの配列
+     */
+    @SuppressWarnings("unchecked")
+    protected static ManagedConnectionPool<Long>[] newStripes(final int size) {
+        return (ManagedConnectionPool<Long>[]) new ManagedConnectionPool<?>[size];
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        expiryEngine.unregister(this);
+        for (final ManagedConnectionPool<Long> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.close();
+            }
+        }
+        owners.clear();
+        validatedTimes.clear();
+        retireTimes.clear();
+        checkouts.clear();
+        reclaimedConnections.clear();
+        activeCount.set(0);
+        freeCount.set(0);
+        nextPolicy.dispose();
+        if (poolMetrics != null) {
+            poolMetrics.dispose();
+        }
+    }
+
+    @Override
+    protected boolean isFull() {
+        return activeCount.get() + freeCount.get() >= maxPoolSize;
+    }
+
+    @Override
+    protected boolean isFreePoolFull() {
+        return freeCount.get() >= maxPoolSize;
+    }
+
+    @Override
+    protected void checkOut(final ConnectionManagementContext context) throws ResourceException {
+        final long start = poolMetrics != null ? System.nanoTime() : 0L;
+        waitForFreePool();
+        boolean allocated = false;
+        try {
+            ManagedConnection mc;
+            do {
+                mc = allocateFromFreePool(context);
+            } while (mc != null && !validateBorrowed(mc));
+            if (poolMetrics != null) {
+                poolMetrics.checkedOut(System.nanoTime() - start, mc != null, maxPoolSize
+                        - permits.availablePermits());
+            }
+            if (mc != null) {
+                context.setManagedConnection(mc);
+                allocated = true;
+                return;
+            }
+
+            if (isFull()) {
+                releaseFirstFromFree();
+            }
+            allocateFromNextPolicy(context);
+            final ManagedConnectionPool<Long> stripe = getStripe();
+            synchronized (stripe) {
+                stripe.addToActivePool(context.getManagedConnection(), context.getSubject(),
+                        context.getRequestInfo());
+            }
+            owners.put(context.getManagedConnection(), stripe);
+            activeCount.incrementAndGet();
+            allocated = true;
+        } finally {
+            if (!allocated) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * 使用中のコネクション数が最大値を下回るまで待機します．
+     * <p>
+     * このメソッドから正常に復帰したスレッドは使用中のコネクション一つ分の許可を保持します．
+     * 待機しているスレッドの数が{@link #maxWaitingThreads}に達している場合，
+     * または{@link #blockingTimeout}を経過しても許可を得られない場合は{@link SResourceAllocationException}をスローします．
+     * </p>
+     * 
+     * @throws ResourceException
+     *             待機中に例外が発生した場合
+     */
+    @Override
+    protected void waitForFreePool() throws ResourceException {
+        try {
+            if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            final int waiting = waitingCount.getAndIncrement();
+            try {
+                assertWaitable(waiting);
+                if (blockingTimeout <= 0) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(blockingTimeout, TimeUnit.MILLISECONDS)) {
+                    if (poolMetrics != null) {
+                        poolMetrics.checkoutTimedOut();
+                    }
+                    throw new SResourceAllocationException("EJCA1035",
+                            new Object[] { blockingTimeout });
+                }
+            } finally {
+                waitingCount.decrementAndGet();
+            }
+        } catch (final InterruptedException e) {
+            throw new SResourceException("EJCA0000", e);
+        }
+    }
+
+    /**
+     * 未使用のプールからマネージドコネクションを割り当てます．
+     * <p>
+     * 現在のスレッドに割り当てられたストライプから順に探索します．
+     * </p>
+     * 
+     * @param context
+     *            コネクション管理コンテキスト
+     * @return マネージドコネクション
+     * @throws ResourceException
+     *             割り当てられたマネージドコネクション
+     */
+    @Override
+    protected ManagedConnection allocateFromFreePool(final ConnectionManagementContext context)
+            throws ResourceException {
+        final int home = getStripeIndex();
+        for (int i = 0; i < stripes.length; ++i) {
+            final ManagedConnectionPool<Long> stripe = stripes[(home + i) % stripes.length];
+            final ManagedConnection mc;
+            synchronized (stripe) {
+                mc = stripe.getMatched(context.getSubject(), context.getRequestInfo(), mcf);
+                if (mc == null) {
+                    continue;
+                }
+                stripe.moveFreeToActivePool(mc);
+            }
+            freeCount.decrementAndGet();
+            activeCount.incrementAndGet();
+            if (logger.isDebugEnabled()) {
+                logger.log("DJCA1006", new Object[] { mc });
+            }
+            return mc;
+        }
+        return null;
+    }
+
+    @Override
+    protected boolean releaseFirstFromFree() throws ResourceException {
+        final int home = getStripeIndex();
+        for (int i = 0; i < stripes.length; ++i) {
+            final ManagedConnectionPool<Long> stripe = stripes[(home + i) % stripes.length];
+            final ManagedConnection mc;
+            synchronized (stripe) {
+                mc = stripe.getFirstFromFree();
+                if (mc == null) {
+                    continue;
+                }
+                stripe.removeFromFreePool(mc);
+            }
+            owners.remove(mc);
+            freeCount.decrementAndGet();
+            forgetValidation(mc);
+            if (poolMetrics != null) {
+                poolMetrics.connectionEvicted();
+            }
+            nextPolicy.release(mc);
+            if (logger.isDebugEnabled()) {
+                logger.log("DJCA1008", new Object[] { mc });
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * マネージドコネクションを未使用コネクションのプールにチェックインします．
+     * <p>
+     * マネージドコネクションは現在のスレッドに割り当てられたストライプに戻されます．
+     * 未使用のコネクションが最大値に達している場合はマネージドコネクションを後続のコネクション管理ポリシーに渡します．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションをプールした場合は<code>true</code>
+     */
+    @Override
+    protected boolean checkIn(final ManagedConnection mc) {
+        final ManagedConnectionPool<Long> owner = owners.get(mc);
+        if (owner == null) {
+            return false;
+        }
+        final MatchingKey key;
+        synchronized (owner) {
+            key = owner.getMatchingKey(mc);
+            if (!owner.removeFromActivePool(mc)) {
+                return false;
+            }
+        }
+        activeCount.decrementAndGet();
+        try {
+            if (!reserveFreeSlot()) {
+                owners.remove(mc);
+                return false;
+            }
+            final ManagedConnectionPool<Long> stripe = getStripe();
+            owners.put(mc, stripe);
+            synchronized (stripe) {
+                stripe.addToFreePool(mc, lastSweepTime, key);
+            }
+        } finally {
+            permits.release();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.log("DJCA1007", new Object[] { mc });
+        }
+        return true;
+    }
+
+    /**
+     * 未使用コネクションのプールに空きがあれば，その一つを予約します．
+     * 
+     * @return 未使用コネクションのプールに空きがあった場合は<code>true</code>
+     */
+    protected boolean reserveFreeSlot() {
+        for (;;) {
+            final int current = freeCount.get();
+            if (current >= maxPoolSize) {
+                return false;
+            }
+            if (freeCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    protected void purge(final ManagedConnection mc) {
+        final ManagedConnectionPool<Long> owner = owners.remove(mc);
+        if (owner == null) {
+            return;
+        }
+        boolean free = false;
+        boolean active = false;
+        synchronized (owner) {
+            free = owner.removeFromFreePool(mc) != null;
+            if (!free) {
+                active = owner.removeFromActivePool(mc);
+            }
+        }
+        if (free) {
+            freeCount.decrementAndGet();
+        } else if (active) {
+            activeCount.decrementAndGet();
+            permits.release();
+        } else {
+            return;
+        }
+        if (poolMetrics != null) {
+            poolMetrics.connectionPurged();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.log("DJCA1008", new Object[] { mc });
+        }
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたストライプのインデックスを返します．
+     * 
+     * @return 現在のスレッドに割り当てられたストライプのインデックス
+     */
+    protected int getStripeIndex() {
+        return (int) (Thread.currentThread().getId() % stripes.length);
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたストライプを返します．
+     * 
+     * @return 現在のスレッドに割り当てられたストライプ
+     */
+    protected ManagedConnectionPool<Long> getStripe() {
+        return stripes[getStripeIndex()];
+    }
+
+    /**
+     * 使用中のコネクションの数を返します．
+     * 
+     * @return 使用中のコネクションの数
+     */
+    @Override
+    public int getActivePoolSize() {
+        return activeCount.get();
+    }
+
+    /**
+     * 未使用のコネクションの数を返します．
+     * 
+     * @return 未使用のコネクションの数
+     */
+    @Override
+    public int getFreePoolSize() {
+        return freeCount.get();
+    }
+
+    /**
+     * ストライプの数を返します．
+     * 
+     * @return ストライプの数
+     */
+    public int getStripeSize() {
+        return stripeSize;
+    }
+
+    /**
+     * ストライプの数を設定します．
+     * <p>
+     * 実際のストライプの数はプールするコネクションの最大値を超えることはありません．
+     * </p>
+     * 
+     * @param stripeSize
+     *            ストライプの数
+     */
+    public void setStripeSize(final int stripeSize) {
+        this.stripeSize = stripeSize;
+    }
+
+    /**
+     * アイドル状態のままタイムアウト時間が経過したコネクションを，それを保持しているストライプから解放します．
+     * 
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     */
+    @Override
+    public void sweep(final long now) {
+        final long deadline = now - timeout * 1000L - getSweepInterval();
+        lastSweepTime = now;
+        final List<ManagedConnection> expired = new ArrayList<ManagedConnection>();
+        for (final ManagedConnectionPool<Long> stripe : stripes) {
+            final int start = expired.size();
+            synchronized (stripe) {
+                collectExpired(stripe, deadline, freeCount.get() - minPoolSize, expired);
+                for (int i = start; i < expired.size(); ++i) {
+                    stripe.removeFromFreePool(expired.get(i));
+                    owners.remove(expired.get(i), stripe);
+                    freeCount.decrementAndGet();
+                }
+            }
+        }
+        releaseExpired(expired);
+        validateIdle(now);
+        detectLeaks(now);
+        replenish();
+    }
+
+    /**
+     * 寿命が過ぎたコネクションを，それを保持しているストライプの使用中のコネクションのプールから取り除きます．
+     * <p>
+     * 返却したスレッドが保持していた使用中のコネクション一つ分の許可は解放されます．
+     * </p>
+     * 
+     * @param mc
+     *            寿命が過ぎたマネージドコネクション
+     * @return コネクションを取り除いた場合は<code>true</code>
+     */
+    @Override
+    protected boolean removeRetired(final ManagedConnection mc) {
+        final ManagedConnectionPool<Long> owner = owners.get(mc);
+        if (owner == null) {
+            return false;
+        }
+        synchronized (owner) {
+            if (!owner.removeFromActivePool(mc)) {
+                return false;
+            }
+        }
+        owners.remove(mc, owner);
+        activeCount.decrementAndGet();
+        permits.release();
+        return true;
+    }
+
+    /**
+     * 無効なコネクションを，それを保持しているストライプの使用中のコネクションのプールから取り除きます．
+     * <p>
+     * 呼び出し元のスレッドが保持している使用中のコネクション一つ分の許可は解放されません．
+     * </p>
+     * 
+     * @param mc
+     *            無効なコネクション
+     */
+    @Override
+    protected void removeInvalidFromActive(final ManagedConnection mc) {
+        final ManagedConnectionPool<Long> owner = owners.remove(mc);
+        if (owner == null) {
+            return;
+        }
+        synchronized (owner) {
+            owner.removeFromActivePool(mc);
+        }
+        activeCount.decrementAndGet();
+    }
+
+    /**
+     * 検証が必要なアイドル状態のコネクションを各ストライプから古い順に取り出します．
+     * <p>
+     * 取り出したコネクションは検証が終わるまで未使用のコネクションの数に含まれます．
+     * </p>
+     * 
+     * @param now
+     *            現在時刻 (ミリ秒単位)
+     * @param limit
+     *            取り出すコネクションの最大数
+     * @return 取り出したコネクションのリスト
+     */
+    @Override
+    protected List<IdleConnection> takeIdle(final long now, final int limit) {
+        final List<IdleConnection> idles = new ArrayList<IdleConnection>();
+        for (int i = 0; i < stripes.length && idles.size() < limit; ++i) {
+            synchronized (stripes[i]) {
+                collectIdle(stripes[i], now, limit, idles);
+            }
+        }
+        return idles;
+    }
+
+    @Override
+    protected boolean restoreIdle(final IdleConnection idle) {
+        if (disposed) {
+            return false;
+        }
+        synchronized (idle.pool) {
+            idle.pool.addToFreePool(idle.mc, idle.checkInTime, idle.key, CHECK_IN_ORDER);
+        }
+        return true;
+    }
+
+    @Override
+    protected void dropIdle(final IdleConnection idle) {
+        if (disposed) {
+            return;
+        }
+        owners.remove(idle.mc, idle.pool);
+        freeCount.decrementAndGet();
+    }
+
+    @Override
+    protected boolean reserveReplenishment() {
+        final int min = Math.min(minPoolSize, maxPoolSize);
+        for (;;) {
+            final int current = replenishingCount.get();
+            if (disposed || activeCount.get() + freeCount.get() + current >= min) {
+                return false;
+            }
+            if (replenishingCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    protected boolean reserveReplacement() {
+        for (;;) {
+            final int current = replenishingCount.get();
+            if (disposed || activeCount.get() + freeCount.get() + current >= maxPoolSize) {
+                return false;
+            }
+            if (replenishingCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    protected void cancelReplenishment() {
+        replenishingCount.decrementAndGet();
+    }
+
+    @Override
+    protected boolean addReplenishment(final ManagedConnection mc) {
+        replenishingCount.decrementAndGet();
+        if (disposed || !reserveFreeSlot()) {
+            return false;
+        }
+        final ManagedConnectionPool<Long> stripe = getStripe();
+        owners.put(mc, stripe);
+        synchronized (stripe) {
+            stripe.addToFreePool(mc, lastSweepTime);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.log.Logger;
+import org.seasar.jca.exception.SResourceAllocationException;
+import org.seasar.jca.exception.SResourceException;
+import org.seasar.jca.outbound.support.ConnectionManagementContext;
+
+/**
+ * 物理コネクションの作成を制限するポリシーの実装クラスです．
+ * <p>
+ * このポリシーはプーリングポリシーと物理コネクションを作成するポリシーの間に配置され，
+ * 後続のポリシーに対するコネクションの要求を次のように制限します．
+ * </p>
+ * <ul>
+ * <li>{@link #maxConcurrentCreations}が設定されている場合，同時に作成される物理コネクションの数を制限します．</li>
+ * <li>{@link #maxCreationRate}が設定されている場合，1秒あたりに作成される物理コネクションの数を制限します．</li>
+ * <li>{@link #failureThreshold}が設定されている場合，物理コネクションの作成が連続してその回数失敗するとサーキットブレーカを開き，
+ * {@link #openTimeout}ミリ秒の間はEISに接続せずに直ちに例外をスローします．
+ * その後，一つのスレッドだけが試行として物理コネクションを作成し，成功すればサーキットブレーカを閉じ，失敗すれば再び開きます．</li>
+ * </ul>
+ * <p>
+ * 同時に作成される物理コネクションの数や作成の頻度が上限に達している場合は，
+ * 最大{@link #blockingTimeout}ミリ秒の間作成を待機します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class CreationGatePolicy extends AbstractPolicy {
+
+    // constants
+    private static final long serialVersionUID = 1L;
+
+    /** サーキットブレーカが閉じている (物理コネクションを作成できる) ことを示す状態 */
+    public static final int CLOSED = 0;
+
+    /** サーキットブレーカが開いている (物理コネクションを作成しない) ことを示す状態 */
+    public static final int OPEN = 1;
+
+    /** サーキットブレーカが半開き (一つのスレッドだけが試行として物理コネクションを作成する) であることを示す状態 */
+    public static final int HALF_OPEN = 2;
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(CreationGatePolicy.class);
+
+    // instance fields
+    /** 同時に作成する物理コネクションの最大数，<code>0</code>以下なら無制限 */
+    protected int maxConcurrentCreations = 0;
+
+    /** 1秒あたりに作成する物理コネクションの最大数，<code>0</code>以下なら無制限 */
+    protected int maxCreationRate = 0;
+
+    /** 作成を待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /** サーキットブレーカを開くまでの連続した作成の失敗の回数，<code>0</code>以下ならサーキットブレーカを使用しない */
+    protected int failureThreshold = 0;
+
+    /** サーキットブレーカを開いてから試行を許すまでの時間 (ミリ秒単位) */
+    protected long openTimeout = 30 * 1000L;
+
+    /** 同時に作成する物理コネクションの数を制限するセマフォ */
+    protected Semaphore creationPermits;
+
+    /** 次に物理コネクションを作成できる時刻 (ナノ秒単位) */
+    protected long nextCreationTime;
+
+    /** 作成の頻度を制限するための同期オブジェクト */
+    protected final Object rateLock = new Object();
+
+    /** サーキットブレーカの状態 */
+    protected int state = CLOSED;
+
+    /** 連続した作成の失敗の回数 */
+    protected int consecutiveFailures;
+
+    /** サーキットブレーカを開いた時刻 (ナノ秒単位) */
+    protected long openedTime;
+
+    /** 試行として物理コネクションを作成しているスレッドがある場合は<code>true</code> */
+    protected boolean probing;
+
+    /** サーキットブレーカの同期オブジェクト */
+    protected final Object breakerLock = new Object();
+
+    /**
+     * インスタンスを構築します．
+     */
+    public CreationGatePolicy() {
+        super(true);
+    }
+
+    @Override
+    public void initialize(final ManagedConnectionFactory mcf,
+            final ConnectionManagementPolicy nextPolicy) throws ResourceException {
+        super.initialize(mcf, nextPolicy);
+        if (maxConcurrentCreations > 0) {
+            creationPermits = new Semaphore(maxConcurrentCreations, true);
+        }
+    }
+
+    @Override
+    public void allocate(final ConnectionManagementContext context) throws ResourceException {
+        assertValidMCF(context);
+        assertNotOpen();
+        final long deadline = blockingTimeout > 0 ? System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(blockingTimeout) : 0L;
+        acquireCreationPermit(deadline);
+        try {
+            waitForCreationRate(deadline);
+            final boolean probe = enterBreaker();
+            boolean created = false;
+            try {
+                nextPolicy.allocate(context);
+                created = true;
+            } finally {
+                if (created) {
+                    creationSucceeded();
+                } else {
+                    creationFailed(probe);
+                }
+            }
+        } finally {
+            if (creationPermits != null) {
+                creationPermits.release();
+            }
+        }
+    }
+
+    /**
+     * サーキットブレーカが開いていて試行も許されない場合は例外をスローします．
+     * <p>
+     * 作成を待機する前に呼び出され，サーキットブレーカの状態を変更しません．
+     * </p>
+     * 
+     * @throws ResourceException
+     *             サーキットブレーカが開いている場合
+     */
+    protected void assertNotOpen() throws ResourceException {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        synchronized (breakerLock) {
+            if (state == OPEN) {
+                assertOpenTimeoutElapsed(System.nanoTime());
+            } else if (state == HALF_OPEN && probing) {
+                throw new SResourceAllocationException("EJCA1052", new Object[] { 0L });
+            }
+        }
+    }
+
+    /**
+     * サーキットブレーカを開いてから{@link #openTimeout}が経過していなければ例外をスローします．
+     * <p>
+     * このメソッドは{@link #breakerLock}の同期ブロック内で呼び出されなければなりません．
+     * </p>
+     * 
+     * @param now
+     *            現在時刻 (ナノ秒単位)
+     * @throws ResourceException
+     *             {@link #openTimeout}が経過していない場合
+     */
+    protected void assertOpenTimeoutElapsed(final long now) throws ResourceException {
+        final long rest = openedTime + TimeUnit.MILLISECONDS.toNanos(openTimeout) - now;
+        if (rest > 0) {
+            throw new SResourceAllocationException("EJCA1052", new Object[] { TimeUnit.NANOSECONDS
+                    .toMillis(rest) });
+        }
+    }
+
+    /**
+     * 同時に作成される物理コネクションの数が{@link #maxConcurrentCreations}を下回るまで待機します．
+     * 
+     * @param deadline
+     *            待機を終える時刻 (ナノ秒単位)，<code>0</code>なら無期限
+     * @throws ResourceException
+     *             待機中に例外が発生した場合や，タイムアウトした場合
+     */
+    protected void acquireCreationPermit(final long deadline) throws ResourceException {
+        if (creationPermits == null) {
+            return;
+        }
+        try {
+            if (deadline == 0L) {
+                creationPermits.acquire();
+                return;
+            }
+            if (!creationPermits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new SResourceAllocationException("EJCA1035",
+                        new Object[] { blockingTimeout });
+            }
+        } catch (final InterruptedException e) {
+            throw new SResourceException("EJCA0000", e);
+        }
+    }
+
+    /**
+     * 物理コネクションを作成する間隔が{@link #maxCreationRate}から求められる間隔以上になるまで待機します．
+     * <p>
+     * 作成する時刻はスレッドごとに予約されるため，待機しているスレッドは予約した順に作成を開始します．
+     * 予約した時刻が待機を終える時刻より後になる場合は予約せずに例外をスローします．
+     * </p>
+     * 
+     * @param deadline
+     *            待機を終える時刻 (ナノ秒単位)，<code>0</code>なら無期限
+     * @throws ResourceException
+     *             待機中に例外が発生した場合や，タイムアウトした場合
+     */
+    protected void waitForCreationRate(final long deadline) throws ResourceException {
+        if (maxCreationRate <= 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long creationTime;
+        synchronized (rateLock) {
+            creationTime = Math.max(nextCreationTime, now);
+            if (deadline != 0L && creationTime - deadline > 0) {
+                throw new SResourceAllocationException("EJCA1035",
+                        new Object[] { blockingTimeout });
+            }
+            nextCreationTime = creationTime + TimeUnit.SECONDS.toNanos(1) / maxCreationRate;
+        }
+        final long wait = creationTime - now;
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (final InterruptedException e) {
+            throw new SResourceException("EJCA0000", e);
+        }
+    }
+
+    /**
+     * サーキットブレーカを通過して物理コネクションを作成できるか判定します．
+     * <p>
+     * サーキットブレーカが開いていて{@link #openTimeout}が経過している場合は半開きにし，
+     * 呼び出したスレッドに試行を許します．
+     * </p>
+     * 
+     * @return 試行として物理コネクションを作成する場合は<code>true</code>
+     * @throws ResourceException
+     *             サーキットブレーカが開いている場合や，他のスレッドが試行している場合
+     */
+    protected boolean enterBreaker() throws ResourceException {
+        if (failureThreshold <= 0) {
+            return false;
+        }
+        synchronized (breakerLock) {
+            switch (state) {
+            case CLOSED:
+                return false;
+            case OPEN:
+                assertOpenTimeoutElapsed(System.nanoTime());
+                state = HALF_OPEN;
+                break;
+            default:
+                if (probing) {
+                    throw new SResourceAllocationException("EJCA1052", new Object[] { 0L });
+                }
+                break;
+            }
+            probing = true;
+            return true;
+        }
+    }
+
+    /**
+     * 物理コネクションの作成に成功したことを記録し，サーキットブレーカが閉じていなければ閉じます．
+     */
+    protected void creationSucceeded() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        synchronized (breakerLock) {
+            consecutiveFailures = 0;
+            if (state == CLOSED) {
+                return;
+            }
+            state = CLOSED;
+            probing = false;
+        }
+        logger.log("IJCA1054", null);
+    }
+
+    /**
+     * 物理コネクションの作成に失敗したことを記録します．
+     * <p>
+     * 試行が失敗した場合や，連続した失敗の回数が{@link #failureThreshold}に達した場合はサーキットブレーカを開きます．
+     * </p>
+     * 
+     * @param probe
+     *            試行として物理コネクションを作成した場合は<code>true</code>
+     */
+    protected void creationFailed(final boolean probe) {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        final int failures;
+        synchronized (breakerLock) {
+            failures = ++consecutiveFailures;
+            if (!probe && (state != CLOSED || failures < failureThreshold)) {
+                return;
+            }
+            state = OPEN;
+            probing = false;
+            openedTime = System.nanoTime();
+        }
+        logger.log("WJCA1053", new Object[] { failures, openTimeout });
+    }
+
+    /**
+     * サーキットブレーカの状態を返します．
+     * 
+     * @return サーキットブレーカの状態 ({@link #CLOSED}，{@link #OPEN}，{@link #HALF_OPEN}のいずれか)
+     */
+    public int getState() {
+        synchronized (breakerLock) {
+            return state;
+        }
+    }
+
+    /**
+     * 同時に作成する物理コネクションの最大数を返します．
+     * 
+     * @return 同時に作成する物理コネクションの最大数
+     */
+    public int getMaxConcurrentCreations() {
+        return maxConcurrentCreations;
+    }
+
+    /**
+     * 同時に作成する物理コネクションの最大数を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無制限です．
+     * このプロパティは{@link #initialize(ManagedConnectionFactory, ConnectionManagementPolicy)}より前に設定する必要があります．
+     * </p>
+     * 
+     * @param maxConcurrentCreations
+     *            同時に作成する物理コネクションの最大数
+     */
+    public void setMaxConcurrentCreations(final int maxConcurrentCreations) {
+        this.maxConcurrentCreations = maxConcurrentCreations;
+    }
+
+    /**
+     * 1秒あたりに作成する物理コネクションの最大数を返します．
+     * 
+     * @return 1秒あたりに作成する物理コネクションの最大数
+     */
+    public int getMaxCreationRate() {
+        return maxCreationRate;
+    }
+
+    /**
+     * 1秒あたりに作成する物理コネクションの最大数を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無制限です．
+     * </p>
+     * 
+     * @param maxCreationRate
+     *            1秒あたりに作成する物理コネクションの最大数
+     */
+    public void setMaxCreationRate(final int maxCreationRate) {
+        this.maxCreationRate = maxCreationRate;
+    }
+
+    /**
+     * 作成を待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return 作成を待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * 作成を待機する最大時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無期限に待機します．
+     * </p>
+     * 
+     * @param blockingTimeout
+     *            作成を待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * サーキットブレーカを開くまでの連続した作成の失敗の回数を返します．
+     * 
+     * @return サーキットブレーカを開くまでの連続した作成の失敗の回数
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * サーキットブレーカを開くまでの連続した作成の失敗の回数を設定します．
+     * <p>
+     * <code>0</code>以下の場合はサーキットブレーカを使用しません．
+     * </p>
+     * 
+     * @param failureThreshold
+     *            サーキットブレーカを開くまでの連続した作成の失敗の回数
+     */
+    public void setFailureThreshold(final int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * サーキットブレーカを開いてから試行を許すまでの時間 (ミリ秒単位) を返します．
+     * 
+     * @return サーキットブレーカを開いてから試行を許すまでの時間 (ミリ秒単位)
+     */
+    public long getOpenTimeout() {
+        return openTimeout;
+    }
+
+    /**
+     * サーキットブレーカを開いてから試行を許すまでの時間 (ミリ秒単位) を設定します．
+     * 
+     * @param openTimeout
+     *            サーキットブレーカを開いてから試行を許すまでの時間 (ミリ秒単位)
+     */
+    public void setOpenTimeout(final long openTimeout) {
+        this.openTimeout = openTimeout;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+/**
+ * アイドル状態のコネクションを期限切れにするエンジンのインタフェースです．
+ * <p>
+ * エンジンは登録された{@link Target}の{@link Target#sweep(long)}を
+ * {@link Target#getSweepInterval()}ごとに呼び出します．
+ * コネクションのチェックインごとにタスクをスケジュールする必要はありません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface ExpiryEngine {
+
+    /**
+     * 期限切れの対象を登録します．
+     * 
+     * @param target
+     *            期限切れの対象
+     */
+    void register(Target target);
+
+    /**
+     * 期限切れの対象の登録を解除します．
+     * 
+     * @param target
+     *            期限切れの対象
+     */
+    void unregister(Target target);
+
+    /**
+     * 期限切れの対象となるコネクションプールのインタフェースです．
+     * 
+     * @author koichik
+     */
+    interface Target {
+
+        /**
+         * スイープする間隔 (ミリ秒単位) を返します．
+         * 
+         * @return スイープする間隔 (ミリ秒単位)
+         */
+        long getSweepInterval();
+
+        /**
+         * 期限切れになったコネクションを解放します．
+         * 
+         * @param now
+         *            現在時刻 (ミリ秒単位)
+         */
+        void sweep(long now);
+
+    }
+
+}
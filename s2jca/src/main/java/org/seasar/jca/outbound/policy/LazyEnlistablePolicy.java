@@ -0,0 +1,43 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnection;
+
+/**
+ * マネージドコネクションのトランザクションへの遅延登録をサポートするコネクション管理ポリシーのインタフェースです．
+ * <p>
+ * リソースアダプタが{@link javax.resource.spi.LazyEnlistableConnectionManager#lazyEnlist(ManagedConnection)}を呼び出すと，
+ * {@link org.seasar.jca.outbound.ConnectionManagerImpl}はこのインタフェースを実装したポリシーに通知します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface LazyEnlistablePolicy {
+
+    /**
+     * 登録が保留されているマネージドコネクションをトランザクションに登録します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを登録した場合は<code>true</code>，登録が保留されていなかった場合は<code>false</code>
+     * @throws ResourceException
+     *             トランザクションへの登録中に例外が発生した場合
+     */
+    boolean lazyEnlist(ManagedConnection mc) throws ResourceException;
+
+}
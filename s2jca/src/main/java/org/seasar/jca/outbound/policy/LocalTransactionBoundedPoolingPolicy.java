@@ -15,28 +15,56 @@
  */
 package org.seasar.jca.outbound.policy;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.resource.ResourceException;
+import javax.resource.spi.LazyEnlistableManagedConnection;
 import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAResource;
 
+import org.seasar.framework.log.Logger;
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
 import org.seasar.jca.outbound.support.LocalTransactionXAResource;
-import org.seasar.jca.outbound.support.ManagedConnectionPool;
+import org.seasar.jca.outbound.support.ManagedConnectionSlots;
 
 /**
  * コネクションをリソースローカルなトランザクションに関連づけて管理するポリシーの実装クラスです．
+ * <p>
+ * {@link #lazyEnlistment}が<code>true</code>の場合，{@link LazyEnlistableManagedConnection}を実装したマネージドコネクションは
+ * 割り当て時にはトランザクションに登録されず，リソースアダプタが
+ * {@link javax.resource.spi.LazyEnlistableConnectionManager#lazyEnlist(ManagedConnection)}を呼び出した時
+ * (コネクションが実際に使われた時) に登録されます．
+ * ローカルトランザクションは登録時に開始されるため，使われなかったコネクションに対してはEISとの間でトランザクションの開始も完了も行われません．
+ * 使われたコネクションが一つだけであれば，トランザクションマネージャは1フェーズコミットを行います．
+ * </p>
+ * <p>
+ * 登録が保留されているコネクションはトランザクションごとのプール ({@link LocalTransactionSlots}) が保持するため，
+ * トランザクションの完了時には自身のプールだけを破棄すれば足ります．
+ * </p>
  * 
  * @author koichik
  */
-public class LocalTransactionBoundedPoolingPolicy extends AbstractTransactionBoundedPoolingPolicy {
+public class LocalTransactionBoundedPoolingPolicy extends AbstractTransactionBoundedPoolingPolicy
+        implements LazyEnlistablePolicy {
 
     // constants
     private static final long serialVersionUID = 1L;
 
+    // static fields
+    private static final Logger logger = Logger
+            .getLogger(LocalTransactionBoundedPoolingPolicy.class);
+
+    // instance fields
+    /** コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code> */
+    protected boolean lazyEnlistment;
+
     /**
      * インスタンスを構築します．
      * 
@@ -48,7 +76,7 @@ public class LocalTransactionBoundedPoolingPolicy extends AbstractTransactionBou
     }
 
     @Override
-    protected void associateTx(final Transaction tx, final ManagedConnectionPool<Object> pool,
+    protected void associateTx(final Transaction tx, final ManagedConnectionSlots pool,
             final ConnectionManagementContext context) throws ResourceException {
         try {
             final Object lch = context.getLogicalConnectionHandle();
@@ -56,8 +84,14 @@ public class LocalTransactionBoundedPoolingPolicy extends AbstractTransactionBou
                 context.allocateLogicalConnectionHandle();
             }
 
-            final LocalTransaction localTx = context.getManagedConnection().getLocalTransaction();
-            tx.enlistResource(new LocalTransactionXAResource(localTx));
+            final ManagedConnection mc = context.getManagedConnection();
+            final LocalTransaction localTx = mc.getLocalTransaction();
+            final XAResource xaResource = new LocalTransactionXAResource(localTx);
+            if (lazyEnlistment && mc instanceof LazyEnlistableManagedConnection) {
+                LocalTransactionSlots.class.cast(pool).addPendingEnlistment(mc, xaResource);
+            } else {
+                tx.enlistResource(xaResource);
+            }
             if (pool.size() == 0) {
                 registerContext(tx);
             }
@@ -69,4 +103,129 @@ public class LocalTransactionBoundedPoolingPolicy extends AbstractTransactionBou
         }
     }
 
+    public boolean lazyEnlist(final ManagedConnection mc) throws ResourceException {
+        try {
+            final Transaction tx = tm.getTransaction();
+            final ManagedConnectionSlots pool = getPool(tx, false);
+            if (pool == null) {
+                return false;
+            }
+            final XAResource xaResource = LocalTransactionSlots.class.cast(pool)
+                    .removePendingEnlistment(mc);
+            if (xaResource == null) {
+                return false;
+            }
+            tx.enlistResource(xaResource);
+            if (logger.isDebugEnabled()) {
+                logger.log("DJCA1044", new Object[] { mc, tx });
+            }
+            return true;
+        } catch (final RollbackException e) {
+            throw new SResourceException("EJCA0000", e);
+        } catch (final SystemException e) {
+            throw new SResourceException("EJCA0000", e);
+        }
+    }
+
+    @Override
+    protected ManagedConnectionSlots newPool() {
+        return new LocalTransactionSlots(nextPolicy);
+    }
+
+    /**
+     * コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>を返します．
+     * 
+     * @return コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>
+     */
+    public boolean isLazyEnlistment() {
+        return lazyEnlistment;
+    }
+
+    /**
+     * コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>を設定します．
+     * <p>
+     * 遅延されるのは{@link LazyEnlistableManagedConnection}を実装したマネージドコネクションだけです．
+     * </p>
+     * 
+     * @param lazyEnlistment
+     *            コネクションが実際に使われるまでトランザクションへの登録を遅延する場合は<code>true</code>
+     */
+    public void setLazyEnlistment(final boolean lazyEnlistment) {
+        this.lazyEnlistment = lazyEnlistment;
+    }
+
+    /**
+     * トランザクションへの登録が保留されているマネージドコネクションを保持するプールです．
+     * 
+     * @author koichik
+     */
+    protected static class LocalTransactionSlots extends ManagedConnectionSlots {
+
+        /** トランザクションへの登録が保留されているマネージドコネクションとトランザクションに登録する{@link XAResource}のマッピング */
+        protected Map<ManagedConnection, XAResource> pendingEnlistments;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param nextPolicy
+         *            後続のコネクション管理ポリシー
+         */
+        public LocalTransactionSlots(final ConnectionManagementPolicy nextPolicy) {
+            super(nextPolicy);
+        }
+
+        /**
+         * マネージドコネクションのトランザクションへの登録を保留します．
+         * 
+         * @param mc
+         *            マネージドコネクション
+         * @param xaResource
+         *            トランザクションに登録する{@link XAResource}
+         */
+        public void addPendingEnlistment(final ManagedConnection mc, final XAResource xaResource) {
+            if (pendingEnlistments == null) {
+                pendingEnlistments = new HashMap<ManagedConnection, XAResource>();
+            }
+            pendingEnlistments.put(mc, xaResource);
+        }
+
+        /**
+         * マネージドコネクションのトランザクションへの登録の保留を取り消します．
+         * 
+         * @param mc
+         *            マネージドコネクション
+         * @return トランザクションに登録する{@link XAResource}，登録が保留されていない場合は<code>null</code>
+         */
+        public XAResource removePendingEnlistment(final ManagedConnection mc) {
+            if (pendingEnlistments == null) {
+                return null;
+            }
+            return pendingEnlistments.remove(mc);
+        }
+
+        /**
+         * トランザクションへの登録が保留されているマネージドコネクションの数を返します．
+         * 
+         * @return トランザクションへの登録が保留されているマネージドコネクションの数
+         */
+        public int getPendingEnlistmentSize() {
+            return pendingEnlistments == null ? 0 : pendingEnlistments.size();
+        }
+
+        @Override
+        public boolean remove(final ManagedConnection mc) {
+            removePendingEnlistment(mc);
+            return super.remove(mc);
+        }
+
+        @Override
+        public void close() {
+            if (pendingEnlistments != null) {
+                pendingEnlistments.clear();
+            }
+            super.close();
+        }
+
+    }
+
 }
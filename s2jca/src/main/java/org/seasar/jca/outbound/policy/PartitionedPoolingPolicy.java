@@ -0,0 +1,524 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.jca.exception.SResourceAllocationException;
+import org.seasar.jca.exception.SResourceException;
+import org.seasar.jca.outbound.support.ConnectionManagementContext;
+import org.seasar.jca.outbound.support.MatchingKey;
+
+/**
+ * サブジェクトとコネクション要求情報の組み合わせごとにコネクションプールを分割するポリシーの実装クラスです．
+ * <p>
+ * 分割されたコネクションプール (パーティション) はそれぞれ{@link BasicPoolingPolicy}で，
+ * パーティションごとの最小値と最大値を持ちます． パーティションは最初にコネクションが要求された時に作成されます．
+ * </p>
+ * <p>
+ * 全パーティションのコネクションの合計は{@link #maxPoolSize}を超えません．
+ * 合計が最大値に達している場合，未使用のコネクションを最も多く持つパーティションからコネクションを解放して空きを作ります．
+ * 空きを作れない場合は{@link #blockingTimeout}まで待機します．
+ * </p>
+ * <p>
+ * パーティションごとの事前補充，寿命が過ぎたコネクションの置き換え，統計情報の収集は行いません．
+ * 補充や置き換えのコネクションはサブジェクトとコネクション要求情報なしで作成されるため，パーティションに属さないからです．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class PartitionedPoolingPolicy extends AbstractPolicy {
+
+    // constants
+    private static final long serialVersionUID = 1L;
+
+    /** 空きを待機している間に未使用のコネクションの解放を再試行する間隔 (ミリ秒単位) */
+    protected static final long EVICTION_RETRY_INTERVAL = 100;
+
+    // instance fields
+    /** ブートストラップコンテキスト */
+    protected final BootstrapContext bc;
+
+    /** 全パーティションのコネクションの最大値 */
+    protected int maxPoolSize = 10;
+
+    /** パーティションごとのコネクションプールの最小値 */
+    protected int partitionMinPoolSize = 0;
+
+    /** パーティションごとのコネクションプールの最大値，<code>0</code>以下なら{@link #maxPoolSize} */
+    protected int partitionMaxPoolSize = 0;
+
+    /** コネクションの取得を待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /** パーティションを作成するファクトリ */
+    protected PartitionFactory partitionFactory;
+
+    /** サブジェクトとコネクション要求情報の組み合わせをキーとするパーティションのマップ */
+    protected final ConcurrentMap<MatchingKey, BasicPoolingPolicy> partitions = new ConcurrentHashMap<MatchingKey, BasicPoolingPolicy>();
+
+    /** マネージドコネクションをキー，それを所有するパーティションを値とするマップ */
+    protected final ConcurrentMap<ManagedConnection, BasicPoolingPolicy> owners = new ConcurrentHashMap<ManagedConnection, BasicPoolingPolicy>();
+
+    /** 全パーティションのコネクションの数を制限するセマフォ */
+    protected Semaphore permits;
+
+    /** 全パーティションの後続となるポリシー */
+    protected final CapPolicy capPolicy = new CapPolicy();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param bc
+     *            ブートストラップコンテキスト
+     */
+    public PartitionedPoolingPolicy(final BootstrapContext bc) {
+        super(true);
+        this.bc = bc;
+    }
+
+    @Override
+    public void initialize(final ManagedConnectionFactory mcf,
+            final ConnectionManagementPolicy nextPolicy) throws ResourceException {
+        super.initialize(mcf, nextPolicy);
+        permits = new Semaphore(maxPoolSize, true);
+        capPolicy.initialize(mcf, nextPolicy);
+    }
+
+    @Override
+    public void allocate(final ConnectionManagementContext context) throws ResourceException {
+        assertValidMCF(context);
+        getPartition(new MatchingKey(context.getSubject(), context.getRequestInfo())).allocate(
+                context);
+    }
+
+    @Override
+    public void release(final ManagedConnection mc) throws ResourceException {
+        final BasicPoolingPolicy partition = owners.get(mc);
+        if (partition == null) {
+            if (!isReclaimed(mc)) {
+                nextPolicy.release(mc);
+            }
+            return;
+        }
+        partition.release(mc);
+    }
+
+    @Override
+    public void connectionErrorOccurred(final ManagedConnection mc) throws ResourceException {
+        final BasicPoolingPolicy partition = owners.get(mc);
+        if (partition == null) {
+            if (!isReclaimed(mc)) {
+                nextPolicy.connectionErrorOccurred(mc);
+            }
+            return;
+        }
+        partition.connectionErrorOccurred(mc);
+    }
+
+    @Override
+    public void dispose() {
+        for (final BasicPoolingPolicy partition : partitions.values()) {
+            partition.dispose();
+        }
+        partitions.clear();
+        owners.clear();
+        nextPolicy.dispose();
+    }
+
+    /**
+     * いずれかのパーティションがマネージドコネクションをリークの疑いとして回収済みなら<code>true</code>を返します．
+     * <p>
+     * 回収されたコネクションは既に{@link #owners}から取り除かれて破棄されているため，
+     * アプリケーションが後から返却しても後続のポリシーには返しません．
+     * </p>
+     * 
+     * @param mc
+     *            所有するパーティションがないマネージドコネクション
+     * @return いずれかのパーティションが回収済みの場合は<code>true</code>
+     */
+    protected boolean isReclaimed(final ManagedConnection mc) {
+        for (final BasicPoolingPolicy partition : partitions.values()) {
+            if (partition.isReclaimed(mc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * キーに対応するパーティションを返します．
+     * <p>
+     * パーティションが存在しない場合は作成して返します．
+     * </p>
+     * 
+     * @param key
+     *            サブジェクトとコネクション要求情報の組み合わせ
+     * @return パーティション
+     * @throws ResourceException
+     *             パーティションの作成中に例外が発生した場合
+     */
+    protected BasicPoolingPolicy getPartition(final MatchingKey key) throws ResourceException {
+        final BasicPoolingPolicy partition = partitions.get(key);
+        if (partition != null) {
+            return partition;
+        }
+        synchronized (partitions) {
+            if (partitions.containsKey(key)) {
+                return partitions.get(key);
+            }
+            final BasicPoolingPolicy newPartition = createPartition(key);
+            newPartition.initialize(mcf, capPolicy);
+            partitions.put(key, newPartition);
+            return newPartition;
+        }
+    }
+
+    /**
+     * パーティションを作成して返します．
+     * <p>
+     * {@link #partitionFactory}が設定されていればそれを使って作成します．
+     * いずれの場合も，パーティションごとの事前補充，寿命が過ぎたコネクションの置き換え，キーによるマッチング，統計情報の収集は無効にされます．
+     * </p>
+     * 
+     * @param key
+     *            サブジェクトとコネクション要求情報の組み合わせ
+     * @return パーティション
+     * @throws ResourceException
+     *             パーティションの作成中に例外が発生した場合
+     */
+    protected BasicPoolingPolicy createPartition(final MatchingKey key) throws ResourceException {
+        final BasicPoolingPolicy partition;
+        if (partitionFactory != null) {
+            partition = partitionFactory.createPartition(key);
+        } else {
+            partition = new BasicPoolingPolicy(bc);
+            partition.setMinPoolSize(partitionMinPoolSize);
+            partition.setMaxPoolSize(getEffectivePartitionMaxPoolSize());
+            partition.setBlockingTimeout(blockingTimeout);
+        }
+        partition.setPrefill(false);
+        partition.setReplaceRetired(false);
+        partition.setKeyedMatching(false);
+        partition.setPoolMetrics(null);
+        return partition;
+    }
+
+    /**
+     * 全パーティションのコネクションの合計が最大値に達している場合に，空きができるまで待機します．
+     * <p>
+     * 待機する前と待機中に，未使用のコネクションを持つパーティションからコネクションを解放します．
+     * {@link #blockingTimeout}を経過しても空きができない場合は{@link SResourceAllocationException}をスローします．
+     * </p>
+     * 
+     * @throws ResourceException
+     *             待機中に例外が発生した場合
+     */
+    protected void acquirePermit() throws ResourceException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        final long deadline = System.currentTimeMillis() + blockingTimeout;
+        try {
+            while (true) {
+                if (releaseIdleConnection() && permits.tryAcquire()) {
+                    return;
+                }
+                long wait = EVICTION_RETRY_INTERVAL;
+                if (blockingTimeout > 0) {
+                    final long rest = deadline - System.currentTimeMillis();
+                    if (rest <= 0) {
+                        throw new SResourceAllocationException("EJCA1035",
+                                new Object[] { blockingTimeout });
+                    }
+                    wait = Math.min(wait, rest);
+                }
+                if (permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new SResourceException("EJCA0000", e);
+        }
+    }
+
+    /**
+     * 未使用のコネクションを最も多く持つパーティションから未使用のコネクションを一つ解放します．
+     * 
+     * @return コネクションを解放した場合は<code>true</code>
+     * @throws ResourceException
+     *             コネクションの解放中に例外が発生した場合
+     */
+    protected boolean releaseIdleConnection() throws ResourceException {
+        while (true) {
+            BasicPoolingPolicy victim = null;
+            int max = 0;
+            for (final BasicPoolingPolicy partition : partitions.values()) {
+                final int free = partition.getFreePoolSize();
+                if (free > max) {
+                    victim = partition;
+                    max = free;
+                }
+            }
+            if (victim == null) {
+                return false;
+            }
+            if (victim.releaseFirstFromFree()) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * パーティションごとのコネクションプールの最大値を返します．
+     * 
+     * @return パーティションごとのコネクションプールの最大値
+     */
+    protected int getEffectivePartitionMaxPoolSize() {
+        return partitionMaxPoolSize > 0 ? Math.min(partitionMaxPoolSize, maxPoolSize)
+                : maxPoolSize;
+    }
+
+    /**
+     * パーティションの数を返します．
+     * 
+     * @return パーティションの数
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * 全パーティションの使用中のコネクションの数を返します．
+     * 
+     * @return 全パーティションの使用中のコネクションの数
+     */
+    public int getActivePoolSize() {
+        int size = 0;
+        for (final BasicPoolingPolicy partition : partitions.values()) {
+            size += partition.getActivePoolSize();
+        }
+        return size;
+    }
+
+    /**
+     * 全パーティションの未使用のコネクションの数を返します．
+     * 
+     * @return 全パーティションの未使用のコネクションの数
+     */
+    public int getFreePoolSize() {
+        int size = 0;
+        for (final BasicPoolingPolicy partition : partitions.values()) {
+            size += partition.getFreePoolSize();
+        }
+        return size;
+    }
+
+    /**
+     * 全パーティションのコネクションの最大値を返します．
+     * 
+     * @return 全パーティションのコネクションの最大値
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * 全パーティションのコネクションの最大値を設定します．
+     * 
+     * @param maxPoolSize
+     *            全パーティションのコネクションの最大値
+     */
+    public void setMaxPoolSize(final int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * パーティションごとのコネクションプールの最小値を返します．
+     * 
+     * @return パーティションごとのコネクションプールの最小値
+     */
+    public int getPartitionMinPoolSize() {
+        return partitionMinPoolSize;
+    }
+
+    /**
+     * パーティションごとのコネクションプールの最小値を設定します．
+     * 
+     * @param partitionMinPoolSize
+     *            パーティションごとのコネクションプールの最小値
+     */
+    public void setPartitionMinPoolSize(final int partitionMinPoolSize) {
+        this.partitionMinPoolSize = partitionMinPoolSize;
+    }
+
+    /**
+     * パーティションごとのコネクションプールの最大値を返します．
+     * 
+     * @return パーティションごとのコネクションプールの最大値
+     */
+    public int getPartitionMaxPoolSize() {
+        return partitionMaxPoolSize;
+    }
+
+    /**
+     * パーティションごとのコネクションプールの最大値を設定します．
+     * <p>
+     * <code>0</code>以下の場合は{@link #maxPoolSize}が使われます．
+     * </p>
+     * 
+     * @param partitionMaxPoolSize
+     *            パーティションごとのコネクションプールの最大値
+     */
+    public void setPartitionMaxPoolSize(final int partitionMaxPoolSize) {
+        this.partitionMaxPoolSize = partitionMaxPoolSize;
+    }
+
+    /**
+     * コネクションの取得を待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return コネクションの取得を待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * コネクションの取得を待機する最大時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無期限に待機します．
+     * </p>
+     * 
+     * @param blockingTimeout
+     *            コネクションの取得を待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * パーティションを作成するファクトリを返します．
+     * 
+     * @return パーティションを作成するファクトリ
+     */
+    public PartitionFactory getPartitionFactory() {
+        return partitionFactory;
+    }
+
+    /**
+     * パーティションを作成するファクトリを設定します．
+     * 
+     * @param partitionFactory
+     *            パーティションを作成するファクトリ
+     */
+    public void setPartitionFactory(final PartitionFactory partitionFactory) {
+        this.partitionFactory = partitionFactory;
+    }
+
+    /**
+     * パーティションを作成するファクトリのインタフェースです．
+     * 
+     * @author koichik
+     */
+    public interface PartitionFactory {
+
+        /**
+         * パーティションを作成して返します．
+         * 
+         * @param key
+         *            サブジェクトとコネクション要求情報の組み合わせ
+         * @return パーティション
+         * @throws ResourceException
+         *             パーティションの作成中に例外が発生した場合
+         */
+        BasicPoolingPolicy createPartition(MatchingKey key) throws ResourceException;
+
+    }
+
+    /**
+     * 全パーティションの後続となり，コネクションの合計を制限するポリシーです．
+     * <p>
+     * 所有するパーティションがないコネクションは管理できないため，直ちに後続のポリシーに返します．
+     * </p>
+     * 
+     * @author koichik
+     */
+    protected class CapPolicy extends AbstractPolicy {
+
+        // constants
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * インスタンスを構築します．
+         */
+        protected CapPolicy() {
+            super(false);
+        }
+
+        @Override
+        public void allocate(final ConnectionManagementContext context) throws ResourceException {
+            acquirePermit();
+            boolean allocated = false;
+            try {
+                nextPolicy.allocate(context);
+                allocated = true;
+            } finally {
+                if (!allocated) {
+                    permits.release();
+                }
+            }
+            final ManagedConnection mc = context.getManagedConnection();
+            final BasicPoolingPolicy owner = partitions.get(new MatchingKey(context.getSubject(),
+                    context.getRequestInfo()));
+            if (owner == null) {
+                permits.release();
+                nextPolicy.release(mc);
+                throw new SResourceAllocationException("EJCA1055", new Object[] { mc });
+            }
+            owners.put(mc, owner);
+        }
+
+        @Override
+        public void release(final ManagedConnection mc) throws ResourceException {
+            if (owners.remove(mc) != null) {
+                permits.release();
+            }
+            nextPolicy.release(mc);
+        }
+
+        @Override
+        public void connectionErrorOccurred(final ManagedConnection mc) throws ResourceException {
+            if (owners.remove(mc) != null) {
+                permits.release();
+            }
+            nextPolicy.connectionErrorOccurred(mc);
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+/**
+ * コネクションプールの統計情報を収集するSPIです．
+ * <p>
+ * {@link BasicPoolingPolicy}およびそのサブクラスは，設定されている場合にこのインタフェースのメソッドを呼び出します．
+ * メソッドはコネクションのチェックアウトやチェックインの度に複数のスレッドから同時に呼び出されるので，
+ * 実装クラスはスレッドセーフで，かつロックを使用しないようにしなくてはなりません．
+ * プールの同期の内側から呼び出されることはありません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface PoolMetrics {
+
+    /**
+     * 統計情報の収集を開始します．
+     * 
+     * @param policy
+     *            統計情報を収集するプーリングポリシー
+     */
+    void initialize(BasicPoolingPolicy policy);
+
+    /**
+     * 統計情報の収集を終了します．
+     */
+    void dispose();
+
+    /**
+     * コネクションのチェックアウトで，未使用のコネクションの割り当てまたは新しいコネクションを作成する権利を得たことを記録します．
+     * 
+     * @param waitNanos
+     *            チェックアウトの開始からの経過時間 (ナノ秒単位)
+     * @param hit
+     *            フリープールのコネクションにマッチした場合は<code>true</code>
+     * @param inUse
+     *            作成中のものを含む使用中のコネクションの数
+     */
+    void checkedOut(long waitNanos, boolean hit, int inUse);
+
+    /**
+     * コネクションの取得の待機がタイムアウトしたことを記録します．
+     */
+    void checkoutTimedOut();
+
+    /**
+     * 待機しているスレッドの数が上限に達していたためコネクションの取得が拒否されたことを記録します．
+     */
+    void checkoutRejected();
+
+    /**
+     * 後続のコネクション管理ポリシーからコネクションを取得したことを記録します．
+     * 
+     * @param elapsedNanos
+     *            コネクションの取得にかかった時間 (ナノ秒単位)
+     */
+    void connectionCreated(long elapsedNanos);
+
+    /**
+     * 後続のコネクション管理ポリシーからのコネクションの取得が失敗したことを記録します．
+     */
+    void connectionCreationFailed();
+
+    /**
+     * 新しいコネクションのために未使用のコネクションをプールから追い出したことを記録します．
+     */
+    void connectionEvicted();
+
+    /**
+     * アイドル状態のままタイムアウト時間が経過したコネクションを解放したことを記録します．
+     * 
+     * @param count
+     *            解放したコネクションの数
+     */
+    void connectionsExpired(int count);
+
+    /**
+     * 検証の結果無効だったコネクションをプールから破棄したことを記録します．
+     * 
+     * @param count
+     *            破棄したコネクションの数
+     */
+    void connectionsInvalidated(int count);
+
+    /**
+     * エラーが発生したコネクションをプールから破棄したことを記録します．
+     */
+    void connectionPurged();
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.seasar.framework.container.annotation.tiger.Binding;
+import org.seasar.framework.container.annotation.tiger.BindingType;
+import org.seasar.framework.log.Logger;
+import org.seasar.jca.metrics.LatencyHistogram;
+import org.seasar.jca.metrics.StripedCounter;
+
+/**
+ * コネクションプールの統計情報を収集してJMXで公開する{@link PoolMetrics}の実装クラスです．
+ * <p>
+ * カウンタやヒストグラムはスレッドごとのセルに分割されているため，
+ * 統計情報の収集がコネクションのチェックアウトやチェックインの競合を増やすことはありません．
+ * </p>
+ * <p>
+ * {@link #initialize(BasicPoolingPolicy)}で<code>org.seasar.jca:type=ConnectionPool,name=&lt;名前&gt;</code>
+ * というオブジェクト名でMBeanサーバに登録され，{@link #dispose()}で登録が解除されます．
+ * MBeanサーバが設定されていない場合はプラットフォームMBeanサーバが使われます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class PoolStatistics implements PoolMetrics, PoolStatisticsMBean {
+
+    // constants
+    /** オブジェクト名のドメイン */
+    public static final String DOMAIN = "org.seasar.jca";
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(PoolStatistics.class);
+
+    // instance fields
+    /** コネクションプールの名前 */
+    protected final String name;
+
+    /** MBeanサーバ */
+    protected MBeanServer mbeanServer;
+
+    /** MBeanサーバに登録したオブジェクト名 */
+    protected ObjectName objectName;
+
+    /** 統計情報を収集するプーリングポリシー */
+    protected volatile BasicPoolingPolicy policy;
+
+    /** 作成中のものを含む使用中のコネクションの数の最大値 */
+    protected final AtomicInteger activeHighWaterMark = new AtomicInteger();
+
+    /** フリープールのコネクションにマッチした回数 */
+    protected final StripedCounter hitCount = new StripedCounter();
+
+    /** チェックアウトの待機時間 */
+    protected final LatencyHistogram waitTime = new LatencyHistogram();
+
+    /** コネクションの取得の待機がタイムアウトした回数 */
+    protected final StripedCounter timeoutCount = new StripedCounter();
+
+    /** コネクションの取得が拒否された回数 */
+    protected final StripedCounter rejectionCount = new StripedCounter();
+
+    /** 物理コネクションの作成にかかった時間 */
+    protected final LatencyHistogram creationTime = new LatencyHistogram();
+
+    /** 物理コネクションの作成が失敗した回数 */
+    protected final StripedCounter creationFailureCount = new StripedCounter();
+
+    /** 未使用のコネクションをプールから追い出した回数 */
+    protected final StripedCounter evictionCount = new StripedCounter();
+
+    /** アイドル状態のままタイムアウト時間が経過して解放されたコネクションの数 */
+    protected final StripedCounter expirationCount = new StripedCounter();
+
+    /** 検証の結果無効だったためプールから破棄されたコネクションの数 */
+    protected final StripedCounter invalidationCount = new StripedCounter();
+
+    /** エラーが発生してプールから破棄されたコネクションの数 */
+    protected final StripedCounter purgeCount = new StripedCounter();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param name
+     *            コネクションプールの名前
+     */
+    public PoolStatistics(final String name) {
+        this.name = name;
+    }
+
+    public void initialize(final BasicPoolingPolicy policy) {
+        this.policy = policy;
+        if (mbeanServer == null) {
+            mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        }
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=ConnectionPool,name="
+                    + ObjectName.quote(name));
+            mbeanServer.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (final JMException e) {
+            logger.log("WJCA1039", new Object[] { name }, e);
+        }
+    }
+
+    public void dispose() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            mbeanServer.unregisterMBean(objectName);
+        } catch (final JMException e) {
+            logger.log("WJCA1040", new Object[] { name }, e);
+        }
+        objectName = null;
+    }
+
+    public void checkedOut(final long waitNanos, final boolean hit, final int inUse) {
+        waitTime.record(waitNanos);
+        if (hit) {
+            hitCount.increment();
+        }
+        for (int current = activeHighWaterMark.get(); inUse > current; current = activeHighWaterMark
+                .get()) {
+            if (activeHighWaterMark.compareAndSet(current, inUse)) {
+                break;
+            }
+        }
+    }
+
+    public void checkoutTimedOut() {
+        timeoutCount.increment();
+    }
+
+    public void checkoutRejected() {
+        rejectionCount.increment();
+    }
+
+    public void connectionCreated(final long elapsedNanos) {
+        creationTime.record(elapsedNanos);
+    }
+
+    public void connectionCreationFailed() {
+        creationFailureCount.increment();
+    }
+
+    public void connectionEvicted() {
+        evictionCount.increment();
+    }
+
+    public void connectionsExpired(final int count) {
+        expirationCount.add(count);
+    }
+
+    public void connectionsInvalidated(final int count) {
+        invalidationCount.add(count);
+    }
+
+    public void connectionPurged() {
+        purgeCount.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxPoolSize() {
+        final BasicPoolingPolicy policy = this.policy;
+        return policy == null ? 0 : policy.getMaxPoolSize();
+    }
+
+    public int getActivePoolSize() {
+        final BasicPoolingPolicy policy = this.policy;
+        return policy == null ? 0 : policy.getActivePoolSize();
+    }
+
+    public int getFreePoolSize() {
+        final BasicPoolingPolicy policy = this.policy;
+        return policy == null ? 0 : policy.getFreePoolSize();
+    }
+
+    public int getActiveHighWaterMark() {
+        return activeHighWaterMark.get();
+    }
+
+    public long getCheckoutCount() {
+        return waitTime.getCount();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return Math.max(0L, getCheckoutCount() - getHitCount());
+    }
+
+    public double getHitRate() {
+        final long checkout = getCheckoutCount();
+        return checkout == 0 ? 0.0 : Math.min(1.0, (double) getHitCount() / checkout);
+    }
+
+    public double getMeanWaitTime() {
+        return waitTime.getMean();
+    }
+
+    public double getMaxWaitTime() {
+        return waitTime.getMax();
+    }
+
+    public double getWaitTimePercentile(final double percentile) {
+        return waitTime.getPercentile(percentile);
+    }
+
+    public long[] getWaitTimeHistogram() {
+        return waitTime.getCounts();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    public long getCreationCount() {
+        return creationTime.getCount();
+    }
+
+    public long getCreationFailureCount() {
+        return creationFailureCount.get();
+    }
+
+    public double getMeanCreationTime() {
+        return creationTime.getMean();
+    }
+
+    public double getMaxCreationTime() {
+        return creationTime.getMax();
+    }
+
+    public double getCreationTimePercentile(final double percentile) {
+        return creationTime.getPercentile(percentile);
+    }
+
+    public long[] getCreationTimeHistogram() {
+        return creationTime.getCounts();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public long getPurgeCount() {
+        return purgeCount.get();
+    }
+
+    public void reset() {
+        activeHighWaterMark.set(0);
+        hitCount.reset();
+        waitTime.reset();
+        timeoutCount.reset();
+        rejectionCount.reset();
+        creationTime.reset();
+        creationFailureCount.reset();
+        evictionCount.reset();
+        expirationCount.reset();
+        invalidationCount.reset();
+        purgeCount.reset();
+    }
+
+    /**
+     * MBeanサーバを返します．
+     * 
+     * @return MBeanサーバ
+     */
+    public MBeanServer getMBeanServer() {
+        return mbeanServer;
+    }
+
+    /**
+     * MBeanサーバを設定します．
+     * 
+     * @param mbeanServer
+     *            MBeanサーバ
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setMBeanServer(final MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+/**
+ * コネクションプールの統計情報を公開するMBeanのインタフェースです．
+ * <p>
+ * 時間はすべてミリ秒単位です．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface PoolStatisticsMBean {
+
+    /**
+     * コネクションプールの名前を返します．
+     * 
+     * @return コネクションプールの名前
+     */
+    String getName();
+
+    /**
+     * プールするコネクションの最大値を返します．
+     * 
+     * @return プールするコネクションの最大値
+     */
+    int getMaxPoolSize();
+
+    /**
+     * 使用中のコネクションの数を返します．
+     * 
+     * @return 使用中のコネクションの数
+     */
+    int getActivePoolSize();
+
+    /**
+     * 未使用のコネクションの数を返します．
+     * 
+     * @return 未使用のコネクションの数
+     */
+    int getFreePoolSize();
+
+    /**
+     * 作成中のものを含む使用中のコネクションの数の最大値を返します．
+     * 
+     * @return 作成中のものを含む使用中のコネクションの数の最大値
+     */
+    int getActiveHighWaterMark();
+
+    /**
+     * コネクションをチェックアウトした回数を返します．
+     * 
+     * @return コネクションをチェックアウトした回数
+     */
+    long getCheckoutCount();
+
+    /**
+     * フリープールのコネクションにマッチした回数を返します．
+     * 
+     * @return フリープールのコネクションにマッチした回数
+     */
+    long getHitCount();
+
+    /**
+     * フリープールのコネクションにマッチしなかった回数を返します．
+     * 
+     * @return フリープールのコネクションにマッチしなかった回数
+     */
+    long getMissCount();
+
+    /**
+     * フリープールのコネクションにマッチした割合を返します．
+     * 
+     * @return フリープールのコネクションにマッチした割合 (<code>0</code>以上<code>1</code>以下)
+     */
+    double getHitRate();
+
+    /**
+     * チェックアウトの待機時間の平均値を返します．
+     * 
+     * @return チェックアウトの待機時間の平均値
+     */
+    double getMeanWaitTime();
+
+    /**
+     * チェックアウトの待機時間の最大値を返します．
+     * 
+     * @return チェックアウトの待機時間の最大値
+     */
+    double getMaxWaitTime();
+
+    /**
+     * チェックアウトの待機時間のパーセンタイルを返します．
+     * 
+     * @param percentile
+     *            パーセンタイル
+     * @return チェックアウトの待機時間のパーセンタイル
+     */
+    double getWaitTimePercentile(double percentile);
+
+    /**
+     * チェックアウトの待機時間のヒストグラムを返します．
+     * 
+     * @return チェックアウトの待機時間のヒストグラム
+     * @see org.seasar.jca.metrics.LatencyHistogram
+     */
+    long[] getWaitTimeHistogram();
+
+    /**
+     * コネクションの取得の待機がタイムアウトした回数を返します．
+     * 
+     * @return コネクションの取得の待機がタイムアウトした回数
+     */
+    long getTimeoutCount();
+
+    /**
+     * 待機しているスレッドの数が上限に達していたためコネクションの取得が拒否された回数を返します．
+     * 
+     * @return コネクションの取得が拒否された回数
+     */
+    long getRejectionCount();
+
+    /**
+     * 物理コネクションを作成した回数を返します．
+     * 
+     * @return 物理コネクションを作成した回数
+     */
+    long getCreationCount();
+
+    /**
+     * 物理コネクションの作成が失敗した回数を返します．
+     * 
+     * @return 物理コネクションの作成が失敗した回数
+     */
+    long getCreationFailureCount();
+
+    /**
+     * 物理コネクションの作成にかかった時間の平均値を返します．
+     * 
+     * @return 物理コネクションの作成にかかった時間の平均値
+     */
+    double getMeanCreationTime();
+
+    /**
+     * 物理コネクションの作成にかかった時間の最大値を返します．
+     * 
+     * @return 物理コネクションの作成にかかった時間の最大値
+     */
+    double getMaxCreationTime();
+
+    /**
+     * 物理コネクションの作成にかかった時間のパーセンタイルを返します．
+     * 
+     * @param percentile
+     *            パーセンタイル
+     * @return 物理コネクションの作成にかかった時間のパーセンタイル
+     */
+    double getCreationTimePercentile(double percentile);
+
+    /**
+     * 物理コネクションの作成にかかった時間のヒストグラムを返します．
+     * 
+     * @return 物理コネクションの作成にかかった時間のヒストグラム
+     * @see org.seasar.jca.metrics.LatencyHistogram
+     */
+    long[] getCreationTimeHistogram();
+
+    /**
+     * 新しいコネクションのために未使用のコネクションをプールから追い出した回数を返します．
+     * 
+     * @return 未使用のコネクションをプールから追い出した回数
+     */
+    long getEvictionCount();
+
+    /**
+     * アイドル状態のままタイムアウト時間が経過して解放されたコネクションの数を返します．
+     * 
+     * @return アイドル状態のままタイムアウト時間が経過して解放されたコネクションの数
+     */
+    long getExpirationCount();
+
+    /**
+     * 検証の結果無効だったためプールから破棄されたコネクションの数を返します．
+     * 
+     * @return 検証の結果無効だったためプールから破棄されたコネクションの数
+     */
+    long getInvalidationCount();
+
+    /**
+     * エラーが発生してプールから破棄されたコネクションの数を返します．
+     * 
+     * @return エラーが発生してプールから破棄されたコネクションの数
+     */
+    long getPurgeCount();
+
+    /**
+     * 統計情報をリセットします．
+     */
+    void reset();
+
+}
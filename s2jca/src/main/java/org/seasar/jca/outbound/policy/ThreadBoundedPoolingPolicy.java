@@ -15,8 +15,7 @@
  */
 package org.seasar.jca.outbound.policy;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnection;
@@ -33,6 +32,17 @@ import org.seasar.jca.outbound.support.ManagedConnectionPool;
  * このインターセプタが適用されたメソッドが実行されている間に割り当てられたマネージドコネクションは，
  * メソッドの実行が終了するまでスレッドに関連づけられます． メソッドの実行が終了すると，関連づけられたマネージドコネクションは解放されます．
  * </p>
+ * <p>
+ * スレッドに関連づけられたマネージドコネクションは後続のポリシーから取得した順にスタックで管理されます．
+ * メソッドの実行開始時にはスタックの深さだけを記録し，実行終了時にはそれより後に積まれたマネージドコネクションだけを解放するため，
+ * インターセプタがネストしている場合もそれぞれのメソッドの実行中に取得されたマネージドコネクションだけが解放されます．
+ * </p>
+ * <p>
+ * {@link #scopeBound}が<code>true</code>の場合，コネクションプールはスレッドではなくインターセプタの呼び出しスコープに関連づけられます．
+ * コネクションプールは最も外側のインターセプタが実行を開始した時に作成され，実行を終了した時にスレッドから取り除かれます．
+ * インターセプタの外で割り当てられたマネージドコネクションはスレッドに関連づけられず，後続のポリシーで直接管理されます．
+ * タスクごとにスレッドが作成される仮想スレッドや，アイドル状態のスレッドが多数プールされている環境で使用してください．
+ * </p>
  * 
  * @author koichik
  */
@@ -43,14 +53,10 @@ public class ThreadBoundedPoolingPolicy extends AbstractPolicy implements Method
 
     // instance fields
     /** スレッドに関連づけられたマネージドコネクション */
-    protected final ThreadLocal<ManagedConnectionPool<Object>> pools = new ThreadLocal<ManagedConnectionPool<Object>>() {
-
-        @Override
-        public ManagedConnectionPool<Object> initialValue() {
-            return new ManagedConnectionPool<Object>(nextPolicy);
-        }
+    protected final ThreadLocal<ScopedPool> pools = new ThreadLocal<ScopedPool>();
 
-    };
+    /** コネクションプールをインターセプタの呼び出しスコープに関連づける場合は<code>true</code> */
+    protected boolean scopeBound;
 
     /**
      * インスタンスを構築します．
@@ -59,9 +65,32 @@ public class ThreadBoundedPoolingPolicy extends AbstractPolicy implements Method
         super(true);
     }
 
+    /**
+     * コネクションプールをインターセプタの呼び出しスコープに関連づける場合は<code>true</code>を返します．
+     * 
+     * @return コネクションプールをインターセプタの呼び出しスコープに関連づける場合は<code>true</code>
+     */
+    public boolean isScopeBound() {
+        return scopeBound;
+    }
+
+    /**
+     * コネクションプールをインターセプタの呼び出しスコープに関連づける場合は<code>true</code>を設定します．
+     * 
+     * @param scopeBound
+     *            コネクションプールをインターセプタの呼び出しスコープに関連づける場合は<code>true</code>
+     */
+    public void setScopeBound(final boolean scopeBound) {
+        this.scopeBound = scopeBound;
+    }
+
     @Override
     public void allocate(final ConnectionManagementContext context) throws ResourceException {
-        final ManagedConnectionPool<Object> pool = pools.get();
+        final ScopedPool pool = getPool(!scopeBound);
+        if (pool == null) {
+            nextPolicy.allocate(context);
+            return;
+        }
         final ManagedConnection mc = pool.getMatched(context.getSubject(),
                 context.getRequestInfo(), mcf);
         if (mc != null) {
@@ -69,21 +98,21 @@ public class ThreadBoundedPoolingPolicy extends AbstractPolicy implements Method
             context.setManagedConnection(mc);
         } else {
             nextPolicy.allocate(context);
-            pool.addToActivePool(context.getManagedConnection());
+            pool.push(context.getManagedConnection());
         }
     }
 
     @Override
     public void release(final ManagedConnection mc) throws ResourceException {
-        final ManagedConnectionPool<Object> pool = pools.get();
-        if (pool.moveActiveToFreePool(mc)) {
+        final ScopedPool pool = pools.get();
+        if (pool != null && pool.moveActiveToFreePool(mc)) {
             return;
         }
         nextPolicy.release(mc);
     }
 
     public Object invoke(final MethodInvocation invocation) throws Throwable {
-        final Set<ManagedConnection> before = before();
+        final int before = before();
         try {
             return invocation.proceed();
         } finally {
@@ -92,38 +121,113 @@ public class ThreadBoundedPoolingPolicy extends AbstractPolicy implements Method
     }
 
     /**
-     * インターセプタが適用されたメソッドの実行開始前に割り当て済みのコネクションの{@link Set}を返します．
+     * インターセプタが適用されたメソッドの実行開始前に割り当て済みのコネクションの数を返します．
      * 
-     * @return インターセプタが適用されたメソッドの実行開始前に割り当て済みのコネクションの{@link Set}
+     * @return インターセプタが適用されたメソッドの実行開始前に割り当て済みのコネクションの数
      */
-    public Set<ManagedConnection> before() {
-        final ManagedConnectionPool<Object> context = pools.get();
-        final Set<ManagedConnection> before = new HashSet<ManagedConnection>(context
-                .getActivePool());
-        before.addAll(context.getFreePool());
-        return before;
+    public int before() {
+        final ScopedPool pool = getPool(true);
+        ++pool.nesting;
+        return pool.depth();
     }
 
     /**
      * インターセプタが適用されたメソッドの実行中に割り当てられたコネクションを解放します．
      * 
      * @param before
-     *            インターセプタが適用されたメソッドの実行開始前に割り当て済みのコネクションの{@link Set}
+     *            インターセプタが適用されたメソッドの実行開始前に割り当て済みのコネクションの数
      * @throws ResourceException
      *             コネクションの解放中に例外が発生した場合
      */
-    public void after(final Set<ManagedConnection> before) throws ResourceException {
-        final ManagedConnectionPool<Object> context = pools.get();
-        final Set<ManagedConnection> after = new HashSet<ManagedConnection>(context.getActivePool());
-        after.addAll(context.getFreePool());
-        after.removeAll(before);
-        if (!after.isEmpty()) {
-            for (final ManagedConnection mc : after) {
-                context.removeFromActivePool(mc);
-                context.removeFromFreePool(mc);
-                nextPolicy.release(mc);
+    public void after(final int before) throws ResourceException {
+        final ScopedPool pool = pools.get();
+        if (pool == null) {
+            return;
+        }
+        try {
+            while (pool.depth() > before) {
+                final ManagedConnection mc = pool.pop();
+                if (pool.removeFromActivePool(mc) || pool.containsFree(mc)) {
+                    pool.removeFromFreePool(mc);
+                    nextPolicy.release(mc);
+                }
+            }
+        } finally {
+            if (--pool.nesting <= 0 && scopeBound) {
+                pools.remove();
+                pool.close();
             }
         }
     }
 
+    /**
+     * 現在のスレッドに関連づけられたコネクションプールを返します．
+     * 
+     * @param create
+     *            コネクションプールが関連づけられていない場合に作成するなら<code>true</code>
+     * @return 現在のスレッドに関連づけられたコネクションプール，関連づけられていない場合は<code>null</code>
+     */
+    protected ScopedPool getPool(final boolean create) {
+        ScopedPool pool = pools.get();
+        if (pool == null && create) {
+            pool = new ScopedPool(nextPolicy);
+            pools.set(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * 後続のポリシーから取得した順にマネージドコネクションをスタックで管理するコネクションプールです．
+     * 
+     * @author koichik
+     */
+    protected static class ScopedPool extends ManagedConnectionPool<Object> {
+
+        /** 後続のポリシーから取得したマネージドコネクションのスタック */
+        protected final ArrayList<ManagedConnection> stack = new ArrayList<ManagedConnection>();
+
+        /** 実行中のインターセプタのネストの深さ */
+        protected int nesting;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param nextPolicy
+         *            後続のコネクション管理ポリシー
+         */
+        public ScopedPool(final ConnectionManagementPolicy nextPolicy) {
+            super(nextPolicy);
+        }
+
+        /**
+         * 後続のポリシーから取得したマネージドコネクションをアクティブプールに追加してスタックに積みます．
+         * 
+         * @param mc
+         *            マネージドコネクション
+         */
+        public void push(final ManagedConnection mc) {
+            addToActivePool(mc);
+            stack.add(mc);
+        }
+
+        /**
+         * 最後に積まれたマネージドコネクションをスタックから取り除いて返します．
+         * 
+         * @return 最後に積まれたマネージドコネクション
+         */
+        public ManagedConnection pop() {
+            return stack.remove(stack.size() - 1);
+        }
+
+        /**
+         * スタックに積まれているマネージドコネクションの数を返します．
+         * 
+         * @return スタックに積まれているマネージドコネクションの数
+         */
+        public int depth() {
+            return stack.size();
+        }
+
+    }
+
 }
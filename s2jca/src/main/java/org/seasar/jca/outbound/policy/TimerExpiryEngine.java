@@ -0,0 +1,104 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.seasar.framework.log.Logger;
+
+/**
+ * {@link Timer}を使用して登録された対象を定期的にスイープする{@link ExpiryEngine}の実装クラスです．
+ * <p>
+ * 対象ごとに一つの{@link TimerTask}を固定間隔でスケジュールします．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class TimerExpiryEngine implements ExpiryEngine {
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(TimerExpiryEngine.class);
+
+    // instance fields
+    /** タイマ */
+    protected final Timer timer;
+
+    /** 期限切れの対象とスケジュールされたタスクのマッピング */
+    protected final Map<Target, TimerTask> tasks = new HashMap<Target, TimerTask>();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param timer
+     *            タイマ
+     */
+    public TimerExpiryEngine(final Timer timer) {
+        this.timer = timer;
+    }
+
+    public synchronized void register(final Target target) {
+        if (tasks.containsKey(target)) {
+            return;
+        }
+        final long interval = target.getSweepInterval();
+        final TimerTask task = new SweepTask(target);
+        tasks.put(target, task);
+        timer.schedule(task, interval, interval);
+    }
+
+    public synchronized void unregister(final Target target) {
+        final TimerTask task = tasks.remove(target);
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * 期限切れの対象をスイープする{@link TimerTask}の実装クラスです．
+     * 
+     * @author koichik
+     */
+    public static class SweepTask extends TimerTask {
+
+        /** 期限切れの対象 */
+        protected final Target target;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param target
+         *            期限切れの対象
+         */
+        public SweepTask(final Target target) {
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            try {
+                target.sweep(System.currentTimeMillis());
+            } catch (final RuntimeException e) {
+                // タイマのスレッドを終了させないために例外はログに出力するだけ
+                logger.log("EJCA0000", null, e);
+            }
+        }
+
+    }
+
+}
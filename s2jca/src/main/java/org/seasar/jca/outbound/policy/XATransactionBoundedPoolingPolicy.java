@@ -23,7 +23,7 @@ import javax.transaction.TransactionManager;
 
 import org.seasar.jca.exception.SResourceException;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
-import org.seasar.jca.outbound.support.ManagedConnectionPool;
+import org.seasar.jca.outbound.support.ManagedConnectionSlots;
 
 /**
  * コネクションをXAトランザクションに関連づけて管理するポリシーの実装クラスです．
@@ -46,7 +46,7 @@ public class XATransactionBoundedPoolingPolicy extends AbstractTransactionBounde
     }
 
     @Override
-    protected void associateTx(final Transaction tx, final ManagedConnectionPool<Object> pool,
+    protected void associateTx(final Transaction tx, final ManagedConnectionSlots pool,
             final ConnectionManagementContext context) throws ResourceException {
         try {
             tx.enlistResource(context.getManagedConnection().getXAResource());
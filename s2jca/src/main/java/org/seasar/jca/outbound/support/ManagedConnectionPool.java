@@ -15,10 +15,15 @@
  */
 package org.seasar.jca.outbound.support;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,6 +38,12 @@ import org.seasar.jca.outbound.policy.ConnectionManagementPolicy;
 
 /**
  * マネージドコネクションをプールします．
+ * <p>
+ * キーによるマッチングが有効な場合，フリープールは{@link MatchingKey} (サブジェクトとコネクション要求情報の組み合わせ) で索引付けされ，
+ * {@link ManagedConnectionFactory#matchManagedConnections(Set, Subject, ConnectionRequestInfo)}には
+ * 要求と同じキーを持つマネージドコネクションとキーが不明なマネージドコネクションだけが候補として渡されます．
+ * キーによるマッチングが無効な場合は従来通りフリープール全体が候補として渡されます．
+ * </p>
  * 
  * @param <T>
  *            フリープール中のマネージドコネクションに関連づける値の型
@@ -56,6 +67,18 @@ public class ManagedConnectionPool<T> {
     /** 後続のコネクション管理ポリシー */
     protected final ConnectionManagementPolicy nextPolicy;
 
+    /** キーによるマッチングを行う場合は<code>true</code> */
+    protected final boolean keyedMatching;
+
+    /** マネージドコネクションとキーのマッピング */
+    protected final Map<ManagedConnection, MatchingKey> keys;
+
+    /** キーと，そのキーを持つ未使用のマネージドコネクションの{@link Set}のマッピング */
+    protected final Map<MatchingKey, Set<ManagedConnection>> keyedFreePool;
+
+    /** キーが不明な未使用のマネージドコネクションの{@link Set} */
+    protected final Set<ManagedConnection> unkeyedFreePool;
+
     /**
      * インスタンスを構築します．
      * 
@@ -76,10 +99,44 @@ public class ManagedConnectionPool<T> {
      */
     public ManagedConnectionPool(final ConnectionManagementPolicy nextPolicy,
             final boolean accessOrder) {
+        this(nextPolicy, accessOrder, false);
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param nextPolicy
+     *            後続のコネクション管理ポリシー
+     * @param accessOrder
+     *            フリープールをアクセス順で管理する場合は<code>true</code>
+     * @param keyedMatching
+     *            キーによるマッチングを行う場合は<code>true</code>
+     */
+    public ManagedConnectionPool(final ConnectionManagementPolicy nextPolicy,
+            final boolean accessOrder, final boolean keyedMatching) {
         this.activePool = new HashSet<ManagedConnection>();
         this.freePool = new LinkedHashMap<ManagedConnection, T>(64, 0.75f, accessOrder);
         this.freePoolView = Collections.unmodifiableSet(freePool.keySet());
         this.nextPolicy = nextPolicy;
+        this.keyedMatching = keyedMatching;
+        if (keyedMatching) {
+            this.keys = new HashMap<ManagedConnection, MatchingKey>();
+            this.keyedFreePool = new HashMap<MatchingKey, Set<ManagedConnection>>();
+            this.unkeyedFreePool = new LinkedHashSet<ManagedConnection>();
+        } else {
+            this.keys = null;
+            this.keyedFreePool = null;
+            this.unkeyedFreePool = null;
+        }
+    }
+
+    /**
+     * キーによるマッチングを行う場合は<code>true</code>を返します．
+     * 
+     * @return キーによるマッチングを行う場合は<code>true</code>
+     */
+    public boolean isKeyedMatching() {
+        return keyedMatching;
     }
 
     /**
@@ -100,6 +157,19 @@ public class ManagedConnectionPool<T> {
         return freePoolView;
     }
 
+    /**
+     * フリープールのエントリ (未使用のマネージドコネクションと任意の値の組) の更新不可能なビューを返します．
+     * <p>
+     * エントリはフリープールに追加された順 (アクセス順で管理する場合は最後にアクセスされた順) に並びます．
+     * このビューを反復してもアクセス順は変化しません．
+     * </p>
+     * 
+     * @return フリープールのエントリの更新不可能なビュー
+     */
+    public Set<Map.Entry<ManagedConnection, T>> getFreePoolEntries() {
+        return Collections.unmodifiableMap(freePool).entrySet();
+    }
+
     /**
      * プールの現在のサイズ (アクティブプールとフリープールのサイズの合計) を返します．
      * 
@@ -153,6 +223,9 @@ public class ManagedConnectionPool<T> {
      * 引数にマッチするマネージドコネクションがフリープールにあればそれを返します．
      * <p>
      * フリープールに引数にマッチするマネージドコネクションがなければ<code>null</code>を返します．
+     * キーによるマッチングが有効な場合は，要求と同じキーを持つマネージドコネクション，
+     * キーが不明なマネージドコネクションの順に照会します．
+     * キーが不明なマネージドコネクションがマッチした場合，そのマネージドコネクションは以降要求のキーで索引付けされます．
      * </p>
      * 
      * @param subject
@@ -170,7 +243,46 @@ public class ManagedConnectionPool<T> {
         if (freePool.isEmpty()) {
             return null;
         }
-        return mcf.matchManagedConnections(freePoolView, subject, info);
+        if (!keyedMatching) {
+            return mcf.matchManagedConnections(freePoolView, subject, info);
+        }
+
+        final MatchingKey key = new MatchingKey(subject, info);
+        final Set<ManagedConnection> candidates = keyedFreePool.get(key);
+        if (candidates != null) {
+            final ManagedConnection mc = mcf.matchManagedConnections(Collections
+                    .unmodifiableSet(candidates), subject, info);
+            if (mc != null) {
+                return mc;
+            }
+        }
+        if (unkeyedFreePool.isEmpty()) {
+            return null;
+        }
+        final ManagedConnection mc = mcf.matchManagedConnections(Collections
+                .unmodifiableSet(unkeyedFreePool), subject, info);
+        if (mc != null && unkeyedFreePool.remove(mc)) {
+            keys.put(mc, key);
+            addToIndex(mc, key);
+        }
+        return mc;
+    }
+
+    /**
+     * マネージドコネクションのキーを返します．
+     * <p>
+     * キーによるマッチングが無効な場合やキーが不明な場合は<code>null</code>を返します．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションのキー
+     */
+    public MatchingKey getMatchingKey(final ManagedConnection mc) {
+        if (!keyedMatching) {
+            return null;
+        }
+        return keys.get(mc);
     }
 
     /**
@@ -195,6 +307,24 @@ public class ManagedConnectionPool<T> {
         activePool.add(mc);
     }
 
+    /**
+     * マネージドコネクションを，それを要求したサブジェクトとコネクション要求情報とともにアクティブプールに追加します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @param subject
+     *            サブジェクト
+     * @param info
+     *            コネクション要求情報
+     */
+    public void addToActivePool(final ManagedConnection mc, final Subject subject,
+            final ConnectionRequestInfo info) {
+        activePool.add(mc);
+        if (keyedMatching) {
+            keys.put(mc, new MatchingKey(subject, info));
+        }
+    }
+
     /**
      * マネージドコネクションをフリープールに追加します．
      * 
@@ -216,6 +346,57 @@ public class ManagedConnectionPool<T> {
     public void addToFreePool(final ManagedConnection mc, final T opaque) {
         freePool.put(mc, opaque);
         freePool.get(mc);
+        addToIndex(mc);
+    }
+
+    /**
+     * マネージドコネクションをキーとともにフリープールに追加します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @param opaque
+     *            マネージドコネクションに関連づける任意の値
+     * @param key
+     *            マネージドコネクションのキー
+     */
+    public void addToFreePool(final ManagedConnection mc, final T opaque, final MatchingKey key) {
+        if (keyedMatching && key != null) {
+            keys.put(mc, key);
+        }
+        addToFreePool(mc, opaque);
+    }
+
+    /**
+     * マネージドコネクションをキーとともに，関連づける値の順序を保つ位置でフリープールに追加します．
+     * <p>
+     * フリープールが関連づけられた値の順に並んでいることを前提とし，
+     * 追加したマネージドコネクションより大きな値を持つマネージドコネクションをその後ろに移動します．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @param opaque
+     *            マネージドコネクションに関連づける任意の値
+     * @param key
+     *            マネージドコネクションのキー
+     * @param comparator
+     *            関連づけられた値の順序を決める{@link Comparator}
+     */
+    public void addToFreePool(final ManagedConnection mc, final T opaque, final MatchingKey key,
+            final Comparator<? super T> comparator) {
+        final List<ManagedConnection> successors = new ArrayList<ManagedConnection>();
+        final List<T> values = new ArrayList<T>();
+        for (final Map.Entry<ManagedConnection, T> entry : freePool.entrySet()) {
+            if (comparator.compare(entry.getValue(), opaque) > 0) {
+                successors.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        }
+        addToFreePool(mc, opaque, key);
+        for (int i = 0; i < successors.size(); ++i) {
+            freePool.remove(successors.get(i));
+            freePool.put(successors.get(i), values.get(i));
+        }
     }
 
     /**
@@ -247,6 +428,7 @@ public class ManagedConnectionPool<T> {
     public boolean moveActiveToFreePool(final ManagedConnection mc, final T opaque) {
         if (activePool.remove(mc)) {
             freePool.put(mc, opaque);
+            addToIndex(mc);
             return true;
         }
         return false;
@@ -266,7 +448,8 @@ public class ManagedConnectionPool<T> {
         if (!freePool.containsKey(mc)) {
             return null;
         }
-        final T opaque = removeFromFreePool(mc);
+        removeFromIndex(mc);
+        final T opaque = freePool.remove(mc);
         activePool.add(mc);
         return opaque;
     }
@@ -282,7 +465,13 @@ public class ManagedConnectionPool<T> {
      * @return マネージドコネクションを削除した場合は<code>true</code>
      */
     public boolean removeFromActivePool(final ManagedConnection mc) {
-        return activePool.remove(mc);
+        if (!activePool.remove(mc)) {
+            return false;
+        }
+        if (keyedMatching) {
+            keys.remove(mc);
+        }
+        return true;
     }
 
     /**
@@ -299,6 +488,10 @@ public class ManagedConnectionPool<T> {
         if (!freePool.containsKey(mc)) {
             return null;
         }
+        removeFromIndex(mc);
+        if (keyedMatching) {
+            keys.remove(mc);
+        }
         return freePool.remove(mc);
     }
 
@@ -339,6 +532,68 @@ public class ManagedConnectionPool<T> {
                 logger.log("EJCA0000", null, e);
             }
         }
+
+        if (keyedMatching) {
+            keys.clear();
+            keyedFreePool.clear();
+            unkeyedFreePool.clear();
+        }
+    }
+
+    /**
+     * フリープールに追加されたマネージドコネクションをキーで索引付けします．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     */
+    protected void addToIndex(final ManagedConnection mc) {
+        if (!keyedMatching) {
+            return;
+        }
+        final MatchingKey key = keys.get(mc);
+        if (key == null) {
+            unkeyedFreePool.add(mc);
+        } else {
+            addToIndex(mc, key);
+        }
+    }
+
+    /**
+     * マネージドコネクションをキーで索引付けします．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @param key
+     *            キー
+     */
+    protected void addToIndex(final ManagedConnection mc, final MatchingKey key) {
+        Set<ManagedConnection> candidates = keyedFreePool.get(key);
+        if (candidates == null) {
+            candidates = new LinkedHashSet<ManagedConnection>();
+            keyedFreePool.put(key, candidates);
+        }
+        candidates.add(mc);
+    }
+
+    /**
+     * フリープールから取り除かれるマネージドコネクションを索引から削除します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     */
+    protected void removeFromIndex(final ManagedConnection mc) {
+        if (!keyedMatching) {
+            return;
+        }
+        final MatchingKey key = keys.get(mc);
+        if (key == null) {
+            unkeyedFreePool.remove(mc);
+            return;
+        }
+        final Set<ManagedConnection> candidates = keyedFreePool.get(key);
+        if (candidates != null && candidates.remove(mc) && candidates.isEmpty()) {
+            keyedFreePool.remove(key);
+        }
     }
 
 }
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.support;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.security.auth.Subject;
+
+import org.seasar.framework.log.Logger;
+import org.seasar.jca.outbound.policy.ConnectionManagementPolicy;
+
+/**
+ * 少数のマネージドコネクションを配列で保持する軽量なプールです．
+ * <p>
+ * トランザクションに関連づけられるマネージドコネクションは一つか二つであることがほとんどのため，
+ * {@link ManagedConnectionPool}のようにハッシュ表を使わず，小さな配列で使用中と未使用のマネージドコネクションを管理します．
+ * 配列は必要に応じて拡張されます． {@link #close()}の後は空の状態に戻り，再利用することができます．
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class ManagedConnectionSlots {
+
+    // constants
+    /** 配列の初期サイズ */
+    protected static final int INITIAL_CAPACITY = 2;
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(ManagedConnectionSlots.class);
+
+    // instance fields
+    /** 後続のコネクション管理ポリシー */
+    protected final ConnectionManagementPolicy nextPolicy;
+
+    /** 使用されているマネージドコネクションの配列 */
+    protected ManagedConnection[] active = new ManagedConnection[INITIAL_CAPACITY];
+
+    /** 使用されているマネージドコネクションの数 */
+    protected int activeSize;
+
+    /** 未使用のマネージドコネクションの配列 */
+    protected ManagedConnection[] free = new ManagedConnection[INITIAL_CAPACITY];
+
+    /** 未使用のマネージドコネクションの数 */
+    protected int freeSize;
+
+    /** 未使用のマネージドコネクションの{@link java.util.Set}としての更新不可能なビュー */
+    protected final FreeView freeView = new FreeView();
+
+    /** プールを所有するスレッド */
+    protected Thread owner;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param nextPolicy
+     *            後続のコネクション管理ポリシー
+     */
+    public ManagedConnectionSlots(final ConnectionManagementPolicy nextPolicy) {
+        this.nextPolicy = nextPolicy;
+    }
+
+    /**
+     * プールを所有するスレッドを返します．
+     * 
+     * @return プールを所有するスレッド
+     */
+    public Thread getOwner() {
+        return owner;
+    }
+
+    /**
+     * プールを所有するスレッドを設定します．
+     * 
+     * @param owner
+     *            プールを所有するスレッド
+     */
+    public void setOwner(final Thread owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * 保持しているマネージドコネクションの数を返します．
+     * 
+     * @return 保持しているマネージドコネクションの数
+     */
+    public int size() {
+        return activeSize + freeSize;
+    }
+
+    /**
+     * 使用されているマネージドコネクションの数を返します．
+     * 
+     * @return 使用されているマネージドコネクションの数
+     */
+    public int getActivePoolSize() {
+        return activeSize;
+    }
+
+    /**
+     * 未使用のマネージドコネクションの数を返します．
+     * 
+     * @return 未使用のマネージドコネクションの数
+     */
+    public int getFreePoolSize() {
+        return freeSize;
+    }
+
+    /**
+     * マネージドコネクションが使用されていれば<code>true</code>を返します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションが使用されていれば<code>true</code>
+     */
+    public boolean containsActive(final ManagedConnection mc) {
+        return indexOf(active, activeSize, mc) >= 0;
+    }
+
+    /**
+     * マネージドコネクションが未使用なら<code>true</code>を返します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションが未使用なら<code>true</code>
+     */
+    public boolean containsFree(final ManagedConnection mc) {
+        return indexOf(free, freeSize, mc) >= 0;
+    }
+
+    /**
+     * 引数にマッチする未使用のマネージドコネクションがあればそれを返します．
+     * <p>
+     * 引数にマッチするマネージドコネクションがなければ<code>null</code>を返します．
+     * </p>
+     * 
+     * @param subject
+     *            サブジェクト
+     * @param info
+     *            コネクション要求情報
+     * @param mcf
+     *            マネージドコネクションファクトリ
+     * @return 引数にマッチするマネージドコネクション
+     * @throws ResourceException
+     *             マネージドコネクションの照会中に例外が発生した場合
+     */
+    public ManagedConnection getMatched(final Subject subject, final ConnectionRequestInfo info,
+            final ManagedConnectionFactory mcf) throws ResourceException {
+        if (freeSize == 0) {
+            return null;
+        }
+        return mcf.matchManagedConnections(freeView, subject, info);
+    }
+
+    /**
+     * マネージドコネクションを使用中として追加します．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     */
+    public void addToActivePool(final ManagedConnection mc) {
+        active = add(active, activeSize++, mc);
+    }
+
+    /**
+     * 使用中のマネージドコネクションを未使用にします．
+     * <p>
+     * マネージドコネクションが使用中でない場合は<code>false</code>を返します．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを未使用にした場合は<code>true</code>
+     */
+    public boolean moveActiveToFreePool(final ManagedConnection mc) {
+        if (!removeFromActivePool(mc)) {
+            return false;
+        }
+        free = add(free, freeSize++, mc);
+        return true;
+    }
+
+    /**
+     * 未使用のマネージドコネクションを使用中にします．
+     * <p>
+     * マネージドコネクションが未使用でない場合は<code>false</code>を返します．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを使用中にした場合は<code>true</code>
+     */
+    public boolean moveFreeToActivePool(final ManagedConnection mc) {
+        if (!removeFromFreePool(mc)) {
+            return false;
+        }
+        active = add(active, activeSize++, mc);
+        return true;
+    }
+
+    /**
+     * 使用中のマネージドコネクションを取り除きます．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを取り除いた場合は<code>true</code>
+     */
+    public boolean removeFromActivePool(final ManagedConnection mc) {
+        final int index = indexOf(active, activeSize, mc);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(active, activeSize--, index);
+        return true;
+    }
+
+    /**
+     * 未使用のマネージドコネクションを取り除きます．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを取り除いた場合は<code>true</code>
+     */
+    public boolean removeFromFreePool(final ManagedConnection mc) {
+        final int index = indexOf(free, freeSize, mc);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(free, freeSize--, index);
+        return true;
+    }
+
+    /**
+     * マネージドコネクションを取り除きます．
+     * 
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを取り除いた場合は<code>true</code>
+     */
+    public boolean remove(final ManagedConnection mc) {
+        return removeFromActivePool(mc) || removeFromFreePool(mc);
+    }
+
+    /**
+     * 保持しているマネージドコネクションをすべて後続のコネクション管理ポリシーに解放し，空の状態に戻します．
+     * <p>
+     * 使用中のマネージドコネクション，未使用のマネージドコネクションの順に，追加された順で解放します．
+     * </p>
+     */
+    public void close() {
+        for (int i = 0; i < activeSize; ++i) {
+            release(active[i]);
+            active[i] = null;
+        }
+        activeSize = 0;
+        for (int i = 0; i < freeSize; ++i) {
+            release(free[i]);
+            free[i] = null;
+        }
+        freeSize = 0;
+    }
+
+    /**
+     * マネージドコネクションを後続のコネクション管理ポリシーに解放します．
+     * <p>
+     * マネージドコネクションの解放中に例外が発生しても伝播しません．
+     * </p>
+     * 
+     * @param mc
+     *            マネージドコネクション
+     */
+    protected void release(final ManagedConnection mc) {
+        try {
+            nextPolicy.release(mc);
+        } catch (final ResourceException e) {
+            logger.log("EJCA0000", null, e);
+        }
+    }
+
+    /**
+     * 配列中のマネージドコネクションの位置を返します．
+     * 
+     * @param array
+     *            配列
+     * @param size
+     *            配列中の要素の数
+     * @param mc
+     *            マネージドコネクション
+     * @return 配列中のマネージドコネクションの位置，見つからなければ<code>-1</code>
+     */
+    protected static int indexOf(final ManagedConnection[] array, final int size,
+            final ManagedConnection mc) {
+        for (int i = 0; i < size; ++i) {
+            if (array[i] == mc) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 配列の末尾にマネージドコネクションを追加します．
+     * <p>
+     * 配列に空きがなければ二倍の大きさに拡張した配列を返します．
+     * </p>
+     * 
+     * @param array
+     *            配列
+     * @param size
+     *            配列中の要素の数
+     * @param mc
+     *            マネージドコネクション
+     * @return マネージドコネクションを追加した配列
+     */
+    protected static ManagedConnection[] add(final ManagedConnection[] array, final int size,
+            final ManagedConnection mc) {
+        ManagedConnection[] result = array;
+        if (size == array.length) {
+            result = new ManagedConnection[size * 2];
+            System.arraycopy(array, 0, result, 0, size);
+        }
+        result[size] = mc;
+        return result;
+    }
+
+    /**
+     * 配列から指定の位置の要素を取り除き，後続の要素を詰めます．
+     * 
+     * @param array
+     *            配列
+     * @param size
+     *            配列中の要素の数
+     * @param index
+     *            取り除く要素の位置
+     */
+    protected static void removeAt(final ManagedConnection[] array, final int size,
+            final int index) {
+        System.arraycopy(array, index + 1, array, index, size - index - 1);
+        array[size - 1] = null;
+    }
+
+    /**
+     * 未使用のマネージドコネクションの更新不可能なビューです．
+     * 
+     * @author koichik
+     */
+    protected class FreeView extends AbstractSet<ManagedConnection> {
+
+        @Override
+        public int size() {
+            return freeSize;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return o instanceof ManagedConnection && containsFree((ManagedConnection) o);
+        }
+
+        @Override
+        public Iterator<ManagedConnection> iterator() {
+            return new Iterator<ManagedConnection>() {
+
+                int index;
+
+                public boolean hasNext() {
+                    return index < freeSize;
+                }
+
+                public ManagedConnection next() {
+                    if (index >= freeSize) {
+                        throw new NoSuchElementException();
+                    }
+                    return free[index++];
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.support;
+
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.security.auth.Subject;
+
+/**
+ * サブジェクトとコネクション要求情報の組み合わせによってマネージドコネクションを識別するキーです．
+ * <p>
+ * {@link ManagedConnectionPool}はこのキーによってフリープールを索引付けし，
+ * {@link javax.resource.spi.ManagedConnectionFactory#matchManagedConnections(java.util.Set, Subject, ConnectionRequestInfo)}に渡す候補を絞り込みます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class MatchingKey {
+
+    // instance fields
+    /** セキュリティ認証のサブジェクト */
+    protected final Subject subject;
+
+    /** コネクション要求情報 */
+    protected final ConnectionRequestInfo info;
+
+    /** ハッシュコード */
+    protected final int hashCode;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param subject
+     *            サブジェクト
+     * @param info
+     *            コネクション要求情報
+     */
+    public MatchingKey(final Subject subject, final ConnectionRequestInfo info) {
+        this.subject = subject;
+        this.info = info;
+        this.hashCode = (subject == null ? 0 : subject.hashCode()) * 31
+                + (info == null ? 0 : info.hashCode());
+    }
+
+    /**
+     * セキュリティ認証のサブジェクトを返します．
+     * 
+     * @return セキュリティ認証のサブジェクト
+     */
+    public Subject getSubject() {
+        return subject;
+    }
+
+    /**
+     * コネクション要求情報を返します．
+     * 
+     * @return コネクション要求情報
+     */
+    public ConnectionRequestInfo getRequestInfo() {
+        return info;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MatchingKey)) {
+            return false;
+        }
+        final MatchingKey key = MatchingKey.class.cast(other);
+        return hashCode == key.hashCode && equals(subject, key.subject) && equals(info, key.info);
+    }
+
+    @Override
+    public String toString() {
+        return "MatchingKey{subject=" + subject + ", info=" + info + "}";
+    }
+
+    /**
+     * 二つのオブジェクトが等しければ<code>true</code>を返します．
+     * 
+     * @param lhs
+     *            オブジェクト
+     * @param rhs
+     *            オブジェクト
+     * @return 二つのオブジェクトが等しければ<code>true</code>
+     */
+    protected static boolean equals(final Object lhs, final Object rhs) {
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
+}
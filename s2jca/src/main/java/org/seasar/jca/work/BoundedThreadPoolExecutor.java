@@ -0,0 +1,193 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上限のあるキューを持つ固定サイズのスレッドプールです．
+ * <p>
+ * {@link java.util.concurrent.Executors#newFixedThreadPool(int)}のキューには上限がないため，
+ * インバウンド通信で大量の{@link javax.resource.spi.work.Work}が投入されるとメモリを使い果たしてしまいます．
+ * このスレッドプールはキューの長さを{@link #getQueueCapacity()}に制限します．
+ * キューが満杯の場合の動作は{@link #saturationPolicy}で指定します．
+ * デフォルトでは{@link javax.resource.spi.work.Work}を拒否するため，
+ * リソースアダプタには{@link javax.resource.spi.work.WorkRejectedException}がスローされます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class BoundedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    // constants
+    /** キューの長さの上限のデフォルト */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    // instance fields
+    /** キューの長さの上限 */
+    protected final int queueCapacity;
+
+    /** キューが満杯の場合の動作 */
+    protected int saturationPolicy = WorkManagerImpl.REJECT;
+
+    /** {@link WorkManagerImpl#BLOCK}の場合にキューが空くのを待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /**
+     * キューの長さの上限が{@link #DEFAULT_QUEUE_CAPACITY}のインスタンスを構築します．
+     * 
+     * @param numThreads
+     *            スレッド数
+     */
+    public BoundedThreadPoolExecutor(final int numThreads) {
+        this(numThreads, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param numThreads
+     *            スレッド数
+     * @param queueCapacity
+     *            キューの長さの上限
+     */
+    public BoundedThreadPoolExecutor(final int numThreads, final int queueCapacity) {
+        super(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                queueCapacity));
+        this.queueCapacity = queueCapacity;
+        setRejectedExecutionHandler(new SaturationHandler());
+    }
+
+    /**
+     * キューの長さの上限を返します．
+     * 
+     * @return キューの長さの上限
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * キューが満杯の場合の動作を返します．
+     * 
+     * @return キューが満杯の場合の動作
+     */
+    public int getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * キューが満杯の場合の動作を設定します．
+     * <p>
+     * {@link WorkManagerImpl#REJECT} (デフォルト)，{@link WorkManagerImpl#CALLER_RUNS}，
+     * {@link WorkManagerImpl#BLOCK}のいずれかを指定します．
+     * </p>
+     * 
+     * @param saturationPolicy
+     *            キューが満杯の場合の動作
+     */
+    public void setSaturationPolicy(final int saturationPolicy) {
+        this.saturationPolicy = saturationPolicy;
+    }
+
+    /**
+     * キューが空くのを待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return キューが空くのを待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * キューが空くのを待機する最大時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無期限に待機します．
+     * </p>
+     * 
+     * @param blockingTimeout
+     *            キューが空くのを待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * キューが満杯の場合に{@link #saturationPolicy}に従ってタスクを処理します．
+     * 
+     * @param task
+     *            タスク
+     * @throws RejectedExecutionException
+     *             タスクを実行できない場合
+     */
+    protected void saturated(final Runnable task) {
+        if (isShutdown()) {
+            throw new RejectedExecutionException();
+        }
+        switch (saturationPolicy) {
+        case WorkManagerImpl.CALLER_RUNS:
+            task.run();
+            return;
+        case WorkManagerImpl.BLOCK:
+            enqueue(task);
+            return;
+        default:
+            throw new RejectedExecutionException();
+        }
+    }
+
+    /**
+     * キューが空くのを待機してタスクをキューに追加します．
+     * 
+     * @param task
+     *            タスク
+     * @throws RejectedExecutionException
+     *             {@link #blockingTimeout}を経過してもキューが空かない場合や，待機中に割り込まれた場合
+     */
+    protected void enqueue(final Runnable task) {
+        try {
+            if (blockingTimeout <= 0) {
+                getQueue().put(task);
+                return;
+            }
+            if (!getQueue().offer(task, blockingTimeout, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    /**
+     * キューが満杯の場合に{@link BoundedThreadPoolExecutor#saturated(Runnable)}を呼び出す
+     * {@link RejectedExecutionHandler}です．
+     * 
+     * @author koichik
+     */
+    protected class SaturationHandler implements RejectedExecutionHandler {
+
+        public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+            saturated(task);
+        }
+
+    }
+
+}
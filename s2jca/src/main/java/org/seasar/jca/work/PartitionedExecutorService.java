@@ -0,0 +1,867 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.seasar.framework.log.Logger;
+
+/**
+ * スレッドを共有する複数のパーティションに分割されたスレッドプールです．
+ * <p>
+ * パーティションは{@link #createPartition(String, int, int)}で作成し，
+ * パーティションごとに{@link WorkManagerImpl}を構築して使用します．
+ * 各パーティションは独自のキューと同時に実行されるタスクの最大数を持ち，
+ * 空いたスレッドはパーティションの重みに従って重み付きラウンドロビン (smooth weighted round-robin) で
+ * 割り当てられます．
+ * そのため，一つのリソースアダプタが大量の{@link javax.resource.spi.work.Work}を投入しても，
+ * 他のリソースアダプタの{@link javax.resource.spi.work.Work}は重みに応じたスレッドを使って実行されます．
+ * </p>
+ * <p>
+ * パーティションのキューが満杯の場合の動作は{@link #saturationPolicy}で指定します．
+ * パーティションを指定せずに{@link #execute(Runnable)}で投入されたタスクはデフォルトのパーティションで実行されます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class PartitionedExecutorService extends AbstractExecutorService {
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(PartitionedExecutorService.class);
+
+    // constants
+    /** デフォルトのパーティションの名前 */
+    public static final String DEFAULT_PARTITION = "default";
+
+    // instance fields
+    /** スレッド数 */
+    protected final int numThreads;
+
+    /** パーティションのキューの長さの上限のデフォルト */
+    protected int queueCapacity = BoundedThreadPoolExecutor.DEFAULT_QUEUE_CAPACITY;
+
+    /** パーティションのキューが満杯の場合の動作 */
+    protected int saturationPolicy = WorkManagerImpl.BLOCK;
+
+    /** {@link WorkManagerImpl#BLOCK}の場合にキューが空くのを待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /** スレッドの名前の接頭辞 */
+    protected String threadNamePrefix = "s2jca-work-partitioned-";
+
+    /** 名前をキーとするパーティションのマップ */
+    protected final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+
+    /** スケジューリングの対象となるパーティションのリスト */
+    protected final List<Partition> activePartitions = new ArrayList<Partition>();
+
+    /** パーティションとスレッドの状態を同期するロック */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** 実行可能なタスクが投入されたことを通知する条件 */
+    protected final Condition available = lock.newCondition();
+
+    /** 全てのスレッドが終了したことを通知する条件 */
+    protected final Condition terminated = lock.newCondition();
+
+    /** 生存しているスレッドの数 */
+    protected int liveThreads;
+
+    /** 終了が要求されていれば<code>true</code> */
+    protected boolean shutdown;
+
+    /** スレッドのリスト */
+    protected final List<Thread> threads = new ArrayList<Thread>();
+
+    /** 作成したスレッドの数 */
+    protected final AtomicInteger threadNumber = new AtomicInteger();
+
+    /** デフォルトのパーティション */
+    protected Partition defaultPartition;
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param numThreads
+     *            全てのパーティションで共有するスレッド数
+     */
+    public PartitionedExecutorService(final int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * パーティションを作成します．
+     * <p>
+     * キューの長さの上限は{@link #getQueueCapacity()}になります．
+     * </p>
+     * 
+     * @param name
+     *            パーティションの名前
+     * @param weight
+     *            パーティションの重み
+     * @param maxThreads
+     *            パーティションで同時に実行されるタスクの最大数
+     * @return パーティション
+     * @throws IllegalStateException
+     *             同じ名前のパーティションが存在する場合や，スレッドプールが終了している場合
+     */
+    public Partition createPartition(final String name, final int weight, final int maxThreads) {
+        return createPartition(name, weight, maxThreads, queueCapacity);
+    }
+
+    /**
+     * パーティションを作成します．
+     * 
+     * @param name
+     *            パーティションの名前
+     * @param weight
+     *            パーティションの重み
+     * @param maxThreads
+     *            パーティションで同時に実行されるタスクの最大数
+     * @param queueCapacity
+     *            パーティションのキューの長さの上限
+     * @return パーティション
+     * @throws IllegalStateException
+     *             同じ名前のパーティションが存在する場合や，スレッドプールが終了している場合
+     */
+    public Partition createPartition(final String name, final int weight, final int maxThreads,
+            final int queueCapacity) {
+        if (weight <= 0 || maxThreads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        final Partition partition = new Partition(name, weight, maxThreads, queueCapacity);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException();
+            }
+            if (partitions.putIfAbsent(name, partition) != null) {
+                throw new IllegalStateException(name);
+            }
+            activePartitions.add(partition);
+            startThreads();
+        } finally {
+            lock.unlock();
+        }
+        return partition;
+    }
+
+    /**
+     * 名前で指定されたパーティションを返します．
+     * 
+     * @param name
+     *            パーティションの名前
+     * @return パーティション，存在しない場合は<code>null</code>
+     */
+    public Partition getPartition(final String name) {
+        return partitions.get(name);
+    }
+
+    /**
+     * パーティションの数を返します．
+     * 
+     * @return パーティションの数
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public void execute(final Runnable command) {
+        getDefaultPartition().execute(command);
+    }
+
+    /**
+     * デフォルトのパーティションを返します．
+     * <p>
+     * デフォルトのパーティションは重み<code>1</code>で，全てのスレッドを使用することができます．
+     * </p>
+     * 
+     * @return デフォルトのパーティション
+     * @throws RejectedExecutionException
+     *             スレッドプールが終了している場合
+     */
+    protected Partition getDefaultPartition() {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException();
+            }
+            if (defaultPartition == null) {
+                defaultPartition = createPartition(DEFAULT_PARTITION, 1, numThreads);
+            }
+            return defaultPartition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * スレッドを開始します．
+     * <p>
+     * 最初のパーティションが作成された時点で{@link #numThreads}のスレッドを開始します．
+     * このメソッドは{@link #lock}を獲得した状態で呼び出されなければなりません．
+     * </p>
+     */
+    protected void startThreads() {
+        if (!threads.isEmpty()) {
+            return;
+        }
+        final ThreadFactory factory = createThreadFactory();
+        for (int i = 0; i < numThreads; ++i) {
+            final Thread thread = factory.newThread(new Worker());
+            threads.add(thread);
+            ++liveThreads;
+            thread.start();
+        }
+    }
+
+    /**
+     * スレッドを作成するファクトリを作成します．
+     * 
+     * @return スレッドを作成するファクトリ
+     */
+    protected ThreadFactory createThreadFactory() {
+        return new ThreadFactory() {
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, threadNamePrefix
+                        + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * 次に実行するタスクを取り出します．
+     * <p>
+     * 実行可能なタスクがなければ投入されるまで待機します．
+     * タスクを取り出したパーティションは<code>worker</code>に設定されます．
+     * </p>
+     * 
+     * @param worker
+     *            タスクを実行するスレッド
+     * @return 次に実行するタスク，スレッドプールが終了した場合は<code>null</code>
+     * @throws InterruptedException
+     *             待機中に割り込まれた場合
+     */
+    protected Runnable take(final Worker worker) throws InterruptedException {
+        lock.lock();
+        try {
+            for (;;) {
+                final Partition partition = select();
+                if (partition != null) {
+                    worker.partition = partition;
+                    return partition.dequeue();
+                }
+                if (shutdown && activePartitions.isEmpty()) {
+                    return null;
+                }
+                available.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 重み付きラウンドロビンで次にスレッドを割り当てるパーティションを選択します．
+     * <p>
+     * キューが空でなく，同時に実行されるタスクの数が上限に達していないパーティションが選択の対象です．
+     * このメソッドは{@link #lock}を獲得した状態で呼び出されなければなりません．
+     * </p>
+     * 
+     * @return 次にスレッドを割り当てるパーティション，実行可能なパーティションがなければ<code>null</code>
+     */
+    protected Partition select() {
+        Partition selected = null;
+        int totalWeight = 0;
+        for (final Partition partition : activePartitions) {
+            if (!partition.isRunnable()) {
+                continue;
+            }
+            partition.currentWeight += partition.weight;
+            totalWeight += partition.weight;
+            if (selected == null || partition.currentWeight > selected.currentWeight) {
+                selected = partition;
+            }
+        }
+        if (selected != null) {
+            selected.currentWeight -= totalWeight;
+        }
+        return selected;
+    }
+
+    /**
+     * スレッドが終了したことを記録します．
+     */
+    protected void threadTerminated() {
+        lock.lock();
+        try {
+            if (--liveThreads == 0) {
+                terminated.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            for (final Partition partition : new ArrayList<Partition>(activePartitions)) {
+                partition.shutdown();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (final Partition partition : new ArrayList<Partition>(activePartitions)) {
+                tasks.addAll(partition.shutdownNow());
+            }
+            for (final Thread thread : threads) {
+                thread.interrupt();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return tasks;
+    }
+
+    public boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isTerminated() {
+        lock.lock();
+        try {
+            return shutdown && liveThreads == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean awaitTermination(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!shutdown || liveThreads > 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = terminated.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 全てのパーティションで共有するスレッド数を返します．
+     * 
+     * @return 全てのパーティションで共有するスレッド数
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * パーティションのキューの長さの上限のデフォルトを返します．
+     * 
+     * @return パーティションのキューの長さの上限のデフォルト
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * パーティションのキューの長さの上限のデフォルトを設定します．
+     * 
+     * @param queueCapacity
+     *            パーティションのキューの長さの上限のデフォルト
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * パーティションのキューが満杯の場合の動作を返します．
+     * 
+     * @return パーティションのキューが満杯の場合の動作
+     */
+    public int getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * パーティションのキューが満杯の場合の動作を設定します．
+     * <p>
+     * {@link WorkManagerImpl#REJECT}，{@link WorkManagerImpl#CALLER_RUNS}，{@link WorkManagerImpl#BLOCK}
+     * (デフォルト) のいずれかを指定します．
+     * </p>
+     * 
+     * @param saturationPolicy
+     *            パーティションのキューが満杯の場合の動作
+     */
+    public void setSaturationPolicy(final int saturationPolicy) {
+        this.saturationPolicy = saturationPolicy;
+    }
+
+    /**
+     * キューが空くのを待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return キューが空くのを待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * キューが空くのを待機する最大時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無期限に待機します．
+     * </p>
+     * 
+     * @param blockingTimeout
+     *            キューが空くのを待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * スレッドの名前の接頭辞を返します．
+     * 
+     * @return スレッドの名前の接頭辞
+     */
+    public String getThreadNamePrefix() {
+        return threadNamePrefix;
+    }
+
+    /**
+     * スレッドの名前の接頭辞を設定します．
+     * 
+     * @param threadNamePrefix
+     *            スレッドの名前の接頭辞
+     */
+    public void setThreadNamePrefix(final String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /**
+     * スレッドプールのパーティションです．
+     * <p>
+     * パーティションを終了すると，キューに残っているタスクの実行が完了した時点でスケジューリングの対象から外れます．
+     * スレッドは他のパーティションと共有しているため，{@link #shutdownNow()}は実行中のタスクに割り込みません．
+     * </p>
+     * 
+     * @author koichik
+     */
+    public class Partition extends AbstractExecutorService {
+
+        /** パーティションの名前 */
+        protected final String name;
+
+        /** パーティションの重み */
+        protected final int weight;
+
+        /** パーティションで同時に実行されるタスクの最大数 */
+        protected final int maxThreads;
+
+        /** キューの長さの上限 */
+        protected final int queueCapacity;
+
+        /** キュー */
+        protected final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+
+        /** キューが空いたことを通知する条件 */
+        protected final Condition notFull = lock.newCondition();
+
+        /** パーティションが終了したことを通知する条件 */
+        protected final Condition partitionTerminated = lock.newCondition();
+
+        /** 実行中のタスクの数 */
+        protected int activeThreads;
+
+        /** 重み付きラウンドロビンの現在の重み */
+        protected int currentWeight;
+
+        /** 終了が要求されていれば<code>true</code> */
+        protected boolean partitionShutdown;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param name
+         *            パーティションの名前
+         * @param weight
+         *            パーティションの重み
+         * @param maxThreads
+         *            パーティションで同時に実行されるタスクの最大数
+         * @param queueCapacity
+         *            キューの長さの上限
+         */
+        protected Partition(final String name, final int weight, final int maxThreads,
+                final int queueCapacity) {
+            this.name = name;
+            this.weight = weight;
+            this.maxThreads = maxThreads;
+            this.queueCapacity = queueCapacity;
+        }
+
+        public void execute(final Runnable command) {
+            lock.lock();
+            try {
+                if (partitionShutdown) {
+                    throw new RejectedExecutionException();
+                }
+                if (queue.size() >= queueCapacity) {
+                    switch (saturationPolicy) {
+                    case WorkManagerImpl.CALLER_RUNS:
+                        break;
+                    case WorkManagerImpl.BLOCK:
+                        awaitNotFull();
+                        break;
+                    default:
+                        throw new RejectedExecutionException();
+                    }
+                }
+                if (queue.size() < queueCapacity) {
+                    queue.addLast(command);
+                    available.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            command.run();
+        }
+
+        /**
+         * キューが空くのを待機します．
+         * <p>
+         * このメソッドは{@link PartitionedExecutorService#lock}を獲得した状態で呼び出されなければなりません．
+         * </p>
+         * 
+         * @throws RejectedExecutionException
+         *             {@link PartitionedExecutorService#blockingTimeout}を経過してもキューが空かない場合や，
+         *             待機中にパーティションが終了した場合，待機中に割り込まれた場合
+         */
+        protected void awaitNotFull() {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(blockingTimeout);
+            try {
+                while (queue.size() >= queueCapacity) {
+                    if (partitionShutdown) {
+                        throw new RejectedExecutionException();
+                    }
+                    if (blockingTimeout <= 0) {
+                        notFull.await();
+                        continue;
+                    }
+                    if (nanos <= 0) {
+                        throw new RejectedExecutionException();
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        }
+
+        /**
+         * キューからタスクを取り除きます．
+         * 
+         * @param task
+         *            タスク
+         * @return タスクがキューから取り除かれた場合は<code>true</code>
+         */
+        public boolean remove(final Runnable task) {
+            lock.lock();
+            try {
+                if (!queue.remove(task)) {
+                    return false;
+                }
+                notFull.signal();
+                checkTerminated();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * スレッドを割り当てることができれば<code>true</code>を返します．
+         * 
+         * @return スレッドを割り当てることができれば<code>true</code>
+         */
+        protected boolean isRunnable() {
+            return !queue.isEmpty() && activeThreads < maxThreads;
+        }
+
+        /**
+         * キューの先頭のタスクを取り出し，実行中のタスクの数を増やします．
+         * <p>
+         * このメソッドは{@link PartitionedExecutorService#lock}を獲得した状態で呼び出されなければなりません．
+         * </p>
+         * 
+         * @return キューの先頭のタスク
+         */
+        protected Runnable dequeue() {
+            final Runnable task = queue.removeFirst();
+            ++activeThreads;
+            notFull.signal();
+            return task;
+        }
+
+        /**
+         * {@link #dequeue()}で取り出したタスクを実行します．
+         * 
+         * @param task
+         *            タスク
+         */
+        protected void runTask(final Runnable task) {
+            try {
+                task.run();
+            } finally {
+                lock.lock();
+                try {
+                    --activeThreads;
+                    if (isRunnable()) {
+                        available.signal();
+                    }
+                    checkTerminated();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * パーティションが終了していればスケジューリングの対象から外します．
+         * <p>
+         * このメソッドは{@link PartitionedExecutorService#lock}を獲得した状態で呼び出されなければなりません．
+         * </p>
+         */
+        protected void checkTerminated() {
+            if (!isTerminated()) {
+                return;
+            }
+            if (activePartitions.remove(this)) {
+                partitions.remove(name, this);
+                if (defaultPartition == this) {
+                    defaultPartition = null;
+                }
+                partitionTerminated.signalAll();
+                available.signalAll();
+            }
+        }
+
+        public void shutdown() {
+            lock.lock();
+            try {
+                partitionShutdown = true;
+                notFull.signalAll();
+                checkTerminated();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public List<Runnable> shutdownNow() {
+            lock.lock();
+            try {
+                partitionShutdown = true;
+                final List<Runnable> tasks = new ArrayList<Runnable>(queue);
+                queue.clear();
+                notFull.signalAll();
+                checkTerminated();
+                return tasks;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isShutdown() {
+            lock.lock();
+            try {
+                return partitionShutdown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isTerminated() {
+            lock.lock();
+            try {
+                return partitionShutdown && queue.isEmpty() && activeThreads == 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean awaitTermination(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!isTerminated()) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = partitionTerminated.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * パーティションの名前を返します．
+         * 
+         * @return パーティションの名前
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * パーティションの重みを返します．
+         * 
+         * @return パーティションの重み
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * パーティションで同時に実行されるタスクの最大数を返します．
+         * 
+         * @return パーティションで同時に実行されるタスクの最大数
+         */
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        /**
+         * キューの長さの上限を返します．
+         * 
+         * @return キューの長さの上限
+         */
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        /**
+         * キューで待機しているタスクの数を返します．
+         * 
+         * @return キューで待機しているタスクの数
+         */
+        public int getQueueSize() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 実行中のタスクの数を返します．
+         * 
+         * @return 実行中のタスクの数
+         */
+        public int getActiveThreads() {
+            lock.lock();
+            try {
+                return activeThreads;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * パーティションのタスクを実行するスレッドです．
+     * <p>
+     * スレッド数は固定されていて補充されないため，タスクが{@link Error}をスローしてもログに出力して次のタスクを実行します．
+     * </p>
+     * 
+     * @author koichik
+     */
+    protected class Worker implements Runnable {
+
+        /** 実行するタスクを取り出したパーティション */
+        protected Partition partition;
+
+        public void run() {
+            try {
+                for (;;) {
+                    final Runnable task;
+                    try {
+                        task = take(this);
+                    } catch (final InterruptedException e) {
+                        if (isShutdown()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (task == null) {
+                        return;
+                    }
+                    try {
+                        partition.runTask(task);
+                    } catch (final Throwable e) {
+                        logger.log("EJCA0000", null, e);
+                    }
+                }
+            } finally {
+                threadTerminated();
+            }
+        }
+
+    }
+
+}
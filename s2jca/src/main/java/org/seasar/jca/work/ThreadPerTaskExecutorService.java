@@ -0,0 +1,400 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.seasar.framework.log.Logger;
+
+/**
+ * タスクごとにスレッドを作成して実行する{@link java.util.concurrent.ExecutorService}の実装クラスです．
+ * <p>
+ * 実行環境が仮想スレッドをサポートしている場合 (Java 21以降) は，タスクを仮想スレッドで実行します．
+ * それ以外の場合は{@link #stackSize}で指定されたスタックサイズのデーモンスレッドを作成して実行します．
+ * スレッドプールを使わないため，JMSセッションのポーリングのようにブロックし続ける{@link javax.resource.spi.work.Work}を
+ * 多数実行してもスレッドプールを使い果たすことはありません．
+ * </p>
+ * <p>
+ * 同時に実行されるタスクの数は{@link #maxConcurrency}に制限されます．
+ * 上限に達している場合の動作は{@link #saturationPolicy}で指定します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class ThreadPerTaskExecutorService extends AbstractExecutorService {
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(ThreadPerTaskExecutorService.class);
+
+    /** 仮想スレッドを開始するメソッド (<code>Thread#startVirtualThread(Runnable)</code>)，サポートされていない場合は<code>null</code> */
+    protected static final Method startVirtualThreadMethod = getStartVirtualThreadMethod();
+
+    // instance fields
+    /** 同時に実行されるタスクの最大数 */
+    protected final int maxConcurrency;
+
+    /** 同時に実行されるタスクの数を制限するセマフォ */
+    protected final Semaphore permits;
+
+    /** 同時に実行されるタスクの数が上限に達している場合の動作 */
+    protected int saturationPolicy = WorkManagerImpl.BLOCK;
+
+    /** {@link WorkManagerImpl#BLOCK}の場合に実行を待機する最大時間 (ミリ秒単位)，<code>0</code>以下なら無期限 */
+    protected long blockingTimeout = 0;
+
+    /** 仮想スレッドがサポートされている場合に仮想スレッドを使用するなら<code>true</code> */
+    protected boolean virtualThreads = true;
+
+    /** プラットフォームスレッドのスタックサイズ (バイト単位)，<code>0</code>ならJVMのデフォルト */
+    protected long stackSize = 0;
+
+    /** プラットフォームスレッドの名前の接頭辞 */
+    protected String threadNamePrefix = "s2jca-work-";
+
+    /** 作成したスレッドの数 */
+    protected final AtomicInteger threadNumber = new AtomicInteger();
+
+    /** 実行中のスレッド */
+    protected final ConcurrentHashMap<Thread, Boolean> runningThreads = new ConcurrentHashMap<Thread, Boolean>();
+
+    /** 実行中のタスクの数 */
+    protected int runningTasks;
+
+    /** 終了が要求されていれば<code>true</code> */
+    protected volatile boolean shutdown;
+
+    /** 実行中のタスクの数を同期するロック */
+    protected final Object lock = new Object();
+
+    /**
+     * 同時に実行されるタスクの数を制限せずにインスタンスを構築します．
+     */
+    public ThreadPerTaskExecutorService() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param maxConcurrency
+     *            同時に実行されるタスクの最大数
+     */
+    public ThreadPerTaskExecutorService(final int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * 仮想スレッドを開始するメソッドを返します．
+     * 
+     * @return 仮想スレッドを開始するメソッド，サポートされていない場合は<code>null</code>
+     */
+    protected static Method getStartVirtualThreadMethod() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public void execute(final Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException();
+        }
+        if (!permits.tryAcquire()) {
+            switch (saturationPolicy) {
+            case WorkManagerImpl.CALLER_RUNS:
+                command.run();
+                return;
+            case WorkManagerImpl.BLOCK:
+                acquire();
+                break;
+            default:
+                throw new RejectedExecutionException();
+            }
+        }
+        synchronized (lock) {
+            ++runningTasks;
+        }
+        try {
+            startThread(new Task(command));
+        } catch (final RuntimeException e) {
+            taskCompleted();
+            throw e;
+        } catch (final Error e) {
+            taskCompleted();
+            throw e;
+        }
+    }
+
+    /**
+     * タスクを実行できるようになるまで待機します．
+     * 
+     * @throws RejectedExecutionException
+     *             {@link #blockingTimeout}を経過しても実行できない場合や，待機中に割り込まれた場合
+     */
+    protected void acquire() {
+        try {
+            if (blockingTimeout <= 0) {
+                permits.acquire();
+                return;
+            }
+            if (!permits.tryAcquire(blockingTimeout, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    /**
+     * タスクを実行するスレッドを開始します．
+     * 
+     * @param task
+     *            タスク
+     */
+    protected void startThread(final Runnable task) {
+        if (virtualThreads && startVirtualThreadMethod != null) {
+            try {
+                startVirtualThreadMethod.invoke(null, task);
+                return;
+            } catch (final Exception e) {
+                logger.log("EJCA0000", null, e);
+            }
+        }
+        final Thread thread = new Thread(null, task, threadNamePrefix
+                + threadNumber.incrementAndGet(), stackSize);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * タスクの実行が完了したことを記録します．
+     */
+    protected void taskCompleted() {
+        permits.release();
+        synchronized (lock) {
+            if (--runningTasks == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        for (final Thread thread : runningThreads.keySet()) {
+            thread.interrupt();
+        }
+        return new ArrayList<Runnable>();
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        synchronized (lock) {
+            return shutdown && runningTasks == 0;
+        }
+    }
+
+    public boolean awaitTermination(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!shutdown || runningTasks > 0) {
+                final long rest = deadline - System.nanoTime();
+                if (rest <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, rest);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 実行中のタスクの数を返します．
+     * 
+     * @return 実行中のタスクの数
+     */
+    public int getRunningTasks() {
+        synchronized (lock) {
+            return runningTasks;
+        }
+    }
+
+    /**
+     * 同時に実行されるタスクの最大数を返します．
+     * 
+     * @return 同時に実行されるタスクの最大数
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * 同時に実行されるタスクの数が上限に達している場合の動作を返します．
+     * 
+     * @return 同時に実行されるタスクの数が上限に達している場合の動作
+     */
+    public int getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * 同時に実行されるタスクの数が上限に達している場合の動作を設定します．
+     * <p>
+     * {@link WorkManagerImpl#REJECT}，{@link WorkManagerImpl#CALLER_RUNS}，{@link WorkManagerImpl#BLOCK}
+     * (デフォルト) のいずれかを指定します．
+     * </p>
+     * 
+     * @param saturationPolicy
+     *            同時に実行されるタスクの数が上限に達している場合の動作
+     */
+    public void setSaturationPolicy(final int saturationPolicy) {
+        this.saturationPolicy = saturationPolicy;
+    }
+
+    /**
+     * 実行を待機する最大時間 (ミリ秒単位) を返します．
+     * 
+     * @return 実行を待機する最大時間 (ミリ秒単位)
+     */
+    public long getBlockingTimeout() {
+        return blockingTimeout;
+    }
+
+    /**
+     * 実行を待機する最大時間 (ミリ秒単位) を設定します．
+     * <p>
+     * <code>0</code>以下の場合は無期限に待機します．
+     * </p>
+     * 
+     * @param blockingTimeout
+     *            実行を待機する最大時間 (ミリ秒単位)
+     */
+    public void setBlockingTimeout(final long blockingTimeout) {
+        this.blockingTimeout = blockingTimeout;
+    }
+
+    /**
+     * 仮想スレッドがサポートされている場合に仮想スレッドを使用するなら<code>true</code>を返します．
+     * 
+     * @return 仮想スレッドがサポートされている場合に仮想スレッドを使用するなら<code>true</code>
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 仮想スレッドがサポートされている場合に仮想スレッドを使用するなら<code>true</code>を設定します．
+     * 
+     * @param virtualThreads
+     *            仮想スレッドがサポートされている場合に仮想スレッドを使用するなら<code>true</code>
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * プラットフォームスレッドのスタックサイズ (バイト単位) を返します．
+     * 
+     * @return プラットフォームスレッドのスタックサイズ (バイト単位)
+     */
+    public long getStackSize() {
+        return stackSize;
+    }
+
+    /**
+     * プラットフォームスレッドのスタックサイズ (バイト単位) を設定します．
+     * <p>
+     * <code>0</code>の場合はJVMのデフォルトが使われます． 仮想スレッドには適用されません．
+     * </p>
+     * 
+     * @param stackSize
+     *            プラットフォームスレッドのスタックサイズ (バイト単位)
+     */
+    public void setStackSize(final long stackSize) {
+        this.stackSize = stackSize;
+    }
+
+    /**
+     * プラットフォームスレッドの名前の接頭辞を返します．
+     * 
+     * @return プラットフォームスレッドの名前の接頭辞
+     */
+    public String getThreadNamePrefix() {
+        return threadNamePrefix;
+    }
+
+    /**
+     * プラットフォームスレッドの名前の接頭辞を設定します．
+     * 
+     * @param threadNamePrefix
+     *            プラットフォームスレッドの名前の接頭辞
+     */
+    public void setThreadNamePrefix(final String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /**
+     * タスクを実行し，完了後に実行中のタスクの数を減らすラッパーです．
+     * 
+     * @author koichik
+     */
+    protected class Task implements Runnable {
+
+        /** タスク */
+        protected final Runnable command;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param command
+         *            タスク
+         */
+        protected Task(final Runnable command) {
+            this.command = command;
+        }
+
+        public void run() {
+            final Thread thread = Thread.currentThread();
+            runningThreads.put(thread, Boolean.TRUE);
+            try {
+                command.run();
+            } finally {
+                runningThreads.remove(thread);
+                taskCompleted();
+            }
+        }
+
+    }
+
+}
@@ -16,7 +16,12 @@
 package org.seasar.jca.work;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.resource.spi.work.ExecutionContext;
 import javax.resource.spi.work.Work;
@@ -24,11 +29,18 @@ import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkListener;
 import javax.resource.spi.work.WorkManager;
 
+import org.seasar.framework.container.annotation.tiger.Binding;
+import org.seasar.framework.container.annotation.tiger.BindingType;
 import org.seasar.framework.container.annotation.tiger.Component;
 import org.seasar.framework.container.annotation.tiger.InstanceType;
 
 /**
  * {@link WorkManager}の実装クラスです．
+ * <p>
+ * スレッドプールが{@link ThreadPoolExecutor}または{@link PartitionedExecutorService.Partition}の場合，開始タイムアウトを指定された{@link Work}がキューで待機したまま
+ * タイムアウト時間を経過すると，スレッドが空くのを待たずにキューから取り除いて
+ * {@link javax.resource.spi.work.WorkException#START_TIMED_OUT}で破棄します．
+ * </p>
  * 
  * @author koichik
  */
@@ -45,10 +57,28 @@ public class WorkManagerImpl implements WorkManager {
     /** 作業が終了したことを示します． */
     protected static final int DO_WORK = 2;
 
+    /** 作業を実行できない場合に拒否することを示します． */
+    public static final int REJECT = 0;
+
+    /** 作業を実行できない場合に呼び出し元のスレッドで実行することを示します． */
+    public static final int CALLER_RUNS = 1;
+
+    /** 作業を実行できない場合に実行できるようになるまで待機することを示します． */
+    public static final int BLOCK = 2;
+
     // instance fields
     /** スレッドプール */
     protected final ExecutorService pool;
 
+    /** EISからインポートしたトランザクションを管理する{@link XATerminatorImpl}，インポートしない場合は<code>null</code> */
+    protected volatile XATerminatorImpl xaTerminator;
+
+    /** 統計情報を収集する{@link WorkMetrics}，収集しない場合は<code>null</code> */
+    protected volatile WorkMetrics workMetrics;
+
+    /** 開始タイムアウトを監視するタイマー，スレッドプールのキューから{@link Work}を取り除けない場合は<code>null</code> */
+    protected final ScheduledExecutorService expiryTimer;
+
     /**
      * スレッドプールのサイズ1でインスタンスを構築します．
      */
@@ -58,22 +88,47 @@ public class WorkManagerImpl implements WorkManager {
 
     /**
      * 指定されたサイズのスレッドプールでインスタンスを構築します．
+     * <p>
+     * キューの長さは{@link BoundedThreadPoolExecutor#DEFAULT_QUEUE_CAPACITY}に制限され，
+     * キューが満杯の場合は{@link javax.resource.spi.work.WorkRejectedException}をスローします．
+     * </p>
      * 
      * @param numThreads
      *            スレッド数
      */
     public WorkManagerImpl(final int numThreads) {
-        this(Executors.newFixedThreadPool(numThreads));
+        this(new BoundedThreadPoolExecutor(numThreads));
     }
 
     /**
      * 指定されたスレッドプールを使用してインスタンスを構築します．
+     * <p>
+     * {@link ThreadPerTaskExecutorService}を指定すると，{@link Work}ごとに (可能なら仮想) スレッドを作成して実行します．
+     * </p>
      * 
      * @param pool
      *            スレッドプール
      */
     public WorkManagerImpl(final ExecutorService pool) {
         this.pool = pool;
+        this.expiryTimer = pool instanceof ThreadPoolExecutor
+                || pool instanceof PartitionedExecutorService.Partition ? createExpiryTimer() : null;
+    }
+
+    /**
+     * 開始タイムアウトを監視するタイマーを作成します．
+     * 
+     * @return 開始タイムアウトを監視するタイマー
+     */
+    protected ScheduledExecutorService createExpiryTimer() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "s2jca-work-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     /**
@@ -81,6 +136,13 @@ public class WorkManagerImpl implements WorkManager {
      */
     public void stop() {
         pool.shutdown();
+        if (expiryTimer != null) {
+            expiryTimer.shutdownNow();
+        }
+        final WorkMetrics workMetrics = this.workMetrics;
+        if (workMetrics != null) {
+            workMetrics.dispose();
+        }
     }
 
     public void doWork(final Work work) throws WorkException {
@@ -134,4 +196,101 @@ public class WorkManagerImpl implements WorkManager {
         }
     }
 
+    /**
+     * {@link Work}の開始タイムアウトの監視を開始します．
+     * <p>
+     * 開始タイムアウトを経過しても{@link Work}がキューに残っていれば，キューから取り除いて破棄します．
+     * </p>
+     * 
+     * @param work
+     *            {@link Work}のラッパー
+     */
+    protected void scheduleExpiry(final WorkWrapper work) {
+        if (expiryTimer == null || work.state != SCHEDULE_WORK) {
+            return;
+        }
+        final long remaining = work.getRemainingStartTimeout();
+        if (remaining < 0) {
+            return;
+        }
+        try {
+            work.setExpiry(expiryTimer.schedule(new Runnable() {
+
+                public void run() {
+                    if (removeFromQueue(work)) {
+                        work.expire();
+                    }
+                }
+            }, remaining, TimeUnit.NANOSECONDS));
+        } catch (final RejectedExecutionException ignore) {
+        }
+    }
+
+    /**
+     * {@link Work}をスレッドプールのキューから取り除きます．
+     * 
+     * @param work
+     *            {@link Work}のラッパー
+     * @return {@link Work}がキューから取り除かれた場合は<code>true</code>
+     */
+    protected boolean removeFromQueue(final WorkWrapper work) {
+        if (pool instanceof PartitionedExecutorService.Partition) {
+            return PartitionedExecutorService.Partition.class.cast(pool).remove(work);
+        }
+        return ThreadPoolExecutor.class.cast(pool).remove(work);
+    }
+
+    /**
+     * 統計情報を収集する{@link WorkMetrics}を返します．
+     * 
+     * @return 統計情報を収集する{@link WorkMetrics}
+     */
+    public WorkMetrics getWorkMetrics() {
+        return workMetrics;
+    }
+
+    /**
+     * 統計情報を収集する{@link WorkMetrics}を設定します．
+     * <p>
+     * 設定された{@link WorkMetrics}はすぐに統計情報の収集を開始し，{@link #stop()}で終了します．
+     * </p>
+     * 
+     * @param workMetrics
+     *            統計情報を収集する{@link WorkMetrics}
+     */
+    public void setWorkMetrics(final WorkMetrics workMetrics) {
+        final WorkMetrics previous = this.workMetrics;
+        if (previous != null) {
+            previous.dispose();
+        }
+        if (workMetrics != null) {
+            workMetrics.initialize(this);
+        }
+        this.workMetrics = workMetrics;
+    }
+
+    /**
+     * EISからインポートしたトランザクションを管理する{@link XATerminatorImpl}を返します．
+     * 
+     * @return EISからインポートしたトランザクションを管理する{@link XATerminatorImpl}
+     */
+    public XATerminatorImpl getXATerminator() {
+        return xaTerminator;
+    }
+
+    /**
+     * EISからインポートしたトランザクションを管理する{@link XATerminatorImpl}を設定します．
+     * <p>
+     * 設定されている場合，実行コンテキストにXidが設定された{@link Work}はXidに対応するトランザクションの中で実行されます．
+     * 設定されていない場合，実行コンテキストのXidは無視されます．
+     * </p>
+     * 
+     * @param xaTerminator
+     *            EISからインポートしたトランザクションを管理する{@link XATerminatorImpl}
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setXATerminator(final XATerminatorImpl xaTerminator) {
+        this.xaTerminator = xaTerminator;
+    }
+
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+/**
+ * ワークマネージャの統計情報を収集するSPIです．
+ * <p>
+ * {@link WorkManagerImpl}は，設定されている場合に{@link javax.resource.spi.work.Work}の受け付けや実行の度に
+ * このインタフェースのメソッドを呼び出します．
+ * メソッドは複数のスレッドから同時に呼び出されるので，実装クラスはスレッドセーフで，
+ * かつロックを使用しないようにしなくてはなりません．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface WorkMetrics {
+
+    /**
+     * 統計情報の収集を開始します．
+     * 
+     * @param workManager
+     *            統計情報を収集するワークマネージャ
+     */
+    void initialize(WorkManagerImpl workManager);
+
+    /**
+     * 統計情報の収集を終了します．
+     */
+    void dispose();
+
+    /**
+     * {@link javax.resource.spi.work.Work}を受け付けたことを記録します．
+     */
+    void workAccepted();
+
+    /**
+     * 受け付けた{@link javax.resource.spi.work.Work}の実行が破棄されたことを記録します．
+     * 
+     * @param timedOut
+     *            開始タイムアウトを経過したために破棄された場合は<code>true</code>，
+     *            スレッドプールが実行を拒否した場合は<code>false</code>
+     */
+    void workRejected(boolean timedOut);
+
+    /**
+     * {@link javax.resource.spi.work.Work}の実行を開始したことを記録します．
+     * 
+     * @param startDelayNanos
+     *            {@link javax.resource.spi.work.Work}を受け付けてから実行を開始するまでの経過時間 (ナノ秒単位)
+     */
+    void workStarted(long startDelayNanos);
+
+    /**
+     * {@link javax.resource.spi.work.Work}の実行が完了したことを記録します．
+     * 
+     * @param runNanos
+     *            {@link javax.resource.spi.work.Work}の実行にかかった時間 (ナノ秒単位)
+     * @param failed
+     *            {@link javax.resource.spi.work.Work}が例外をスローした場合は<code>true</code>
+     */
+    void workCompleted(long runNanos, boolean failed);
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.seasar.framework.container.annotation.tiger.Binding;
+import org.seasar.framework.container.annotation.tiger.BindingType;
+import org.seasar.framework.log.Logger;
+import org.seasar.jca.metrics.LatencyHistogram;
+import org.seasar.jca.metrics.StripedCounter;
+
+/**
+ * ワークマネージャの統計情報を収集してJMXで公開する{@link WorkMetrics}の実装クラスです．
+ * <p>
+ * 回数やヒストグラムはスレッドごとのセルに分割されているため，
+ * 統計情報の収集がスレッドプールのスレッド間の競合を増やすことはありません．
+ * 実行が開始されていない{@link javax.resource.spi.work.Work}の数と実行中の{@link javax.resource.spi.work.Work}の数は
+ * 最大値を求めるためにアトミック変数で数えます．
+ * </p>
+ * <p>
+ * {@link #initialize(WorkManagerImpl)}で<code>org.seasar.jca:type=WorkManager,name=&lt;名前&gt;</code>
+ * というオブジェクト名でMBeanサーバに登録され，{@link #dispose()}で登録が解除されます．
+ * MBeanサーバが設定されていない場合はプラットフォームMBeanサーバが使われます．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class WorkStatistics implements WorkMetrics, WorkStatisticsMBean {
+
+    // constants
+    /** オブジェクト名のドメイン */
+    public static final String DOMAIN = "org.seasar.jca";
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(WorkStatistics.class);
+
+    // instance fields
+    /** ワークマネージャの名前 */
+    protected final String name;
+
+    /** MBeanサーバ */
+    protected MBeanServer mbeanServer;
+
+    /** MBeanサーバに登録したオブジェクト名 */
+    protected ObjectName objectName;
+
+    /** 実行が開始されていない{@link javax.resource.spi.work.Work}の数 */
+    protected final AtomicInteger queueDepth = new AtomicInteger();
+
+    /** 実行が開始されていない{@link javax.resource.spi.work.Work}の数の最大値 */
+    protected final AtomicInteger queueHighWaterMark = new AtomicInteger();
+
+    /** 実行中の{@link javax.resource.spi.work.Work}の数 */
+    protected final AtomicInteger activeCount = new AtomicInteger();
+
+    /** 実行中の{@link javax.resource.spi.work.Work}の数の最大値 */
+    protected final AtomicInteger activeHighWaterMark = new AtomicInteger();
+
+    /** {@link javax.resource.spi.work.Work}を受け付けた回数 */
+    protected final StripedCounter acceptedCount = new StripedCounter();
+
+    /** {@link javax.resource.spi.work.Work}が例外をスローした回数 */
+    protected final StripedCounter failureCount = new StripedCounter();
+
+    /** スレッドプールが{@link javax.resource.spi.work.Work}の実行を拒否した回数 */
+    protected final StripedCounter rejectionCount = new StripedCounter();
+
+    /** 開始タイムアウトを経過したために{@link javax.resource.spi.work.Work}が破棄された回数 */
+    protected final StripedCounter startTimeoutCount = new StripedCounter();
+
+    /** 受け付けてから実行を開始するまでの経過時間 */
+    protected final LatencyHistogram startDelay = new LatencyHistogram();
+
+    /** 実行にかかった時間 */
+    protected final LatencyHistogram runTime = new LatencyHistogram();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param name
+     *            ワークマネージャの名前
+     */
+    public WorkStatistics(final String name) {
+        this.name = name;
+    }
+
+    public void initialize(final WorkManagerImpl workManager) {
+        if (mbeanServer == null) {
+            mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        }
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=WorkManager,name="
+                    + ObjectName.quote(name));
+            mbeanServer.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (final JMException e) {
+            logger.log("WJCA1045", new Object[] { name }, e);
+        }
+    }
+
+    public void dispose() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            mbeanServer.unregisterMBean(objectName);
+        } catch (final JMException e) {
+            logger.log("WJCA1046", new Object[] { name }, e);
+        }
+        objectName = null;
+    }
+
+    public void workAccepted() {
+        acceptedCount.increment();
+        updateHighWaterMark(queueHighWaterMark, queueDepth.incrementAndGet());
+    }
+
+    public void workRejected(final boolean timedOut) {
+        queueDepth.decrementAndGet();
+        if (timedOut) {
+            startTimeoutCount.increment();
+        } else {
+            rejectionCount.increment();
+        }
+    }
+
+    public void workStarted(final long startDelayNanos) {
+        queueDepth.decrementAndGet();
+        startDelay.record(startDelayNanos);
+        updateHighWaterMark(activeHighWaterMark, activeCount.incrementAndGet());
+    }
+
+    public void workCompleted(final long runNanos, final boolean failed) {
+        activeCount.decrementAndGet();
+        runTime.record(runNanos);
+        if (failed) {
+            failureCount.increment();
+        }
+    }
+
+    /**
+     * 最大値を更新します．
+     * 
+     * @param highWaterMark
+     *            最大値
+     * @param value
+     *            現在の値
+     */
+    protected static void updateHighWaterMark(final AtomicInteger highWaterMark, final int value) {
+        for (int current = highWaterMark.get(); value > current; current = highWaterMark.get()) {
+            if (highWaterMark.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return Math.max(0, queueDepth.get());
+    }
+
+    public int getQueueHighWaterMark() {
+        return queueHighWaterMark.get();
+    }
+
+    public int getActiveCount() {
+        return Math.max(0, activeCount.get());
+    }
+
+    public int getActiveHighWaterMark() {
+        return activeHighWaterMark.get();
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    public long getStartedCount() {
+        return startDelay.getCount();
+    }
+
+    public long getCompletedCount() {
+        return runTime.getCount();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    public long getStartTimeoutCount() {
+        return startTimeoutCount.get();
+    }
+
+    public double getMeanStartDelay() {
+        return startDelay.getMean();
+    }
+
+    public double getMaxStartDelay() {
+        return startDelay.getMax();
+    }
+
+    public double getStartDelayPercentile(final double percentile) {
+        return startDelay.getPercentile(percentile);
+    }
+
+    public long[] getStartDelayHistogram() {
+        return startDelay.getCounts();
+    }
+
+    public double getMeanRunTime() {
+        return runTime.getMean();
+    }
+
+    public double getMaxRunTime() {
+        return runTime.getMax();
+    }
+
+    public double getRunTimePercentile(final double percentile) {
+        return runTime.getPercentile(percentile);
+    }
+
+    public long[] getRunTimeHistogram() {
+        return runTime.getCounts();
+    }
+
+    public void reset() {
+        queueHighWaterMark.set(0);
+        activeHighWaterMark.set(0);
+        acceptedCount.reset();
+        failureCount.reset();
+        rejectionCount.reset();
+        startTimeoutCount.reset();
+        startDelay.reset();
+        runTime.reset();
+    }
+
+    /**
+     * MBeanサーバを返します．
+     * 
+     * @return MBeanサーバ
+     */
+    public MBeanServer getMBeanServer() {
+        return mbeanServer;
+    }
+
+    /**
+     * MBeanサーバを設定します．
+     * 
+     * @param mbeanServer
+     *            MBeanサーバ
+     */
+    @Binding(bindingType = BindingType.MAY)
+    public void setMBeanServer(final MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+}
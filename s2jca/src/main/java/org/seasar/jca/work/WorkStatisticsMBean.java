@@ -0,0 +1,176 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+/**
+ * ワークマネージャの統計情報を公開するMBeanのインタフェースです．
+ * <p>
+ * 時間はすべてミリ秒単位です．
+ * </p>
+ * 
+ * @author koichik
+ */
+public interface WorkStatisticsMBean {
+
+    /**
+     * ワークマネージャの名前を返します．
+     * 
+     * @return ワークマネージャの名前
+     */
+    String getName();
+
+    /**
+     * 受け付けてから実行が開始されていない{@link javax.resource.spi.work.Work}の数を返します．
+     * 
+     * @return 受け付けてから実行が開始されていない{@link javax.resource.spi.work.Work}の数
+     */
+    int getQueueDepth();
+
+    /**
+     * 実行が開始されていない{@link javax.resource.spi.work.Work}の数の最大値を返します．
+     * 
+     * @return 実行が開始されていない{@link javax.resource.spi.work.Work}の数の最大値
+     */
+    int getQueueHighWaterMark();
+
+    /**
+     * 実行中の{@link javax.resource.spi.work.Work}の数を返します．
+     * 
+     * @return 実行中の{@link javax.resource.spi.work.Work}の数
+     */
+    int getActiveCount();
+
+    /**
+     * 実行中の{@link javax.resource.spi.work.Work}の数の最大値を返します．
+     * 
+     * @return 実行中の{@link javax.resource.spi.work.Work}の数の最大値
+     */
+    int getActiveHighWaterMark();
+
+    /**
+     * {@link javax.resource.spi.work.Work}を受け付けた回数を返します．
+     * 
+     * @return {@link javax.resource.spi.work.Work}を受け付けた回数
+     */
+    long getAcceptedCount();
+
+    /**
+     * {@link javax.resource.spi.work.Work}の実行を開始した回数を返します．
+     * 
+     * @return {@link javax.resource.spi.work.Work}の実行を開始した回数
+     */
+    long getStartedCount();
+
+    /**
+     * {@link javax.resource.spi.work.Work}の実行が完了した回数を返します．
+     * 
+     * @return {@link javax.resource.spi.work.Work}の実行が完了した回数
+     */
+    long getCompletedCount();
+
+    /**
+     * {@link javax.resource.spi.work.Work}が例外をスローした回数を返します．
+     * 
+     * @return {@link javax.resource.spi.work.Work}が例外をスローした回数
+     */
+    long getFailureCount();
+
+    /**
+     * スレッドプールが{@link javax.resource.spi.work.Work}の実行を拒否した回数を返します．
+     * 
+     * @return スレッドプールが{@link javax.resource.spi.work.Work}の実行を拒否した回数
+     */
+    long getRejectionCount();
+
+    /**
+     * 開始タイムアウトを経過したために{@link javax.resource.spi.work.Work}が破棄された回数を返します．
+     * 
+     * @return 開始タイムアウトを経過したために{@link javax.resource.spi.work.Work}が破棄された回数
+     */
+    long getStartTimeoutCount();
+
+    /**
+     * 受け付けてから実行を開始するまでの経過時間の平均値を返します．
+     * 
+     * @return 受け付けてから実行を開始するまでの経過時間の平均値
+     */
+    double getMeanStartDelay();
+
+    /**
+     * 受け付けてから実行を開始するまでの経過時間の最大値を返します．
+     * 
+     * @return 受け付けてから実行を開始するまでの経過時間の最大値
+     */
+    double getMaxStartDelay();
+
+    /**
+     * 受け付けてから実行を開始するまでの経過時間のパーセンタイルを返します．
+     * 
+     * @param percentile
+     *            パーセンタイル (<code>0</code>より大きく<code>100</code>以下)
+     * @return 受け付けてから実行を開始するまでの経過時間のパーセンタイル
+     */
+    double getStartDelayPercentile(double percentile);
+
+    /**
+     * 受け付けてから実行を開始するまでの経過時間のヒストグラムを返します．
+     * 
+     * @return 受け付けてから実行を開始するまでの経過時間のヒストグラム
+     * @see org.seasar.jca.metrics.LatencyHistogram
+     */
+    long[] getStartDelayHistogram();
+
+    /**
+     * 実行にかかった時間の平均値を返します．
+     * 
+     * @return 実行にかかった時間の平均値
+     */
+    double getMeanRunTime();
+
+    /**
+     * 実行にかかった時間の最大値を返します．
+     * 
+     * @return 実行にかかった時間の最大値
+     */
+    double getMaxRunTime();
+
+    /**
+     * 実行にかかった時間のパーセンタイルを返します．
+     * 
+     * @param percentile
+     *            パーセンタイル (<code>0</code>より大きく<code>100</code>以下)
+     * @return 実行にかかった時間のパーセンタイル
+     */
+    double getRunTimePercentile(double percentile);
+
+    /**
+     * 実行にかかった時間のヒストグラムを返します．
+     * 
+     * @return 実行にかかった時間のヒストグラム
+     * @see org.seasar.jca.metrics.LatencyHistogram
+     */
+    long[] getRunTimeHistogram();
+
+    /**
+     * 回数と時間の統計情報を破棄します．
+     * <p>
+     * 実行が開始されていない{@link javax.resource.spi.work.Work}の数と実行中の{@link javax.resource.spi.work.Work}の数は
+     * 破棄されません．
+     * </p>
+     */
+    void reset();
+
+}
@@ -15,12 +15,13 @@
  */
 package org.seasar.jca.work;
 
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.resource.spi.work.ExecutionContext;
 import javax.resource.spi.work.Work;
-import javax.resource.spi.work.WorkAdapter;
 import javax.resource.spi.work.WorkCompletedException;
 import javax.resource.spi.work.WorkEvent;
 import javax.resource.spi.work.WorkException;
@@ -28,9 +29,17 @@ import javax.resource.spi.work.WorkListener;
 import javax.resource.spi.work.WorkManager;
 import javax.resource.spi.work.WorkRejectedException;
 
+import org.seasar.jca.work.XATerminatorImpl.ImportedTransaction;
+
 /**
  * {@link Work}を{@link java.util.concurrent.ExecutorService}で実行するために{@link Runnable}インタフェースを
  * 実装したラッパークラスです．
+ * <p>
+ * {@link Work}の実行状態はこのインスタンス自身をモニタとして同期します．
+ * {@link WorkManager#scheduleWork(Work)}では同期を行わず，{@link WorkManager#startWork(Work)}では実行の開始まで，
+ * {@link WorkManager#doWork(Work)}では実行の完了まで待機します．
+ * 経過時間は{@link System#nanoTime()}で計測します．
+ * </p>
  * 
  * @author koichik
  */
@@ -56,10 +65,13 @@ public class WorkWrapper implements Runnable {
     /** {@link Work}の実行イベントを受け取るリスナ */
     protected WorkListener workListener;
 
-    /** {@link Work}の実行と同期するためのラッチ */
-    protected CountDownLatch latch;
+    /** {@link Work}の実行と同期する段階 */
+    protected final int syncState;
+
+    /** {@link Work}の実行状態 */
+    protected volatile int state = WorkManagerImpl.SCHEDULE_WORK;
 
-    /** {@link Work}を受け付けた時間 */
+    /** {@link Work}を受け付けた時間 ({@link System#nanoTime()}の値) */
     protected long acceptedTime;
 
     /** {@link Work}の実行が開始していれば<code>true</code> */
@@ -68,6 +80,12 @@ public class WorkWrapper implements Runnable {
     /** {@link Work}の実行中に発生した例外 */
     protected WorkException exception;
 
+    /** 開始タイムアウトを監視するタスク */
+    protected volatile ScheduledFuture<?> expiry;
+
+    /** {@link Work}を受け付けた時点でワークマネージャに設定されていた{@link WorkMetrics} */
+    protected WorkMetrics metrics;
+
     /**
      * 現在のスレッドで実行中の{@link Work}を返します．
      * 
@@ -84,11 +102,11 @@ public class WorkWrapper implements Runnable {
      *            ワークマネージャ
      * @param work
      *            {@link Work}
-     * @param latchCount
-     *            {@link Work}の実行が完了するまで同期するラッチの初期値
+     * @param syncState
+     *            {@link Work}の実行と同期する段階
      */
-    public WorkWrapper(final WorkManagerImpl workManager, final Work work, final int latchCount) {
-        this(workManager, work, WorkManager.INDEFINITE, null, new WorkAdapter(), latchCount);
+    public WorkWrapper(final WorkManagerImpl workManager, final Work work, final int syncState) {
+        this(workManager, work, WorkManager.INDEFINITE, null, null, syncState);
     }
 
     /**
@@ -104,35 +122,109 @@ public class WorkWrapper implements Runnable {
      *            {@link Work}の実行コンテキスト
      * @param workListener
      *            {@link Work}の実行イベントを受け取るリスナ
-     * @param latchCount
-     *            {@link Work}の実行と同期するラッチの初期値
+     * @param syncState
+     *            {@link Work}の実行と同期する段階 ({@link WorkManagerImpl#SCHEDULE_WORK}，
+     *            {@link WorkManagerImpl#START_WORK}，{@link WorkManagerImpl#DO_WORK}のいずれか)
      */
     public WorkWrapper(final WorkManagerImpl workManager, final Work work, final long startTimeout,
             final ExecutionContext execContext, final WorkListener workListener,
-            final int latchCount) {
+            final int syncState) {
         this.workManager = workManager;
         this.work = work;
         this.startTimeout = startTimeout;
         this.execContext = execContext;
         this.workListener = workListener;
-        this.latch = new CountDownLatch(latchCount);
+        this.syncState = syncState;
     }
 
     /**
      * {@link Executor}上で{@link Work}を実行します．
+     * <p>
+     * {@link #syncState}で指定された段階まで{@link Work}の実行が進むのを待機します．
+     * </p>
      * 
      * @param executor
      *            {@link Executor}
-     * @return {@link Work}を受け付けてから実行完了までの経過時間 (ミリ秒単位)
+     * @return {@link Work}を受け付けてから{@link #syncState}で指定された段階までの経過時間 (ミリ秒単位)
      * @throws InterruptedException
      *             {@link Work}と同期中に割り込みが発生した場合
+     * @throws WorkRejectedException
+     *             {@link Executor}が{@link Work}の実行を拒否した場合
      */
-    public long execute(final Executor executor) throws InterruptedException {
-        acceptedTime = System.currentTimeMillis();
+    public long execute(final Executor executor) throws InterruptedException,
+            WorkRejectedException {
+        acceptedTime = System.nanoTime();
         fireWorkAcceptedEvent();
-        executor.execute(this);
-        latch.await();
-        return System.currentTimeMillis() - acceptedTime;
+        metrics = workManager.workMetrics;
+        if (metrics != null) {
+            metrics.workAccepted();
+        }
+        try {
+            executor.execute(this);
+        } catch (final RejectedExecutionException e) {
+            final WorkRejectedException rejected = new WorkRejectedException(e);
+            rejected.setErrorCode(WorkException.INTERNAL);
+            exception = rejected;
+            if (metrics != null) {
+                metrics.workRejected(false);
+            }
+            fireWorkRejectedEvent();
+            throw rejected;
+        }
+        workManager.scheduleExpiry(this);
+        if (syncState == WorkManagerImpl.SCHEDULE_WORK) {
+            return 0;
+        }
+        awaitState(syncState);
+        return getElapsedTime();
+    }
+
+    /**
+     * {@link Work}の実行が指定の段階に進むまで待機します．
+     * 
+     * @param target
+     *            {@link Work}の実行状態
+     * @throws InterruptedException
+     *             待機中に割り込みが発生した場合
+     */
+    protected void awaitState(final int target) throws InterruptedException {
+        if (state >= target) {
+            return;
+        }
+        synchronized (this) {
+            while (state < target) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * {@link Work}の実行状態を進めます．
+     * <p>
+     * {@link Work}の実行と同期しているスレッドがあれば通知します．
+     * </p>
+     * 
+     * @param newState
+     *            {@link Work}の実行状態
+     */
+    protected void advanceState(final int newState) {
+        if (syncState == WorkManagerImpl.SCHEDULE_WORK) {
+            state = newState;
+            return;
+        }
+        synchronized (this) {
+            state = newState;
+            notifyAll();
+        }
+    }
+
+    /**
+     * {@link Work}を受け付けてからの経過時間 (ミリ秒単位) を返します．
+     * 
+     * @return {@link Work}を受け付けてからの経過時間 (ミリ秒単位)
+     */
+    protected long getElapsedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - acceptedTime);
     }
 
     /**
@@ -164,20 +256,74 @@ public class WorkWrapper implements Runnable {
      * @return {@link Work}の実行を開始した場合は<code>true</code>
      */
     protected boolean start() {
+        final ScheduledFuture<?> expiry = this.expiry;
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
         try {
             if (isTimedout()) {
                 exception = new WorkRejectedException();
                 exception.setErrorCode(WorkException.START_TIMED_OUT);
+                if (metrics != null) {
+                    metrics.workRejected(true);
+                }
                 fireWorkRejectedEvent();
                 return false;
             }
+            if (metrics != null) {
+                metrics.workStarted(System.nanoTime() - acceptedTime);
+            }
             fireWorkStartedEvent();
             return true;
         } finally {
-            latch.countDown();
+            advanceState(WorkManagerImpl.START_WORK);
         }
     }
 
+    /**
+     * 実行が開始されないまま開始タイムアウトを経過した{@link Work}を破棄します．
+     * <p>
+     * スレッドが空くのを待たずに{@link WorkException#START_TIMED_OUT}で{@link Work}の実行が破棄されたことを通知し，
+     * {@link Work}の実行と同期しているスレッドを再開します．
+     * このメソッドは{@link Work}がキューから取り除かれた後に呼び出されなければなりません．
+     * </p>
+     */
+    protected void expire() {
+        try {
+            exception = new WorkRejectedException();
+            exception.setErrorCode(WorkException.START_TIMED_OUT);
+            if (metrics != null) {
+                metrics.workRejected(true);
+            }
+            fireWorkRejectedEvent();
+        } finally {
+            advanceState(WorkManagerImpl.DO_WORK);
+        }
+    }
+
+    /**
+     * 開始タイムアウトを監視するタスクを設定します．
+     * 
+     * @param expiry
+     *            開始タイムアウトを監視するタスク
+     */
+    protected void setExpiry(final ScheduledFuture<?> expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * 開始タイムアウトの期限 ({@link System#nanoTime()}の値) までの残り時間 (ナノ秒単位) を返します．
+     * 
+     * @return 開始タイムアウトの期限までの残り時間 (ナノ秒単位)，開始タイムアウトが無期限の場合は<code>-1</code>
+     */
+    protected long getRemainingStartTimeout() {
+        if (startTimeout == WorkManager.INDEFINITE) {
+            return -1;
+        }
+        return Math.max(0, acceptedTime + TimeUnit.MILLISECONDS.toNanos(startTimeout)
+                - System.nanoTime());
+    }
+
     /**
      * {@link Work}が受け付けられてからの経過時間がタイムアウト時間を超えている場合は<code>true</code>を返します．
      * 
@@ -187,22 +333,53 @@ public class WorkWrapper implements Runnable {
         if (startTimeout == WorkManager.INDEFINITE) {
             return false;
         }
-        if (System.currentTimeMillis() - acceptedTime < startTimeout) {
-            return false;
-        }
-        return true;
+        return System.nanoTime() - acceptedTime >= TimeUnit.MILLISECONDS.toNanos(startTimeout);
     }
 
     /**
      * {@link Work}を実行します．
      */
     protected void doWork() {
+        final long startTime = metrics == null ? 0L : System.nanoTime();
+        final ImportedTransaction imported;
+        try {
+            imported = importTransaction();
+        } catch (final WorkCompletedException e) {
+            exception = e;
+            if (metrics != null) {
+                metrics.workCompleted(System.nanoTime() - startTime, true);
+            }
+            return;
+        }
         try {
             work.run();
         } catch (final Throwable e) {
             exception = new WorkCompletedException(e);
             exception.setErrorCode(WorkException.UNDEFINED);
+        } finally {
+            if (imported != null) {
+                workManager.xaTerminator.dissociate(imported);
+            }
+        }
+        if (metrics != null) {
+            metrics.workCompleted(System.nanoTime() - startTime, exception != null);
+        }
+    }
+
+    /**
+     * 実行コンテキストにXidが設定されていれば，Xidに対応するトランザクションを現在のスレッドに関連付けます．
+     * 
+     * @return 現在のスレッドに関連付けたトランザクション，ワークマネージャに{@link XATerminatorImpl}が設定されていないか
+     *         実行コンテキストにXidが設定されていない場合は<code>null</code>
+     * @throws WorkCompletedException
+     *             トランザクションを関連付けることができなかった場合
+     */
+    protected ImportedTransaction importTransaction() throws WorkCompletedException {
+        final XATerminatorImpl xaTerminator = workManager.xaTerminator;
+        if (xaTerminator == null || execContext == null || execContext.getXid() == null) {
+            return null;
         }
+        return xaTerminator.associate(execContext.getXid(), execContext.getTransactionTimeout());
     }
 
     /**
@@ -214,7 +391,7 @@ public class WorkWrapper implements Runnable {
                 fireWorkCompletedEvent();
             }
         } finally {
-            latch.countDown();
+            advanceState(WorkManagerImpl.DO_WORK);
         }
     }
 
@@ -234,7 +411,7 @@ public class WorkWrapper implements Runnable {
     protected void fireWorkRejectedEvent() {
         if (workListener != null) {
             workListener.workRejected(new WorkEvent(workManager, WorkEvent.WORK_REJECTED, work,
-                    exception, System.currentTimeMillis() - acceptedTime));
+                    exception, getElapsedTime()));
         }
     }
 
@@ -244,7 +421,7 @@ public class WorkWrapper implements Runnable {
     protected void fireWorkStartedEvent() {
         if (workListener != null) {
             workListener.workStarted(new WorkEvent(workManager, WorkEvent.WORK_STARTED, work,
-                    exception, System.currentTimeMillis() - acceptedTime));
+                    exception, getElapsedTime()));
         }
     }
 
@@ -0,0 +1,500 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.resource.spi.XATerminator;
+import javax.resource.spi.work.WorkCompletedException;
+import javax.resource.spi.work.WorkException;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.seasar.framework.log.Logger;
+
+/**
+ * EISからインポートしたトランザクションを{@link TransactionManager}上で完了させる{@link XATerminator}の実装クラスです．
+ * <p>
+ * {@link javax.resource.spi.work.ExecutionContext}にXidが設定された{@link javax.resource.spi.work.Work}が
+ * 実行されると，{@link WorkManagerImpl}は{@link #associate(Xid, long)}でXidに対応するトランザクションを
+ * 開始 (既に存在すれば再開) してスレッドに関連付け，{@link javax.resource.spi.work.Work}の実行が完了すると
+ * {@link #dissociate(ImportedTransaction)}でスレッドから切り離します．
+ * EISはその後このインスタンスを通じてトランザクションを完了させます．
+ * </p>
+ * <p>
+ * Xidからトランザクションへの対応は，Xidの内容から計算したキーを使って{@link ConcurrentMap}で管理します．
+ * リソースアダプタが提供する{@link Xid}の実装が<code>equals()</code>や<code>hashCode()</code>を
+ * 実装していなくても正しく検索することができます．
+ * トランザクションの開始時に登録する{@link Synchronization}がトランザクションの完了時に対応を取り除くため，
+ * EISがトランザクションを完了させないままタイムアウトでロールバックされた場合も対応が残ることはありません．
+ * </p>
+ * <p>
+ * {@link TransactionManager}は準備フェーズだけを実行するAPIを提供していないため，
+ * インポートしたトランザクションは1フェーズコミットだけをサポートします．
+ * EISは{@link #commit(Xid, boolean)}の<code>onePhase</code>に<code>true</code>を指定してコミットしなければなりません．
+ * {@link #prepare(Xid)}はトランザクションがロールバックのみに設定されていればロールバックして
+ * {@link XAException#XA_RBROLLBACK}を，そうでなければ{@link XAException#XAER_RMERR}をスローし，
+ * トランザクションは準備されないまま残ります．
+ * 準備済みのトランザクションは存在しないため，{@link #recover(int)}は常に空の配列を返します．
+ * </p>
+ * 
+ * @author koichik
+ */
+public class XATerminatorImpl implements XATerminator {
+
+    // constants
+    /** トランザクションがスレッドに関連付けられていないことを示します． */
+    protected static final int ACTIVE = 0;
+
+    /** トランザクションが{@link javax.resource.spi.work.Work}を実行するスレッドに関連付けられていることを示します． */
+    protected static final int ASSOCIATED = 1;
+
+    /** トランザクションを完了中であることを示します． */
+    protected static final int COMPLETING = 2;
+
+    // static fields
+    private static final Logger logger = Logger.getLogger(XATerminatorImpl.class);
+
+    // instance fields
+    /** トランザクションマネージャ */
+    protected final TransactionManager transactionManager;
+
+    /** Xidのキーをキーとするインポートしたトランザクションのマップ */
+    protected final ConcurrentMap<XidKey, ImportedTransaction> transactions = new ConcurrentHashMap<XidKey, ImportedTransaction>();
+
+    /**
+     * インスタンスを構築します．
+     * 
+     * @param transactionManager
+     *            トランザクションマネージャ
+     */
+    public XATerminatorImpl(final TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Xidに対応するトランザクションを現在のスレッドに関連付けます．
+     * <p>
+     * Xidに対応するトランザクションが存在しなければ開始し，存在すれば再開します．
+     * </p>
+     * 
+     * @param xid
+     *            EISから伝播されたXid
+     * @param timeout
+     *            トランザクションタイムアウト (秒単位)，<code>0</code>以下ならトランザクションマネージャのデフォルト
+     * @return 現在のスレッドに関連付けたトランザクション
+     * @throws WorkCompletedException
+     *             Xidに対応するトランザクションが他のスレッドに関連付けられている場合
+     *             ({@link WorkException#TX_CONCURRENT_WORK_DISALLOWED})や， トランザクションを開始または再開できなかった場合
+     *             ({@link WorkException#TX_RECREATE_FAILED})
+     */
+    public ImportedTransaction associate(final Xid xid, final long timeout)
+            throws WorkCompletedException {
+        final XidKey key = new XidKey(xid);
+        final ImportedTransaction imported = transactions.get(key);
+        if (imported == null) {
+            return begin(key, xid, timeout);
+        }
+        synchronized (imported) {
+            if (imported.state == ASSOCIATED) {
+                throw newWorkCompletedException(WorkException.TX_CONCURRENT_WORK_DISALLOWED, null);
+            }
+            if (imported.state != ACTIVE) {
+                throw newWorkCompletedException(WorkException.TX_RECREATE_FAILED, null);
+            }
+            imported.state = ASSOCIATED;
+        }
+        try {
+            transactionManager.resume(imported.tx);
+        } catch (final Exception e) {
+            synchronized (imported) {
+                imported.state = ACTIVE;
+            }
+            throw newWorkCompletedException(WorkException.TX_RECREATE_FAILED, e);
+        }
+        return imported;
+    }
+
+    /**
+     * Xidに対応するトランザクションを開始して現在のスレッドに関連付けます．
+     * <p>
+     * トランザクションにはその完了時にXidとの対応を取り除く{@link Synchronization}を登録します．
+     * </p>
+     * 
+     * @param key
+     *            Xidのキー
+     * @param xid
+     *            EISから伝播されたXid
+     * @param timeout
+     *            トランザクションタイムアウト (秒単位)，<code>0</code>以下ならトランザクションマネージャのデフォルト
+     * @return 現在のスレッドに関連付けたトランザクション
+     * @throws WorkCompletedException
+     *             トランザクションを開始できなかった場合や，同じXidのトランザクションが同時に開始された場合
+     */
+    protected ImportedTransaction begin(final XidKey key, final Xid xid, final long timeout)
+            throws WorkCompletedException {
+        final Transaction tx;
+        try {
+            if (timeout > 0) {
+                transactionManager.setTransactionTimeout((int) Math.min(Integer.MAX_VALUE,
+                        timeout));
+            }
+            try {
+                transactionManager.begin();
+            } finally {
+                if (timeout > 0) {
+                    transactionManager.setTransactionTimeout(0);
+                }
+            }
+            tx = transactionManager.getTransaction();
+        } catch (final Exception e) {
+            throw newWorkCompletedException(WorkException.TX_RECREATE_FAILED, e);
+        }
+        final ImportedTransaction imported = new ImportedTransaction(xid, tx);
+        if (transactions.putIfAbsent(key, imported) != null) {
+            try {
+                transactionManager.rollback();
+            } catch (final Exception ignore) {
+            }
+            throw newWorkCompletedException(WorkException.TX_CONCURRENT_WORK_DISALLOWED, null);
+        }
+        try {
+            tx.registerSynchronization(new Synchronization() {
+
+                public void beforeCompletion() {
+                }
+
+                public void afterCompletion(final int status) {
+                    transactions.remove(key, imported);
+                }
+
+            });
+        } catch (final Exception e) {
+            transactions.remove(key, imported);
+            try {
+                transactionManager.rollback();
+            } catch (final Exception ignore) {
+            }
+            throw newWorkCompletedException(WorkException.TX_RECREATE_FAILED, e);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.log("DJCA1047", new Object[] { xid, tx });
+        }
+        return imported;
+    }
+
+    /**
+     * 現在のスレッドからトランザクションを切り離します．
+     * 
+     * @param imported
+     *            {@link #associate(Xid, long)}で現在のスレッドに関連付けたトランザクション
+     */
+    public void dissociate(final ImportedTransaction imported) {
+        try {
+            transactionManager.suspend();
+        } catch (final SystemException e) {
+            logger.log("EJCA0000", null, e);
+        } finally {
+            synchronized (imported) {
+                imported.state = ACTIVE;
+            }
+        }
+    }
+
+    public int prepare(final Xid xid) throws XAException {
+        final ImportedTransaction imported = getImportedTransaction(xid);
+        transition(imported, ACTIVE, COMPLETING);
+        final int status;
+        try {
+            status = imported.tx.getStatus();
+        } catch (final SystemException e) {
+            transition(imported, COMPLETING, ACTIVE);
+            throw newXAException(XAException.XAER_RMERR, e);
+        }
+        if (status == Status.STATUS_MARKED_ROLLBACK) {
+            complete(imported, false);
+            throw new XAException(XAException.XA_RBROLLBACK);
+        }
+        transition(imported, COMPLETING, ACTIVE);
+        throw new XAException(XAException.XAER_RMERR);
+    }
+
+    public void commit(final Xid xid, final boolean onePhase) throws XAException {
+        final ImportedTransaction imported = getImportedTransaction(xid);
+        if (!onePhase) {
+            throw new XAException(XAException.XAER_PROTO);
+        }
+        transition(imported, ACTIVE, COMPLETING);
+        complete(imported, true);
+    }
+
+    public void rollback(final Xid xid) throws XAException {
+        final ImportedTransaction imported = getImportedTransaction(xid);
+        transition(imported, ACTIVE, COMPLETING);
+        complete(imported, false);
+    }
+
+    public void forget(final Xid xid) throws XAException {
+        getImportedTransaction(xid);
+        throw new XAException(XAException.XAER_PROTO);
+    }
+
+    public Xid[] recover(final int flag) throws XAException {
+        if ((flag & ~(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN)) != 0) {
+            throw new XAException(XAException.XAER_INVAL);
+        }
+        return new Xid[0];
+    }
+
+    /**
+     * インポートしたトランザクションの数を返します．
+     * 
+     * @return インポートしたトランザクションの数
+     */
+    public int getTransactionCount() {
+        return transactions.size();
+    }
+
+    /**
+     * Xidに対応するインポートしたトランザクションを返します．
+     * 
+     * @param xid
+     *            Xid
+     * @return インポートしたトランザクション
+     * @throws XAException
+     *             Xidに対応するトランザクションが存在しない場合
+     */
+    protected ImportedTransaction getImportedTransaction(final Xid xid) throws XAException {
+        final ImportedTransaction imported = transactions.get(new XidKey(xid));
+        if (imported == null) {
+            throw new XAException(XAException.XAER_NOTA);
+        }
+        return imported;
+    }
+
+    /**
+     * インポートしたトランザクションの状態を遷移させます．
+     * 
+     * @param imported
+     *            インポートしたトランザクション
+     * @param expected
+     *            現在の状態
+     * @param newState
+     *            新しい状態
+     * @throws XAException
+     *             現在の状態が<code>expected</code>でない場合
+     */
+    protected void transition(final ImportedTransaction imported, final int expected,
+            final int newState) throws XAException {
+        synchronized (imported) {
+            if (imported.state != expected) {
+                throw new XAException(XAException.XAER_PROTO);
+            }
+            imported.state = newState;
+        }
+    }
+
+    /**
+     * インポートしたトランザクションをコミットまたはロールバックします．
+     * <p>
+     * 現在のスレッドに関連付けられているトランザクションは一時的に中断されます．
+     * 完了したトランザクションはXidとの対応から取り除かれます．
+     * </p>
+     * 
+     * @param imported
+     *            インポートしたトランザクション
+     * @param commit
+     *            コミットする場合は<code>true</code>，ロールバックする場合は<code>false</code>
+     * @throws XAException
+     *             トランザクションの完了に失敗した場合
+     */
+    protected void complete(final ImportedTransaction imported, final boolean commit)
+            throws XAException {
+        Transaction previous = null;
+        try {
+            previous = transactionManager.suspend();
+            transactionManager.resume(imported.tx);
+            if (commit) {
+                transactionManager.commit();
+            } else {
+                transactionManager.rollback();
+            }
+        } catch (final RollbackException e) {
+            throw newXAException(XAException.XA_RBROLLBACK, e);
+        } catch (final HeuristicMixedException e) {
+            throw newXAException(XAException.XA_HEURMIX, e);
+        } catch (final HeuristicRollbackException e) {
+            throw newXAException(XAException.XA_HEURRB, e);
+        } catch (final Exception e) {
+            throw newXAException(XAException.XAER_RMERR, e);
+        } finally {
+            transactions.remove(new XidKey(imported.xid), imported);
+            if (previous != null) {
+                try {
+                    transactionManager.resume(previous);
+                } catch (final Exception e) {
+                    logger.log("EJCA0000", null, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 原因となった例外を持つ{@link XAException}を作成します．
+     * 
+     * @param errorCode
+     *            エラーコード
+     * @param cause
+     *            原因となった例外
+     * @return {@link XAException}
+     */
+    protected static XAException newXAException(final int errorCode, final Throwable cause) {
+        final XAException e = new XAException(errorCode);
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * エラーコードと原因となった例外を持つ{@link WorkCompletedException}を作成します．
+     * 
+     * @param errorCode
+     *            エラーコード
+     * @param cause
+     *            原因となった例外
+     * @return {@link WorkCompletedException}
+     */
+    protected static WorkCompletedException newWorkCompletedException(final String errorCode,
+            final Throwable cause) {
+        final WorkCompletedException e = new WorkCompletedException(cause);
+        e.setErrorCode(errorCode);
+        return e;
+    }
+
+    /**
+     * EISからインポートしたトランザクションです．
+     * 
+     * @author koichik
+     */
+    public static class ImportedTransaction {
+
+        /** EISから伝播されたXid */
+        protected final Xid xid;
+
+        /** トランザクション */
+        protected final Transaction tx;
+
+        /** トランザクションの状態 */
+        protected int state = ASSOCIATED;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param xid
+         *            EISから伝播されたXid
+         * @param tx
+         *            トランザクション
+         */
+        protected ImportedTransaction(final Xid xid, final Transaction tx) {
+            this.xid = xid;
+            this.tx = tx;
+        }
+
+        /**
+         * EISから伝播されたXidを返します．
+         * 
+         * @return EISから伝播されたXid
+         */
+        public Xid getXid() {
+            return xid;
+        }
+
+        /**
+         * トランザクションを返します．
+         * 
+         * @return トランザクション
+         */
+        public Transaction getTransaction() {
+            return tx;
+        }
+
+    }
+
+    /**
+     * {@link Xid}の内容で比較する{@link ConcurrentMap}のキーです．
+     * 
+     * @author koichik
+     */
+    protected static class XidKey {
+
+        /** フォーマットID */
+        protected final int formatId;
+
+        /** グローバルトランザクションID */
+        protected final byte[] globalTransactionId;
+
+        /** ブランチ修飾子 */
+        protected final byte[] branchQualifier;
+
+        /** ハッシュコード */
+        protected final int hashCode;
+
+        /**
+         * インスタンスを構築します．
+         * 
+         * @param xid
+         *            Xid
+         */
+        protected XidKey(final Xid xid) {
+            formatId = xid.getFormatId();
+            globalTransactionId = xid.getGlobalTransactionId();
+            branchQualifier = xid.getBranchQualifier();
+            hashCode = (formatId * 31 + Arrays.hashCode(globalTransactionId)) * 31
+                    + Arrays.hashCode(branchQualifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof XidKey)) {
+                return false;
+            }
+            final XidKey key = XidKey.class.cast(other);
+            return hashCode == key.hashCode && formatId == key.formatId
+                    && Arrays.equals(globalTransactionId, key.globalTransactionId)
+                    && Arrays.equals(branchQualifier, key.branchQualifier);
+        }
+
+    }
+
+}
@@ -16,6 +16,7 @@
 package org.seasar.jca.inbound;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 import javax.resource.spi.endpoint.MessageEndpoint;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
@@ -25,6 +26,8 @@ import javax.transaction.xa.XAResource;
 import org.seasar.extension.unit.S2TestCase;
 import org.seasar.framework.util.ClassUtil;
 
+import static org.easymock.EasyMock.*;
+
 /**
  * @author koichik
  */
@@ -45,6 +48,44 @@ public class AbstractMessageEndpointFactoryTest extends S2TestCase {
         assertTrue(endpoint instanceof Runnable);
     }
 
+    /**
+     * @throws Exception
+     */
+    public void testPooledEndpoint() throws Exception {
+        TestEndpointFactory factory = (TestEndpointFactory) getComponent(MessageEndpointFactory.class);
+        factory.setMaxPoolSize(1);
+        TestEndpoint endpoint1 = (TestEndpoint) factory.createEndpoint(null);
+        TestEndpoint endpoint2 = (TestEndpoint) factory.createEndpoint(null);
+        assertNotSame(endpoint1, endpoint2);
+
+        endpoint1.release();
+        endpoint1.release();
+        endpoint2.release();
+        assertEquals(1, factory.getPooledEndpointCount());
+
+        XAResource xar = createMock(XAResource.class);
+        TestEndpoint endpoint3 = (TestEndpoint) factory.createEndpoint(xar);
+        assertSame(endpoint1, endpoint3);
+        assertSame(xar, endpoint3.xaResource);
+        assertSame(endpoint1.actualEndpoint, endpoint3.actualEndpoint);
+        assertEquals(0, factory.getPooledEndpointCount());
+        assertNotSame(endpoint3, factory.createEndpoint(null));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testExpireEndpoint() throws Exception {
+        TestEndpointFactory factory = (TestEndpointFactory) getComponent(MessageEndpointFactory.class);
+        MessageEndpoint endpoint = factory.createEndpoint(null);
+        endpoint.release();
+        assertEquals(1, factory.getPooledEndpointCount());
+
+        factory.expireEndpoints(System.nanoTime() + TimeUnit.SECONDS.toNanos(600));
+        assertEquals(0, factory.getPooledEndpointCount());
+        assertNotSame(endpoint, factory.createEndpoint(null));
+    }
+
     /**
      */
     public static class TestEndpointFactory extends AbstractMessageEndpointFactory {
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * @author koichik
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    /**
+     * 所要時間がバケットに分類されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testRecord() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500L);
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(9));
+
+        final long[] counts = histogram.getCounts();
+        assertEquals("1", 1L, counts[0]);
+        assertEquals("2", 1L, counts[2]);
+        assertEquals("3", 1L, counts[10]);
+        assertEquals("4", 1L, counts[14]);
+        assertEquals("5", 4L, histogram.getCount());
+        assertEquals("6", 9.0, histogram.getMax(), 0.0);
+        assertEquals("7", 2.5008, histogram.getMean(), 0.0001);
+        assertEquals("8", 0.004, histogram.getPercentile(50), 0.0);
+        assertEquals("9", 9.0, histogram.getPercentile(99), 0.0);
+
+        histogram.reset();
+        assertEquals("10", 0L, histogram.getCount());
+        assertEquals("11", 0.0, histogram.getPercentile(99), 0.0);
+    }
+
+    /**
+     * 複数のスレッドから同時に記録しても件数が失われないことのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testConcurrentRecord() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; ++j) {
+                        histogram.record(j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("1", 40000L, histogram.getCount());
+    }
+
+}
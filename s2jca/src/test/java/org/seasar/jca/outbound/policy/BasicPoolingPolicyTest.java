@@ -15,17 +15,32 @@
  */
 package org.seasar.jca.outbound.policy;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.resource.ResourceException;
 import javax.resource.spi.BootstrapContext;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ValidatingManagedConnectionFactory;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkManager;
 
+import org.easymock.IAnswer;
 import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.exception.SResourceAllocationException;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
+import org.seasar.jca.outbound.support.MatchingKey;
 
 import static org.easymock.EasyMock.*;
 
@@ -493,6 +508,75 @@ public class BasicPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
     }
 
+    /**
+     * アクティブプールがmaxPoolSizeに達している場合に，blockingTimeoutを経過しても
+     * コネクションが返却されない場合のテスト．
+     * 
+     * @throws Exception
+     */
+    public void testBlockingTimeout() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.setBlockingTimeout(100);
+        target.initialize(mcf, policy);
+
+        // 初期状態 (maxPoolSize分のコネクションがアクティブ)．
+        target.pool.addToActivePool(mc[0]);
+        target.pool.addToActivePool(mc[1]);
+
+        // コネクションを取得 (タイムアウトする)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                final long start = System.currentTimeMillis();
+                try {
+                    target.allocate(context[0]);
+                    fail("1");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("2", "EJCA1035", expected.getMessageCode());
+                }
+                assertTrue("3", System.currentTimeMillis() - start >= 100);
+                assertEquals("4", 0, target.waitingThreads);
+                assertEquals("5", 2, target.pool.getActivePoolSize());
+            }
+        }.doTest();
+    }
+
+    /**
+     * アクティブプールがmaxPoolSizeに達している場合に，待機しているスレッドの数が
+     * maxWaitingThreadsに達しているとコネクションの取得が直ちに失敗することのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testMaxWaitingThreads() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.setMaxWaitingThreads(0);
+        target.initialize(mcf, policy);
+
+        // 初期状態 (maxPoolSize分のコネクションがアクティブ)．
+        target.pool.addToActivePool(mc[0]);
+        target.pool.addToActivePool(mc[1]);
+
+        // コネクションを取得 (待機せずに失敗する)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                try {
+                    target.allocate(context[0]);
+                    fail("1");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("2", "EJCA1036", expected.getMessageCode());
+                }
+                assertEquals("3", 0, target.waitingThreads);
+            }
+        }.doTest();
+    }
+
     /**
      * フリープールのコネクションがタイムアウトして破棄される場合のテスト．
      * 
@@ -608,4 +692,730 @@ public class BasicPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
     }
 
+    /**
+     * スイープによってタイムアウト時間が経過したコネクションだけが古い順に解放されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testSweep() throws Exception {
+        createTarget();
+        target.setMinPoolSize(0);
+        target.setMaxPoolSize(2);
+        target.setTimeout(10);
+        target.setSweepInterval(1000);
+        target.setExpiryEngine(new ExpiryEngine() {
+
+            public void register(Target target) {
+            }
+
+            public void unregister(Target target) {
+            }
+        });
+        target.initialize(mcf, policy);
+        final long start = target.lastSweepTime;
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.allocate(context[1]);
+                target.release(mc[0]);
+                // mc1はmc0より後のスイープ以降に返却される．
+                target.sweep(start + 5000);
+                target.release(mc[1]);
+                assertEquals("1", 2, target.pool.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.allocate(eqContext(context[1], mc[1], null));
+                mc[0].cleanup();
+                mc[1].cleanup();
+            }
+        }.doTest();
+
+        // mc0だけがタイムアウトする．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.sweep(start + 10999);
+                assertEquals("2", 2, target.pool.getFreePoolSize());
+                target.sweep(start + 11000);
+                assertEquals("3", 1, target.pool.getFreePoolSize());
+                assertTrue("4", target.pool.containsFree(mc[1]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.release(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * チェックアウトされたままのコネクションがスイープ時にリークとして検出され，回収されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testReclaimLeakedConnection() throws Exception {
+        createTarget();
+        target.setMinPoolSize(0);
+        target.setMaxPoolSize(2);
+        target.setLeakDetectionThreshold(30 * 1000L);
+        target.setLeakStackSamplingRate(1);
+        target.setReclaimLeakedConnections(true);
+        target.setExpiryEngine(new ExpiryEngine() {
+
+            public void register(Target target) {
+            }
+
+            public void unregister(Target target) {
+            }
+        });
+        target.initialize(mcf, policy);
+        final long now = System.currentTimeMillis();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.allocate(context[1]);
+                target.release(mc[1]);
+                assertNotNull("1", target.checkouts.get(mc[0]).stack);
+                // 閾値が経過していないので検出されない．
+                target.sweep(now + 1000L);
+                assertEquals("2", 0, target.getLeakSuspectCount(now + 1000L));
+                assertEquals("3", 1, target.getLeakSuspectCount(now + 60 * 1000L));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.allocate(eqContext(context[1], mc[1], null));
+                mc[1].cleanup();
+            }
+        }.doTest();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                // チェックアウトされたままのmc0だけが回収される．
+                target.sweep(now + 60 * 1000L);
+                assertEquals("4", 0, target.getActivePoolSize());
+                assertEquals("5", 1, target.getFreePoolSize());
+                assertEquals("6", 0, target.getLeakSuspectCount(now + 60 * 1000L));
+                // 回収したコネクションはチェックアウトの記録から直ちに取り除かれる．
+                assertTrue("7", target.checkouts.isEmpty());
+                assertTrue("8", target.reclaimedConnections.containsKey(mc[0]));
+                // 回収後にアプリケーションがクローズしても後続のポリシーには返されない．
+                target.release(mc[0]);
+                assertTrue("9", target.reclaimedConnections.isEmpty());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.release(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * 回収済みとして記録した直後にアプリケーションがコネクションを返却した場合，返却が優先されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testReleaseDuringReclaim() throws Exception {
+        createTarget();
+        target = new BasicPoolingPolicy(bc) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean markReclaimed(final ManagedConnection mc, final Checkout checkout) {
+                // 回収済みとして記録してからチェックアウトの記録を取り除くまでの間に返却される．
+                reclaimedConnections.put(mc, checkout);
+                try {
+                    release(mc);
+                } catch (final ResourceException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.markReclaimed(mc, checkout);
+            }
+        };
+        target.setMinPoolSize(0);
+        target.setMaxPoolSize(2);
+        target.setLeakDetectionThreshold(30 * 1000L);
+        target.setReclaimLeakedConnections(true);
+        target.setExpiryEngine(new ExpiryEngine() {
+
+            public void register(Target target) {
+            }
+
+            public void unregister(Target target) {
+            }
+        });
+        target.initialize(mcf, policy);
+        final long now = System.currentTimeMillis();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.sweep(now + 60 * 1000L);
+                // 返却されたコネクションはフリープールに戻り，破棄されない．
+                assertEquals("1", 0, target.getActivePoolSize());
+                assertEquals("2", 1, target.getFreePoolSize());
+                assertTrue("3", target.checkouts.isEmpty());
+                assertTrue("4", target.reclaimedConnections.isEmpty());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                mc[0].cleanup();
+            }
+        }.doTest();
+    }
+
+    /**
+     * 寿命が過ぎたコネクションが返却時に破棄され，代わりのコネクションが非同期に作成されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testMaxLifetime() throws Exception {
+        createTarget();
+        target.setMinPoolSize(0);
+        target.setMaxPoolSize(2);
+        target.setMaxLifetime(60 * 1000L);
+        target.initialize(mcf, policy);
+        final WorkManager wm = createStrictMock(WorkManager.class);
+        final Work[] work = new Work[1];
+        final long now = System.currentTimeMillis();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                // 寿命は最大で1/10だけ短縮される．
+                final long retireTime = target.retireTimes.get(mc[0]);
+                assertTrue("1", retireTime > now + 53 * 1000L);
+                assertTrue("2", retireTime <= System.currentTimeMillis() + 60 * 1000L);
+                target.retireTimes.put(mc[0], now);
+                target.release(mc[0]);
+                assertEquals("3", 0, target.pool.size());
+                assertTrue("4", target.retireTimes.isEmpty());
+                assertNotNull("5", work[0]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                mc[0].cleanup();
+                // 寿命が過ぎたコネクションは後続のpolicyに返される．
+                policy.release(mc[0]);
+                expect(bc.getWorkManager()).andReturn(wm);
+                wm.scheduleWork(isA(Work.class));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        work[0] = Work.class.cast(getCurrentArguments()[0]);
+                        return null;
+                    }
+                });
+            }
+        }.doTest();
+
+        // 代わりのコネクションがフリープールに追加される．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                work[0].run();
+                assertEquals("6", 0, target.pool.getActivePoolSize());
+                assertEquals("7", 1, target.pool.getFreePoolSize());
+                assertTrue("8", target.retireTimes.containsKey(mc[1]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(isA(ConnectionManagementContext.class));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        ConnectionManagementContext.class.cast(getCurrentArguments()[0])
+                                .setManagedConnection(mc[1]);
+                        return null;
+                    }
+                });
+            }
+        }.doTest();
+    }
+
+    /**
+     * 初期化時にminPoolSizeまでコネクションが非同期に補充されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testPrefill() throws Exception {
+        createTarget();
+        target.setMinPoolSize(2);
+        target.setMaxPoolSize(3);
+        target.setPrefill(true);
+        final WorkManager wm = createStrictMock(WorkManager.class);
+        final Work[] work = new Work[1];
+
+        // 初期化 (補充がスケジュールされる)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.initialize(mcf, policy);
+                assertNotNull("1", work[0]);
+                assertEquals("2", 0, target.pool.size());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(bc.getWorkManager()).andReturn(wm);
+                wm.scheduleWork(isA(Work.class));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        work[0] = Work.class.cast(getCurrentArguments()[0]);
+                        return null;
+                    }
+                });
+            }
+        }.doTest();
+
+        // 補充 (minPoolSize分のコネクションがフリープールに追加される)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                work[0].run();
+                assertEquals("5", 0, target.pool.getActivePoolSize());
+                assertEquals("6", 2, target.pool.getFreePoolSize());
+                assertFalse("7", target.replenishing.get());
+            }
+
+            @Override
+            public void record() throws Exception {
+                // サブジェクトとコネクション要求情報を持たないコネクションが後続のpolicyから取得される．
+                for (int i = 0; i < 2; ++i) {
+                    final ManagedConnection created = mc[i];
+                    policy.allocate(isA(ConnectionManagementContext.class));
+                    expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                        public Object answer() throws Throwable {
+                            final ConnectionManagementContext context = ConnectionManagementContext.class
+                                    .cast(getCurrentArguments()[0]);
+                            assertNull("3", context.getSubject());
+                            assertNull("4", context.getRequestInfo());
+                            context.setManagedConnection(created);
+                            return null;
+                        }
+                    });
+                }
+            }
+        }.doTest();
+
+        // 補充されたコネクションを取得．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                assertEquals("8", mc[0], context[0].getManagedConnection());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(mcf.matchManagedConnections(set2, null, info)).andReturn(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * キーによるマッチングが有効な場合に，補充されたコネクションがコネクション要求情報を持つ要求とマッチングすることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testPrefillWithKeyedMatching() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.setPrefill(true);
+        target.setKeyedMatching(true);
+        final WorkManager wm = createStrictMock(WorkManager.class);
+        final Work[] work = new Work[1];
+
+        // 初期化 (補充がスケジュールされる)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.initialize(mcf, policy);
+                assertNotNull("1", work[0]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(bc.getWorkManager()).andReturn(wm);
+                wm.scheduleWork(isA(Work.class));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        work[0] = Work.class.cast(getCurrentArguments()[0]);
+                        return null;
+                    }
+                });
+            }
+        }.doTest();
+
+        // 補充 (キーが不明なコネクションとしてフリープールに追加される)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                work[0].run();
+                assertEquals("2", 1, target.pool.getFreePoolSize());
+                assertNull("3", target.pool.getMatchingKey(mc[0]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(isA(ConnectionManagementContext.class));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        ConnectionManagementContext.class.cast(getCurrentArguments()[0])
+                                .setManagedConnection(mc[0]);
+                        return null;
+                    }
+                });
+            }
+        }.doTest();
+
+        // 補充されたコネクションがマッチングされ，以降は要求のキーで索引付けされる．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                assertEquals("4", mc[0], context[0].getManagedConnection());
+                assertEquals("5", new MatchingKey(null, info), target.pool.getMatchingKey(mc[0]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(mcf.matchManagedConnections(set1, null, info)).andReturn(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * コネクションの作成中も他のスレッドがコネクションを返却できることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testCreateOutsideLock() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.initialize(mcf, policy);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        // コネクションを二つ取得するスレッド (二つ目は後続のpolicyでコネクションの作成が止まる)．
+        final Thread bg = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    target.allocate(context[0]);
+                    target.allocate(context[1]);
+                } catch (Exception ignore) {
+                }
+            }
+        };
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                bg.start();
+                assertTrue("1", entered.await(10, TimeUnit.SECONDS));
+                assertEquals("2", 1, target.creatingConnections);
+                // 作成中でもコネクションを返却できる．
+                target.release(mc[0]);
+                assertEquals("3", 1, target.pool.getFreePoolSize());
+                proceed.countDown();
+                bg.join();
+                assertEquals("4", 0, target.creatingConnections);
+                assertEquals("5", 1, target.pool.getActivePoolSize());
+                assertEquals("6", mc[1], context[1].getManagedConnection());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.allocate(eqContext(context[1], mc[1], null));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        entered.countDown();
+                        proceed.await();
+                        return null;
+                    }
+                });
+                mc[0].cleanup();
+            }
+        }.doTest();
+    }
+
+    /**
+     * コネクションプールの統計情報が収集され，MBeanとして公開されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testPoolStatistics() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.seasar.jca:type=ConnectionPool,name=\"test\"");
+        final PoolStatistics statistics = new PoolStatistics("test");
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.setPoolMetrics(statistics);
+        target.initialize(mcf, policy);
+        assertTrue("0", server.isRegistered(name));
+
+        // 新しいコネクションを取得して返却し，フリープールから再取得した後にエラーが発生する．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.release(mc[0]);
+                target.allocate(context[1]);
+                target.connectionErrorOccurred(mc[0]);
+                assertEquals("1", 2L, statistics.getCheckoutCount());
+                assertEquals("2", 1L, statistics.getHitCount());
+                assertEquals("3", 1L, statistics.getMissCount());
+                assertEquals("4", 0.5, statistics.getHitRate());
+                assertEquals("5", 1L, statistics.getCreationCount());
+                assertEquals("6", 1L, statistics.getPurgeCount());
+                assertEquals("7", 1, statistics.getActiveHighWaterMark());
+                assertEquals("8", 0, statistics.getActivePoolSize());
+                assertEquals("9", 1L, server.getAttribute(name, "HitCount"));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                mc[0].cleanup();
+                expect(mcf.matchManagedConnections(set1, null, info)).andReturn(mc[0]);
+                policy.connectionErrorOccurred(mc[0]);
+            }
+        }.doTest();
+
+        // プールを終了するとMBeanの登録が解除される．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.dispose();
+                assertFalse("10", server.isRegistered(name));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.dispose();
+            }
+        }.doTest();
+    }
+
+    /**
+     * フリープールから取り出したコネクションが無効だった場合に，新しいコネクションが割り当てられることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testValidateOnBorrow() throws Exception {
+        final ValidatingMCF vmcf = createStrictMock(ValidatingMCF.class);
+        final ConnectionManagementContext context0 = new ConnectionManagementContext(null, info,
+                vmcf);
+        final ConnectionManagementContext context1 = new ConnectionManagementContext(null, info,
+                vmcf);
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.setValidateOnBorrow(true);
+        target.initialize(vmcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context0);
+                target.release(mc[0]);
+                target.allocate(context1);
+                assertEquals("1", mc[1], context1.getManagedConnection());
+                assertEquals("2", 1, target.pool.getActivePoolSize());
+                assertEquals("3", 0, target.pool.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context0, mc[0], null));
+                mc[0].cleanup();
+                // フリープールのコネクションにマッチするが無効．
+                expect(vmcf.matchManagedConnections(set1, null, info)).andReturn(mc[0]);
+                expect(vmcf.getInvalidConnections(set1)).andReturn(set1);
+                policy.release(mc[0]);
+                // 後続のpolicyから新しいコネクションを取得．
+                policy.allocate(eqContext(context1, mc[1], null));
+            }
+        }.doTest();
+    }
+
+    /**
+     * アイドル状態のコネクションがスイープ時に一つずつ検証され，無効なコネクションが破棄されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testValidateWhileIdle() throws Exception {
+        final ValidatingMCF vmcf = createStrictMock(ValidatingMCF.class);
+        final ConnectionManagementContext context0 = new ConnectionManagementContext(null, info,
+                vmcf);
+        final ConnectionManagementContext context1 = new ConnectionManagementContext(null, info,
+                vmcf);
+        final long now = System.currentTimeMillis();
+        createTarget();
+        target.setMinPoolSize(0);
+        target.setMaxPoolSize(2);
+        target.setValidateWhileIdle(true);
+        target.setValidationInterval(60 * 1000L);
+        target.setValidationBatchSize(1);
+        target.initialize(vmcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context0);
+                target.allocate(context1);
+                target.release(mc[0]);
+                target.release(mc[1]);
+                // 作成されてから検証間隔が経過していないので検証されない．
+                target.sweep(now + 1000L);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context0, mc[0], null));
+                policy.allocate(eqContext(context1, mc[1], null));
+                mc[0].cleanup();
+                mc[1].cleanup();
+            }
+        }.doTest();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.sweep(now + 120 * 1000L);
+                assertEquals("1", 1, target.pool.getFreePoolSize());
+                assertTrue("2", target.pool.containsFree(mc[0]));
+                assertEquals("3", 0, target.validatingConnections);
+                // 検証されてから検証間隔が経過していないので検証されない．
+                target.sweep(now + 121 * 1000L);
+            }
+
+            @Override
+            public void record() throws Exception {
+                // 古い順に一つずつ検証される．
+                expect(vmcf.getInvalidConnections(set1)).andReturn(new HashSet<ManagedConnection>());
+                final Set<ManagedConnection> set = new HashSet<ManagedConnection>();
+                set.add(mc[1]);
+                expect(vmcf.getInvalidConnections(set)).andReturn(set);
+                policy.release(mc[1]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * 検証に成功したコネクションがチェックイン時刻の順序を保ってフリープールに戻されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testValidateWhileIdleKeepsOrder() throws Exception {
+        final ValidatingMCF vmcf = createStrictMock(ValidatingMCF.class);
+        final ConnectionManagementContext context0 = new ConnectionManagementContext(null, info,
+                vmcf);
+        final ConnectionManagementContext context1 = new ConnectionManagementContext(null, info,
+                vmcf);
+        final long now = System.currentTimeMillis();
+        createTarget();
+        target.setMinPoolSize(0);
+        target.setMaxPoolSize(2);
+        target.setValidateWhileIdle(true);
+        target.setValidationInterval(60 * 1000L);
+        target.initialize(vmcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context0);
+                target.allocate(context1);
+                target.release(mc[0]);
+                target.sweep(now + 1000L);
+                target.release(mc[1]);
+                // mc1は最近検証されたので検証されない．
+                target.validatedTimes.put(mc[1], now + 100 * 1000L);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context0, mc[0], null));
+                policy.allocate(eqContext(context1, mc[1], null));
+                mc[0].cleanup();
+                mc[1].cleanup();
+            }
+        }.doTest();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.sweep(now + 120 * 1000L);
+                assertEquals("1", 2, target.pool.getFreePoolSize());
+                // 検証されたmc0はmc1より前に戻されるため，期限切れとして集められる．
+                assertSame("2", mc[0], target.pool.getFreePoolEntries().iterator().next().getKey());
+                final List<ManagedConnection> expired = new ArrayList<ManagedConnection>();
+                BasicPoolingPolicy.collectExpired(target.pool, now + 500L, 2, expired);
+                assertEquals("3", Collections.singletonList(mc[0]), expired);
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(vmcf.getInvalidConnections(set1)).andReturn(new HashSet<ManagedConnection>());
+            }
+        }.doTest();
+    }
+
+    /**
+     * 検証をサポートする{@link ManagedConnectionFactory}です．
+     */
+    public interface ValidatingMCF extends ManagedConnectionFactory,
+            ValidatingManagedConnectionFactory {
+    }
+
 }
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.exception.SResourceAllocationException;
+import org.seasar.jca.outbound.support.ConnectionManagementContext;
+
+import static org.easymock.EasyMock.*;
+
+import static org.seasar.jca.outbound.support.ConnectionManagementContextMatcher.*;
+
+/**
+ * @author koichik
+ */
+public class ConcurrentPoolingPolicyTest extends EasyMockTestCase {
+
+    ConcurrentPoolingPolicy target;
+
+    int status;
+
+    Timer timer;
+
+    BootstrapContext bc;
+
+    ConnectionManagementPolicy policy;
+
+    ManagedConnectionFactory mcf;
+
+    ManagedConnection[] mc = new ManagedConnection[3];
+
+    ConnectionRequestInfo info;
+
+    ConnectionManagementContext context[] = new ConnectionManagementContext[3];
+
+    Set<ManagedConnection> set1;
+
+    Set<ManagedConnection> set2;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        status = 0;
+        timer = new Timer(true);
+
+        bc = createStrictMock(BootstrapContext.class);
+        mcf = createStrictMock(ManagedConnectionFactory.class);
+        info = createStrictMock(ConnectionRequestInfo.class);
+        for (int i = 0; i < 3; ++i) {
+            mc[i] = createStrictMock(ManagedConnection.class);
+            context[i] = new ConnectionManagementContext(null, info, mcf);
+        }
+        policy = createStrictMock(ConnectionManagementPolicy.class);
+
+        set1 = new HashSet<ManagedConnection>();
+        set1.add(mc[0]);
+        set2 = new HashSet<ManagedConnection>();
+        set2.add(mc[0]);
+        set2.add(mc[1]);
+    }
+
+    /**
+     * @throws Exception
+     */
+    protected void createTarget() throws Exception {
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target = new ConcurrentPoolingPolicy(bc);
+                assertNotNull("0", BasicPoolingPolicy.timer);
+            }
+
+            @Override
+            public void record() throws Exception {
+                // 最初の一回だけタイマーが作成される．
+                if (BasicPoolingPolicy.timer == null) {
+                    expect(bc.createTimer()).andReturn(timer);
+                }
+            }
+        }.doTest();
+    }
+
+    /**
+     * ストライプの数がプールの最大値を超えないことのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testStripeSize() throws Exception {
+        createTarget();
+        target.setStripeSize(8);
+        target.setMaxPoolSize(2);
+        target.initialize(mcf, policy);
+        assertEquals("0", 2, target.stripes.length);
+    }
+
+    /**
+     * フリープールからコネクションを取得する場合のテスト．
+     * 
+     * @throws Exception
+     */
+    public void testAcquireFromFreePool() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.initialize(mcf, policy);
+
+        // 二つのコネクションを取得．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.allocate(context[1]);
+                assertEquals("1", 2, target.getActivePoolSize());
+                assertEquals("2", 0, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                // 後続のpolicyからコネクションが取得される．
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.allocate(eqContext(context[1], mc[1], null));
+            }
+        }.doTest();
+
+        // 取得したコネクションを両方ともリリース (同じスレッドのストライプへ)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.release(mc[0]);
+                target.release(mc[1]);
+                assertEquals("3", 0, target.getActivePoolSize());
+                assertEquals("4", 2, target.getFreePoolSize());
+                assertEquals("5", 2, target.getStripe().getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                mc[0].cleanup();
+                mc[1].cleanup();
+            }
+        }.doTest();
+
+        // フリープールからコネクションを取得．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[1].setManagedConnection(null));
+                assertEquals("6", mc[1], context[1].getManagedConnection());
+                assertEquals("7", 1, target.getActivePoolSize());
+                assertEquals("8", 1, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                // フリープールのコネクションとマッチング，mc1が返される．
+                expect(mcf.matchManagedConnections(set2, null, info)).andReturn(mc[1]);
+            }
+        }.doTest();
+
+        // プールを終了．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.dispose();
+                assertEquals("9", 0, target.getActivePoolSize());
+                assertEquals("10", 0, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.release(mc[1]);
+                policy.release(mc[0]);
+                policy.dispose();
+            }
+        }.doTest();
+    }
+
+    /**
+     * プールされているコネクションがmaxPoolSizeに達している場合に
+     * フリープールのコネクションにマッチしないコネクションを取得する場合のテスト．
+     * 
+     * @throws Exception
+     */
+    public void testAcquireNew() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.allocate(context[1]);
+                target.release(mc[0]);
+                target.release(mc[1]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.allocate(eqContext(context[1], mc[1], null));
+                mc[0].cleanup();
+                mc[1].cleanup();
+            }
+        }.doTest();
+
+        // 3番目のコネクション取得 (最初のコネクションをプールから破棄する)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[2]);
+                assertEquals("1", 1, target.getActivePoolSize());
+                assertEquals("2", 1, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                // どれもマッチしない．
+                expect(mcf.matchManagedConnections(set2, null, info)).andReturn(null);
+                // フリープールのコネクションが一つリリースされる．
+                policy.release(mc[0]);
+                // 後続のpolicyから新しいコネクションを取得．
+                policy.allocate(eqContext(context[2], mc[2], null));
+            }
+        }.doTest();
+    }
+
+    /**
+     * アクティブプールがmaxPoolSizeに達している場合のテスト． <br>
+     * 他のスレッドがコネクションを返却するまで待機する．
+     * 
+     * @throws Exception
+     */
+    public void testAcquireFromFull() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.allocate(context[1]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.allocate(eqContext(context[1], mc[1], null));
+            }
+        }.doTest();
+
+        // コネクションをリリースするスレッド．
+        final Thread bg = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(1000);
+                    assertEquals("0", 0, status);
+                    ++status;
+                    target.release(mc[0]);
+                } catch (Exception ignore) {
+                }
+            }
+        };
+
+        // コネクションを取得 (コネクションが返却されるまで待機する)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                bg.start();
+                target.allocate(context[2]);
+                assertEquals("1", 1, status);
+                assertEquals("2", mc[0], context[2].getManagedConnection());
+                assertEquals("3", 2, target.getActivePoolSize());
+                assertEquals("4", 0, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                mc[0].cleanup();
+                expect(mcf.matchManagedConnections(set1, null, info)).andReturn(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * アクティブプールがmaxPoolSizeに達している場合に，blockingTimeoutを経過しても
+     * コネクションが返却されない場合のテスト．
+     * 
+     * @throws Exception
+     */
+    public void testBlockingTimeout() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(1);
+        target.setBlockingTimeout(100);
+        target.setMaxWaitingThreads(1);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+            }
+        }.doTest();
+
+        // コネクションを取得 (タイムアウトする)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                try {
+                    target.allocate(context[1]);
+                    fail("1");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("2", "EJCA1035", expected.getMessageCode());
+                }
+                assertEquals("3", 0, target.waitingCount.get());
+                assertEquals("4", 1, target.getActivePoolSize());
+                assertEquals("5", 0, target.permits.availablePermits());
+            }
+        }.doTest();
+    }
+
+    /**
+     * コネクションにエラーが発生した場合のテスト．
+     * 
+     * @throws Exception
+     */
+    public void testConnectionErrorOccurred() throws Exception {
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(1);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.connectionErrorOccurred(mc[0]);
+                assertEquals("1", 0, target.getActivePoolSize());
+                assertEquals("2", 0, target.getFreePoolSize());
+                assertEquals("3", 1, target.permits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.connectionErrorOccurred(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * フリープールから取り出したコネクションが無効だった場合に，新しいコネクションが割り当てられることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testValidateOnBorrow() throws Exception {
+        final BasicPoolingPolicyTest.ValidatingMCF vmcf = createStrictMock(
+                BasicPoolingPolicyTest.ValidatingMCF.class);
+        final ConnectionManagementContext context0 = new ConnectionManagementContext(null, info,
+                vmcf);
+        final ConnectionManagementContext context1 = new ConnectionManagementContext(null, info,
+                vmcf);
+        createTarget();
+        target.setMinPoolSize(1);
+        target.setMaxPoolSize(2);
+        target.setValidateOnBorrow(true);
+        target.initialize(vmcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context0);
+                target.release(mc[0]);
+                target.allocate(context1);
+                assertEquals("1", mc[1], context1.getManagedConnection());
+                assertEquals("2", 1, target.getActivePoolSize());
+                assertEquals("3", 0, target.getFreePoolSize());
+                assertEquals("4", 1, target.permits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context0, mc[0], null));
+                mc[0].cleanup();
+                // フリープールのコネクションにマッチするが無効．
+                expect(vmcf.matchManagedConnections(set1, null, info)).andReturn(mc[0]);
+                expect(vmcf.getInvalidConnections(set1)).andReturn(set1);
+                policy.release(mc[0]);
+                // 後続のpolicyから新しいコネクションを取得．
+                policy.allocate(eqContext(context1, mc[1], null));
+            }
+        }.doTest();
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.exception.SResourceAllocationException;
+import org.seasar.jca.outbound.support.ConnectionManagementContext;
+
+import static org.easymock.EasyMock.*;
+
+import static org.seasar.jca.outbound.support.ConnectionManagementContextMatcher.*;
+
+/**
+ * @author koichik
+ */
+public class CreationGatePolicyTest extends EasyMockTestCase {
+
+    CreationGatePolicy target;
+
+    ConnectionManagementPolicy policy;
+
+    ManagedConnectionFactory mcf;
+
+    ManagedConnection mc;
+
+    ConnectionRequestInfo info;
+
+    ConnectionManagementContext context;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        policy = createStrictMock(ConnectionManagementPolicy.class);
+        mcf = createStrictMock(ManagedConnectionFactory.class);
+        info = createStrictMock(ConnectionRequestInfo.class);
+        mc = createStrictMock(ManagedConnection.class);
+        context = new ConnectionManagementContext(null, info, mcf);
+        target = new CreationGatePolicy();
+    }
+
+    /**
+     * 作成の失敗が続くとサーキットブレーカが開き，試行が成功すると閉じることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testCircuitBreaker() throws Exception {
+        target.setFailureThreshold(2);
+        target.setOpenTimeout(60 * 1000L);
+        target.initialize(mcf, policy);
+
+        // 2回連続で失敗するとサーキットブレーカが開く．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                for (int i = 0; i < 2; ++i) {
+                    try {
+                        target.allocate(context);
+                        fail("1");
+                    } catch (final ResourceException expected) {
+                        assertFalse("2", expected instanceof SResourceAllocationException);
+                    }
+                }
+                assertEquals("3", CreationGatePolicy.OPEN, target.getState());
+                // 後続のpolicyは呼ばれずに直ちに失敗する．
+                try {
+                    target.allocate(context);
+                    fail("4");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("5", "EJCA1052", expected.getMessageCode());
+                }
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(context);
+                expectLastCall().andThrow(new ResourceException());
+                policy.allocate(context);
+                expectLastCall().andThrow(new ResourceException());
+            }
+        }.doTest();
+
+        // 試行が失敗すると再びサーキットブレーカが開く．
+        target.openedTime -= 60 * 1000L * 1000L * 1000L;
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                try {
+                    target.allocate(context);
+                    fail("6");
+                } catch (final ResourceException expected) {
+                }
+                assertEquals("7", CreationGatePolicy.OPEN, target.getState());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(context);
+                expectLastCall().andThrow(new ResourceException());
+            }
+        }.doTest();
+
+        // 試行が成功するとサーキットブレーカが閉じる．
+        target.openedTime -= 60 * 1000L * 1000L * 1000L;
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context);
+                assertSame("8", mc, context.getManagedConnection());
+                assertEquals("9", CreationGatePolicy.CLOSED, target.getState());
+                assertEquals("10", 0, target.consecutiveFailures);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context, mc, null));
+            }
+        }.doTest();
+    }
+
+    /**
+     * 同時に作成される物理コネクションの数が上限に達している場合にタイムアウトすることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testMaxConcurrentCreations() throws Exception {
+        target.setMaxConcurrentCreations(1);
+        target.setBlockingTimeout(10);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.creationPermits.acquire();
+                try {
+                    target.allocate(context);
+                    fail("1");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("2", "EJCA1035", expected.getMessageCode());
+                }
+                target.creationPermits.release();
+                target.allocate(context);
+                assertEquals("3", 1, target.creationPermits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context, mc, null));
+            }
+        }.doTest();
+    }
+
+    /**
+     * 作成の頻度が上限に達している場合にタイムアウトすることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testMaxCreationRate() throws Exception {
+        target.setMaxCreationRate(1);
+        target.setBlockingTimeout(10);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context);
+                try {
+                    target.allocate(context);
+                    fail("1");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("2", "EJCA1035", expected.getMessageCode());
+                }
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context, mc, null));
+            }
+        }.doTest();
+    }
+
+}
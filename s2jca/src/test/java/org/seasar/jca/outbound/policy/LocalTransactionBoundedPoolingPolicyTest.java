@@ -20,6 +20,7 @@ import java.util.Set;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LazyEnlistableManagedConnection;
 import javax.resource.spi.LocalTransaction;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
@@ -29,6 +30,7 @@ import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 
 import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.outbound.policy.LocalTransactionBoundedPoolingPolicy.LocalTransactionSlots;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
 
 import static org.easymock.EasyMock.*;
@@ -303,6 +305,7 @@ public class LocalTransactionBoundedPoolingPolicyTest extends EasyMockTestCase {
             @Override
             public void replay() throws Exception {
                 target.releaseContext(tx);
+                assertFalse("1", target.pools.containsKey(tx));
             }
 
             @Override
@@ -433,6 +436,7 @@ public class LocalTransactionBoundedPoolingPolicyTest extends EasyMockTestCase {
             @Override
             public void replay() throws Exception {
                 target.releaseContext(tx);
+                assertFalse("1", target.pools.containsKey(tx));
             }
 
             @Override
@@ -443,4 +447,106 @@ public class LocalTransactionBoundedPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
     }
 
+    /**
+     * 実際に使われたコネクションだけがトランザクションに登録されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testLazyEnlistment() throws Exception {
+        final LazyEnlistableMC lazyMc = createStrictMock(LazyEnlistableMC.class);
+        target.setLazyEnlistment(true);
+        target.initialize(mcf, policy);
+
+        // コネクション取得 (enlistResource()は呼ばれない)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                assertEquals("0", 1, LocalTransactionSlots.class.cast(target.pools.get(tx))
+                        .getPendingEnlistmentSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(tm.getTransaction()).andReturn(tx);
+                policy.allocate(eqContext(context[0], lazyMc, null));
+                expect(lazyMc.getConnection(null, info)).andReturn(lch[0]);
+                expect(lazyMc.getLocalTransaction()).andReturn(localTx);
+                // TransactionにSynchronizationが登録される．
+                tx.registerSynchronization(Synchronization.class.cast(anyObject()));
+            }
+        }.doTest();
+
+        // コネクションが使われるとトランザクションに登録される．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                assertTrue("1", target.lazyEnlist(lazyMc));
+                assertFalse("2", target.lazyEnlist(lazyMc));
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(tm.getTransaction()).andReturn(tx);
+                expect(tx.enlistResource(XAResource.class.cast(anyObject()))).andReturn(true);
+                expect(tm.getTransaction()).andReturn(tx);
+            }
+        }.doTest();
+    }
+
+    /**
+     * 使われなかったコネクションはトランザクションに登録されずに解放されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testLazyEnlistmentNotUsed() throws Exception {
+        final LazyEnlistableMC lazyMc = createStrictMock(LazyEnlistableMC.class);
+        target.setLazyEnlistment(true);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(tm.getTransaction()).andReturn(tx);
+                policy.allocate(eqContext(context[0], lazyMc, null));
+                expect(lazyMc.getConnection(null, info)).andReturn(lch[0]);
+                expect(lazyMc.getLocalTransaction()).andReturn(localTx);
+                tx.registerSynchronization(Synchronization.class.cast(anyObject()));
+            }
+        }.doTest();
+
+        // トランザクション完了 (enlistResource()は呼ばれない)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                final LocalTransactionSlots slots = LocalTransactionSlots.class.cast(target.pools
+                        .get(tx));
+                target.releaseContext(tx);
+                assertEquals("0", 0, slots.getPendingEnlistmentSize());
+                assertFalse("1", target.lazyEnlist(lazyMc));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.release(lazyMc);
+                expect(tm.getTransaction()).andReturn(tx);
+            }
+        }.doTest();
+    }
+
+    /**
+     * 遅延登録をサポートするマネージドコネクション．
+     */
+    public interface LazyEnlistableMC extends ManagedConnection, LazyEnlistableManagedConnection {
+    }
+
 }
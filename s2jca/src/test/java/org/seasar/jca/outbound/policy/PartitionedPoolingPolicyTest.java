@@ -0,0 +1,420 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.policy;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.exception.SResourceAllocationException;
+import org.seasar.jca.outbound.support.ConnectionManagementContext;
+import org.seasar.jca.outbound.support.MatchingKey;
+
+import static org.easymock.EasyMock.*;
+
+import static org.seasar.jca.outbound.support.ConnectionManagementContextMatcher.*;
+
+/**
+ * @author koichik
+ */
+public class PartitionedPoolingPolicyTest extends EasyMockTestCase {
+
+    PartitionedPoolingPolicy target;
+
+    Timer timer;
+
+    BootstrapContext bc;
+
+    ConnectionManagementPolicy policy;
+
+    ManagedConnectionFactory mcf;
+
+    ManagedConnection[] mc = new ManagedConnection[3];
+
+    ConnectionRequestInfo info1;
+
+    ConnectionRequestInfo info2;
+
+    Set<ManagedConnection> set;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        timer = new Timer(true);
+
+        bc = createStrictMock(BootstrapContext.class);
+        mcf = createStrictMock(ManagedConnectionFactory.class);
+        info1 = createStrictMock(ConnectionRequestInfo.class);
+        info2 = createStrictMock(ConnectionRequestInfo.class);
+        for (int i = 0; i < 3; ++i) {
+            mc[i] = createStrictMock(ManagedConnection.class);
+        }
+        policy = createStrictMock(ConnectionManagementPolicy.class);
+
+        set = new HashSet<ManagedConnection>();
+        set.add(mc[0]);
+    }
+
+    /**
+     * @throws Exception
+     */
+    protected void createTarget() throws Exception {
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target = new PartitionedPoolingPolicy(bc);
+                target.setPartitionFactory(new PartitionedPoolingPolicy.PartitionFactory() {
+
+                    public BasicPoolingPolicy createPartition(final MatchingKey key)
+                            throws ResourceException {
+                        final BasicPoolingPolicy partition = new BasicPoolingPolicy(bc);
+                        partition.setMinPoolSize(0);
+                        partition.setMaxPoolSize(target.getMaxPoolSize());
+                        return partition;
+                    }
+
+                });
+                BasicPoolingPolicy.createTimer(bc);
+                assertNotNull("0", BasicPoolingPolicy.timer);
+            }
+
+            @Override
+            public void record() throws Exception {
+                // 最初の一回だけタイマーが作成される．
+                if (BasicPoolingPolicy.timer == null) {
+                    expect(bc.createTimer()).andReturn(timer);
+                }
+            }
+        }.doTest();
+    }
+
+    /**
+     * コネクション要求情報ごとにプールが分割されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testPartition() throws Exception {
+        createTarget();
+        target.setMaxPoolSize(3);
+        target.initialize(mcf, policy);
+
+        // info1でコネクションを取得してリリース．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info1, mcf));
+                target.release(mc[0]);
+                assertEquals("0", 1, target.getPartitionCount());
+                assertEquals("1", 1, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info1, mcf), mc[0],
+                        null));
+                mc[0].cleanup();
+            }
+        }.doTest();
+
+        // info2ではinfo1のプールとマッチングせずに新しいコネクションを取得．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info2, mcf));
+                assertEquals("2", 2, target.getPartitionCount());
+                assertEquals("3", 1, target.getActivePoolSize());
+                assertEquals("4", 1, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info2, mcf), mc[1],
+                        null));
+            }
+        }.doTest();
+
+        // info1ではinfo1のプールとマッチング．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                final ConnectionManagementContext context = new ConnectionManagementContext(null,
+                        info1, mcf);
+                target.allocate(context);
+                assertSame("5", mc[0], context.getManagedConnection());
+                assertEquals("6", 2, target.getActivePoolSize());
+                assertEquals("7", 0, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(mcf.matchManagedConnections(set, null, info1)).andReturn(mc[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * 全体の最大値に達している場合に他のプールの未使用コネクションが解放されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testEvictFromOtherPartition() throws Exception {
+        createTarget();
+        target.setMaxPoolSize(2);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info1, mcf));
+                target.release(mc[0]);
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info1, mcf), mc[0],
+                        null));
+                mc[0].cleanup();
+            }
+        }.doTest();
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info2, mcf));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info2, mcf), mc[1],
+                        null));
+            }
+        }.doTest();
+
+        // info2で二つ目のコネクションを取得 (info1のプールのコネクションを破棄する)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info2, mcf));
+                assertEquals("0", 2, target.getActivePoolSize());
+                assertEquals("1", 0, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.release(mc[0]);
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info2, mcf), mc[2],
+                        null));
+            }
+        }.doTest();
+
+        // 解放したコネクションは全体の最大値に数えられない．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.release(mc[1]);
+                assertEquals("2", 1, target.getActivePoolSize());
+                assertEquals("3", 1, target.getFreePoolSize());
+                assertEquals("4", 0, target.permits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+                mc[1].cleanup();
+            }
+        }.doTest();
+    }
+
+    /**
+     * 全体の最大値に達していて未使用コネクションもない場合にタイムアウトすることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testBlockingTimeout() throws Exception {
+        createTarget();
+        target.setMaxPoolSize(1);
+        target.setBlockingTimeout(100);
+        target.initialize(mcf, policy);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info1, mcf));
+                final long start = System.currentTimeMillis();
+                try {
+                    target.allocate(new ConnectionManagementContext(null, info2, mcf));
+                    fail("0");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("1", "EJCA1035", expected.getMessageCode());
+                }
+                assertTrue("2", System.currentTimeMillis() - start >= 100);
+                assertEquals("3", 0, target.permits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info1, mcf), mc[0],
+                        null));
+            }
+        }.doTest();
+    }
+
+    /**
+     * パーティションでは寿命が過ぎたコネクションを破棄しても代わりのコネクションを作成しないことのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testMaxLifetime() throws Exception {
+        createTarget();
+        target.setMaxPoolSize(2);
+        target.setPartitionFactory(new PartitionedPoolingPolicy.PartitionFactory() {
+
+            public BasicPoolingPolicy createPartition(final MatchingKey key)
+                    throws ResourceException {
+                final BasicPoolingPolicy partition = new BasicPoolingPolicy(bc);
+                partition.setMinPoolSize(0);
+                partition.setMaxPoolSize(target.getMaxPoolSize());
+                partition.setMaxLifetime(60 * 1000L);
+                return partition;
+            }
+
+        });
+        target.initialize(mcf, policy);
+
+        // 寿命が過ぎたコネクションは後続のpolicyに返され，代わりのコネクションはスケジュールされない．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info1, mcf));
+                final BasicPoolingPolicy partition = target.partitions.get(new MatchingKey(null,
+                        info1));
+                assertFalse("0", partition.isReplaceRetired());
+                partition.retireTimes.put(mc[0], 0L);
+                target.release(mc[0]);
+                assertEquals("1", 0, target.getActivePoolSize());
+                assertEquals("2", 0, target.getFreePoolSize());
+                assertEquals("3", 2, target.permits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info1, mcf), mc[0],
+                        null));
+                mc[0].cleanup();
+                policy.release(mc[0]);
+            }
+        }.doTest();
+
+        // 所有するパーティションがないコネクションは直ちに解放される．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                try {
+                    target.capPolicy.allocate(new ConnectionManagementContext(null, null, mcf));
+                    fail("4");
+                } catch (final SResourceAllocationException expected) {
+                    assertEquals("5", "EJCA1055", expected.getMessageCode());
+                }
+                assertEquals("6", 2, target.permits.availablePermits());
+                assertFalse("7", target.owners.containsKey(mc[1]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, null, mcf), mc[1],
+                        null));
+                policy.release(mc[1]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * パーティションが回収したコネクションをアプリケーションが返却しても，二重に破棄されないことのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testReclaimLeakedConnection() throws Exception {
+        createTarget();
+        target.setMaxPoolSize(2);
+        target.setPartitionFactory(new PartitionedPoolingPolicy.PartitionFactory() {
+
+            public BasicPoolingPolicy createPartition(final MatchingKey key)
+                    throws ResourceException {
+                final BasicPoolingPolicy partition = new BasicPoolingPolicy(bc);
+                partition.setMinPoolSize(0);
+                partition.setMaxPoolSize(target.getMaxPoolSize());
+                partition.setLeakDetectionThreshold(30 * 1000L);
+                partition.setReclaimLeakedConnections(true);
+                return partition;
+            }
+
+        });
+        target.initialize(mcf, policy);
+        final long now = System.currentTimeMillis();
+
+        // パーティションが回収したコネクションは後続のpolicyに返される．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(new ConnectionManagementContext(null, info1, mcf));
+                target.partitions.get(new MatchingKey(null, info1)).detectLeaks(now + 60 * 1000L);
+                assertEquals("1", 0, target.getActivePoolSize());
+                assertEquals("2", 2, target.permits.availablePermits());
+                assertFalse("3", target.owners.containsKey(mc[0]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(new ConnectionManagementContext(null, info1, mcf), mc[0],
+                        null));
+                policy.release(mc[0]);
+            }
+        }.doTest();
+
+        // 回収後にアプリケーションが返却しても後続のpolicyには返されない．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.release(mc[0]);
+                assertEquals("4", 2, target.permits.availablePermits());
+            }
+
+            @Override
+            public void record() throws Exception {
+            }
+        }.doTest();
+    }
+
+}
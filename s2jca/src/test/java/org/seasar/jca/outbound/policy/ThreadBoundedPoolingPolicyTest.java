@@ -85,9 +85,9 @@ public class ThreadBoundedPoolingPolicyTest extends EasyMockTestCase {
         target.initialize(mcf, policy);
 
         // <code>MethodInterceptor</code>のbeforeで行う処理．
-        final Set<ManagedConnection> before = target.before();
+        final int before = target.before();
         final ManagedConnectionPool<?> pool = target.pools.get();
-        assertEquals("0", 0, before.size());
+        assertEquals("0", 0, before);
         assertEquals("1", 0, pool.getActivePoolSize());
         assertEquals("2", 0, pool.getFreePoolSize());
 
@@ -149,9 +149,9 @@ public class ThreadBoundedPoolingPolicyTest extends EasyMockTestCase {
         target.initialize(mcf, policy);
 
         // 外側のメソッドにおける<code>MethodInterceptor</code>のbeforeで行われる処理．
-        final Set<ManagedConnection> before1 = target.before();
+        final int before1 = target.before();
         final ManagedConnectionPool<?> pool = target.pools.get();
-        assertEquals("0", 0, before1.size());
+        assertEquals("0", 0, before1);
         assertEquals("1", 0, pool.getActivePoolSize());
         assertEquals("2", 0, pool.getFreePoolSize());
 
@@ -185,8 +185,8 @@ public class ThreadBoundedPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
 
         // 内側のメソッドにおける<code>MethodInterceptor</code>のbeforeで行われる処理．
-        final Set<ManagedConnection> before2 = target.before();
-        assertEquals("7", 1, before2.size());
+        final int before2 = target.before();
+        assertEquals("7", 1, before2);
         assertEquals("8", 0, pool.getActivePoolSize());
         assertEquals("9", 1, pool.getFreePoolSize());
 
@@ -261,9 +261,9 @@ public class ThreadBoundedPoolingPolicyTest extends EasyMockTestCase {
         target.initialize(mcf, policy);
 
         // 外側のメソッドにおける<code>MethodInterceptor</code>のbeforeで行われる処理．
-        final Set<ManagedConnection> before1 = target.before();
+        final int before1 = target.before();
         final ManagedConnectionPool<?> pool = target.pools.get();
-        assertEquals("0", 0, before1.size());
+        assertEquals("0", 0, before1);
         assertEquals("1", 0, pool.getActivePoolSize());
         assertEquals("2", 0, pool.getFreePoolSize());
 
@@ -297,8 +297,8 @@ public class ThreadBoundedPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
 
         // 内側のメソッドにおける<code>MethodInterceptor</code>のbeforeで行われる処理．
-        final Set<ManagedConnection> before2 = target.before();
-        assertEquals("7", 1, before2.size());
+        final int before2 = target.before();
+        assertEquals("7", 1, before2);
         assertEquals("8", 0, pool.getActivePoolSize());
         assertEquals("9", 1, pool.getFreePoolSize());
 
@@ -370,4 +370,79 @@ public class ThreadBoundedPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
     }
 
+    /**
+     * コネクションプールをインターセプタの呼び出しスコープに関連づけた場合のテスト． <br>
+     * インターセプタの外で取得したコネクションはスレッドに関連づけられず，
+     * 最も外側のインターセプタの終了時にコネクションプールがスレッドから取り除かれることを確認．
+     * 
+     * @throws Exception
+     */
+    public void testScopeBound() throws Exception {
+        target.setScopeBound(true);
+        target.initialize(mcf, policy);
+
+        // インターセプタの外でのコネクション取得と解放．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[0]);
+                target.release(mc[0]);
+                assertNull("0", target.pools.get());
+            }
+
+            @Override
+            public void record() throws Exception {
+                // 後続のpolicyで直接管理される．
+                policy.allocate(eqContext(context[0], mc[0], null));
+                policy.release(mc[0]);
+            }
+        }.doTest();
+
+        // 外側と内側のメソッドにおける<code>MethodInterceptor</code>のbeforeで行われる処理．
+        final int before1 = target.before();
+        final int before2 = target.before();
+        final ManagedConnectionPool<?> pool = target.pools.get();
+        assertEquals("1", 0, before1);
+        assertEquals("2", 0, before2);
+
+        // コネクション取得と解放 (フリープールへ)．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.allocate(context[1]);
+                target.release(mc[1]);
+                assertEquals("3", 1, pool.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.allocate(eqContext(context[1], mc[1], null));
+            }
+        }.doTest();
+
+        // 内側のメソッドにおける<code>MethodInterceptor</code>のafterで行われる処理．
+        // コネクションが解放されるが，コネクションプールはスレッドに関連づけられたまま．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.after(before2);
+                assertEquals("4", 0, pool.size());
+                assertSame("5", pool, target.pools.get());
+            }
+
+            @Override
+            public void record() throws Exception {
+                policy.release(mc[1]);
+            }
+        }.doTest();
+
+        // 外側のメソッドにおける<code>MethodInterceptor</code>のafterで行われる処理．
+        // コネクションプールがスレッドから取り除かれる．
+        target.after(before1);
+        assertNull("6", target.pools.get());
+    }
+
 }
@@ -29,6 +29,7 @@ import javax.transaction.xa.XAResource;
 
 import org.seasar.framework.unit.EasyMockTestCase;
 import org.seasar.jca.outbound.support.ConnectionManagementContext;
+import org.seasar.jca.outbound.support.ManagedConnectionSlots;
 
 import static org.easymock.EasyMock.*;
 
@@ -296,6 +297,7 @@ public class XATransactionBoundedPoolingPolicyTest extends EasyMockTestCase {
             @Override
             public void replay() throws Exception {
                 target.releaseContext(tx);
+                assertFalse("1", target.pools.containsKey(tx));
             }
 
             @Override
@@ -420,6 +422,7 @@ public class XATransactionBoundedPoolingPolicyTest extends EasyMockTestCase {
             @Override
             public void replay() throws Exception {
                 target.releaseContext(tx);
+                assertFalse("1", target.pools.containsKey(tx));
             }
 
             @Override
@@ -430,4 +433,37 @@ public class XATransactionBoundedPoolingPolicyTest extends EasyMockTestCase {
         }.doTest();
     }
 
+    /**
+     * プールを作成したスレッドでトランザクションが完了した場合だけプールが再利用されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testRecyclePool() throws Exception {
+        target.initialize(mcf, policy);
+
+        // 作成したスレッドで完了したプールは再利用される．
+        final ManagedConnectionSlots pool = target.getPool(tx, true);
+        assertSame("1", Thread.currentThread(), pool.getOwner());
+        target.releaseContext(tx);
+        assertSame("2", pool, target.recycledPools.get());
+        assertSame("3", pool, target.getPool(tx, true));
+        assertNull("4", target.recycledPools.get());
+
+        // 他のスレッドで完了したプールは再利用されない．
+        final ManagedConnectionSlots[] recycled = new ManagedConnectionSlots[1];
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                target.releaseContext(tx);
+                recycled[0] = target.recycledPools.get();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertFalse("5", target.pools.containsKey(tx));
+        assertNull("6", recycled[0]);
+        assertNull("7", target.recycledPools.get());
+    }
+
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.support;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.outbound.policy.ConnectionManagementPolicy;
+
+import static org.easymock.EasyMock.*;
+
+/**
+ * @author koichik
+ */
+public class ManagedConnectionPoolTest extends EasyMockTestCase {
+
+    ManagedConnectionPool<Object> target;
+
+    ConnectionManagementPolicy policy;
+
+    ManagedConnectionFactory mcf;
+
+    ManagedConnection[] mc = new ManagedConnection[3];
+
+    ConnectionRequestInfo info1;
+
+    ConnectionRequestInfo info2;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        policy = createStrictMock(ConnectionManagementPolicy.class);
+        mcf = createStrictMock(ManagedConnectionFactory.class);
+        info1 = createStrictMock(ConnectionRequestInfo.class);
+        info2 = createStrictMock(ConnectionRequestInfo.class);
+        for (int i = 0; i < 3; ++i) {
+            mc[i] = createStrictMock(ManagedConnection.class);
+        }
+        target = new ManagedConnectionPool<Object>(policy, true, true);
+    }
+
+    /**
+     * 要求と同じキーを持つマネージドコネクションだけが照会されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testKeyedMatching() throws Exception {
+        target.addToActivePool(mc[0], null, info1);
+        target.addToActivePool(mc[1], null, info2);
+        target.addToActivePool(mc[2], null, info1);
+        target.moveActiveToFreePool(mc[0]);
+        target.moveActiveToFreePool(mc[1]);
+        target.moveActiveToFreePool(mc[2]);
+
+        final Set<ManagedConnection> candidates = new HashSet<ManagedConnection>();
+        candidates.add(mc[0]);
+        candidates.add(mc[2]);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                assertSame("1", mc[2], target.getMatched(null, info1, mcf));
+                target.moveFreeToActivePool(mc[2]);
+                assertTrue("2", target.containsActive(mc[2]));
+                assertTrue("3", target.keyedFreePool.get(new MatchingKey(null, info1)).contains(mc[0]));
+                assertEquals("4", 2, target.getFreePoolSize());
+                assertEquals("5", new MatchingKey(null, info1), target.getMatchingKey(mc[2]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                // info1で作成されたコネクションだけが候補になる．
+                expect(mcf.matchManagedConnections(candidates, null, info1)).andReturn(mc[2]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * 要求と同じキーを持つマネージドコネクションがない場合，キーが不明なマネージドコネクションが照会されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testUnkeyedFallback() throws Exception {
+        target.addToActivePool(mc[0], null, info2);
+        target.addToFreePool(mc[1]);
+        target.moveActiveToFreePool(mc[0]);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                assertSame("1", mc[1], target.getMatched(null, info1, mcf));
+                assertEquals("2", new MatchingKey(null, info1), target.getMatchingKey(mc[1]));
+                assertNull("3", target.getMatched(null, info1, mcf));
+            }
+
+            @Override
+            public void record() throws Exception {
+                // キーが不明なコネクションだけが候補になる．
+                expect(mcf.matchManagedConnections(Collections.singleton(mc[1]), null, info1))
+                        .andReturn(mc[1]);
+                // 以降はinfo1のキーで索引付けされている．
+                expect(mcf.matchManagedConnections(Collections.singleton(mc[1]), null, info1))
+                        .andReturn(null);
+            }
+        }.doTest();
+    }
+
+    /**
+     * キーによるマッチングが無効な場合はフリープール全体が照会されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testUnkeyed() throws Exception {
+        target = new ManagedConnectionPool<Object>(policy, true);
+        target.addToActivePool(mc[0], null, info1);
+        target.addToActivePool(mc[1], null, info2);
+        target.moveActiveToFreePool(mc[0]);
+        target.moveActiveToFreePool(mc[1]);
+
+        final Set<ManagedConnection> all = new HashSet<ManagedConnection>();
+        all.add(mc[0]);
+        all.add(mc[1]);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                assertSame("1", mc[1], target.getMatched(null, info1, mcf));
+                assertNull("2", target.getMatchingKey(mc[1]));
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(mcf.matchManagedConnections(all, null, info1)).andReturn(mc[1]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * プールから削除されたマネージドコネクションのキーが破棄されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testRemove() throws Exception {
+        target.addToActivePool(mc[0], null, info1);
+        target.moveActiveToFreePool(mc[0], "0");
+        target.addToActivePool(mc[1], null, info1);
+
+        assertTrue("1", target.remove(mc[0]));
+        assertTrue("2", target.remove(mc[1]));
+        assertNull("3", target.getMatchingKey(mc[0]));
+        assertNull("4", target.getMatchingKey(mc[1]));
+        assertTrue("5", target.keys.isEmpty());
+        assertTrue("6", target.keyedFreePool.isEmpty());
+    }
+
+}
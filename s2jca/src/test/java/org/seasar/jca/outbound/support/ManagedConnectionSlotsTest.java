@@ -0,0 +1,144 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.outbound.support;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.outbound.policy.ConnectionManagementPolicy;
+
+import static org.easymock.EasyMock.*;
+
+/**
+ * @author koichik
+ */
+public class ManagedConnectionSlotsTest extends EasyMockTestCase {
+
+    ManagedConnectionSlots target;
+
+    ConnectionManagementPolicy policy;
+
+    ManagedConnectionFactory mcf;
+
+    ManagedConnection[] mc = new ManagedConnection[3];
+
+    ConnectionRequestInfo info;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        policy = createStrictMock(ConnectionManagementPolicy.class);
+        mcf = createStrictMock(ManagedConnectionFactory.class);
+        info = createStrictMock(ConnectionRequestInfo.class);
+        for (int i = 0; i < 3; ++i) {
+            mc[i] = createStrictMock(ManagedConnection.class);
+        }
+        target = new ManagedConnectionSlots(policy);
+    }
+
+    /**
+     * 配列の初期サイズを超えて追加・移動できることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testGrow() throws Exception {
+        target.addToActivePool(mc[0]);
+        target.addToActivePool(mc[1]);
+        target.addToActivePool(mc[2]);
+        assertEquals("1", 3, target.getActivePoolSize());
+
+        assertTrue("2", target.moveActiveToFreePool(mc[1]));
+        assertFalse("3", target.moveActiveToFreePool(mc[1]));
+        assertTrue("4", target.containsActive(mc[0]));
+        assertTrue("5", target.containsActive(mc[2]));
+        assertTrue("6", target.containsFree(mc[1]));
+        assertEquals("7", 3, target.size());
+
+        assertTrue("8", target.remove(mc[0]));
+        assertFalse("9", target.remove(mc[0]));
+        assertEquals("10", 2, target.size());
+    }
+
+    /**
+     * 未使用のコネクションだけが照会されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testGetMatched() throws Exception {
+        target.addToActivePool(mc[0]);
+        target.addToActivePool(mc[1]);
+        target.addToActivePool(mc[2]);
+        target.moveActiveToFreePool(mc[0]);
+        target.moveActiveToFreePool(mc[2]);
+
+        final Set<ManagedConnection> candidates = new HashSet<ManagedConnection>();
+        candidates.add(mc[0]);
+        candidates.add(mc[2]);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                assertSame("1", mc[2], target.getMatched(null, info, mcf));
+                assertTrue("2", target.moveFreeToActivePool(mc[2]));
+                assertFalse("3", target.moveFreeToActivePool(mc[2]));
+                assertEquals("4", 2, target.getActivePoolSize());
+                assertEquals("5", 1, target.getFreePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(mcf.matchManagedConnections(candidates, null, info)).andReturn(mc[2]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * クローズすると全てのコネクションが解放され，再利用できることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testClose() throws Exception {
+        target.addToActivePool(mc[0]);
+        target.addToActivePool(mc[1]);
+        target.moveActiveToFreePool(mc[0]);
+
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.close();
+                assertEquals("1", 0, target.size());
+                assertNull("2", target.getMatched(null, info, mcf));
+                target.addToActivePool(mc[2]);
+                assertEquals("3", 1, target.getActivePoolSize());
+            }
+
+            @Override
+            public void record() throws Exception {
+                // 使用中のコネクション，未使用のコネクションの順に解放される．
+                policy.release(mc[1]);
+                policy.release(mc[0]);
+            }
+        }.doTest();
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkRejectedException;
+
+import junit.framework.TestCase;
+
+/**
+ * @author koichik
+ */
+public class BoundedThreadPoolExecutorTest extends TestCase {
+
+    BoundedThreadPoolExecutor executor;
+
+    WorkManagerImpl workManager;
+
+    CountDownLatch running;
+
+    CountDownLatch finish;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new BoundedThreadPoolExecutor(1, 1);
+        workManager = new WorkManagerImpl(executor);
+        running = new CountDownLatch(1);
+        finish = new CountDownLatch(1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        finish.countDown();
+        workManager.stop();
+        assertTrue("tearDown", executor.awaitTermination(1, TimeUnit.SECONDS));
+        super.tearDown();
+    }
+
+    /**
+     * キューが満杯の場合にデフォルトでは拒否されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testReject() throws Exception {
+        assertEquals("0", WorkManagerImpl.REJECT, executor.getSaturationPolicy());
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+        workManager.scheduleWork(new BlockingWork());
+        assertEquals("2", 1, executor.getQueue().size());
+
+        try {
+            workManager.scheduleWork(new BlockingWork());
+            fail("3");
+        } catch (final WorkRejectedException expected) {
+            assertEquals("4", WorkException.INTERNAL, expected.getErrorCode());
+        }
+    }
+
+    /**
+     * キューが満杯の場合に呼び出し元のスレッドで実行されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testCallerRuns() throws Exception {
+        executor.setSaturationPolicy(WorkManagerImpl.CALLER_RUNS);
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+        workManager.scheduleWork(new BlockingWork());
+
+        final Thread[] thread = new Thread[1];
+        workManager.scheduleWork(new Work() {
+
+            public void run() {
+                thread[0] = Thread.currentThread();
+            }
+
+            public void release() {
+            }
+        });
+        assertSame("2", Thread.currentThread(), thread[0]);
+    }
+
+    /**
+     * キューが満杯の場合に待機してタイムアウトすることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testBlock() throws Exception {
+        executor.setSaturationPolicy(WorkManagerImpl.BLOCK);
+        executor.setBlockingTimeout(100);
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+        workManager.scheduleWork(new BlockingWork());
+
+        final long start = System.currentTimeMillis();
+        try {
+            workManager.scheduleWork(new BlockingWork());
+            fail("2");
+        } catch (final WorkRejectedException expected) {
+        }
+        assertTrue("3", System.currentTimeMillis() - start >= 100);
+
+        finish.countDown();
+        workManager.doWork(new BlockingWork());
+        assertEquals("4", 0, executor.getQueue().size());
+    }
+
+    /**
+     * キューで待機している{@link Work}が開始タイムアウトを経過すると， スレッドが空くのを待たずに破棄されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testExpire() throws Exception {
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+
+        final CountDownLatch expired = new CountDownLatch(1);
+        final WorkEvent[] rejected = new WorkEvent[1];
+        workManager.scheduleWork(new BlockingWork(), 100, new ExecutionContext(),
+                new WorkAdapter() {
+
+                    @Override
+                    public void workRejected(final WorkEvent event) {
+                        rejected[0] = event;
+                        expired.countDown();
+                    }
+                });
+        assertEquals("2", 1, executor.getQueue().size());
+
+        assertTrue("3", expired.await(1, TimeUnit.SECONDS));
+        assertEquals("4", 1, executor.getActiveCount());
+        assertEquals("5", 0, executor.getQueue().size());
+        assertEquals("6", WorkException.START_TIMED_OUT, rejected[0].getException()
+                .getErrorCode());
+    }
+
+    /**
+     * 開始タイムアウトを経過するまで待機している{@link WorkManager#doWork(Work)}が， 破棄された時点で再開することのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testExpireDoWork() throws Exception {
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+
+        final long start = System.currentTimeMillis();
+        workManager.doWork(new BlockingWork(), 100, new ExecutionContext(), null);
+        assertTrue("2", System.currentTimeMillis() - start < 1000);
+        assertEquals("3", 1, executor.getActiveCount());
+    }
+
+    /**
+     */
+    public class BlockingWork implements Work {
+
+        public void run() {
+            running.countDown();
+            try {
+                finish.await();
+            } catch (final InterruptedException ignore) {
+            }
+        }
+
+        public void release() {
+        }
+    }
+
+}
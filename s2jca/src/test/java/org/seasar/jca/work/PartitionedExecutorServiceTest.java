@@ -0,0 +1,239 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+
+import junit.framework.TestCase;
+
+/**
+ * @author koichik
+ */
+public class PartitionedExecutorServiceTest extends TestCase {
+
+    PartitionedExecutorService executor;
+
+    CountDownLatch finish;
+
+    List<String> list = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void tearDown() throws Exception {
+        finish.countDown();
+        executor.shutdown();
+        assertTrue("tearDown", executor.awaitTermination(1, TimeUnit.SECONDS));
+        super.tearDown();
+    }
+
+    /**
+     * パーティションごとに同時に実行される{@link Work}の数が制限されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testMaxThreads() throws Exception {
+        executor = new PartitionedExecutorService(4);
+        finish = new CountDownLatch(1);
+        final PartitionedExecutorService.Partition a = executor.createPartition("a", 1, 1);
+        final PartitionedExecutorService.Partition b = executor.createPartition("b", 1, 2);
+        assertEquals("1", 2, executor.getPartitionCount());
+        assertSame("2", a, executor.getPartition("a"));
+
+        final WorkManagerImpl wmA = new WorkManagerImpl(a);
+        final CountDownLatch runningA = new CountDownLatch(1);
+        for (int i = 0; i < 3; ++i) {
+            wmA.scheduleWork(new BlockingWork("a", runningA));
+        }
+        assertTrue("3", runningA.await(1, TimeUnit.SECONDS));
+
+        final WorkManagerImpl wmB = new WorkManagerImpl(b);
+        final CountDownLatch runningB = new CountDownLatch(2);
+        wmB.scheduleWork(new BlockingWork("b", runningB));
+        wmB.scheduleWork(new BlockingWork("b", runningB));
+        assertTrue("4", runningB.await(1, TimeUnit.SECONDS));
+
+        assertEquals("5", 1, a.getActiveThreads());
+        assertEquals("6", 2, a.getQueueSize());
+        assertEquals("7", 2, b.getActiveThreads());
+        assertEquals("8", 0, b.getQueueSize());
+    }
+
+    /**
+     * 空いたスレッドがパーティションの重みに従って割り当てられることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testWeightedFair() throws Exception {
+        executor = new PartitionedExecutorService(1);
+        finish = new CountDownLatch(1);
+        final WorkManagerImpl wmA = new WorkManagerImpl(executor.createPartition("a", 3, 1));
+        final WorkManagerImpl wmB = new WorkManagerImpl(executor.createPartition("b", 1, 1));
+
+        final CountDownLatch running = new CountDownLatch(1);
+        wmA.scheduleWork(new BlockingWork("gate", running));
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 8; ++i) {
+            wmA.scheduleWork(new BlockingWork("a", null));
+            wmB.scheduleWork(new BlockingWork("b", null));
+        }
+        finish.countDown();
+        executor.shutdown();
+        assertTrue("2", executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertEquals("3", 17, list.size());
+        assertEquals("4", "gate", list.get(0));
+        int count = 0;
+        for (final String name : list.subList(1, 9)) {
+            if ("a".equals(name)) {
+                ++count;
+            }
+        }
+        assertEquals("5", 6, count);
+    }
+
+    /**
+     * 終了したパーティションがスケジューリングの対象から外れることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testShutdownPartition() throws Exception {
+        executor = new PartitionedExecutorService(2);
+        finish = new CountDownLatch(1);
+        final PartitionedExecutorService.Partition a = executor.createPartition("a", 1, 2);
+        final PartitionedExecutorService.Partition b = executor.createPartition("b", 1, 2);
+        final WorkManagerImpl wmA = new WorkManagerImpl(a);
+        final CountDownLatch running = new CountDownLatch(1);
+        wmA.scheduleWork(new BlockingWork("a", running));
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+
+        wmA.stop();
+        assertEquals("2", 2, executor.getPartitionCount());
+        try {
+            a.execute(new BlockingWork("a", null));
+            fail("3");
+        } catch (final RejectedExecutionException expected) {
+        }
+        finish.countDown();
+        assertTrue("4", a.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals("5", 1, executor.getPartitionCount());
+        assertNull("6", executor.getPartition("a"));
+
+        new WorkManagerImpl(b).doWork(new BlockingWork("b", null));
+        assertEquals("7", "b", list.get(1));
+    }
+
+    /**
+     * タスクが{@link Error}をスローしてもスレッドが失われないことのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testTaskThrowsError() throws Exception {
+        executor = new PartitionedExecutorService(1);
+        finish = new CountDownLatch(1);
+        final PartitionedExecutorService.Partition a = executor.createPartition("a", 1, 1);
+        a.execute(new Runnable() {
+
+            public void run() {
+                throw new AssertionError("expected");
+            }
+        });
+
+        final CountDownLatch running = new CountDownLatch(1);
+        a.execute(new Runnable() {
+
+            public void run() {
+                running.countDown();
+            }
+        });
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * パーティションのキューで待機している{@link Work}が開始タイムアウトを経過すると破棄されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testExpire() throws Exception {
+        executor = new PartitionedExecutorService(1);
+        finish = new CountDownLatch(1);
+        final PartitionedExecutorService.Partition a = executor.createPartition("a", 1, 1);
+        final WorkManagerImpl wmA = new WorkManagerImpl(a);
+        final CountDownLatch running = new CountDownLatch(1);
+        wmA.scheduleWork(new BlockingWork("a", running));
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+
+        final CountDownLatch expired = new CountDownLatch(1);
+        final WorkEvent[] rejected = new WorkEvent[1];
+        wmA.scheduleWork(new BlockingWork("a", null), 100, new ExecutionContext(),
+                new WorkAdapter() {
+
+                    @Override
+                    public void workRejected(final WorkEvent event) {
+                        rejected[0] = event;
+                        expired.countDown();
+                    }
+                });
+        assertTrue("2", expired.await(1, TimeUnit.SECONDS));
+        assertEquals("3", 0, a.getQueueSize());
+        assertEquals("4", WorkException.START_TIMED_OUT, rejected[0].getException()
+                .getErrorCode());
+        wmA.stop();
+    }
+
+    /**
+     */
+    public class BlockingWork implements Work {
+
+        String name;
+
+        CountDownLatch running;
+
+        /**
+         * @param name
+         * @param running
+         */
+        public BlockingWork(String name, CountDownLatch running) {
+            this.name = name;
+            this.running = running;
+        }
+
+        public void run() {
+            list.add(name);
+            if (running == null) {
+                return;
+            }
+            running.countDown();
+            try {
+                finish.await();
+            } catch (final InterruptedException ignore) {
+            }
+        }
+
+        public void release() {
+        }
+    }
+
+}
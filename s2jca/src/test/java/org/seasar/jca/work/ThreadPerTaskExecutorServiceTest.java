@@ -0,0 +1,152 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkRejectedException;
+
+import junit.framework.TestCase;
+
+/**
+ * @author koichik
+ */
+public class ThreadPerTaskExecutorServiceTest extends TestCase {
+
+    ThreadPerTaskExecutorService executor;
+
+    WorkManagerImpl workManager;
+
+    CountDownLatch running;
+
+    CountDownLatch finish;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new ThreadPerTaskExecutorService(1);
+        workManager = new WorkManagerImpl(executor);
+        running = new CountDownLatch(1);
+        finish = new CountDownLatch(1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        finish.countDown();
+        workManager.stop();
+        assertTrue("tearDown", executor.awaitTermination(1, TimeUnit.SECONDS));
+        super.tearDown();
+    }
+
+    /**
+     * 同時実行数の上限に達している場合に拒否されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testReject() throws Exception {
+        executor.setSaturationPolicy(WorkManagerImpl.REJECT);
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+        assertEquals("2", 1, executor.getRunningTasks());
+
+        final WorkEvent[] rejected = new WorkEvent[1];
+        try {
+            workManager.scheduleWork(new BlockingWork(), WorkManager.INDEFINITE,
+                    new ExecutionContext(), new WorkAdapter() {
+
+                        @Override
+                        public void workRejected(final WorkEvent event) {
+                            rejected[0] = event;
+                        }
+                    });
+            fail("3");
+        } catch (final WorkRejectedException expected) {
+        }
+        assertNotNull("4", rejected[0]);
+        assertTrue("5", rejected[0].getException() instanceof WorkRejectedException);
+    }
+
+    /**
+     * 同時実行数の上限に達している場合に呼び出し元のスレッドで実行されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testCallerRuns() throws Exception {
+        executor.setSaturationPolicy(WorkManagerImpl.CALLER_RUNS);
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+
+        final Thread[] thread = new Thread[1];
+        workManager.scheduleWork(new Work() {
+
+            public void run() {
+                thread[0] = Thread.currentThread();
+            }
+
+            public void release() {
+            }
+        });
+        assertSame("2", Thread.currentThread(), thread[0]);
+    }
+
+    /**
+     * 同時実行数の上限に達している場合に待機してタイムアウトすることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testBlock() throws Exception {
+        executor.setBlockingTimeout(100);
+        workManager.scheduleWork(new BlockingWork());
+        assertTrue("1", running.await(1, TimeUnit.SECONDS));
+
+        final long start = System.currentTimeMillis();
+        try {
+            workManager.scheduleWork(new BlockingWork());
+            fail("2");
+        } catch (final WorkRejectedException expected) {
+        }
+        assertTrue("3", System.currentTimeMillis() - start >= 100);
+
+        finish.countDown();
+        workManager.doWork(new BlockingWork());
+        executor.shutdown();
+        assertTrue("4", executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals("5", 0, executor.getRunningTasks());
+    }
+
+    /**
+     */
+    public class BlockingWork implements Work {
+
+        public void run() {
+            running.countDown();
+            try {
+                finish.await();
+            } catch (final InterruptedException ignore) {
+            }
+        }
+
+        public void release() {
+        }
+    }
+
+}
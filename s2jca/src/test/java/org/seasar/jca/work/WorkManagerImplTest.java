@@ -15,17 +15,24 @@
  */
 package org.seasar.jca.work;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.resource.spi.work.ExecutionContext;
 import javax.resource.spi.work.Work;
 import javax.resource.spi.work.WorkCompletedException;
 import javax.resource.spi.work.WorkEvent;
 import javax.resource.spi.work.WorkListener;
 import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkRejectedException;
+import javax.transaction.xa.Xid;
 
 import junit.framework.TestCase;
 
@@ -94,12 +101,38 @@ public class WorkManagerImplTest extends TestCase {
         list.add("end");
         sleep(200);
 
+        // Workは呼び出し元に戻る前に実行されることもあるので，"end"の位置は検証しない．
         assertEquals("1", 5, list.size());
         assertEquals("2", "accepted", list.get(0));
-        assertEquals("3", "end", list.get(1));
-        assertEquals("4", "started", list.get(2));
-        assertEquals("5", "run", list.get(3));
-        assertEquals("6", "completed", list.get(4));
+        assertTrue("3", list.indexOf("started") < list.indexOf("run"));
+        assertTrue("4", list.indexOf("run") < list.indexOf("completed"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    public void testScheduleWorkWithoutListener() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        workManager.scheduleWork(new TestWork() {
+
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException ignore) {
+                }
+                super.run();
+                done.countDown();
+            }
+        });
+        list.add("end");
+        latch.countDown();
+        assertTrue("0", done.await(10, TimeUnit.SECONDS));
+
+        assertEquals("1", 2, list.size());
+        assertEquals("2", "end", list.get(0));
+        assertEquals("3", "run", list.get(1));
     }
 
     /**
@@ -162,6 +195,88 @@ public class WorkManagerImplTest extends TestCase {
         assertEquals("6", "end", list.get(4));
     }
 
+    /**
+     * ワークマネージャの統計情報が収集され，MBeanとして公開されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testWorkStatistics() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.seasar.jca:type=WorkManager,name=\"test\"");
+        final WorkStatistics statistics = new WorkStatistics("test");
+        workManager.setWorkMetrics(statistics);
+        assertTrue("0", server.isRegistered(name));
+
+        workManager.doWork(new TestWork());
+        workManager.doWork(new TestWork() {
+
+            @Override
+            public void run() {
+                throw new RuntimeException();
+            }
+        });
+        workManager.doWork(new TestWork(), 100, new ExecutionContext(), new TestWorkListener() {
+
+            @Override
+            public void workAccepted(WorkEvent event) {
+                super.workAccepted(event);
+                sleep(200);
+            }
+        });
+
+        assertEquals("1", 3L, statistics.getAcceptedCount());
+        assertEquals("2", 2L, statistics.getStartedCount());
+        assertEquals("3", 2L, statistics.getCompletedCount());
+        assertEquals("4", 1L, statistics.getFailureCount());
+        assertEquals("5", 1L, statistics.getStartTimeoutCount());
+        assertEquals("6", 0L, statistics.getRejectionCount());
+        assertEquals("7", 0, statistics.getQueueDepth());
+        assertEquals("8", 0, statistics.getActiveCount());
+        assertEquals("9", 1, statistics.getActiveHighWaterMark());
+        assertTrue("10", statistics.getMaxRunTime() >= 100.0);
+        assertEquals("11", 2L, server.getAttribute(name, "CompletedCount"));
+
+        workManager.stop();
+        assertFalse("12", server.isRegistered(name));
+    }
+
+    /**
+     * トランザクションのインポートに失敗したWorkが失敗として完了に計上されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testWorkStatisticsWithImportFailure() throws Exception {
+        final WorkStatistics statistics = new WorkStatistics("import");
+        workManager.setWorkMetrics(statistics);
+        workManager.setXATerminator(new XATerminatorImpl(null) {
+
+            @Override
+            public ImportedTransaction associate(final Xid xid, final long timeout)
+                    throws WorkCompletedException {
+                throw newWorkCompletedException(WorkException.TX_RECREATE_FAILED, null);
+            }
+        });
+        final ExecutionContext context = new ExecutionContext();
+        context.setXid(new XATerminatorImplTest.TestXid(1));
+
+        workManager.doWork(new TestWork(), WorkManager.INDEFINITE, context, new TestWorkListener() {
+
+            @Override
+            public void workCompleted(WorkEvent event) {
+                super.workCompleted(event);
+                assertEquals("A", WorkException.TX_RECREATE_FAILED, event.getException()
+                        .getErrorCode());
+            }
+        });
+
+        assertEquals("1", 3, list.size());
+        assertEquals("2", "completed", list.get(2));
+        assertEquals("3", 1L, statistics.getStartedCount());
+        assertEquals("4", 1L, statistics.getCompletedCount());
+        assertEquals("5", 1L, statistics.getFailureCount());
+        assertEquals("6", 0, statistics.getActiveCount());
+    }
+
     /**
      * @param millis
      */
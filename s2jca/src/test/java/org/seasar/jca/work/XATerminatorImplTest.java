@@ -0,0 +1,333 @@
+/*
+ * Copyright 2004-2011 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.seasar.jca.work;
+
+import javax.resource.spi.work.WorkCompletedException;
+import javax.resource.spi.work.WorkException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.easymock.IAnswer;
+import org.seasar.framework.unit.EasyMockTestCase;
+import org.seasar.jca.work.XATerminatorImpl.ImportedTransaction;
+
+import static org.easymock.EasyMock.*;
+
+/**
+ * @author koichik
+ */
+public class XATerminatorImplTest extends EasyMockTestCase {
+
+    XATerminatorImpl target;
+
+    TransactionManager tm;
+
+    Transaction[] tx = new Transaction[2];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tm = createStrictMock(TransactionManager.class);
+        for (int i = 0; i < 2; ++i) {
+            tx[i] = createStrictMock(Transaction.class);
+        }
+        target = new XATerminatorImpl(tm);
+    }
+
+    /**
+     * インポートしたトランザクションを1フェーズでコミットするテスト．
+     * 
+     * @throws Exception
+     */
+    public void testOnePhaseCommit() throws Exception {
+        // Xidに対応するトランザクションを開始して，Workの終了後に切り離す．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                final ImportedTransaction imported = target.associate(new TestXid(1), -1);
+                assertSame("1", tx[0], imported.getTransaction());
+                target.dissociate(imported);
+                assertEquals("2", 1, target.getTransactionCount());
+            }
+
+            @Override
+            public void record() throws Exception {
+                tm.begin();
+                expect(tm.getTransaction()).andReturn(tx[0]);
+                tx[0].registerSynchronization(isA(Synchronization.class));
+                expect(tm.suspend()).andReturn(tx[0]);
+            }
+        }.doTest();
+
+        // 別のXidインスタンスで同じトランザクションを再開する．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                final ImportedTransaction imported = target.associate(new TestXid(1), -1);
+                assertSame("3", tx[0], imported.getTransaction());
+                target.dissociate(imported);
+            }
+
+            @Override
+            public void record() throws Exception {
+                tm.resume(tx[0]);
+                expect(tm.suspend()).andReturn(tx[0]);
+            }
+        }.doTest();
+
+        // 準備フェーズなしでコミットする．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.commit(new TestXid(1), true);
+                assertEquals("4", 0, target.getTransactionCount());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(tm.suspend()).andReturn(null);
+                tm.resume(tx[0]);
+                tm.commit();
+            }
+        }.doTest();
+    }
+
+    /**
+     * 準備フェーズが拒否され，トランザクションは準備されないまま残ることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testPrepareNotSupported() throws Exception {
+        // 準備は拒否され，2フェーズのコミットやforgetも拒否される．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.dissociate(target.associate(new TestXid(1), -1));
+                try {
+                    target.prepare(new TestXid(1));
+                    fail("1");
+                } catch (final XAException expected) {
+                    assertEquals("2", XAException.XAER_RMERR, expected.errorCode);
+                }
+                try {
+                    target.commit(new TestXid(1), false);
+                    fail("3");
+                } catch (final XAException expected) {
+                    assertEquals("4", XAException.XAER_PROTO, expected.errorCode);
+                }
+                try {
+                    target.forget(new TestXid(1));
+                    fail("5");
+                } catch (final XAException expected) {
+                    assertEquals("6", XAException.XAER_PROTO, expected.errorCode);
+                }
+                assertEquals("7", 0, target.recover(XAResource.TMSTARTRSCAN
+                        | XAResource.TMENDRSCAN).length);
+                assertEquals("8", 1, target.getTransactionCount());
+            }
+
+            @Override
+            public void record() throws Exception {
+                tm.begin();
+                expect(tm.getTransaction()).andReturn(tx[0]);
+                tx[0].registerSynchronization(isA(Synchronization.class));
+                expect(tm.suspend()).andReturn(tx[0]);
+                expect(tx[0].getStatus()).andReturn(Status.STATUS_ACTIVE);
+            }
+        }.doTest();
+
+        // 準備されなかったトランザクションはロールバックできる．
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.rollback(new TestXid(1));
+                assertEquals("9", 0, target.getTransactionCount());
+            }
+
+            @Override
+            public void record() throws Exception {
+                expect(tm.suspend()).andReturn(null);
+                tm.resume(tx[0]);
+                tm.rollback();
+            }
+        }.doTest();
+    }
+
+    /**
+     * 不正な状態のトランザクションに対する操作が拒否されることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testIllegalState() throws Exception {
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                final ImportedTransaction imported = target.associate(new TestXid(1), -1);
+                try {
+                    target.associate(new TestXid(1), -1);
+                    fail("1");
+                } catch (final WorkCompletedException expected) {
+                    assertEquals("2", WorkException.TX_CONCURRENT_WORK_DISALLOWED, expected
+                            .getErrorCode());
+                }
+                try {
+                    target.commit(new TestXid(1), true);
+                    fail("3");
+                } catch (final XAException expected) {
+                    assertEquals("4", XAException.XAER_PROTO, expected.errorCode);
+                }
+                try {
+                    target.commit(new TestXid(2), true);
+                    fail("5");
+                } catch (final XAException expected) {
+                    assertEquals("6", XAException.XAER_NOTA, expected.errorCode);
+                }
+                target.dissociate(imported);
+                try {
+                    target.commit(new TestXid(1), false);
+                    fail("7");
+                } catch (final XAException expected) {
+                    assertEquals("8", XAException.XAER_PROTO, expected.errorCode);
+                }
+            }
+
+            @Override
+            public void record() throws Exception {
+                tm.begin();
+                expect(tm.getTransaction()).andReturn(tx[0]);
+                tx[0].registerSynchronization(isA(Synchronization.class));
+                expect(tm.suspend()).andReturn(tx[0]);
+            }
+        }.doTest();
+    }
+
+    /**
+     * ロールバックのみに設定されたトランザクションの準備がロールバックになることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testPrepareMarkedRollback() throws Exception {
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.dissociate(target.associate(new TestXid(1), -1));
+                try {
+                    target.prepare(new TestXid(1));
+                    fail("1");
+                } catch (final XAException expected) {
+                    assertEquals("2", XAException.XA_RBROLLBACK, expected.errorCode);
+                }
+                assertEquals("3", 0, target.getTransactionCount());
+            }
+
+            @Override
+            public void record() throws Exception {
+                tm.begin();
+                expect(tm.getTransaction()).andReturn(tx[0]);
+                tx[0].registerSynchronization(isA(Synchronization.class));
+                expect(tm.suspend()).andReturn(tx[0]);
+                expect(tx[0].getStatus()).andReturn(Status.STATUS_MARKED_ROLLBACK);
+                expect(tm.suspend()).andReturn(null);
+                tm.resume(tx[0]);
+                tm.rollback();
+            }
+        }.doTest();
+    }
+
+    /**
+     * EISが完了させないままロールバックされたトランザクションがXidとの対応から取り除かれることのテスト．
+     * 
+     * @throws Exception
+     */
+    public void testTimeoutRollback() throws Exception {
+        final Synchronization[] sync = new Synchronization[1];
+        new Subsequence() {
+
+            @Override
+            public void replay() throws Exception {
+                target.dissociate(target.associate(new TestXid(1), 10));
+                assertEquals("1", 1, target.getTransactionCount());
+            }
+
+            @Override
+            public void record() throws Exception {
+                tm.setTransactionTimeout(10);
+                tm.begin();
+                tm.setTransactionTimeout(0);
+                expect(tm.getTransaction()).andReturn(tx[0]);
+                tx[0].registerSynchronization(isA(Synchronization.class));
+                expectLastCall().andAnswer(new IAnswer<Object>() {
+
+                    public Object answer() throws Throwable {
+                        sync[0] = Synchronization.class.cast(getCurrentArguments()[0]);
+                        return null;
+                    }
+                });
+                expect(tm.suspend()).andReturn(tx[0]);
+            }
+        }.doTest();
+
+        // トランザクションマネージャがタイムアウトでロールバックする．
+        sync[0].afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertEquals("2", 0, target.getTransactionCount());
+        try {
+            target.rollback(new TestXid(1));
+            fail("3");
+        } catch (final XAException expected) {
+            assertEquals("4", XAException.XAER_NOTA, expected.errorCode);
+        }
+    }
+
+    /**
+     * equals()とhashCode()を実装していない{@link Xid}です．
+     */
+    public static class TestXid implements Xid {
+
+        int id;
+
+        /**
+         * @param id
+         */
+        public TestXid(int id) {
+            this.id = id;
+        }
+
+        public int getFormatId() {
+            return 0x5345;
+        }
+
+        public byte[] getGlobalTransactionId() {
+            return new byte[] { (byte) id };
+        }
+
+        public byte[] getBranchQualifier() {
+            return new byte[] { 0 };
+        }
+    }
+
+}